@@ -0,0 +1,329 @@
+package ime.controller;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.InputMismatchException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ime.model.ExtendedImageProcessor;
+import ime.model.ExtendedImageProcessorImpl;
+
+/**
+ * The BatchRunner class applies a script template to every file of a directory.
+ *
+ * <p>The template is an ordinary script in which the following placeholders are replaced for
+ * every file: {@value #INPUT} by the path of the input file, {@value #OUTPUT} by the path of the
+ * output file with the same file name in the output directory, {@value #NAME} by the file name
+ * without its extension and {@value #OUTPUT_DIR} by the output directory. Every file gets its own
+ * image namespace, which is dropped as soon as the file is done.</p>
+ *
+ * <p>Files go through three stages, each with its own worker threads: decode runs the leading
+ * load commands of the template, encode runs the trailing save commands and process runs the
+ * commands in between. The stages are connected by bounded queues, so a fast stage blocks once
+ * the next one falls behind and only a bounded number of files is held in memory. A file whose
+ * command fails is reported and skips its remaining stages, without stopping the other files.
+ * At the end a summary of the throughput and the latency percentiles per file is printed.</p>
+ */
+public class BatchRunner {
+
+  /**
+   * The placeholder of the input file path.
+   */
+  public static final String INPUT = ScriptTemplate.INPUT;
+
+  /**
+   * The placeholder of the output file path.
+   */
+  public static final String OUTPUT = ScriptTemplate.OUTPUT;
+
+  /**
+   * The placeholder of the input file name without its extension.
+   */
+  public static final String NAME = ScriptTemplate.NAME;
+
+  /**
+   * The placeholder of the output directory.
+   */
+  public static final String OUTPUT_DIR = ScriptTemplate.OUTPUT_DIR;
+
+  private static final Job END = new Job(null, null);
+
+  private final List<String[]> decodeLines;
+  private final List<String[]> processLines;
+  private final List<String[]> encodeLines;
+  private final int threads;
+  private final ScriptTemplate template;
+
+  /**
+   * Constructs a batch runner for a script template.
+   *
+   * @param template The lines of the script template.
+   * @param threads  The number of worker threads of every stage.
+   * @throws IllegalArgumentException If the number of threads is not positive.
+   * @throws InputMismatchException   If a line of the template is not a command.
+   */
+  public BatchRunner(List<String> template, int threads) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("Number of threads must be positive.");
+    }
+    this.threads = threads;
+    this.template = new ScriptTemplate(template);
+
+    List<String[]> lines = this.template.getLines();
+
+    int first = 0;
+    while (first < lines.size() && lines.get(first)[0].equals("load")) {
+      first++;
+    }
+    int last = lines.size();
+    while (last > first && lines.get(last - 1)[0].equals("save")) {
+      last--;
+    }
+    this.decodeLines = lines.subList(0, first);
+    this.processLines = lines.subList(first, last);
+    this.encodeLines = lines.subList(last, lines.size());
+  }
+
+  /**
+   * Applies the template to every regular file of the input directory, in file name order.
+   *
+   * @param inputDir  The directory holding the input files.
+   * @param outputDir The directory receiving the output files, created if missing.
+   * @param out       The destination of failures and of the summary.
+   * @return The report of the run.
+   * @throws IOException If a directory cannot be read or created, or the output fails.
+   */
+  public BatchReport run(Path inputDir, Path outputDir, Appendable out) throws IOException {
+    Files.createDirectories(outputDir);
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(inputDir)) {
+      for (Path file : stream) {
+        if (Files.isRegularFile(file)) {
+          files.add(file);
+        }
+      }
+    }
+    Collections.sort(files);
+
+    BlockingQueue<Job> decoded = new ArrayBlockingQueue<>(threads);
+    BlockingQueue<Job> processed = new ArrayBlockingQueue<>(threads);
+    BlockingQueue<Job> fileQueue = new ArrayBlockingQueue<>(threads);
+    List<Job> finished = Collections.synchronizedList(new ArrayList<>());
+
+    long start = System.nanoTime();
+    List<Thread> workers = new ArrayList<>();
+    workers.addAll(this.startStage("decode", decodeLines, fileQueue, decoded, null, out));
+    workers.addAll(this.startStage("process", processLines, decoded, processed, null, out));
+    workers.addAll(this.startStage("encode", encodeLines, processed, null, finished, out));
+
+    try {
+      for (Path file : files) {
+        fileQueue.put(new Job(file, outputDir));
+      }
+      for (int k = 0; k < threads; k++) {
+        fileQueue.put(END);
+      }
+      for (Thread worker : workers) {
+        worker.join();
+      }
+    } catch (InterruptedException e) {
+      for (Thread worker : workers) {
+        worker.interrupt();
+      }
+      Thread.currentThread().interrupt();
+      throw new IOException("Batch run interrupted.", e);
+    }
+
+    BatchReport report = new BatchReport(finished, System.nanoTime() - start);
+    out.append(report.toString()).append("\n");
+    return report;
+  }
+
+  /**
+   * Starts the workers of a stage. Every worker takes jobs from its input queue, runs the lines
+   * of the stage unless the job already failed, and hands the job to the next stage. The last
+   * worker to stop, even on an error, passes the end on to the next stage.
+   */
+  private List<Thread> startStage(String stage, List<String[]> lines, BlockingQueue<Job> input,
+                                  BlockingQueue<Job> output, List<Job> finished,
+                                  Appendable out) {
+    AtomicInteger running = new AtomicInteger(threads);
+    List<Thread> workers = new ArrayList<>();
+    for (int k = 0; k < threads; k++) {
+      Thread worker = new Thread(() -> {
+        try {
+          while (true) {
+            Job job = input.take();
+            if (job == END) {
+              break;
+            }
+            if (job.processor == null) {
+              job.start = System.nanoTime();
+              job.processor = new ExtendedImageProcessorImpl();
+            }
+            if (job.failure == null) {
+              try {
+                job.failure = template.run(lines, job.file, job.outputDir, job.processor);
+              } catch (Throwable e) {
+                // An error such as running out of memory fails the file, not the worker.
+                job.failure = e.toString();
+              }
+            }
+            if (output != null) {
+              output.put(job);
+            } else {
+              this.finish(job, finished, out);
+            }
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } finally {
+          if (running.decrementAndGet() == 0 && output != null) {
+            this.passEnd(output);
+          }
+        }
+      }, "batch-" + stage + "-" + k);
+      workers.add(worker);
+      worker.start();
+    }
+    return workers;
+  }
+
+  /**
+   * Passes the end of the input on to the next stage, once for each of its workers.
+   */
+  private void passEnd(BlockingQueue<Job> output) {
+    try {
+      for (int k = 0; k < threads; k++) {
+        output.put(END);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Completes a job: drops its images, records its latency and reports its failure.
+   */
+  private void finish(Job job, List<Job> finished, Appendable out) {
+    job.processor = null;
+    job.latency = System.nanoTime() - job.start;
+    finished.add(job);
+    if (job.failure != null) {
+      synchronized (out) {
+        try {
+          out.append("Failed: ").append(job.file.toString()).append(": ")
+                  .append(job.failure).append("\n");
+        } catch (IOException e) {
+          // The failure is still counted in the report.
+        }
+      }
+    }
+  }
+
+  /**
+   * A file on its way through the stages.
+   */
+  private static final class Job {
+    private final Path file;
+    private final Path outputDir;
+    private ExtendedImageProcessor processor;
+    private String failure;
+    private long start;
+    private long latency;
+
+    private Job(Path file, Path outputDir) {
+      this.file = file;
+      this.outputDir = outputDir;
+    }
+  }
+
+  /**
+   * The BatchReport class summarizes a batch run.
+   */
+  public static final class BatchReport {
+    private final int succeeded;
+    private final int failed;
+    private final long elapsedNanos;
+    private final long[] latencies;
+
+    private BatchReport(List<Job> jobs, long elapsedNanos) {
+      this(jobs.stream().mapToLong(job -> job.latency).toArray(),
+              (int) jobs.stream().filter(job -> job.failure != null).count(), elapsedNanos);
+    }
+
+    /**
+     * Constructs the report of a run from the latencies of its files.
+     *
+     * @param latencies    The latency of every file in nanoseconds, failed or not.
+     * @param failed       The number of failed files.
+     * @param elapsedNanos The duration of the whole run in nanoseconds.
+     */
+    BatchReport(long[] latencies, int failed, long elapsedNanos) {
+      this.latencies = latencies.clone();
+      Arrays.sort(this.latencies);
+      this.failed = failed;
+      this.succeeded = latencies.length - failed;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Returns the number of files processed without failure.
+     *
+     * @return The number of successful files.
+     */
+    public int getSucceeded() {
+      return succeeded;
+    }
+
+    /**
+     * Returns the number of files that failed.
+     *
+     * @return The number of failed files.
+     */
+    public int getFailed() {
+      return failed;
+    }
+
+    /**
+     * Returns the number of files processed per second, failed or not.
+     *
+     * @return The throughput in files per second.
+     */
+    public double getThroughput() {
+      return elapsedNanos == 0 ? 0 : latencies.length * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * Returns a percentile of the time files spent from their decoding to the end of their
+     * encoding, by the nearest-rank method.
+     *
+     * @param percentile The percentile between 0 and 100.
+     * @return The latency in milliseconds, or 0 if no file was processed.
+     */
+    public double getLatencyPercentile(double percentile) {
+      if (latencies.length == 0) {
+        return 0;
+      }
+      int rank = (int) Math.ceil(percentile / 100 * latencies.length);
+      return latencies[Math.max(0, Math.min(latencies.length, rank) - 1)] / 1e6;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Batch done: %d succeeded, %d failed in %.2f s (%.1f files/s). "
+                      + "Latency p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+              succeeded, failed, elapsedNanos / 1e9, this.getThroughput(),
+              this.getLatencyPercentile(50), this.getLatencyPercentile(90),
+              this.getLatencyPercentile(99), this.getLatencyPercentile(100));
+    }
+  }
+}
@@ -1,8 +1,11 @@
 package ime.controller;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.InputMismatchException;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Scanner;
@@ -11,6 +14,7 @@ import java.util.function.Function;
 import ime.controller.commands.BlueComponent;
 import ime.controller.commands.Blur;
 import ime.controller.commands.Brighten;
+import ime.controller.commands.CachedCommand;
 import ime.controller.commands.ColorCorrect;
 import ime.controller.commands.Compress;
 import ime.controller.commands.GreenComponent;
@@ -18,12 +22,14 @@ import ime.controller.commands.Histogram;
 import ime.controller.commands.HorizontalFlip;
 import ime.controller.commands.ImageProcessorCommand;
 import ime.controller.commands.IntensityComponent;
+import ime.controller.commands.Keep;
 import ime.controller.commands.LevelAdjust;
 import ime.controller.commands.Load;
 import ime.controller.commands.LumaComponent;
 import ime.controller.commands.RGBCombine;
 import ime.controller.commands.RGBSplit;
 import ime.controller.commands.RedComponent;
+import ime.controller.commands.RegionCommand;
 import ime.controller.commands.RunScript;
 import ime.controller.commands.Save;
 import ime.controller.commands.Sepia;
@@ -41,8 +47,29 @@ import ime.model.ExtendedImageProcessor;
  * associated functions are defined in the getImageProcessorCommand() method.
  */
 public class ImageController implements ImageControllerInterface {
+  /**
+   * The commands accepting the {@value RegionCommand#OPTION} option.
+   */
+  private static final List<Command> REGION_COMMANDS = List.of(Command.RED_COMPONENT,
+          Command.GREEN_COMPONENT, Command.BLUE_COMPONENT, Command.VALUE_COMPONENT,
+          Command.LUMA_COMPONENT, Command.INTENSITY_COMPONENT, Command.SEPIA, Command.SHARPEN,
+          Command.BLUR, Command.BRIGHTEN, Command.HORIZONTAL_FLIP, Command.VERTICAL_FLIP,
+          Command.COLOR_CORRECT, Command.LEVEL_ADJUST, Command.COMPRESS);
+
+  /**
+   * The commands applied through the result cache of the processor.
+   */
+  private static final List<Command> CACHED_COMMANDS = List.of(Command.RED_COMPONENT,
+          Command.GREEN_COMPONENT, Command.BLUE_COMPONENT, Command.VALUE_COMPONENT,
+          Command.LUMA_COMPONENT, Command.INTENSITY_COMPONENT, Command.SEPIA, Command.SHARPEN,
+          Command.BLUR, Command.BRIGHTEN, Command.HORIZONTAL_FLIP, Command.VERTICAL_FLIP,
+          Command.COLOR_CORRECT, Command.LEVEL_ADJUST, Command.COMPRESS, Command.HISTOGRAM);
+
   protected Readable in;
   protected Appendable out;
+  private final boolean releaseDeadImages;
+  private final int threads;
+  private final Path baseDir;
 
   /**
    * Constructor for ImageController.
@@ -51,8 +78,64 @@ public class ImageController implements ImageControllerInterface {
    * @param out An Appendable destination for program output.
    */
   public ImageController(Readable in, Appendable out) {
+    this(in, out, false);
+  }
+
+  /**
+   * Constructor for ImageController that can release images once the script no longer uses
+   * them. With release enabled the whole input is read before any command runs, so it must be a
+   * complete script rather than interactive input. The input is expanded into a
+   * {@link ScriptPlan}, and every image is released right after the last command that reads or
+   * stores it, unless the script marks it with a keep command.
+   *
+   * @param in                A Readable source for the script.
+   * @param out               An Appendable destination for program output.
+   * @param releaseDeadImages true to release images after their last use.
+   */
+  public ImageController(Readable in, Appendable out, boolean releaseDeadImages) {
+    this(in, out, releaseDeadImages, 1);
+  }
+
+  /**
+   * Constructor for ImageController that can run independent commands of a script in parallel.
+   * With more than one thread the whole input is read before any command runs and executed by a
+   * {@link ScriptScheduler}: a command runs as soon as the commands storing the images it uses
+   * are done, while messages are still written in script order. A command depending on a failed
+   * command is skipped.
+   *
+   * @param in                A Readable source for the script.
+   * @param out               An Appendable destination for program output.
+   * @param releaseDeadImages true to release images after their last use.
+   * @param threads           The number of worker threads, 1 to run commands in sequence.
+   * @throws IllegalArgumentException If the number of threads is not positive.
+   */
+  public ImageController(Readable in, Appendable out, boolean releaseDeadImages, int threads) {
+    this(in, out, releaseDeadImages, threads, null);
+  }
+
+  /**
+   * Constructor for ImageController that runs a script on behalf of a client with another
+   * working directory. The whole input is read before any command runs, and the file paths of
+   * its load, save and run commands are resolved against the given directory.
+   *
+   * @param in                A Readable source for the script.
+   * @param out               An Appendable destination for program output.
+   * @param releaseDeadImages true to release images after their last use.
+   * @param threads           The number of worker threads, 1 to run commands in sequence.
+   * @param baseDir           The directory relative paths are resolved against, or null for the
+   *                          working directory of the process.
+   * @throws IllegalArgumentException If the number of threads is not positive.
+   */
+  public ImageController(Readable in, Appendable out, boolean releaseDeadImages, int threads,
+                         Path baseDir) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("Number of threads must be positive.");
+    }
     this.in = in;
     this.out = out;
+    this.releaseDeadImages = releaseDeadImages;
+    this.threads = threads;
+    this.baseDir = baseDir;
   }
 
   /**
@@ -86,6 +169,21 @@ public class ImageController implements ImageControllerInterface {
     knownCommands.put(Command.COLOR_CORRECT.command(), ColorCorrect::apply);
     knownCommands.put(Command.HISTOGRAM.command(), Histogram::apply);
     knownCommands.put(Command.COMPRESS.command(), Compress::apply);
+    knownCommands.put(Command.KEEP.command(), Keep::apply);
+
+    // Commands producing an image of the size of their source accept a region of interest.
+    for (Command command : REGION_COMMANDS) {
+      Function<String[], ImageProcessorCommand> factory = knownCommands.get(command.command());
+      int halo = Pipeline.radius(new String[]{command.command()});
+      knownCommands.put(command.command(), args -> RegionCommand.apply(args, factory, halo));
+    }
+
+    // Commands reading one image and storing one image reuse the results of repeated steps.
+    for (Command command : CACHED_COMMANDS) {
+      Function<String[], ImageProcessorCommand> factory = knownCommands.get(command.command());
+      knownCommands.put(command.command(),
+              args -> CachedCommand.apply(command.command(), args, factory));
+    }
 
     return knownCommands;
   }
@@ -102,40 +200,145 @@ public class ImageController implements ImageControllerInterface {
     Map<String, Function<String[], ImageProcessorCommand>> knownCommands
             = getImageProcessorCommand();
 
-    while (scan.hasNextLine()) {
-      try {
-        ImageProcessorCommand c;
+    if (releaseDeadImages || threads > 1 || baseDir != null) {
+      List<String> lines = new ArrayList<>();
+      while (scan.hasNextLine()) {
         String input = scan.nextLine();
-
         if (input.equalsIgnoreCase("q") || input.equalsIgnoreCase("quit")) {
-          return;
+          break;
         }
+        lines.add(input);
+      }
+      ScriptPlan plan = new ScriptPlan(lines, baseDir);
+      if (threads > 1) {
+        new ScriptScheduler(plan, threads, releaseDeadImages).execute(
+            (step, stepOut) -> this.executeStep(step, knownCommands, imageProcessor, stepOut),
+            out, imageProcessor);
+      } else {
+        this.executePlan(plan, knownCommands, imageProcessor);
+      }
+      return;
+    }
 
-        String[] parsedScript = ScriptParser.parseScript(input);
+    while (scan.hasNextLine()) {
+      String input = scan.nextLine();
 
-        // Every script has at least 2 arguments including command.
-        if (parsedScript.length < 2) {
-          throw new InputMismatchException("Every script command must have " +
-                  "2 arguments including command");
-        }
+      if (input.equalsIgnoreCase("q") || input.equalsIgnoreCase("quit")) {
+        return;
+      }
+      this.executeLine(input, knownCommands, imageProcessor, out);
+    }
+  }
 
-        String command = parsedScript[0];
-        Function<String[], ImageProcessorCommand> cmd =
-                knownCommands.getOrDefault(command, null);
+  /**
+   * Executes the steps of a script plan and releases every image after its last use.
+   *
+   * @param plan           The plan of the script.
+   * @param knownCommands  The commands the controller understands.
+   * @param imageProcessor The ImageProcessor to apply the commands to.
+   * @throws IOException If the output cannot be written.
+   */
+  private void executePlan(ScriptPlan plan,
+                           Map<String, Function<String[], ImageProcessorCommand>> knownCommands,
+                           ExtendedImageProcessor imageProcessor) throws IOException {
+    for (ScriptPlan.Step step : plan.getSteps()) {
+      this.executeStep(step, knownCommands, imageProcessor, out);
+      for (String imgName : step.getReleases()) {
+        imageProcessor.release(imgName);
+      }
+    }
+  }
 
-        String[] args = new String[parsedScript.length - 1];
-        System.arraycopy(parsedScript, 1, args, 0, parsedScript.length - 1);
+  /**
+   * Executes a step of a script plan. The end of an included script only reports the run
+   * command, whose commands were executed as the preceding steps. The command parsed by the plan
+   * is executed, so that its resolved file path is used, and lines the plan could not parse are
+   * parsed again to report their error.
+   *
+   * @param step           The step to execute.
+   * @param knownCommands  The commands the controller understands.
+   * @param imageProcessor The ImageProcessor to apply the command to.
+   * @param out            The destination of the messages.
+   * @return true if the step succeeded.
+   * @throws IOException If the output cannot be written.
+   */
+  private boolean executeStep(ScriptPlan.Step step,
+                              Map<String, Function<String[], ImageProcessorCommand>> knownCommands,
+                              ExtendedImageProcessor imageProcessor, Appendable out)
+          throws IOException {
+    if (step.isIncludeEnd()) {
+      out.append("Command performed: ").append(step.getInput()).append("\n");
+      return true;
+    }
+    if (step.getCommand() != null) {
+      return this.perform(step.getCommand(), step.getInput(), imageProcessor, out);
+    }
+    return this.executeLine(step.getInput(), knownCommands, imageProcessor, out);
+  }
 
-        if (cmd == null) {
-          throw new IllegalArgumentException("Invalid command: " + input);
-        } else {
-          c = cmd.apply(args);
-          c.process(imageProcessor);
-          out.append("Command performed: ").append(input).append("\n");
-        }
-      } catch (IOException | IllegalArgumentException | InputMismatchException e) {
-        this.out.append(e.getMessage()).append("\n");
+  /**
+   * Parses and executes a single command, reporting its outcome or error to the output.
+   *
+   * @param input          The line holding the command.
+   * @param knownCommands  The commands the controller understands.
+   * @param imageProcessor The ImageProcessor to apply the command to.
+   * @param out            The destination of the messages.
+   * @return true if the command was performed, false if it failed.
+   * @throws IOException If the output cannot be written.
+   */
+  private boolean executeLine(String input,
+                              Map<String, Function<String[], ImageProcessorCommand>> knownCommands,
+                              ExtendedImageProcessor imageProcessor, Appendable out)
+          throws IOException {
+    ImageProcessorCommand c;
+    try {
+      String[] parsedScript = ScriptParser.parseScript(input);
+
+      // Every script has at least 2 arguments including command.
+      if (parsedScript.length < 2) {
+        throw new InputMismatchException("Every script command must have " +
+                "2 arguments including command");
       }
+
+      String command = parsedScript[0];
+      Function<String[], ImageProcessorCommand> cmd =
+              knownCommands.getOrDefault(command, null);
+
+      String[] args = new String[parsedScript.length - 1];
+      System.arraycopy(parsedScript, 1, args, 0, parsedScript.length - 1);
+
+      if (cmd == null) {
+        throw new IllegalArgumentException("Invalid command: " + input);
+      } else {
+        c = cmd.apply(args);
+      }
+    } catch (IllegalArgumentException | InputMismatchException e) {
+      out.append(e.getMessage()).append("\n");
+      return false;
+    }
+    return this.perform(c, input, imageProcessor, out);
+  }
+
+  /**
+   * Executes a parsed command, reporting its outcome or error to the output.
+   *
+   * @param command        The command to execute.
+   * @param input          The line holding the command.
+   * @param imageProcessor The ImageProcessor to apply the command to.
+   * @param out            The destination of the messages.
+   * @return true if the command was performed, false if it failed.
+   * @throws IOException If the output cannot be written.
+   */
+  private boolean perform(ImageProcessorCommand command, String input,
+                          ExtendedImageProcessor imageProcessor, Appendable out)
+          throws IOException {
+    try {
+      command.process(imageProcessor);
+      out.append("Command performed: ").append(input).append("\n");
+      return true;
+    } catch (IOException | IllegalArgumentException | InputMismatchException e) {
+      out.append(e.getMessage()).append("\n");
+      return false;
     }
   }
 }
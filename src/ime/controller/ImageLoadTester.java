@@ -0,0 +1,225 @@
+package ime.controller;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ImageLoadTester class measures the throughput and the latency of an {@link ImageServer}.
+ *
+ * <p>Every simulated client opens its own session and uploads an image once, then repeatedly
+ * brightens it and downloads the result as PNG until the duration is over. The latency of every
+ * request is recorded, and the report gives the requests per second and the latency
+ * percentiles.</p>
+ */
+public class ImageLoadTester {
+
+  private final URI server;
+  private final Path image;
+  private final int clients;
+  private final long durationMillis;
+  private final HttpClient http;
+
+  /**
+   * Constructs a load tester.
+   *
+   * @param server         The base URI of the server, for example http://localhost:8080.
+   * @param image          The image every client uploads.
+   * @param clients        The number of concurrent clients.
+   * @param durationMillis How long the clients send requests.
+   * @throws IllegalArgumentException If the number of clients or the duration is not positive.
+   */
+  public ImageLoadTester(URI server, Path image, int clients, long durationMillis) {
+    if (clients <= 0 || durationMillis <= 0) {
+      throw new IllegalArgumentException("Clients and duration must be positive.");
+    }
+    this.server = server;
+    this.image = image;
+    this.clients = clients;
+    this.durationMillis = durationMillis;
+    this.http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+  }
+
+  /**
+   * Runs the clients until the duration is over.
+   *
+   * @return The report of the run.
+   * @throws IOException If a client cannot open its session or upload its image.
+   */
+  public LoadReport run() throws IOException {
+    ExecutorService pool = Executors.newFixedThreadPool(clients);
+    long start = System.nanoTime();
+    long deadline = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+    try {
+      List<Future<ClientResult>> futures = new ArrayList<>();
+      for (int k = 0; k < clients; k++) {
+        futures.add(pool.submit(() -> this.runClient(deadline)));
+      }
+      List<ClientResult> results = new ArrayList<>();
+      for (Future<ClientResult> future : futures) {
+        results.add(future.get());
+      }
+      return new LoadReport(results, System.nanoTime() - start);
+    } catch (ExecutionException e) {
+      throw new IOException("Load test client failed: " + e.getCause().getMessage(), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Load test interrupted.", e);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Sends the requests of one client until the deadline.
+   */
+  private ClientResult runClient(long deadline) throws IOException, InterruptedException {
+    ClientResult result = new ClientResult();
+    String session = this.send(HttpRequest.newBuilder(server.resolve("/sessions"))
+            .POST(HttpRequest.BodyPublishers.noBody()), result).trim();
+    String base = "/sessions/" + session;
+    String format = image.getFileName().toString().toLowerCase().endsWith(".ppm") ? "ppm" : "png";
+    this.send(HttpRequest.newBuilder(server.resolve(base + "/images/img?format=" + format))
+            .POST(HttpRequest.BodyPublishers.ofFile(image)), result);
+
+    while (System.nanoTime() < deadline) {
+      this.send(HttpRequest.newBuilder(server.resolve(base + "/commands/brighten"))
+              .POST(HttpRequest.BodyPublishers.ofString("10 img img-bright")), result);
+      this.send(HttpRequest.newBuilder(server.resolve(base + "/images/img-bright?format=png"))
+              .GET(), result);
+    }
+    this.send(HttpRequest.newBuilder(server.resolve(base)).DELETE(), result);
+    return result;
+  }
+
+  /**
+   * Sends a request and records its latency, or its failure.
+   */
+  private String send(HttpRequest.Builder request, ClientResult result)
+          throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    HttpResponse<byte[]> response = http.send(request.build(),
+            HttpResponse.BodyHandlers.ofByteArray());
+    result.latencies.add(System.nanoTime() - start);
+    if (response.statusCode() >= 400) {
+      result.errors++;
+    }
+    return new String(response.body());
+  }
+
+  /**
+   * The entry point of the load tester.
+   *
+   * @param args The base URI of the server, the image to upload, the number of clients and the
+   *             duration in seconds.
+   * @throws IOException If the load test fails.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 4) {
+      System.out.println("Usage: ImageLoadTester <server-uri> <image> <clients> <seconds>");
+      return;
+    }
+    ImageLoadTester tester = new ImageLoadTester(URI.create(args[0]), Paths.get(args[1]),
+            Integer.parseInt(args[2]), Long.parseLong(args[3]) * 1000);
+    System.out.println(tester.run());
+  }
+
+  /**
+   * The requests of one client.
+   */
+  private static final class ClientResult {
+    private final List<Long> latencies = new ArrayList<>();
+    private int errors;
+  }
+
+  /**
+   * The LoadReport class summarizes a load test.
+   */
+  public static final class LoadReport {
+    private final long[] latencies;
+    private final int errors;
+    private final long elapsedNanos;
+
+    private LoadReport(List<ClientResult> results, long elapsedNanos) {
+      int count = 0;
+      int errorCount = 0;
+      for (ClientResult result : results) {
+        count += result.latencies.size();
+        errorCount += result.errors;
+      }
+      this.latencies = new long[count];
+      int k = 0;
+      for (ClientResult result : results) {
+        for (long latency : result.latencies) {
+          latencies[k++] = latency;
+        }
+      }
+      Arrays.sort(latencies);
+      this.errors = errorCount;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Returns the number of requests sent.
+     *
+     * @return The number of requests.
+     */
+    public int getRequests() {
+      return latencies.length;
+    }
+
+    /**
+     * Returns the number of requests answered with an error status.
+     *
+     * @return The number of failed requests.
+     */
+    public int getErrors() {
+      return errors;
+    }
+
+    /**
+     * Returns the number of requests answered per second.
+     *
+     * @return The throughput in requests per second.
+     */
+    public double getRequestsPerSecond() {
+      return elapsedNanos == 0 ? 0 : latencies.length * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * Returns a percentile of the request latencies, by the nearest-rank method.
+     *
+     * @param percentile The percentile between 0 and 100.
+     * @return The latency in milliseconds, or 0 if no request was sent.
+     */
+    public double getLatencyPercentile(double percentile) {
+      if (latencies.length == 0) {
+        return 0;
+      }
+      int rank = (int) Math.ceil(percentile / 100 * latencies.length);
+      return latencies[Math.max(0, Math.min(latencies.length, rank) - 1)] / 1e6;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Load test done: %d requests, %d errors in %.2f s (%.1f req/s). "
+                      + "Latency p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, p99.9 %.1f ms, max %.1f ms",
+              latencies.length, errors, elapsedNanos / 1e9, this.getRequestsPerSecond(),
+              this.getLatencyPercentile(50), this.getLatencyPercentile(90),
+              this.getLatencyPercentile(99), this.getLatencyPercentile(99.9),
+              this.getLatencyPercentile(100));
+    }
+  }
+}
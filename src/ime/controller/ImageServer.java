@@ -0,0 +1,477 @@
+package ime.controller;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import ime.controller.commands.ImageProcessorCommand;
+import ime.controller.commands.Load;
+import ime.controller.commands.Save;
+import ime.controller.helpers.image.PPMRowReader;
+import ime.controller.enums.Command;
+import ime.controller.utils.ScriptParser;
+import ime.model.ExtendedImageProcessorImpl;
+import ime.model.store.ImageRegistry;
+
+/**
+ * The ImageServer class exposes the image commands as a local HTTP service, without the GUI.
+ *
+ * <p>Every client works in a session, which has its own image namespace. The endpoints are:</p>
+ * <ul>
+ *   <li>{@code POST /sessions} creates a session and answers its id.</li>
+ *   <li>{@code GET /sessions/{id}} answers the number of images and the memory the session
+ *   uses.</li>
+ *   <li>{@code DELETE /sessions/{id}} drops a session and its images.</li>
+ *   <li>{@code POST /sessions/{id}/images/{name}?format=png} stores the encoded image of the
+ *   request body under a name.</li>
+ *   <li>{@code GET /sessions/{id}/images/{name}?format=png} answers an image encoded in a format,
+ *   streamed in chunks.</li>
+ *   <li>{@code DELETE /sessions/{id}/images/{name}} releases an image.</li>
+ *   <li>{@code POST /sessions/{id}/commands/{command}} runs a command, the request body holding
+ *   its arguments as in a script, for example {@code 10 img img-bright} for brighten. The
+ *   load, save and run commands are refused, since they access the file system of the
+ *   server.</li>
+ * </ul>
+ *
+ * <p>Request bodies larger than the request limit are refused with 413. A request that makes the
+ * images of a session take more than the session quota is refused with 507, and the images it
+ * stored are released. Sessions idle for longer than the idle timeout are dropped. Requests run
+ * on a virtual thread each when the JDK provides them, and on a fixed pool of threads
+ * otherwise.</p>
+ */
+public class ImageServer {
+
+  /**
+   * The default limit of a request body, 64 MB.
+   */
+  public static final long DEFAULT_MAX_REQUEST_BYTES = 64L * 1024 * 1024;
+
+  /**
+   * The default memory quota of a session, 512 MB.
+   */
+  public static final long DEFAULT_SESSION_QUOTA_BYTES = 512L * 1024 * 1024;
+
+  /**
+   * The default time after which an idle session is dropped, 30 minutes.
+   */
+  public static final long DEFAULT_SESSION_IDLE_MILLIS = 30L * 60 * 1000;
+
+  private static final String SESSIONS = "/sessions";
+
+  private static final String DEFAULT_FORMAT = "png";
+
+  private final InetSocketAddress address;
+  private final long maxRequestBytes;
+  private final long sessionQuotaBytes;
+  private final long sessionIdleMillis;
+  private final Map<String, Session> sessions;
+  private final Map<String, Function<String[], ImageProcessorCommand>> knownCommands;
+
+  private HttpServer server;
+  private ExecutorService executor;
+  private ScheduledExecutorService reaper;
+
+  /**
+   * Constructs a server with the default limits.
+   *
+   * @param address The address to listen on, port 0 for any free port.
+   */
+  public ImageServer(InetSocketAddress address) {
+    this(address, DEFAULT_MAX_REQUEST_BYTES, DEFAULT_SESSION_QUOTA_BYTES,
+            DEFAULT_SESSION_IDLE_MILLIS);
+  }
+
+  /**
+   * Constructs a server.
+   *
+   * @param address           The address to listen on, port 0 for any free port.
+   * @param maxRequestBytes   The largest accepted request body in bytes.
+   * @param sessionQuotaBytes The memory the images of a session may take in bytes.
+   * @param sessionIdleMillis The time after which an idle session is dropped.
+   * @throws IllegalArgumentException If a limit is not positive.
+   */
+  public ImageServer(InetSocketAddress address, long maxRequestBytes, long sessionQuotaBytes,
+                     long sessionIdleMillis) {
+    if (maxRequestBytes <= 0 || sessionQuotaBytes <= 0 || sessionIdleMillis <= 0) {
+      throw new IllegalArgumentException("Server limits must be positive.");
+    }
+    this.address = address;
+    this.maxRequestBytes = maxRequestBytes;
+    this.sessionQuotaBytes = sessionQuotaBytes;
+    this.sessionIdleMillis = sessionIdleMillis;
+    this.sessions = new ConcurrentHashMap<>();
+    this.knownCommands = ImageController.getImageProcessorCommand();
+  }
+
+  /**
+   * Starts listening for requests.
+   *
+   * @throws IOException If the address cannot be bound.
+   */
+  public synchronized void start() throws IOException {
+    if (server != null) {
+      throw new IllegalStateException("The server is already running.");
+    }
+    server = HttpServer.create(address, 0);
+    server.createContext(SESSIONS, this::handle);
+    executor = newRequestExecutor(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+    server.setExecutor(executor);
+    reaper = Executors.newSingleThreadScheduledExecutor(task -> {
+      Thread thread = new Thread(task, "image-server-reaper");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long period = Math.max(1, sessionIdleMillis / 4);
+    reaper.scheduleAtFixedRate(this::dropIdleSessions, period, period, TimeUnit.MILLISECONDS);
+    server.start();
+  }
+
+  /**
+   * Stops the server, waiting up to a second for running requests, and drops every session.
+   */
+  public synchronized void stop() {
+    if (server == null) {
+      return;
+    }
+    server.stop(1);
+    executor.shutdownNow();
+    reaper.shutdownNow();
+    server = null;
+    sessions.clear();
+  }
+
+  /**
+   * Returns the port the server listens on.
+   *
+   * @return The port of the server.
+   */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * Returns the number of open sessions.
+   *
+   * @return The number of sessions.
+   */
+  public int getSessionCount() {
+    return sessions.size();
+  }
+
+  /**
+   * Creates an executor running every task on a new virtual thread. Virtual threads are looked
+   * up by reflection, so the server still runs on JDKs without them, on a fixed pool of threads.
+   *
+   * @param fallbackThreads The number of threads of the pool used without virtual threads.
+   * @return The executor of the requests.
+   */
+  static ExecutorService newRequestExecutor(int fallbackThreads) {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+              .invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return Executors.newFixedThreadPool(fallbackThreads);
+    }
+  }
+
+  /**
+   * Routes a request and answers its errors.
+   */
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      String[] path = exchange.getRequestURI().getRawPath().substring(SESSIONS.length())
+              .split("/");
+      String method = exchange.getRequestMethod();
+
+      if (path.length <= 1) {
+        require(method, "POST");
+        String id = UUID.randomUUID().toString();
+        sessions.put(id, new Session());
+        sendText(exchange, 201, id);
+        return;
+      }
+
+      String id = decode(path[1]);
+      Session session = sessions.get(id);
+      if (session == null) {
+        throw new RequestException(404, "Session Not Found: " + id);
+      }
+      session.lastAccess = System.currentTimeMillis();
+
+      if (path.length == 2) {
+        if (method.equals("DELETE")) {
+          sessions.remove(id);
+          sendText(exchange, 200, "Session closed: " + id);
+        } else {
+          require(method, "GET");
+          ImageRegistry registry = session.processor.getRegistry();
+          sendText(exchange, 200, String.format("Images: %d, bytes: %d of %d",
+                  registry.getResidentCount() + registry.getSpilledCount(),
+                  usedBytes(session), sessionQuotaBytes));
+        }
+      } else if (path.length == 4 && path[2].equals("images")) {
+        this.handleImage(exchange, session, decode(path[3]));
+      } else if (path.length == 4 && path[2].equals("commands")) {
+        require(method, "POST");
+        this.handleCommand(exchange, session, decode(path[3]));
+      } else {
+        throw new RequestException(404, "Unknown resource: " + exchange.getRequestURI());
+      }
+    } catch (RequestException e) {
+      sendText(exchange, e.status, e.getMessage());
+    } catch (RuntimeException e) {
+      sendText(exchange, 400, String.valueOf(e.getMessage()));
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Uploads, downloads or releases an image of a session.
+   */
+  private void handleImage(HttpExchange exchange, Session session, String name)
+          throws IOException {
+    String method = exchange.getRequestMethod();
+    if (method.equals("DELETE")) {
+      session.processor.release(name);
+      sendText(exchange, 200, "Image released: " + name);
+      return;
+    }
+
+    String format = formatOf(exchange);
+    Path file = Files.createTempFile("ime-server", "." + format);
+    try {
+      if (method.equals("POST")) {
+        try (InputStream body = exchange.getRequestBody();
+             OutputStream target = Files.newOutputStream(file)) {
+          this.copyLimited(body, target);
+        }
+        this.checkDeclaredSize(session, file, format);
+        Load.apply(new String[]{file.toString(), name}).process(session.processor);
+        this.checkQuota(session, List.of(name));
+        sendText(exchange, 200, "Image stored: " + name);
+      } else {
+        require(method, "GET");
+        try {
+          Save.apply(new String[]{file.toString(), name}).process(session.processor);
+        } catch (IllegalArgumentException e) {
+          throw new RequestException(404, e.getMessage());
+        }
+        exchange.getResponseHeaders().set("Content-Type", contentType(format));
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream body = exchange.getResponseBody()) {
+          Files.copy(file, body);
+        }
+      }
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  /**
+   * Runs a command on the images of a session.
+   */
+  private void handleCommand(HttpExchange exchange, Session session, String name)
+          throws IOException {
+    if (name.equals(Command.LOAD.command()) || name.equals(Command.SAVE.command())
+            || name.equals(Command.RUN_SCRIPT.command())) {
+      throw new RequestException(403, "Command not allowed on the server: " + name
+              + ". Use the images endpoints instead.");
+    }
+    Function<String[], ImageProcessorCommand> factory = knownCommands.get(name);
+    if (factory == null) {
+      throw new RequestException(404, "Unknown command: " + name);
+    }
+
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    try (InputStream in = exchange.getRequestBody()) {
+      this.copyLimited(in, body);
+    }
+    String arguments = body.toString(StandardCharsets.UTF_8).trim();
+    ImageProcessorCommand command = factory.apply(ScriptParser.parseScript(arguments));
+    command.process(session.processor);
+    this.checkQuota(session, command.getOutputImages());
+    sendText(exchange, 200, "Command performed: " + name + " " + arguments);
+  }
+
+  /**
+   * Copies a request body, refusing it if it exceeds the request limit. The rest of a refused
+   * body is read and discarded without being kept, since the HTTP server only answers once the
+   * request was read.
+   */
+  private void copyLimited(InputStream in, OutputStream out) throws IOException {
+    byte[] buffer = new byte[8192];
+    long total = 0;
+    int read;
+    while ((read = in.read(buffer)) > 0) {
+      total += read;
+      if (total <= maxRequestBytes) {
+        out.write(buffer, 0, read);
+      }
+    }
+    if (total > maxRequestBytes) {
+      throw new RequestException(413, "Request larger than " + maxRequestBytes + " bytes.");
+    }
+  }
+
+  /**
+   * Refuses an uploaded image before decoding it if the size its header declares would make the
+   * session exceed its quota, since a small compressed file may decode to a huge image.
+   */
+  private void checkDeclaredSize(Session session, Path file, String format) throws IOException {
+    long height;
+    long width;
+    if (format.equals("ppm")) {
+      try (PPMRowReader reader = new PPMRowReader(file)) {
+        height = reader.getHeight();
+        width = reader.getWidth();
+      } catch (IllegalArgumentException e) {
+        throw new RequestException(400, e.getMessage());
+      }
+    } else {
+      try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+          throw new RequestException(400, "Unreadable " + format + " image.");
+        }
+        ImageReader reader = readers.next();
+        try {
+          reader.setInput(in);
+          height = reader.getHeight(0);
+          width = reader.getWidth(0);
+        } finally {
+          reader.dispose();
+        }
+      }
+    }
+    if (usedBytes(session) + ImageRegistry.estimateLoadedBytes(height, width)
+            > sessionQuotaBytes) {
+      throw new RequestException(507, "Session quota of " + sessionQuotaBytes
+              + " bytes exceeded by a " + width + "x" + height + " image.");
+    }
+  }
+
+  /**
+   * Releases the images a request stored if the session exceeds its quota.
+   */
+  private void checkQuota(Session session, List<String> stored) {
+    if (usedBytes(session) > sessionQuotaBytes) {
+      for (String name : stored) {
+        session.processor.release(name);
+      }
+      throw new RequestException(507, "Session quota of " + sessionQuotaBytes
+              + " bytes exceeded, released: " + String.join(" ", stored));
+    }
+  }
+
+  /**
+   * Drops the sessions idle for longer than the idle timeout.
+   */
+  private void dropIdleSessions() {
+    long limit = System.currentTimeMillis() - sessionIdleMillis;
+    sessions.values().removeIf(session -> session.lastAccess < limit);
+  }
+
+  private static long usedBytes(Session session) {
+    ImageRegistry registry = session.processor.getRegistry();
+    return registry.getResidentBytes() + registry.getSpilledBytes();
+  }
+
+  private static void require(String method, String expected) {
+    if (!method.equals(expected)) {
+      throw new RequestException(405, "Method not allowed: " + method);
+    }
+  }
+
+  private static String decode(String segment) {
+    return URLDecoder.decode(segment, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the format of the query of a request, png by default.
+   */
+  private static String formatOf(HttpExchange exchange) {
+    Map<String, String> query = new HashMap<>();
+    String raw = exchange.getRequestURI().getRawQuery();
+    if (raw != null) {
+      for (String pair : raw.split("&")) {
+        int equals = pair.indexOf('=');
+        if (equals > 0) {
+          query.put(decode(pair.substring(0, equals)), decode(pair.substring(equals + 1)));
+        }
+      }
+    }
+    String format = query.getOrDefault("format", DEFAULT_FORMAT).toLowerCase();
+    if (!format.equals("png") && !format.equals("jpg") && !format.equals("ppm")) {
+      throw new RequestException(400, "Unsupported format: " + format);
+    }
+    return format;
+  }
+
+  private static String contentType(String format) {
+    switch (format) {
+      case "png":
+        return "image/png";
+      case "jpg":
+        return "image/jpeg";
+      default:
+        return "image/x-portable-pixmap";
+    }
+  }
+
+  private static void sendText(HttpExchange exchange, int status, String text)
+          throws IOException {
+    byte[] bytes = (text + "\n").getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream body = exchange.getResponseBody()) {
+      body.write(bytes);
+    }
+  }
+
+  /**
+   * The image namespace of a client.
+   */
+  private static final class Session {
+    private final ExtendedImageProcessorImpl processor = new ExtendedImageProcessorImpl();
+    private volatile long lastAccess = System.currentTimeMillis();
+  }
+
+  /**
+   * A request refused with an HTTP status.
+   */
+  private static final class RequestException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    private RequestException(int status, String message) {
+      super(message);
+      this.status = status;
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package ime.controller;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.InputMismatchException;
+import java.util.List;
+import java.util.Set;
+
+import ime.controller.enums.Command;
+import ime.model.ExtendedImageProcessor;
+import ime.utils.ImageProcessorUtil;
+
+/**
+ * The Pipeline class holds a list of commands without image names, one per line, each applied to
+ * the result of the previous one, for example {@code blur}, {@code brighten 10} or
+ * {@code color-correct}. Blank lines and lines starting with # are ignored.
+ */
+final class Pipeline {
+
+  /**
+   * The commands whose result at a pixel only depends on the pixels around it, and which can
+   * therefore run on a part of an image extended by a halo.
+   */
+  static final Set<String> LOCAL_COMMANDS = Set.of(Command.BRIGHTEN.command(),
+          Command.RED_COMPONENT.command(), Command.GREEN_COMPONENT.command(),
+          Command.BLUE_COMPONENT.command(), Command.VALUE_COMPONENT.command(),
+          Command.LUMA_COMPONENT.command(), Command.INTENSITY_COMPONENT.command(),
+          Command.SEPIA.command(), Command.BLUR.command(), Command.SHARPEN.command(),
+          Command.LEVEL_ADJUST.command());
+
+  private final List<String[]> steps;
+
+  /**
+   * Parses the commands of a pipeline.
+   *
+   * @param lines     The lines of the pipeline.
+   * @param supported The names of the commands allowed in the pipeline.
+   * @param context   What the pipeline runs on, for the error messages.
+   * @throws InputMismatchException If a command is not supported or has the wrong number of
+   *                                arguments.
+   */
+  Pipeline(List<String> lines, Set<String> supported, String context) {
+    List<String[]> parsed = new ArrayList<>();
+    for (String line : lines) {
+      String trimmed = line.trim();
+      if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+        continue;
+      }
+      String[] parts = trimmed.split("\\s+");
+      Command command = commandOf(parts[0]);
+      if (command == null || !supported.contains(parts[0])) {
+        throw new InputMismatchException("Command not supported on " + context + ": "
+                + parts[0]);
+      }
+      // The commands of a pipeline take every argument except the source and the destination.
+      if (parts.length - 1 != command.requiredArgs() - 2) {
+        throw new InputMismatchException("Invalid number of arguments for " + parts[0]
+                + " in a pipeline: " + trimmed);
+      }
+      parsed.add(parts);
+    }
+    this.steps = Collections.unmodifiableList(parsed);
+  }
+
+  /**
+   * Returns the commands of the pipeline, each split into its name and its arguments.
+   *
+   * @return The commands in order.
+   */
+  List<String[]> getSteps() {
+    return steps;
+  }
+
+  /**
+   * Returns how many pixels around a pixel a command reads, 0 for commands working pixel by
+   * pixel.
+   *
+   * @param step The command.
+   * @return The radius of its kernel.
+   */
+  static int radius(String[] step) {
+    if (step[0].equals(Command.BLUR.command())) {
+      return ImageProcessorUtil.BLUR_KERNEL.length / 2;
+    } else if (step[0].equals(Command.SHARPEN.command())) {
+      return ImageProcessorUtil.SHARPEN_KERNEL.length / 2;
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the halo needed around a part of an image for commands that follow each other: the
+   * sum of their radii, since every filter consumes its radius of valid border.
+   *
+   * @param steps The commands.
+   * @return The halo in pixels.
+   */
+  static int halo(List<String[]> steps) {
+    int halo = 0;
+    for (String[] step : steps) {
+      halo += radius(step);
+    }
+    return halo;
+  }
+
+  /**
+   * Applies a command to an image in place, with the usual command of the application.
+   *
+   * @param step      The command.
+   * @param image     The name of the image.
+   * @param processor The processor holding the image.
+   * @throws IOException If the command fails to read or write a file.
+   */
+  static void apply(String[] step, String image, ExtendedImageProcessor processor)
+          throws IOException {
+    // The arguments of the step, then the image as source and destination.
+    String[] args = Arrays.copyOfRange(step, 1, step.length + 2);
+    args[step.length - 1] = image;
+    args[step.length] = image;
+    ImageController.getImageProcessorCommand().get(step[0]).apply(args).process(processor);
+  }
+
+  /**
+   * Returns the command of a name.
+   */
+  private static Command commandOf(String name) {
+    for (Command command : Command.values()) {
+      if (command.command().equals(name)) {
+        return command;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,76 @@
+package ime.controller;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * The ScriptClient class is a thin launcher running a script on a {@link ScriptDaemon} and
+ * printing its messages as they arrive. It only uses a socket, so it starts much faster than the
+ * whole application.
+ */
+public class ScriptClient {
+
+  /**
+   * Runs a script on the daemon of a port file and copies its messages to an output.
+   *
+   * @param portFile   The port file written by the daemon.
+   * @param workingDir The directory relative paths of the script are resolved against.
+   * @param script     The path of the script.
+   * @param out        The destination of the messages.
+   * @throws IOException If the daemon cannot be reached.
+   */
+  public static void run(Path portFile, Path workingDir, String script, Appendable out)
+          throws IOException {
+    String[] address = Files.readString(portFile).trim().split(" ");
+    if (address.length != 2) {
+      throw new IOException("Invalid port file: " + portFile);
+    }
+
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+            Integer.parseInt(address[0]))) {
+      Writer request = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+      request.write(ScriptDaemon.PROTOCOL + "\n" + address[1] + "\n"
+              + workingDir.toAbsolutePath() + "\n" + script + "\n");
+      request.flush();
+
+      Reader response = new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
+      char[] buffer = new char[4096];
+      int read;
+      while ((read = response.read(buffer)) > 0) {
+        out.append(new String(buffer, 0, read));
+        if (out instanceof Flushable) {
+          ((Flushable) out).flush();
+        }
+      }
+    }
+  }
+
+  /**
+   * The entry point of the client.
+   *
+   * @param args The path of the script, optionally followed by the port file.
+   */
+  public static void main(String[] args) {
+    if (args.length != 1 && args.length != 2) {
+      System.out.println("Usage: ScriptClient <script> [port-file]");
+      System.exit(2);
+    }
+    Path portFile = args.length == 2 ? Paths.get(args[1]) : ScriptDaemon.DEFAULT_PORT_FILE;
+    try {
+      run(portFile, Paths.get(""), args[0], System.out);
+    } catch (IOException e) {
+      System.out.println("Script daemon not reachable: " + e.getMessage());
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,248 @@
+package ime.controller;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+
+import ime.model.ExtendedImageProcessorImpl;
+import ime.model.store.DecodedImageCache;
+
+/**
+ * The ScriptDaemon class runs scripts submitted by a {@link ScriptClient}, so that running a
+ * short script does not pay for starting a JVM, loading the classes and scanning the ImageIO
+ * plugins every time. The JIT compiled code and the loaded classes stay warm between scripts,
+ * and so do the images decoded from files: every script loads through a {@link DecodedImageCache}
+ * shared by the daemon, so a file that did not change since a script loaded it is not read and
+ * parsed again.
+ *
+ * <p>The daemon listens on the loopback interface and writes its port and a random token to a
+ * port file readable by the current user only. A client sends the token, its working directory
+ * and the path of a script, one per line. The script runs like with the -file option, in its
+ * own image namespace, with the relative paths of its load, save and run commands resolved
+ * against the working directory of the client. Its messages are streamed back as they are
+ * written, and the connection is closed at the end of the script. If the request fails, its error
+ * message is the last line sent back.</p>
+ */
+public class ScriptDaemon implements Closeable {
+
+  /**
+   * The first line of every request.
+   */
+  static final String PROTOCOL = "IME-SCRIPT 1";
+
+  /**
+   * The default port file, in the temporary directory of the current user.
+   */
+  public static final Path DEFAULT_PORT_FILE = Paths.get(System.getProperty("java.io.tmpdir"),
+          "ime-daemon-" + System.getProperty("user.name") + ".port");
+
+  private static final int REQUEST_TIMEOUT_MILLIS = 10000;
+
+  private final Path portFile;
+  private final int threads;
+  private final String token;
+  private final DecodedImageCache decodedImages;
+
+  private ServerSocket serverSocket;
+  private ExecutorService pool;
+  private Thread acceptor;
+
+  /**
+   * Constructs a daemon.
+   *
+   * @param portFile The file receiving the port and the token of the daemon.
+   * @param threads  The number of worker threads of every script.
+   * @throws IllegalArgumentException If the number of threads is not positive.
+   */
+  public ScriptDaemon(Path portFile, int threads) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("Number of threads must be positive.");
+    }
+    this.portFile = portFile;
+    this.threads = threads;
+    this.token = WorkerProcesses.newToken();
+    this.decodedImages = new DecodedImageCache();
+  }
+
+  /**
+   * Returns the cache of the images decoded by the scripts of this daemon, for example to read
+   * its hit and miss counters.
+   *
+   * @return The decoded-image cache.
+   */
+  public DecodedImageCache getDecodedImageCache() {
+    return decodedImages;
+  }
+
+  /**
+   * Starts listening on a free port of the loopback interface and writes the port file.
+   *
+   * @throws IOException If the socket or the port file cannot be created.
+   */
+  public synchronized void start() throws IOException {
+    if (serverSocket != null) {
+      throw new IllegalStateException("The daemon is already running.");
+    }
+    // Scan the ImageIO plugins once, instead of on the first load of every script.
+    ImageIO.getReaderFormatNames();
+
+    serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    writePortFile(serverSocket.getLocalPort());
+
+    pool = Executors.newCachedThreadPool(task -> {
+      Thread thread = new Thread(task, "script-daemon-client");
+      thread.setDaemon(true);
+      return thread;
+    });
+    acceptor = new Thread(this::accept, "script-daemon");
+    acceptor.start();
+  }
+
+  /**
+   * Stops accepting scripts and deletes the port file. Running scripts are interrupted.
+   *
+   * @throws IOException If the socket cannot be closed.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (serverSocket == null) {
+      return;
+    }
+    serverSocket.close();
+    pool.shutdownNow();
+    try {
+      acceptor.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    Files.deleteIfExists(portFile);
+    serverSocket = null;
+  }
+
+  /**
+   * Writes the port and the token to the port file, readable by the current user only where the
+   * file system supports it.
+   */
+  private void writePortFile(int port) throws IOException {
+    Path temp = Files.createTempFile(portFile.toAbsolutePath().getParent(), ".ime-daemon", null);
+    try {
+      Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString("rw-------"));
+    } catch (UnsupportedOperationException e) {
+      // Not a POSIX file system, the file keeps the default permissions.
+    }
+    Files.writeString(temp, port + " " + token + "\n");
+    Files.move(temp, portFile, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Accepts connections until the daemon is closed.
+   */
+  private void accept() {
+    while (true) {
+      Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException e) {
+        return;
+      }
+      pool.execute(() -> this.serve(socket));
+    }
+  }
+
+  /**
+   * Reads a request and streams the messages of its script back.
+   */
+  private void serve(Socket socket) {
+    try (socket) {
+      Writer response = new OutputStreamWriter(socket.getOutputStream(),
+              StandardCharsets.UTF_8);
+      try {
+        this.handle(socket, response);
+      } catch (SocketException e) {
+        // The client went away, nothing is left to report to.
+      } catch (IOException | RuntimeException e) {
+        response.write("Script request failed: " + e.getMessage() + "\n");
+        response.flush();
+      }
+    } catch (IOException e) {
+      // The failure cannot be sent, the client went away.
+    }
+  }
+
+  /**
+   * Reads a request from a connection and runs its script.
+   */
+  private void handle(Socket socket, Writer response) throws IOException {
+    socket.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+    BufferedReader request = new BufferedReader(new InputStreamReader(
+            socket.getInputStream(), StandardCharsets.UTF_8));
+    String protocol = request.readLine();
+    String clientToken = request.readLine();
+    String workingDir = request.readLine();
+    String script = request.readLine();
+    if (!PROTOCOL.equals(protocol) || !WorkerProcesses.matches(token, clientToken)
+            || workingDir == null || script == null) {
+      response.write("Request refused.\n");
+      response.flush();
+      return;
+    }
+    socket.setSoTimeout(0);
+
+    Appendable out = new FlushingAppendable(response);
+    ImageController controller = new ImageController(new StringReader("run " + script + "\nq"),
+            out, true, threads, Paths.get(workingDir));
+    ExtendedImageProcessorImpl processor = new ExtendedImageProcessorImpl();
+    processor.setDecodedImageCache(decodedImages);
+    controller.execute(processor);
+    response.flush();
+  }
+
+  /**
+   * An Appendable sending every completed line to the client right away.
+   */
+  private static final class FlushingAppendable implements Appendable {
+    private final Writer writer;
+
+    private FlushingAppendable(Writer writer) {
+      this.writer = writer;
+    }
+
+    @Override
+    public Appendable append(CharSequence csq) throws IOException {
+      writer.append(csq);
+      if (csq.length() > 0 && csq.charAt(csq.length() - 1) == '\n') {
+        writer.flush();
+      }
+      return this;
+    }
+
+    @Override
+    public Appendable append(CharSequence csq, int start, int end) throws IOException {
+      return this.append(csq.subSequence(start, end));
+    }
+
+    @Override
+    public Appendable append(char c) throws IOException {
+      return this.append(String.valueOf(c));
+    }
+  }
+}
@@ -0,0 +1,269 @@
+package ime.controller;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import ime.controller.commands.ImageProcessorCommand;
+import ime.controller.commands.Keep;
+import ime.controller.commands.RunScript;
+import ime.controller.enums.Command;
+import ime.controller.helpers.file.FileHelper;
+import ime.controller.helpers.file.FileHelperImpl;
+import ime.controller.utils.ScriptParser;
+
+/**
+ * The ScriptPlan class is the result of a pre-pass over a complete script, before any of its
+ * commands is executed.
+ *
+ * <p>The commands of scripts included with {@code run} are expanded in place, so the plan is the
+ * flat sequence of steps the script will execute. For every image name the plan finds the last
+ * step that reads or stores it, and schedules the release of the name right after that step.
+ * Names marked with a {@code keep} command and the {@value ViewController#CURRENT_IMAGE} image
+ * of the GUI are never released. If an included script cannot be read, the effects of the
+ * script are unknown and nothing is released.</p>
+ *
+ * <p>A plan may resolve the file paths of its load, save and run commands against a base
+ * directory instead of the working directory of the process, for scripts submitted on behalf of
+ * a client with another working directory. The lines of the steps keep the paths as written.</p>
+ */
+public class ScriptPlan {
+
+  /**
+   * The commands whose first argument is a file path.
+   */
+  private static final Set<String> PATH_COMMANDS = Set.of(Command.LOAD.command(),
+          Command.SAVE.command(), Command.RUN_SCRIPT.command());
+
+  private final List<Step> steps;
+  private final Set<String> kept;
+  private final Path baseDir;
+  private boolean complete;
+
+  /**
+   * Builds the plan of a script.
+   *
+   * @param lines The lines of the script, up to but excluding a quit command.
+   */
+  public ScriptPlan(List<String> lines) {
+    this(lines, null);
+  }
+
+  /**
+   * Builds the plan of a script whose relative file paths are resolved against a directory.
+   *
+   * @param lines   The lines of the script, up to but excluding a quit command.
+   * @param baseDir The directory relative paths are resolved against, or null for the working
+   *                directory of the process.
+   */
+  public ScriptPlan(List<String> lines, Path baseDir) {
+    this.steps = new ArrayList<>();
+    this.kept = new HashSet<>();
+    this.baseDir = baseDir;
+    this.complete = true;
+
+    this.expand(lines, ImageController.getImageProcessorCommand(), new FileHelperImpl(),
+            new ArrayDeque<>());
+    this.scheduleReleases();
+  }
+
+  /**
+   * Returns the steps of the script in execution order.
+   *
+   * @return The steps of the script.
+   */
+  public List<Step> getSteps() {
+    return Collections.unmodifiableList(steps);
+  }
+
+  /**
+   * Tells whether every included script could be read, so that the releases are safe.
+   *
+   * @return true if the whole script is known.
+   */
+  public boolean isComplete() {
+    return complete;
+  }
+
+  /**
+   * Appends the steps of the given lines, expanding included scripts.
+   *
+   * @param lines         The lines to expand.
+   * @param knownCommands The commands the controller understands.
+   * @param fileHelper    The helper used to read included scripts.
+   * @param includes      The paths of the scripts currently being expanded.
+   */
+  private void expand(List<String> lines,
+                      Map<String, Function<String[], ImageProcessorCommand>> knownCommands,
+                      FileHelper fileHelper, Deque<String> includes) {
+    for (String input : lines) {
+      ImageProcessorCommand command = this.parse(input, knownCommands);
+
+      if (command instanceof Keep) {
+        kept.addAll(((Keep) command).getImageNames());
+      }
+
+      if (command instanceof RunScript) {
+        String filepath = ((RunScript) command).getFilepath();
+        List<String> included = null;
+        if (!includes.contains(filepath)) {
+          try {
+            included = readLines(fileHelper.readFile(filepath));
+          } catch (IOException e) {
+            // Executed as a plain run command below, which reports the error.
+          }
+        }
+
+        if (included == null) {
+          complete = false;
+        } else {
+          includes.push(filepath);
+          this.expand(included, knownCommands, fileHelper, includes);
+          includes.pop();
+          steps.add(new Step(input, null, true));
+          continue;
+        }
+      }
+
+      steps.add(new Step(input, command, false));
+    }
+  }
+
+  /**
+   * Computes the last use of every image name and attaches its release to that step.
+   */
+  private void scheduleReleases() {
+    if (!complete) {
+      return;
+    }
+
+    Map<String, Integer> lastUse = new LinkedHashMap<>();
+    for (int k = 0; k < steps.size(); k++) {
+      ImageProcessorCommand command = steps.get(k).command;
+      if (command != null) {
+        for (String name : command.getInputImages()) {
+          lastUse.put(name, k);
+        }
+        for (String name : command.getOutputImages()) {
+          lastUse.put(name, k);
+        }
+      }
+    }
+
+    for (Map.Entry<String, Integer> use : lastUse.entrySet()) {
+      String name = use.getKey();
+      if (!kept.contains(name) && !ViewController.CURRENT_IMAGE.equals(name)) {
+        steps.get(use.getValue()).releases.add(name);
+      }
+    }
+  }
+
+  /**
+   * Parses a line into a command, the same way the controller does, resolving its file path
+   * against the base directory.
+   *
+   * @param input         The line to parse.
+   * @param knownCommands The commands the controller understands.
+   * @return The command, or null if the line is not a valid command.
+   */
+  private ImageProcessorCommand parse(String input,
+                                      Map<String, Function<String[],
+                                              ImageProcessorCommand>> knownCommands) {
+    String[] parsedScript = ScriptParser.parseScript(input);
+    if (parsedScript.length < 2 || !knownCommands.containsKey(parsedScript[0])) {
+      return null;
+    }
+
+    String[] args = new String[parsedScript.length - 1];
+    System.arraycopy(parsedScript, 1, args, 0, parsedScript.length - 1);
+    if (baseDir != null && PATH_COMMANDS.contains(parsedScript[0])) {
+      args[0] = baseDir.resolve(args[0]).toString();
+    }
+    try {
+      return knownCommands.get(parsedScript[0]).apply(args);
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Splits the contents of an included script into lines, stopping at a quit command like the
+   * controller executing it would.
+   *
+   * @param contents The contents of the script.
+   * @return The lines of the script.
+   */
+  private static List<String> readLines(String contents) {
+    List<String> lines = new ArrayList<>();
+    for (String line : contents.split("\\R")) {
+      if (line.equalsIgnoreCase("q") || line.equalsIgnoreCase("quit")) {
+        break;
+      }
+      lines.add(line);
+    }
+    return lines;
+  }
+
+  /**
+   * A single line of the expanded script.
+   */
+  public static final class Step {
+    private final String input;
+    private final ImageProcessorCommand command;
+    private final boolean includeEnd;
+    private final List<String> releases;
+
+    private Step(String input, ImageProcessorCommand command, boolean includeEnd) {
+      this.input = input;
+      this.command = command;
+      this.includeEnd = includeEnd;
+      this.releases = new ArrayList<>();
+    }
+
+    /**
+     * Returns the line of the script.
+     *
+     * @return The line of the script.
+     */
+    public String getInput() {
+      return input;
+    }
+
+    /**
+     * Returns the parsed command of the line.
+     *
+     * @return The command, or null if the line is not a valid command.
+     */
+    public ImageProcessorCommand getCommand() {
+      return command;
+    }
+
+    /**
+     * Tells whether this step marks the end of an included script. Its line is the run command
+     * whose commands were expanded before it, and it has nothing left to execute.
+     *
+     * @return true if the step ends an included script.
+     */
+    public boolean isIncludeEnd() {
+      return includeEnd;
+    }
+
+    /**
+     * Returns the image names that are no longer used after this step.
+     *
+     * @return The names to release after this step.
+     */
+    public List<String> getReleases() {
+      return Collections.unmodifiableList(releases);
+    }
+  }
+}
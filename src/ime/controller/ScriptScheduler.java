@@ -0,0 +1,323 @@
+package ime.controller;
+
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import ime.controller.commands.ImageProcessorCommand;
+import ime.controller.commands.RunScript;
+import ime.model.ExtendedImageProcessor;
+
+/**
+ * The ScriptScheduler class executes the steps of a {@link ScriptPlan} concurrently on a pool of
+ * worker threads, as a graph of dependencies between the image names and the files the commands
+ * read and write.
+ *
+ * <p>A step depends on the last earlier step storing an image it reads, and on the last earlier
+ * step storing or reading an image it stores. Files are resources the same way, so a load runs
+ * after the save writing its file. A run command whose script the plan could not expand waits
+ * for every earlier step, and every later step waits for it. A step runs as soon as all of its
+ * dependencies have completed, so commands that only share their source image run in parallel.
+ * When a step fails, every step depending on it, directly or not, is skipped. Independent steps
+ * still run, just like a failing command does not stop a sequential script.</p>
+ *
+ * <p>The output of every step is buffered and written in script order. If the plan releases
+ * images, an image is released once every step using it has completed.</p>
+ */
+public class ScriptScheduler {
+
+  /**
+   * Executes a single step of a plan.
+   */
+  interface StepExecutor {
+
+    /**
+     * Executes a step and reports its outcome.
+     *
+     * @param step The step to execute.
+     * @param out  The destination of the messages of the step.
+     * @return true if the step succeeded, false if it failed.
+     * @throws IOException If the messages cannot be written.
+     */
+    boolean execute(ScriptPlan.Step step, Appendable out) throws IOException;
+  }
+
+  private final List<ScriptPlan.Step> steps;
+  private final int threads;
+  private final boolean releaseDeadImages;
+  private final List<Set<Integer>> dependents;
+  private final int[] pending;
+
+  /**
+   * Constructs a scheduler for a plan.
+   *
+   * @param plan              The plan of the script.
+   * @param threads           The number of worker threads.
+   * @param releaseDeadImages true to release the images the plan releases.
+   * @throws IllegalArgumentException If the number of threads is not positive.
+   */
+  public ScriptScheduler(ScriptPlan plan, int threads, boolean releaseDeadImages) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("Number of threads must be positive.");
+    }
+    this.steps = plan.getSteps();
+    this.threads = threads;
+    this.releaseDeadImages = releaseDeadImages;
+    this.dependents = new ArrayList<>();
+    this.pending = new int[steps.size()];
+    this.buildGraph();
+  }
+
+  /**
+   * Returns the steps a step directly depends on.
+   *
+   * @param step The index of the step.
+   * @return The indices of the steps it depends on.
+   */
+  public Set<Integer> getDependencies(int step) {
+    Set<Integer> dependencies = new HashSet<>();
+    for (int k = 0; k < step; k++) {
+      if (dependents.get(k).contains(step)) {
+        dependencies.add(k);
+      }
+    }
+    return dependencies;
+  }
+
+  /**
+   * Links every step to the earlier steps it depends on.
+   */
+  private void buildGraph() {
+    Map<String, Integer> lastWriter = new HashMap<>();
+    Map<String, List<Integer>> readers = new HashMap<>();
+    Map<String, Integer> lastFileWriter = new HashMap<>();
+    Map<String, List<Integer>> fileReaders = new HashMap<>();
+    int barrier = -1;
+
+    for (int k = 0; k < steps.size(); k++) {
+      dependents.add(new LinkedHashSet<>());
+      ImageProcessorCommand command = steps.get(k).getCommand();
+      if (command == null) {
+        continue;
+      }
+
+      Set<Integer> dependencies = new HashSet<>();
+      if (command instanceof RunScript) {
+        // A script the plan could not expand may use any image or file, so it waits for every
+        // earlier step and every later step waits for it.
+        for (int j = Math.max(barrier, 0); j < k; j++) {
+          dependencies.add(j);
+        }
+        barrier = k;
+      } else if (barrier >= 0) {
+        dependencies.add(barrier);
+      }
+      link(k, command.getInputImages(), command.getOutputImages(), lastWriter, readers,
+              dependencies);
+      link(k, resolve(command.getInputFiles()), resolve(command.getOutputFiles()),
+              lastFileWriter, fileReaders, dependencies);
+      dependencies.remove(k);
+
+      for (int dependency : dependencies) {
+        dependents.get(dependency).add(k);
+      }
+      pending[k] = dependencies.size();
+    }
+  }
+
+  /**
+   * Adds the dependencies of a step on the resources it reads and writes, image names or file
+   * paths, and records its own accesses.
+   *
+   * @param k            The index of the step.
+   * @param inputs       The resources the step reads.
+   * @param outputs      The resources the step writes.
+   * @param lastWriter   The last earlier step writing each resource.
+   * @param readers      The earlier steps reading each resource since it was last written.
+   * @param dependencies The dependencies of the step.
+   */
+  private static void link(int k, List<String> inputs, List<String> outputs,
+                           Map<String, Integer> lastWriter, Map<String, List<Integer>> readers,
+                           Set<Integer> dependencies) {
+    for (String name : inputs) {
+      if (lastWriter.containsKey(name)) {
+        dependencies.add(lastWriter.get(name));
+      }
+    }
+    for (String name : outputs) {
+      if (lastWriter.containsKey(name)) {
+        dependencies.add(lastWriter.get(name));
+      }
+      dependencies.addAll(readers.getOrDefault(name, List.of()));
+    }
+
+    for (String name : inputs) {
+      readers.computeIfAbsent(name, n -> new ArrayList<>()).add(k);
+    }
+    for (String name : outputs) {
+      lastWriter.put(name, k);
+      readers.remove(name);
+    }
+  }
+
+  /**
+   * Returns the absolute, normalized form of file paths, so that different spellings of the same
+   * file are the same resource.
+   */
+  private static List<String> resolve(List<String> paths) {
+    List<String> resolved = new ArrayList<>();
+    for (String path : paths) {
+      try {
+        resolved.add(Paths.get(path).toAbsolutePath().normalize().toString());
+      } catch (InvalidPathException e) {
+        // The command reports the invalid path when it is executed.
+        resolved.add(path);
+      }
+    }
+    return resolved;
+  }
+
+  /**
+   * Executes every step of the plan and writes their messages in script order.
+   *
+   * @param executor       The executor of a single step.
+   * @param out            The destination of the messages.
+   * @param imageProcessor The ImageProcessor the steps are applied to, used to release images.
+   * @throws IOException If the messages cannot be written.
+   */
+  void execute(StepExecutor executor, Appendable out, ExtendedImageProcessor imageProcessor)
+          throws IOException {
+    int count = steps.size();
+    int[] waiting = pending.clone();
+    boolean[] failed = new boolean[count];
+    boolean[] finished = new boolean[count];
+    String[] messages = new String[count];
+    Map<String, Integer> uses = this.countUses();
+    BlockingQueue<Integer> completed = new LinkedBlockingQueue<>();
+
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      for (int k = 0; k < count; k++) {
+        if (waiting[k] == 0) {
+          this.submit(pool, k, executor, messages, failed, completed);
+        }
+      }
+
+      int printed = 0;
+      for (int done = 0; done < count; done++) {
+        int k = completed.take();
+        finished[k] = true;
+
+        for (int dependent : dependents.get(k)) {
+          if (failed[k]) {
+            failed[dependent] = true;
+          }
+          if (--waiting[dependent] == 0) {
+            if (failed[dependent]) {
+              messages[dependent] = "Command skipped: " + steps.get(dependent).getInput() + "\n";
+              completed.add(dependent);
+            } else {
+              this.submit(pool, dependent, executor, messages, failed, completed);
+            }
+          }
+        }
+        this.release(k, uses, imageProcessor);
+
+        while (printed < count && finished[printed]) {
+          out.append(messages[printed]);
+          printed++;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Script execution interrupted.", e);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Runs a step on the pool and queues its index once it completed.
+   */
+  private void submit(ExecutorService pool, int k, StepExecutor executor, String[] messages,
+                      boolean[] failed, BlockingQueue<Integer> completed) {
+    pool.execute(() -> {
+      StringBuilder message = new StringBuilder();
+      boolean success;
+      try {
+        success = executor.execute(steps.get(k), message);
+      } catch (IOException | RuntimeException e) {
+        message.append(e.getMessage()).append("\n");
+        success = false;
+      } catch (Throwable e) {
+        // An error such as running out of memory fails the step, so the script still ends.
+        message.append(e).append("\n");
+        success = false;
+      }
+      failed[k] = !success;
+      messages[k] = message.toString();
+      // Queueing the index publishes both writes to the scheduling thread.
+      completed.add(k);
+    });
+  }
+
+  /**
+   * Counts how many steps use each image the plan releases.
+   *
+   * @return The number of steps using each released image.
+   */
+  private Map<String, Integer> countUses() {
+    Set<String> released = new HashSet<>();
+    if (releaseDeadImages) {
+      for (ScriptPlan.Step step : steps) {
+        released.addAll(step.getReleases());
+      }
+    }
+
+    Map<String, Integer> uses = new HashMap<>();
+    for (ScriptPlan.Step step : steps) {
+      for (String name : namesOf(step)) {
+        if (released.contains(name)) {
+          uses.merge(name, 1, Integer::sum);
+        }
+      }
+    }
+    return uses;
+  }
+
+  /**
+   * Releases the images of a completed step that no other step uses anymore.
+   */
+  private void release(int k, Map<String, Integer> uses,
+                       ExtendedImageProcessor imageProcessor) {
+    for (String name : namesOf(steps.get(k))) {
+      Integer remaining = uses.computeIfPresent(name, (n, u) -> u - 1);
+      if (remaining != null && remaining == 0) {
+        imageProcessor.release(name);
+      }
+    }
+  }
+
+  /**
+   * Returns the distinct image names a step reads or stores.
+   */
+  private static Set<String> namesOf(ScriptPlan.Step step) {
+    Set<String> names = new LinkedHashSet<>();
+    if (step.getCommand() != null) {
+      names.addAll(step.getCommand().getInputImages());
+      names.addAll(step.getCommand().getOutputImages());
+    }
+    return names;
+  }
+}
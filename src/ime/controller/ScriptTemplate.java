@@ -0,0 +1,116 @@
+package ime.controller;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.InputMismatchException;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import ime.controller.commands.ImageProcessorCommand;
+import ime.controller.utils.ScriptParser;
+import ime.model.ExtendedImageProcessor;
+
+/**
+ * The ScriptTemplate class is a script applied to one file at a time.
+ *
+ * <p>The following placeholders of its arguments are replaced for every file: {@value #INPUT} by
+ * the path of the input file, {@value #OUTPUT} by the path of the output file with the same file
+ * name in the output directory, {@value #NAME} by the file name without its extension and
+ * {@value #OUTPUT_DIR} by the output directory.</p>
+ */
+class ScriptTemplate {
+
+  /**
+   * The placeholder of the input file path.
+   */
+  static final String INPUT = "{input}";
+
+  /**
+   * The placeholder of the output file path.
+   */
+  static final String OUTPUT = "{output}";
+
+  /**
+   * The placeholder of the input file name without its extension.
+   */
+  static final String NAME = "{name}";
+
+  /**
+   * The placeholder of the output directory.
+   */
+  static final String OUTPUT_DIR = "{outdir}";
+
+  private final List<String[]> lines;
+  private final Map<String, Function<String[], ImageProcessorCommand>> knownCommands;
+
+  /**
+   * Parses a script template.
+   *
+   * @param template The lines of the script template.
+   * @throws InputMismatchException If a line of the template is not a command.
+   */
+  ScriptTemplate(List<String> template) {
+    this.knownCommands = ImageController.getImageProcessorCommand();
+    this.lines = new ArrayList<>();
+    for (String line : template) {
+      String[] parsed = ScriptParser.parseScript(line);
+      if (parsed.length == 0) {
+        continue;
+      }
+      if (parsed.length < 2 || !knownCommands.containsKey(parsed[0])) {
+        throw new InputMismatchException("Invalid command in script template: " + line);
+      }
+      lines.add(parsed);
+    }
+  }
+
+  /**
+   * Returns the parsed lines of the template, each starting with the command name.
+   *
+   * @return The lines of the template.
+   */
+  List<String[]> getLines() {
+    return Collections.unmodifiableList(lines);
+  }
+
+  /**
+   * Runs lines of the template for a file, stopping at the first failing command.
+   *
+   * @param lines          The lines to run, taken from {@link #getLines()}.
+   * @param file           The input file.
+   * @param outputDir      The output directory.
+   * @param imageProcessor The ExtendedImageProcessor holding the images of the file.
+   * @return The failing line and its error message, or null if every command succeeded.
+   */
+  String run(List<String[]> lines, Path file, Path outputDir,
+             ExtendedImageProcessor imageProcessor) {
+    for (String[] line : lines) {
+      String[] args = new String[line.length - 1];
+      for (int k = 1; k < line.length; k++) {
+        args[k - 1] = substitute(line[k], file, outputDir);
+      }
+      try {
+        knownCommands.get(line[0]).apply(args).process(imageProcessor);
+      } catch (IOException | RuntimeException e) {
+        return String.join(" ", line) + ": " + e.getMessage();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Replaces the placeholders of a template argument for a file.
+   */
+  private static String substitute(String arg, Path file, Path outputDir) {
+    String fileName = file.getFileName().toString();
+    int dot = fileName.lastIndexOf('.');
+    String name = dot > 0 ? fileName.substring(0, dot) : fileName;
+    return arg.replace(INPUT, file.toString())
+            .replace(OUTPUT, outputDir.resolve(fileName).toString())
+            .replace(NAME, name)
+            .replace(OUTPUT_DIR, outputDir.toString());
+  }
+}
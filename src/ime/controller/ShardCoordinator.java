@@ -0,0 +1,359 @@
+package ime.controller;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The ShardCoordinator class applies a script template, as described by {@link BatchRunner}, to
+ * every file of a directory using several worker processes, so that the batch is not limited by
+ * the heap and the garbage collector of a single JVM.
+ *
+ * <p>The coordinator launches every worker as a child JVM running {@link SimpleImageController}
+ * with the {@code -worker} option. The workers connect back to a socket of the coordinator, which
+ * is the work queue: every worker asks for a file, runs the template on it and reports the
+ * outcome before asking for the next one. A worker only holds one file at a time, so the files
+ * are balanced across the workers.</p>
+ *
+ * <p>When a worker dies, the file it was processing goes back to the queue for the other workers
+ * and a replacement worker is launched, up to as many replacements as workers. A file that was
+ * held by {@value #MAX_ATTEMPTS} dying workers is reported as failed instead of being retried
+ * again. The outcomes of all workers are merged into a single report.</p>
+ *
+ * <p>The queue only needs a socket and a file system shared with the workers. The coordinator
+ * listens on the loopback interface, so all workers run on the local host; binding a reachable
+ * address instead would let workers of other nodes sharing the file system join with
+ * {@code -worker host:port} and the same token.</p>
+ */
+public class ShardCoordinator {
+
+  /**
+   * The environment variable passing the token of the coordinator to its workers.
+   */
+  public static final String TOKEN_VARIABLE = "IME_WORKER_TOKEN";
+
+  /**
+   * How many times a file is handed to a worker before it is reported as failed.
+   */
+  public static final int MAX_ATTEMPTS = 3;
+
+  private final List<String> template;
+  private final int workers;
+  private final List<String> workerJvmArgs;
+  private final String token;
+
+  private final List<Process> processes;
+  private final AtomicInteger reassigned;
+  private final AtomicInteger deaths;
+  private final AtomicInteger completed;
+
+  /**
+   * Constructs a coordinator.
+   *
+   * @param template      The lines of the script template.
+   * @param workers       The number of worker processes.
+   * @param workerJvmArgs The JVM options of the workers, for example a heap size.
+   * @throws IllegalArgumentException If the number of workers is not positive.
+   * @throws java.util.InputMismatchException If a line of the template is not a command.
+   */
+  public ShardCoordinator(List<String> template, int workers, List<String> workerJvmArgs) {
+    if (workers <= 0) {
+      throw new IllegalArgumentException("Number of workers must be positive.");
+    }
+    // Validate the template here rather than in every worker.
+    new ScriptTemplate(template);
+    this.template = List.copyOf(template);
+    this.workers = workers;
+    this.workerJvmArgs = List.copyOf(workerJvmArgs);
+    this.token = WorkerProcesses.newToken();
+
+    this.processes = Collections.synchronizedList(new ArrayList<>());
+    this.reassigned = new AtomicInteger();
+    this.deaths = new AtomicInteger();
+    this.completed = new AtomicInteger();
+  }
+
+  /**
+   * Returns the number of files handed to a worker again after their worker died.
+   *
+   * @return The number of reassigned files.
+   */
+  public int getReassignedCount() {
+    return reassigned.get();
+  }
+
+  /**
+   * Returns the number of workers that exited before the end of the batch.
+   *
+   * @return The number of dead workers.
+   */
+  public int getWorkerDeaths() {
+    return deaths.get();
+  }
+
+  /**
+   * Returns the number of files done so far, failed or not.
+   *
+   * @return The number of completed files.
+   */
+  public int getCompletedCount() {
+    return completed.get();
+  }
+
+  /**
+   * Returns the worker processes launched so far.
+   *
+   * @return The worker processes.
+   */
+  List<Process> getWorkerProcesses() {
+    synchronized (processes) {
+      return new ArrayList<>(processes);
+    }
+  }
+
+  /**
+   * Applies the template to every regular file of the input directory.
+   *
+   * @param inputDir  The directory holding the input files.
+   * @param outputDir The directory receiving the output files, created if missing.
+   * @param out       The destination of failures and of the summary.
+   * @return The merged report of all workers.
+   * @throws IOException If a directory cannot be read or a worker cannot be launched.
+   */
+  public BatchRunner.BatchReport run(Path inputDir, Path outputDir, Appendable out)
+          throws IOException {
+    Files.createDirectories(outputDir);
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(inputDir)) {
+      for (Path file : stream) {
+        if (Files.isRegularFile(file)) {
+          files.add(file.toAbsolutePath());
+        }
+      }
+    }
+    Collections.sort(files);
+
+    Batch batch = new Batch(files, outputDir.toAbsolutePath(), out);
+    long start = System.nanoTime();
+    try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      Thread acceptor = new Thread(() -> this.accept(server, batch), "shard-coordinator");
+      acceptor.setDaemon(true);
+      acceptor.start();
+
+      int replacements = 0;
+      for (int k = 0; k < workers; k++) {
+        processes.add(WorkerProcesses.launch(workerJvmArgs, "-worker",
+                server.getLocalPort(), token));
+      }
+      while (batch.remaining.get() > 0) {
+        for (Process process : this.getWorkerProcesses()) {
+          if (!process.isAlive() && batch.exited.add(process)) {
+            deaths.incrementAndGet();
+            if (replacements < workers) {
+              replacements++;
+              processes.add(WorkerProcesses.launch(workerJvmArgs, "-worker",
+                      server.getLocalPort(), token));
+            }
+          }
+        }
+        if (batch.exited.size() == this.getWorkerProcesses().size()) {
+          batch.failRemaining("no worker left");
+        }
+        batch.awaitChange();
+      }
+    } finally {
+      for (Process process : this.getWorkerProcesses()) {
+        try {
+          if (!process.waitFor(5, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+          }
+        } catch (InterruptedException e) {
+          process.destroyForcibly();
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    BatchRunner.BatchReport report = new BatchRunner.BatchReport(batch.latencies(),
+            batch.failed.get(), System.nanoTime() - start);
+    out.append(report.toString()).append("\n");
+    out.append(String.format("Workers: %d launched, %d died, %d files reassigned\n",
+            this.getWorkerProcesses().size(), deaths.get(), reassigned.get()));
+    return report;
+  }
+
+  /**
+   * Accepts worker connections until the socket is closed.
+   */
+  private void accept(ServerSocket server, Batch batch) {
+    while (true) {
+      Socket socket;
+      try {
+        socket = server.accept();
+      } catch (IOException e) {
+        return;
+      }
+      Thread handler = new Thread(() -> this.serve(socket, batch), "shard-worker-connection");
+      handler.setDaemon(true);
+      handler.start();
+    }
+  }
+
+  /**
+   * Hands files to a connected worker until the batch is done or the worker goes away.
+   */
+  private void serve(Socket socket, Batch batch) {
+    Path held = null;
+    try (socket) {
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+              StandardCharsets.UTF_8));
+      Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+      String hello = in.readLine();
+      if (!WorkerProcesses.matches("HELLO " + token, hello)) {
+        return;
+      }
+      writer.write("OUTDIR " + batch.outputDir + "\n");
+      writer.write("TEMPLATE " + template.size() + "\n");
+      for (String line : template) {
+        writer.write(line + "\n");
+      }
+      writer.flush();
+
+      while (true) {
+        held = batch.pending.poll(100, TimeUnit.MILLISECONDS);
+        if (held == null) {
+          if (batch.remaining.get() == 0) {
+            writer.write("DONE\n");
+            writer.flush();
+            return;
+          }
+          continue;
+        }
+
+        long start = System.nanoTime();
+        writer.write("FILE " + held + "\n");
+        writer.flush();
+        String result = in.readLine();
+        if (result == null) {
+          break;
+        }
+        batch.complete(held, result.startsWith("OK") ? null : result.substring(
+                Math.min(result.length(), "FAIL ".length())), System.nanoTime() - start);
+        held = null;
+      }
+    } catch (IOException e) {
+      // The worker died, its file is handed to another worker below.
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (held != null) {
+      batch.retry(held);
+    }
+  }
+
+  /**
+   * The state of a batch shared by the connections of the workers.
+   */
+  private final class Batch {
+    private final Path outputDir;
+    private final Appendable out;
+    private final BlockingQueue<Path> pending;
+    private final AtomicInteger remaining;
+    private final AtomicInteger failed;
+    private final Map<Path, Integer> attempts;
+    private final List<Long> latencies;
+    private final Set<Process> exited;
+
+    private Batch(List<Path> files, Path outputDir, Appendable out) {
+      this.outputDir = outputDir;
+      this.out = out;
+      this.pending = new LinkedBlockingQueue<>(files);
+      this.remaining = new AtomicInteger(files.size());
+      this.failed = new AtomicInteger();
+      this.attempts = new HashMap<>();
+      this.latencies = new ArrayList<>();
+      this.exited = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Records the outcome of a file.
+     */
+    private synchronized void complete(Path file, String failure, long latency) {
+      latencies.add(latency);
+      completed.incrementAndGet();
+      if (failure != null) {
+        failed.incrementAndGet();
+        try {
+          synchronized (out) {
+            out.append("Failed: ").append(file.toString()).append(": ").append(failure)
+                    .append("\n");
+          }
+        } catch (IOException e) {
+          // The failure is still counted in the report.
+        }
+      }
+      remaining.decrementAndGet();
+      this.notifyAll();
+    }
+
+    /**
+     * Puts the file of a dead worker back in the queue, or fails it after too many attempts.
+     */
+    private synchronized void retry(Path file) {
+      int attempt = attempts.merge(file, 1, Integer::sum);
+      if (attempt >= MAX_ATTEMPTS) {
+        this.complete(file, "worker died " + attempt + " times processing it", 0);
+      } else {
+        reassigned.incrementAndGet();
+        pending.add(file);
+        this.notifyAll();
+      }
+    }
+
+    /**
+     * Fails every file still in the queue.
+     */
+    private synchronized void failRemaining(String reason) {
+      Path file;
+      while ((file = pending.poll()) != null) {
+        this.complete(file, reason, 0);
+      }
+    }
+
+    /**
+     * Waits a little for a file to complete or to be reassigned.
+     */
+    private synchronized void awaitChange() throws IOException {
+      try {
+        this.wait(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Sharded batch interrupted.", e);
+      }
+    }
+
+    private synchronized long[] latencies() {
+      return latencies.stream().mapToLong(Long::longValue).toArray();
+    }
+  }
+}
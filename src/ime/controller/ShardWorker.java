@@ -0,0 +1,70 @@
+package ime.controller;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import ime.model.ExtendedImageProcessorImpl;
+
+/**
+ * The ShardWorker class is the worker side of a {@link ShardCoordinator}. It connects to the
+ * coordinator, receives the script template and the output directory, then processes the files
+ * the coordinator hands out one at a time, each in its own image namespace, until the coordinator
+ * reports that the batch is done.
+ */
+public class ShardWorker {
+
+  /**
+   * Processes files of a coordinator until its batch is done.
+   *
+   * @param host  The host of the coordinator.
+   * @param port  The port of the coordinator.
+   * @param token The token of the coordinator.
+   * @throws IOException If the connection to the coordinator fails.
+   */
+  public static void run(String host, int port, String token) throws IOException {
+    try (Socket socket = new Socket(host, port)) {
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+              StandardCharsets.UTF_8));
+      Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+      out.write("HELLO " + token + "\n");
+      out.flush();
+
+      Path outputDir = Paths.get(expect(in.readLine(), "OUTDIR "));
+      int size = Integer.parseInt(expect(in.readLine(), "TEMPLATE "));
+      List<String> lines = new ArrayList<>();
+      for (int k = 0; k < size; k++) {
+        lines.add(in.readLine());
+      }
+      ScriptTemplate template = new ScriptTemplate(lines);
+
+      String request;
+      while ((request = in.readLine()) != null && request.startsWith("FILE ")) {
+        Path file = Paths.get(request.substring("FILE ".length()));
+        String failure = template.run(template.getLines(), file, outputDir,
+                new ExtendedImageProcessorImpl());
+        out.write(failure == null ? "OK\n"
+                : "FAIL " + failure.replace('\n', ' ').replace('\r', ' ') + "\n");
+        out.flush();
+      }
+    }
+  }
+
+  /**
+   * Checks the prefix of a line of the coordinator and returns the rest of the line.
+   */
+  private static String expect(String line, String prefix) throws IOException {
+    if (line == null || !line.startsWith(prefix)) {
+      throw new IOException("Unexpected message from the coordinator: " + line);
+    }
+    return line.substring(prefix.length());
+  }
+}
@@ -4,8 +4,12 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.List;
 
-import ime.model.ExtendedImageProcessor;
+import ime.controller.helpers.file.FileHelperImpl;
 import ime.model.ExtendedImageProcessorImpl;
 import ime.model.ViewModelImpl;
 import ime.view.ImageManipulatorView;
@@ -21,6 +25,51 @@ import ime.view.IView;
  */
 public class SimpleImageController {
 
+  /**
+   * The system property holding the heap budget for loaded images in megabytes. Images beyond the
+   * budget are spilled to disk. Without the property every image is kept in memory.
+   */
+  private static final String HEAP_BUDGET_PROPERTY = "ime.heapBudgetMb";
+
+  /**
+   * The system property holding after how many milliseconds without access an image is
+   * compressed in memory. Without the property images are never compressed.
+   */
+  private static final String COMPRESS_IDLE_PROPERTY = "ime.compressIdleMs";
+
+  /**
+   * The system property holding the raster size in megabytes above which loaded images are kept
+   * in memory-mapped files outside of the heap. Without the property every image is on the heap.
+   * Every command on such an image maps a new temporary file of the size of its raster. The files
+   * are deleted right away, but their disk space only comes back once they are unmapped: for
+   * script files run on one thread and in interactive mode, as soon as an image is replaced or
+   * released, and otherwise only when the garbage collector finds them unreachable, so the
+   * temporary directory may need room for the raster of every intermediate image.
+   */
+  private static final String OFF_HEAP_PROPERTY = "ime.offHeapMb";
+
+  /**
+   * The system property holding the size in megabytes of the cache of command results, which
+   * returns the result of a command repeated on an image with the same content at once. The cache
+   * is enabled by default in the GUI, in interactive mode and for script files, and holds up to an
+   * eighth of the maximum heap; 0 disables it. The results and source images it holds are not
+   * counted against the heap budget of {@value #HEAP_BUDGET_PROPERTY}, and stay on the heap when
+   * the registry compresses or spills them, so images can take the budget plus the cache size.
+   */
+  private static final String RESULT_CACHE_PROPERTY = "ime.resultCacheMb";
+
+  /**
+   * The system property holding the number of threads running independent commands of a script
+   * file in parallel. It defaults to one, which runs the commands in script order.
+   */
+  private static final String THREADS_PROPERTY = "ime.threads";
+
+  /**
+   * The system property holding how many milliseconds the size of a file dropped into a watched
+   * directory must stay the same before it is processed. It defaults to one second.
+   */
+  private static final String SETTLE_PROPERTY = "ime.settleMs";
+
   /**
    * The main method creates an ImageControllerInterface instance and executes
    * image manipulation commands using the standard input and output streams.
@@ -29,19 +78,103 @@ public class SimpleImageController {
    * @throws IOException If an I/O error occurs during input or output operations.
    */
   public static void main(String[] args) throws IOException {
-    ExtendedImageProcessor imageProcessor = new ExtendedImageProcessorImpl();
+    Long heapBudgetMb = Long.getLong(HEAP_BUDGET_PROPERTY);
+    ExtendedImageProcessorImpl imageProcessor = heapBudgetMb == null
+            ? new ExtendedImageProcessorImpl()
+            : new ExtendedImageProcessorImpl(heapBudgetMb * 1024 * 1024);
+    imageProcessor.getRegistry().setCompressAfter(Long.getLong(COMPRESS_IDLE_PROPERTY, -1));
+    Long offHeapMb = Long.getLong(OFF_HEAP_PROPERTY);
+    if (offHeapMb != null) {
+      imageProcessor.setOffHeapThreshold(offHeapMb * 1024 * 1024);
+    }
+    Long resultCacheMb = Long.getLong(RESULT_CACHE_PROPERTY);
+    imageProcessor.getResultCache().setEnabled(resultCacheMb == null || resultCacheMb > 0);
+    if (resultCacheMb != null && resultCacheMb > 0) {
+      imageProcessor.getResultCache().setCapacity(resultCacheMb * 1024 * 1024);
+    }
+    int threads = Integer.getInteger(THREADS_PROPERTY, 1);
     ImageControllerInterface controller;
     if (args != null && args.length == 2 && (args[0].equals("-file") || args[0].equals("-f"))) {
-      // If the "-file" option is present, create an ImageControllerInterface for script execution.
+      // If the "-file" option is present, create an ImageControllerInterface for script execution
+      // that runs independent commands in parallel and releases every image after the last
+      // command of the script using it.
       Reader in = new StringReader("run " + args[1] + "\nq");
-      controller = new ImageController(in, System.out);
+      imageProcessor.setInPlace(threads == 1);
+      controller = new ImageController(in, System.out, true, threads);
       controller.execute(imageProcessor);
+    } else if (args != null && args.length == 4 && args[0].equals("-batch")) {
+      // Apply a script template to every file of the input directory.
+      String template = new FileHelperImpl().readFile(args[1]);
+      new BatchRunner(List.of(template.split("\\R")), threads)
+              .run(Paths.get(args[2]), Paths.get(args[3]), System.out);
+    } else if (args != null && args.length == 4 && args[0].equals("-watch")) {
+      // Apply a script template to every file dropped into the input directory until the
+      // process is stopped.
+      String template = new FileHelperImpl().readFile(args[1]);
+      WatchDaemon daemon = new WatchDaemon(List.of(template.split("\\R")),
+              Paths.get(args[2]), Paths.get(args[3]), threads, 4 * threads,
+              Long.getLong(SETTLE_PROPERTY, 1000), System.out);
+      daemon.start();
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          daemon.close();
+        } catch (IOException e) {
+          System.out.println("Closing the journal failed: " + e.getMessage());
+        }
+      }));
+    } else if (args != null && args.length == 2 && args[0].equals("-serve")) {
+      // Serve the image commands over HTTP on the loopback interface.
+      ImageServer server = new ImageServer(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+              Integer.parseInt(args[1])));
+      server.start();
+      System.out.println("Serving on port " + server.getPort());
+    } else if (args != null && (args.length == 1 || args.length == 2)
+            && args[0].equals("-daemon")) {
+      // Keep running scripts submitted by ScriptClient until the process is stopped.
+      ScriptDaemon daemon = new ScriptDaemon(args.length == 2 ? Paths.get(args[1])
+              : ScriptDaemon.DEFAULT_PORT_FILE, threads);
+      daemon.start();
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          daemon.close();
+        } catch (IOException e) {
+          System.out.println("Closing the daemon failed: " + e.getMessage());
+        }
+      }));
+    } else if (args != null && args.length == 5 && args[0].equals("-shard")) {
+      // Apply a script template to every file of the input directory on worker processes.
+      String template = new FileHelperImpl().readFile(args[2]);
+      new ShardCoordinator(List.of(template.split("\\R")), Integer.parseInt(args[1]), List.of())
+              .run(Paths.get(args[3]), Paths.get(args[4]), System.out);
+    } else if (args != null && args.length == 4 && args[0].equals("-stream")) {
+      // Stream a PPM file through a pipeline of commands, a few rows at a time.
+      String pipeline = new FileHelperImpl().readFile(args[1]);
+      new StripPipeline(List.of(pipeline.split("\\R"))).run(Paths.get(args[2]),
+              Paths.get(args[3]), System.out);
+    } else if (args != null && args.length == 6 && args[0].equals("-tiles")) {
+      // Apply a pipeline to a single image cut into tiles processed by worker processes.
+      String pipeline = new FileHelperImpl().readFile(args[3]);
+      new TileCoordinator(List.of(pipeline.split("\\R")), Integer.parseInt(args[1]),
+              Integer.parseInt(args[2]), List.of()).run(args[4], args[5], System.out);
+    } else if (args != null && args.length == 2 && args[0].equals("-tile-worker")) {
+      // Work on the tiles of the tile coordinator at host:port.
+      int colon = args[1].lastIndexOf(':');
+      TileWorker.run(args[1].substring(0, colon), Integer.parseInt(args[1].substring(colon + 1)),
+              System.getenv(ShardCoordinator.TOKEN_VARIABLE));
+    } else if (args != null && args.length == 2 && args[0].equals("-worker")) {
+      // Work for the shard coordinator at host:port, with the token of its environment.
+      int colon = args[1].lastIndexOf(':');
+      ShardWorker.run(args[1].substring(0, colon), Integer.parseInt(args[1].substring(colon + 1)),
+              System.getenv(ShardCoordinator.TOKEN_VARIABLE));
     } else if (args != null && args.length == 1 && (args[0].equals("-text")
             || args[0].equals("-t"))) {
       // for interactive command-line input.
+      imageProcessor.setInPlace(true);
       controller = new ImageController(new InputStreamReader(System.in), System.out);
       controller.execute(imageProcessor);
     } else {
+      // The view only reads images through commands, so they can be edited in place.
+      imageProcessor.setInPlace(true);
       IView view = new ImageManipulatorView("PixelPulse",
               new ViewModelImpl(imageProcessor));
       new ViewController(imageProcessor, view);
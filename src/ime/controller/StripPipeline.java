@@ -0,0 +1,297 @@
+package ime.controller;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import ime.controller.enums.Command;
+import ime.controller.helpers.image.PPMRowReader;
+import ime.controller.helpers.image.PPMRowWriter;
+import ime.controller.helpers.image.RowSource;
+import ime.model.ExtendedImageProcessorImpl;
+import ime.model.image.ImageModel;
+import ime.model.image.MappedImage;
+import ime.model.image.PixelModel;
+import ime.model.image.RGBImage;
+import ime.model.image.RGBPixel;
+
+/**
+ * The StripPipeline class applies a pipeline of commands, as described by {@link TileCoordinator},
+ * to a PPM file while streaming it: the decoder produces rows, the commands run on strips of a
+ * few rows, and the encoder writes every row as soon as it is done. Only the strips and the rows
+ * of their halos are on the heap, so the memory needed does not grow with the height of the
+ * image.
+ *
+ * <p>Point commands, horizontal flips, blur and sharpen only need the rows around the ones they
+ * compute. Consecutive commands of this kind run together on every strip, extended by a halo of
+ * rows wide enough for their filters and cut at the top and the bottom of the image, so the
+ * result is identical to the result of loading the whole image.</p>
+ *
+ * <p>Any other command, like a vertical flip, color-correct or histogram, needs the whole image.
+ * The rows produced so far are then materialized in a {@link MappedImage} outside of the heap,
+ * the command runs on it, and streaming goes on from its result. Every materialization is
+ * reported, and its mapped images are unmapped as soon as the next stage no longer reads them.</p>
+ */
+public class StripPipeline {
+
+  /**
+   * About how many pixels a strip holds, excluding its halo.
+   */
+  private static final int STRIP_PIXELS = 1 << 16;
+
+  /**
+   * The commands running on strips.
+   */
+  private static final Set<String> ROW_COMMANDS;
+
+  /**
+   * The commands running on the materialized image.
+   */
+  private static final Set<String> WHOLE_IMAGE_COMMANDS = Set.of(
+          Command.VERTICAL_FLIP.command(), Command.COLOR_CORRECT.command(),
+          Command.HISTOGRAM.command(), Command.COMPRESS.command());
+
+  static {
+    Set<String> commands = new HashSet<>(Pipeline.LOCAL_COMMANDS);
+    commands.add(Command.HORIZONTAL_FLIP.command());
+    ROW_COMMANDS = Collections.unmodifiableSet(commands);
+  }
+
+  private final List<String[]> steps;
+  private final List<String> materializations;
+  private int peakBufferedRows;
+
+  /**
+   * Constructs a streaming pipeline.
+   *
+   * @param pipeline The commands of the pipeline, one per line. Blank lines and lines starting
+   *                 with # are ignored.
+   * @throws java.util.InputMismatchException If a command of the pipeline is not supported.
+   */
+  public StripPipeline(List<String> pipeline) {
+    Set<String> supported = new HashSet<>(ROW_COMMANDS);
+    supported.addAll(WHOLE_IMAGE_COMMANDS);
+    this.steps = new Pipeline(pipeline, supported, "a stream").getSteps();
+    this.materializations = new ArrayList<>();
+  }
+
+  /**
+   * Returns a description of every point where the last run held the whole image.
+   *
+   * @return The materializations, in order.
+   */
+  public List<String> getMaterializations() {
+    return List.copyOf(materializations);
+  }
+
+  /**
+   * Returns the most rows a strip of the last run held on the heap, halos included.
+   *
+   * @return The number of rows.
+   */
+  public int getPeakBufferedRows() {
+    return peakBufferedRows;
+  }
+
+  /**
+   * Streams a PPM file through the pipeline into another PPM file of the same flavour.
+   *
+   * @param input  The P3 or P6 PPM file to read.
+   * @param output The PPM file to write.
+   * @param out    The destination of the materializations and of the summary.
+   * @throws IOException If a file cannot be read or written.
+   */
+  public void run(Path input, Path output, Appendable out) throws IOException {
+    materializations.clear();
+    peakBufferedRows = 0;
+    long start = System.nanoTime();
+    try (PPMRowReader reader = new PPMRowReader(input)) {
+      RowSource source = reader;
+      List<String[]> local = new ArrayList<>();
+      for (int k = 0; k < steps.size(); k++) {
+        String[] step = steps.get(k);
+        if (ROW_COMMANDS.contains(step[0])) {
+          local.add(step);
+          continue;
+        }
+        if (!local.isEmpty()) {
+          source = new StripStage(source, local);
+          local = new ArrayList<>();
+        }
+        String materialization = String.format("Materialized the whole image for %s (step %d).",
+                step[0], k + 1);
+        materializations.add(materialization);
+        out.append(materialization).append("\n");
+        source = new MaterializedStage(source, step);
+      }
+      if (!local.isEmpty()) {
+        source = new StripStage(source, local);
+      }
+
+      try (RowSource last = source;
+           PPMRowWriter writer = new PPMRowWriter(output, last.getWidth(), last.getHeight(),
+                   reader.isBinary())) {
+        byte[] row = new byte[3 * last.getWidth()];
+        for (int i = 0; i < last.getHeight(); i++) {
+          last.readRow(row);
+          writer.writeRow(row);
+        }
+      }
+      out.append(String.format("Streamed %d rows of %d pixels in %.2f s, at most %d rows "
+                      + "buffered per strip.\n", source.getHeight(), source.getWidth(),
+              (System.nanoTime() - start) / 1e9, peakBufferedRows));
+    }
+  }
+
+  /**
+   * Copies a row of an image into a byte row.
+   */
+  private static void copyRow(ImageModel image, int i, byte[] rgb) {
+    if (image instanceof MappedImage) {
+      ((MappedImage) image).readRow(i, rgb);
+      return;
+    }
+    for (int j = 0; j < image.getWidth(); j++) {
+      PixelModel pixel = image.getPixelValues(i, j);
+      rgb[3 * j] = (byte) pixel.getR();
+      rgb[3 * j + 1] = (byte) pixel.getG();
+      rgb[3 * j + 2] = (byte) pixel.getB();
+    }
+  }
+
+  /**
+   * Runs row-local commands on strips of the rows of an upstream source.
+   */
+  private final class StripStage implements RowSource {
+    private final RowSource upstream;
+    private final List<String[]> commands;
+    private final int halo;
+    private final int stripRows;
+    private final ExtendedImageProcessorImpl processor;
+    private final List<byte[]> window;
+    private int windowTop;
+    private int pulled;
+    private ImageModel strip;
+    private int stripEnd;
+    private int next;
+
+    private StripStage(RowSource upstream, List<String[]> commands) {
+      this.upstream = upstream;
+      this.commands = List.copyOf(commands);
+      this.halo = Pipeline.halo(commands);
+      this.stripRows = Math.max(Math.max(1, 4 * halo), STRIP_PIXELS / upstream.getWidth());
+      this.processor = new ExtendedImageProcessorImpl();
+      this.window = new ArrayList<>();
+    }
+
+    @Override
+    public int getHeight() {
+      return upstream.getHeight();
+    }
+
+    @Override
+    public int getWidth() {
+      return upstream.getWidth();
+    }
+
+    @Override
+    public void readRow(byte[] rgb) throws IOException {
+      if (next >= stripEnd) {
+        this.process(next);
+      }
+      copyRow(strip, next - windowTop, rgb);
+      next++;
+    }
+
+    @Override
+    public void close() throws IOException {
+      upstream.close();
+    }
+
+    /**
+     * Pulls the rows of the strip starting at a row and its halo, and runs the commands on them.
+     */
+    private void process(int top) throws IOException {
+      int height = upstream.getHeight();
+      int width = upstream.getWidth();
+      int end = Math.min(height, top + stripRows);
+      int needed = Math.min(height, end + halo);
+      while (pulled < needed) {
+        byte[] row = new byte[3 * width];
+        upstream.readRow(row);
+        window.add(row);
+        pulled++;
+      }
+      int drop = Math.max(0, top - halo) - windowTop;
+      window.subList(0, drop).clear();
+      windowTop += drop;
+      peakBufferedRows = Math.max(peakBufferedRows, window.size());
+
+      RGBPixel[][] pixels = new RGBPixel[window.size()][width];
+      for (int i = 0; i < window.size(); i++) {
+        byte[] row = window.get(i);
+        for (int j = 0; j < width; j++) {
+          pixels[i][j] = new RGBPixel(row[3 * j] & 0xff, row[3 * j + 1] & 0xff,
+                  row[3 * j + 2] & 0xff);
+        }
+      }
+      processor.getRegistry().put("strip", new RGBImage(window.size(), width, pixels));
+      for (String[] command : commands) {
+        Pipeline.apply(command, "strip", processor);
+      }
+      strip = processor.getRegistry().get("strip");
+      stripEnd = end;
+    }
+  }
+
+  /**
+   * Holds the whole image produced upstream outside of the heap and runs a command on it.
+   */
+  private static final class MaterializedStage implements RowSource {
+    private final ImageModel image;
+    private int next;
+
+    private MaterializedStage(RowSource upstream, String[] command) throws IOException {
+      MappedImage whole = MappedImage.allocate(upstream.getHeight(), upstream.getWidth());
+      byte[] row = new byte[3 * upstream.getWidth()];
+      for (int i = 0; i < upstream.getHeight(); i++) {
+        upstream.readRow(row);
+        whole.writeRow(i, row);
+      }
+      upstream.close();
+      ExtendedImageProcessorImpl processor = new ExtendedImageProcessorImpl();
+      processor.getRegistry().put("image", whole);
+      Pipeline.apply(command, "image", processor);
+      this.image = processor.getRegistry().get("image");
+      if (image != whole) {
+        whole.dispose();
+      }
+    }
+
+    @Override
+    public int getHeight() {
+      return image.getHeight();
+    }
+
+    @Override
+    public int getWidth() {
+      return image.getWidth();
+    }
+
+    @Override
+    public void readRow(byte[] rgb) {
+      copyRow(image, next++, rgb);
+    }
+
+    @Override
+    public void close() {
+      if (image instanceof MappedImage) {
+        ((MappedImage) image).dispose();
+      }
+    }
+  }
+}
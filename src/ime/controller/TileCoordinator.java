@@ -0,0 +1,518 @@
+package ime.controller;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.InputMismatchException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import ime.controller.commands.HorizontalFlip;
+import ime.controller.commands.Load;
+import ime.controller.commands.Save;
+import ime.controller.commands.VerticalFlip;
+import ime.controller.enums.Command;
+import ime.model.ExtendedImageProcessorImpl;
+import ime.model.image.ImageHistogram;
+import ime.model.image.ImageModel;
+import ime.model.image.PixelModel;
+import ime.model.image.RGBImage;
+import ime.model.image.RGBImageV2;
+import ime.model.image.RGBPixel;
+import ime.utils.HistogramGenerator;
+
+/**
+ * The TileCoordinator class applies a pipeline of commands to a single image using several
+ * worker processes, so that the pixels being processed are spread over the heaps of the workers.
+ *
+ * <p>A pipeline is a list of commands without image names, one per line, each applied to the
+ * result of the previous one, for example {@code blur}, {@code brighten 10} or
+ * {@code color-correct}. The image is cut into square tiles, and every tile is sent to a worker
+ * with a halo of neighbouring pixels wide enough for all the filters of the pipeline: 1 pixel for
+ * blur and 2 pixels for sharpen, added up when filters follow each other. Halos stop at the
+ * borders of the image, where the filters see the same missing pixels as on the whole image, so
+ * the stitched tiles are identical to the result of a single process.</p>
+ *
+ * <p>Commands depending on the whole image run in two phases: the workers send the histogram of
+ * the inner part of their tiles, the coordinator merges them, and color-correct then sends the
+ * lookup tables computed from the merged histogram back to the workers. A histogram is drawn by
+ * the coordinator and must be the last command. Flips move pixels across tiles, but every other
+ * command is symmetric, so they are applied to the stitched image instead.</p>
+ *
+ * <p>The workers are child JVMs running {@link SimpleImageController} with the
+ * {@code -tile-worker} option on the local host.</p>
+ */
+public class TileCoordinator {
+
+  private static final int ACCEPT_TIMEOUT_MILLIS = 30000;
+
+  /**
+   * The commands the coordinator applies with the help of the workers.
+   */
+  private static final Set<String> COORDINATOR_COMMANDS = Set.of(
+          Command.HORIZONTAL_FLIP.command(), Command.VERTICAL_FLIP.command(),
+          Command.COLOR_CORRECT.command(), Command.HISTOGRAM.command());
+
+  private final List<String[]> pipeline;
+  private final int workers;
+  private final int tileSize;
+  private final List<String> workerJvmArgs;
+  private final int halo;
+  private final String token;
+
+  private volatile int tileCount;
+
+  /**
+   * Constructs a coordinator.
+   *
+   * @param pipeline      The commands of the pipeline, one per line. Blank lines and lines
+   *                      starting with # are ignored.
+   * @param workers       The number of worker processes.
+   * @param tileSize      The width and height of the tiles.
+   * @param workerJvmArgs The JVM options of the workers, for example a heap size.
+   * @throws IllegalArgumentException If the number of workers or the tile size is not positive.
+   * @throws InputMismatchException   If a command of the pipeline is not supported on tiles.
+   */
+  public TileCoordinator(List<String> pipeline, int workers, int tileSize,
+                         List<String> workerJvmArgs) {
+    if (workers <= 0 || tileSize <= 0) {
+      throw new IllegalArgumentException("Number of workers and tile size must be positive.");
+    }
+    Set<String> supported = new HashSet<>(Pipeline.LOCAL_COMMANDS);
+    supported.addAll(COORDINATOR_COMMANDS);
+    this.pipeline = new Pipeline(pipeline, supported, "tiles").getSteps();
+    for (int k = 0; k < this.pipeline.size() - 1; k++) {
+      if (this.pipeline.get(k)[0].equals(Command.HISTOGRAM.command())) {
+        throw new InputMismatchException("histogram must be the last command of a pipeline.");
+      }
+    }
+    this.workers = workers;
+    this.tileSize = tileSize;
+    this.workerJvmArgs = List.copyOf(workerJvmArgs);
+    this.halo = Pipeline.halo(this.pipeline);
+    this.token = WorkerProcesses.newToken();
+  }
+
+  /**
+   * Returns the width of the halo around every tile.
+   *
+   * @return The halo in pixels.
+   */
+  public int getHalo() {
+    return halo;
+  }
+
+  /**
+   * Returns the number of tiles of the last image processed.
+   *
+   * @return The number of tiles.
+   */
+  public int getTileCount() {
+    return tileCount;
+  }
+
+  /**
+   * Loads an image, applies the pipeline to it and saves the result.
+   *
+   * @param inputPath  The path of the image.
+   * @param outputPath The path of the result, in a format given by its extension.
+   * @param out        The destination of the summary.
+   * @throws IOException If a worker cannot be launched or fails.
+   */
+  public void run(String inputPath, String outputPath, Appendable out) throws IOException {
+    ExtendedImageProcessorImpl processor = new ExtendedImageProcessorImpl();
+    Load.apply(new String[]{inputPath, "source"}).process(processor);
+    long start = System.nanoTime();
+    ImageModel result = this.run(processor.getRegistry().get("source"));
+    long elapsed = System.nanoTime() - start;
+    processor.getRegistry().put("result", result);
+    Save.apply(new String[]{outputPath, "result"}).process(processor);
+    out.append(String.format("Tiles done: %d tiles of %d pixels with a %d pixel halo on %d "
+            + "workers in %.2f s\n", tileCount, tileSize, halo, workers, elapsed / 1e9));
+  }
+
+  /**
+   * Applies the pipeline to an image.
+   *
+   * @param source The image.
+   * @return The result of the pipeline.
+   * @throws IOException If a worker cannot be launched or fails.
+   */
+  public ImageModel run(ImageModel source) throws IOException {
+    List<Tile> tiles = this.cut(source.getHeight(), source.getWidth());
+    tileCount = tiles.size();
+    List<Process> processes = new ArrayList<>();
+    List<Connection> connections = new ArrayList<>();
+    ExecutorService pool = Executors.newFixedThreadPool(workers);
+    try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      for (int k = 0; k < workers; k++) {
+        processes.add(WorkerProcesses.launch(workerJvmArgs, "-tile-worker",
+                server.getLocalPort(), token));
+      }
+      server.setSoTimeout(ACCEPT_TIMEOUT_MILLIS);
+      while (connections.size() < workers) {
+        Connection connection = this.accept(server);
+        if (connection != null) {
+          connections.add(connection);
+        }
+      }
+      for (int k = 0; k < tiles.size(); k++) {
+        connections.get(k % workers).tiles.add(tiles.get(k));
+      }
+
+      this.phase(pool, connections, (connection, tile) -> connection.send(tile, source));
+      boolean flipHorizontal = false;
+      boolean flipVertical = false;
+      List<String[]> batch = new ArrayList<>();
+      for (String[] step : pipeline) {
+        String name = step[0];
+        if (Pipeline.LOCAL_COMMANDS.contains(name)) {
+          batch.add(step);
+          continue;
+        }
+        this.flush(pool, connections, batch);
+        if (name.equals(Command.HORIZONTAL_FLIP.command())) {
+          flipHorizontal = !flipHorizontal;
+        } else if (name.equals(Command.VERTICAL_FLIP.command())) {
+          flipVertical = !flipVertical;
+        } else if (name.equals(Command.COLOR_CORRECT.command())) {
+          int[][] luts = RGBImageV2.colorCorrectionLuts(
+                  this.histogram(pool, connections).getFrequencies());
+          this.phase(pool, connections, (connection, tile) -> connection.lookup(tile, luts));
+        } else {
+          // The histogram of the stitched image does not depend on the flips.
+          return toImageModel(new HistogramGenerator()
+                  .createHistogram(this.histogram(pool, connections)));
+        }
+      }
+      this.flush(pool, connections, batch);
+
+      PixelModel[][] pixels = new RGBPixel[source.getHeight()][source.getWidth()];
+      this.phase(pool, connections, (connection, tile) -> connection.fetch(tile, pixels));
+      ImageModel result = new RGBImage(source.getHeight(), source.getWidth(), pixels);
+      return flip(result, flipHorizontal, flipVertical);
+    } finally {
+      pool.shutdownNow();
+      for (Connection connection : connections) {
+        connection.close();
+      }
+      for (Process process : processes) {
+        try {
+          if (!process.waitFor(5, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+          }
+        } catch (InterruptedException e) {
+          process.destroyForcibly();
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  /**
+   * Cuts an image into tiles, row by row.
+   */
+  private List<Tile> cut(int height, int width) {
+    List<Tile> tiles = new ArrayList<>();
+    for (int top = 0; top < height; top += tileSize) {
+      for (int left = 0; left < width; left += tileSize) {
+        tiles.add(new Tile(tiles.size(), top, left, Math.min(tileSize, height - top),
+                Math.min(tileSize, width - left), height, width, halo));
+      }
+    }
+    return tiles;
+  }
+
+  /**
+   * Sends the tile commands collected so far to the workers.
+   */
+  private void flush(ExecutorService pool, List<Connection> connections, List<String[]> batch)
+          throws IOException {
+    if (batch.isEmpty()) {
+      return;
+    }
+    List<String[]> steps = List.copyOf(batch);
+    batch.clear();
+    this.phase(pool, connections, (connection, tile) -> connection.apply(tile, steps));
+  }
+
+  /**
+   * Merges the histograms of the inner parts of all tiles.
+   */
+  private ImageHistogram histogram(ExecutorService pool, List<Connection> connections)
+          throws IOException {
+    int[][] merged = new int[3][256];
+    this.phase(pool, connections, (connection, tile) -> {
+      int[][] partial = connection.histogram(tile);
+      synchronized (merged) {
+        for (int c = 0; c < 3; c++) {
+          for (int level = 0; level < 256; level++) {
+            merged[c][level] += partial[c][level];
+          }
+        }
+      }
+    });
+    return new ImageHistogram(merged[0], merged[1], merged[2]);
+  }
+
+  /**
+   * Runs a step on every tile, the workers in parallel and the tiles of a worker in turn.
+   */
+  private void phase(ExecutorService pool, List<Connection> connections, TileStep step)
+          throws IOException {
+    List<Future<Void>> futures = new ArrayList<>();
+    for (Connection connection : connections) {
+      futures.add(pool.submit(() -> {
+        for (Tile tile : connection.tiles) {
+          step.run(connection, tile);
+        }
+        return null;
+      }));
+    }
+    try {
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof IOException ? (IOException) cause
+              : new IOException("Tile worker failed: " + cause.getMessage(), cause);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Tile processing interrupted.", e);
+    }
+  }
+
+  /**
+   * Accepts a worker connection, or returns null if it does not present the token.
+   */
+  private Connection accept(ServerSocket server) throws IOException {
+    Socket socket;
+    try {
+      socket = server.accept();
+    } catch (SocketTimeoutException e) {
+      throw new IOException("Tile workers did not connect in time.", e);
+    }
+    Connection connection = new Connection(socket);
+    String hello = connection.in.readUTF();
+    if (!WorkerProcesses.matches("HELLO " + token, hello)) {
+      connection.close();
+      return null;
+    }
+    return connection;
+  }
+
+  /**
+   * Applies the flips of the pipeline to the stitched image.
+   */
+  private static ImageModel flip(ImageModel image, boolean horizontal, boolean vertical)
+          throws IOException {
+    if (!horizontal && !vertical) {
+      return image;
+    }
+    ExtendedImageProcessorImpl processor = new ExtendedImageProcessorImpl();
+    processor.getRegistry().put("image", image);
+    if (horizontal) {
+      HorizontalFlip.apply(new String[]{"image", "image"}).process(processor);
+    }
+    if (vertical) {
+      VerticalFlip.apply(new String[]{"image", "image"}).process(processor);
+    }
+    return processor.getRegistry().get("image");
+  }
+
+  /**
+   * Converts a drawn histogram to an image model.
+   */
+  private static ImageModel toImageModel(BufferedImage image) {
+    RGBPixel[][] pixels = new RGBPixel[image.getHeight()][image.getWidth()];
+    for (int i = 0; i < image.getHeight(); i++) {
+      for (int j = 0; j < image.getWidth(); j++) {
+        int color = image.getRGB(j, i);
+        pixels[i][j] = new RGBPixel((color >> 16) & 0xff, (color >> 8) & 0xff, color & 0xff);
+      }
+    }
+    return new RGBImage(image.getHeight(), image.getWidth(), pixels);
+  }
+
+  /**
+   * A step run on every tile of a phase.
+   */
+  private interface TileStep {
+    void run(Connection connection, Tile tile) throws IOException;
+  }
+
+  /**
+   * A tile of the image: its inner part, and the part sent to the worker including the halo.
+   */
+  private static final class Tile {
+    private final int id;
+    private final int top;
+    private final int left;
+    private final int height;
+    private final int width;
+    private final int outerTop;
+    private final int outerLeft;
+    private final int outerHeight;
+    private final int outerWidth;
+
+    private Tile(int id, int top, int left, int height, int width, int imageHeight,
+                 int imageWidth, int halo) {
+      this.id = id;
+      this.top = top;
+      this.left = left;
+      this.height = height;
+      this.width = width;
+      this.outerTop = Math.max(0, top - halo);
+      this.outerLeft = Math.max(0, left - halo);
+      this.outerHeight = Math.min(imageHeight, top + height + halo) - outerTop;
+      this.outerWidth = Math.min(imageWidth, left + width + halo) - outerLeft;
+    }
+  }
+
+  /**
+   * The connection to a worker and the tiles it holds.
+   */
+  private static final class Connection {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final List<Tile> tiles;
+
+    private Connection(Socket socket) throws IOException {
+      this.socket = socket;
+      this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      this.tiles = new ArrayList<>();
+    }
+
+    /**
+     * Sends a tile and its halo to the worker.
+     */
+    private void send(Tile tile, ImageModel source) throws IOException {
+      out.writeUTF(TileWorker.TILE);
+      out.writeInt(tile.id);
+      out.writeInt(tile.outerHeight);
+      out.writeInt(tile.outerWidth);
+      byte[] row = new byte[3 * tile.outerWidth];
+      for (int i = 0; i < tile.outerHeight; i++) {
+        for (int j = 0; j < tile.outerWidth; j++) {
+          PixelModel pixel = source.getPixelValues(tile.outerTop + i, tile.outerLeft + j);
+          row[3 * j] = (byte) pixel.getR();
+          row[3 * j + 1] = (byte) pixel.getG();
+          row[3 * j + 2] = (byte) pixel.getB();
+        }
+        out.write(row);
+      }
+      this.awaitOk();
+    }
+
+    /**
+     * Applies commands to a tile.
+     */
+    private void apply(Tile tile, List<String[]> steps) throws IOException {
+      out.writeUTF(TileWorker.RUN);
+      out.writeInt(tile.id);
+      out.writeInt(steps.size());
+      for (String[] step : steps) {
+        out.writeUTF(String.join(" ", step));
+      }
+      this.awaitOk();
+    }
+
+    /**
+     * Returns the histogram of the inner part of a tile.
+     */
+    private int[][] histogram(Tile tile) throws IOException {
+      out.writeUTF(TileWorker.HISTOGRAM);
+      this.writeInner(tile);
+      out.flush();
+      int[][] frequencies = new int[3][256];
+      for (int c = 0; c < 3; c++) {
+        for (int level = 0; level < 256; level++) {
+          frequencies[c][level] = in.readInt();
+        }
+      }
+      return frequencies;
+    }
+
+    /**
+     * Applies lookup tables to a tile.
+     */
+    private void lookup(Tile tile, int[][] luts) throws IOException {
+      out.writeUTF(TileWorker.LOOKUP);
+      out.writeInt(tile.id);
+      for (int[] lut : luts) {
+        for (int value : lut) {
+          out.writeInt(value);
+        }
+      }
+      this.awaitOk();
+    }
+
+    /**
+     * Copies the inner part of a tile into the stitched image.
+     */
+    private void fetch(Tile tile, PixelModel[][] pixels) throws IOException {
+      out.writeUTF(TileWorker.FETCH);
+      this.writeInner(tile);
+      out.flush();
+      byte[] row = new byte[3 * tile.width];
+      for (int i = 0; i < tile.height; i++) {
+        in.readFully(row);
+        for (int j = 0; j < tile.width; j++) {
+          pixels[tile.top + i][tile.left + j] = new RGBPixel(row[3 * j] & 0xff,
+                  row[3 * j + 1] & 0xff, row[3 * j + 2] & 0xff);
+        }
+      }
+    }
+
+    /**
+     * Writes a tile and the position of its inner part within the part held by the worker.
+     */
+    private void writeInner(Tile tile) throws IOException {
+      out.writeInt(tile.id);
+      out.writeInt(tile.top - tile.outerTop);
+      out.writeInt(tile.left - tile.outerLeft);
+      out.writeInt(tile.height);
+      out.writeInt(tile.width);
+    }
+
+    /**
+     * Waits for the worker to acknowledge the last request.
+     */
+    private void awaitOk() throws IOException {
+      out.flush();
+      String reply = in.readUTF();
+      if (!reply.equals(TileWorker.OK)) {
+        throw new IOException("Tile worker failed: " + reply);
+      }
+    }
+
+    /**
+     * Tells the worker to exit and closes the connection.
+     */
+    private void close() {
+      try (socket) {
+        out.writeUTF(TileWorker.DONE);
+        out.flush();
+      } catch (IOException e) {
+        // The worker is gone already.
+      }
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package ime.controller;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+
+import ime.model.ExtendedImageProcessorImpl;
+import ime.model.image.ImageModel;
+import ime.model.image.PixelModel;
+import ime.model.image.RGBImage;
+import ime.model.image.RGBPixel;
+import ime.model.store.ImageRegistry;
+
+/**
+ * The TileWorker class is the worker side of a {@link TileCoordinator}. It holds the tiles the
+ * coordinator sends, applies the commands of the pipeline to them with the usual commands of the
+ * application, and sends back their histograms and their pixels on request, until the
+ * coordinator is done.
+ */
+public class TileWorker {
+
+  static final String TILE = "TILE";
+  static final String RUN = "RUN";
+  static final String HISTOGRAM = "HISTOGRAM";
+  static final String LOOKUP = "LOOKUP";
+  static final String FETCH = "FETCH";
+  static final String DONE = "DONE";
+  static final String OK = "OK";
+
+  /**
+   * Serves a coordinator until it is done.
+   *
+   * @param host  The host of the coordinator.
+   * @param port  The port of the coordinator.
+   * @param token The token of the coordinator.
+   * @throws IOException If the connection to the coordinator fails.
+   */
+  public static void run(String host, int port, String token) throws IOException {
+    try (Socket socket = new Socket(host, port)) {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      DataOutputStream out = new DataOutputStream(
+              new BufferedOutputStream(socket.getOutputStream()));
+      out.writeUTF("HELLO " + token);
+      out.flush();
+
+      ExtendedImageProcessorImpl processor = new ExtendedImageProcessorImpl();
+      ImageRegistry registry = processor.getRegistry();
+      while (true) {
+        String request;
+        try {
+          request = in.readUTF();
+        } catch (EOFException e) {
+          return;
+        }
+        switch (request) {
+          case TILE: {
+            String name = tileName(in.readInt());
+            registry.put(name, readImage(in));
+            out.writeUTF(OK);
+            break;
+          }
+          case RUN: {
+            String name = tileName(in.readInt());
+            int count = in.readInt();
+            String failure = null;
+            for (int k = 0; k < count; k++) {
+              String[] step = in.readUTF().split(" ");
+              if (failure != null) {
+                continue;
+              }
+              try {
+                Pipeline.apply(step, name, processor);
+              } catch (RuntimeException e) {
+                failure = step[0] + ": " + e.getMessage();
+              }
+            }
+            out.writeUTF(failure == null ? OK : failure);
+            break;
+          }
+          case HISTOGRAM: {
+            ImageModel tile = registry.get(tileName(in.readInt()));
+            int[][] frequencies = new int[3][256];
+            int top = in.readInt();
+            int left = in.readInt();
+            int height = in.readInt();
+            int width = in.readInt();
+            for (int i = top; i < top + height; i++) {
+              for (int j = left; j < left + width; j++) {
+                PixelModel pixel = tile.getPixelValues(i, j);
+                frequencies[0][pixel.getR()]++;
+                frequencies[1][pixel.getG()]++;
+                frequencies[2][pixel.getB()]++;
+              }
+            }
+            for (int[] channel : frequencies) {
+              for (int count : channel) {
+                out.writeInt(count);
+              }
+            }
+            break;
+          }
+          case LOOKUP: {
+            String name = tileName(in.readInt());
+            int[][] luts = new int[3][256];
+            for (int[] lut : luts) {
+              for (int level = 0; level < 256; level++) {
+                lut[level] = in.readInt();
+              }
+            }
+            registry.put(name, registry.get(name).applyChannelLookup(luts[0], luts[1], luts[2]));
+            out.writeUTF(OK);
+            break;
+          }
+          case FETCH: {
+            ImageModel tile = registry.get(tileName(in.readInt()));
+            int top = in.readInt();
+            int left = in.readInt();
+            int height = in.readInt();
+            int width = in.readInt();
+            byte[] row = new byte[3 * width];
+            for (int i = top; i < top + height; i++) {
+              for (int j = 0; j < width; j++) {
+                PixelModel pixel = tile.getPixelValues(i, left + j);
+                row[3 * j] = (byte) pixel.getR();
+                row[3 * j + 1] = (byte) pixel.getG();
+                row[3 * j + 2] = (byte) pixel.getB();
+              }
+              out.write(row);
+            }
+            break;
+          }
+          case DONE:
+            return;
+          default:
+            throw new IOException("Unexpected message from the coordinator: " + request);
+        }
+        out.flush();
+      }
+    }
+  }
+
+  /**
+   * Returns the name of a tile in the image namespace of the worker.
+   */
+  private static String tileName(int id) {
+    return "tile-" + id;
+  }
+
+  /**
+   * Reads the size and the pixels of a tile.
+   */
+  private static ImageModel readImage(DataInputStream in) throws IOException {
+    int height = in.readInt();
+    int width = in.readInt();
+    RGBPixel[][] pixels = new RGBPixel[height][width];
+    byte[] row = new byte[3 * width];
+    for (int i = 0; i < height; i++) {
+      in.readFully(row);
+      for (int j = 0; j < width; j++) {
+        pixels[i][j] = new RGBPixel(row[3 * j] & 0xff, row[3 * j + 1] & 0xff,
+                row[3 * j + 2] & 0xff);
+      }
+    }
+    return new RGBImage(height, width, pixels);
+  }
+}
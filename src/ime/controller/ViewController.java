@@ -7,6 +7,7 @@ import java.util.stream.Stream;
 import ime.controller.commands.BlueComponent;
 import ime.controller.commands.Blur;
 import ime.controller.commands.Brighten;
+import ime.controller.commands.CachedCommand;
 import ime.controller.commands.ColorCorrect;
 import ime.controller.commands.Compress;
 import ime.controller.commands.GreenComponent;
@@ -43,6 +44,17 @@ import ime.view.IView;
  */
 public class ViewController implements Features {
 
+  /**
+   * The name under which the GUI stores the image it displays.
+   */
+  public static final String CURRENT_IMAGE = "current-image";
+
+  /**
+   * Number of pixels the GUI samples for the histogram panel and color correction, so that
+   * interactive edits stay interactive on very large images.
+   */
+  private static final long HISTOGRAM_SAMPLES = 1_000_000;
+
   private final ExtendedImageProcessor processor;
   private final String currentImage;
   private final String splitView;
@@ -51,16 +63,18 @@ public class ViewController implements Features {
 
   /**
    * Constructs a {@code ViewController} with the specified {@code ExtendedImageProcessor} and view.
-   * Initializes information about the current image, split view, and histogram.
+   * Initializes information about the current image, split view, and histogram, and lets the
+   * processor sample histograms of very large images.
    *
    * @param processor The {@code ExtendedImageProcessor} used for image processing operations.
    * @param view      The associated view for displaying processed images and features.
    */
   public ViewController(ExtendedImageProcessor processor, IView view) {
     this.processor = processor;
+    this.processor.setHistogramSampling(HISTOGRAM_SAMPLES);
     this.view = view;
     view.addFeatures(this);
-    this.currentImage = "current-image";
+    this.currentImage = CURRENT_IMAGE;
     this.splitView = "split-image";
     this.histogram = "histogram";
   }
@@ -274,7 +288,8 @@ public class ViewController implements Features {
       default:
         throw new IllegalArgumentException("Invalid Split view operation");
     }
-    cmd.process(processor);
+    // Moving the split back to an earlier position reuses the preview computed for it.
+    new CachedCommand(command.command(), args, cmd).process(processor);
     view.splitView(splitView);
   }
 
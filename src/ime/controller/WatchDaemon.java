@@ -0,0 +1,466 @@
+package ime.controller;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import ime.model.ExtendedImageProcessorImpl;
+
+/**
+ * The WatchDaemon class watches a drop directory and applies a script template, as described by
+ * {@link BatchRunner}, to every file written into it.
+ *
+ * <p>A new file is picked up once its size and modification time did not change for a settle
+ * delay, so files still being written are left alone. Settled files wait in a bounded queue for
+ * the worker threads. When the queue is full the watching thread blocks; the events it misses
+ * meanwhile make the watch service overflow, which is answered by rescanning the directory, so a
+ * burst of files never grows the queue beyond its capacity.</p>
+ *
+ * <p>Outputs written to {@value ScriptTemplate#OUTPUT} or {@value ScriptTemplate#OUTPUT_DIR} are
+ * first written to a staging directory inside the output directory, then moved into place
+ * atomically once the whole script succeeded. Every processed or failed file is appended to the
+ * journal {@value #JOURNAL} of the output directory. On start, the files of the drop directory
+ * that are not in the journal are processed, so a restart resumes where the daemon stopped
+ * without processing a file twice. Hidden files, starting with a dot, are ignored.</p>
+ */
+public class WatchDaemon implements Closeable {
+
+  /**
+   * The name of the journal file in the output directory.
+   */
+  public static final String JOURNAL = ".ime-journal";
+
+  private static final String STAGING = ".ime-staging";
+
+  private static final Task END = new Task(null, 0);
+
+  private final ScriptTemplate template;
+  private final Path inputDir;
+  private final Path outputDir;
+  private final int threads;
+  private final long settleNanos;
+  private final Appendable out;
+
+  private final BlockingQueue<Task> queue;
+  private final Map<Path, long[]> settling;
+  private final Set<String> handled;
+  private final List<Thread> workers;
+  private final AtomicLong stagingCount;
+
+  private final AtomicLong processed;
+  private final AtomicLong failed;
+  private final LongAdder latencyNanos;
+  private final AtomicLong maxLatencyNanos;
+
+  private WatchService watchService;
+  private Thread watcher;
+  private BufferedWriter journal;
+  private volatile boolean running;
+
+  /**
+   * Constructs a daemon watching a directory.
+   *
+   * @param template      The lines of the script template.
+   * @param inputDir      The drop directory to watch.
+   * @param outputDir     The directory receiving the output files and the journal.
+   * @param threads       The number of worker threads.
+   * @param queueCapacity The number of settled files that may wait for a worker.
+   * @param settleMillis  How long the size and modification time of a new file must stay the same
+   *                      before it is processed.
+   * @param out           The destination of the outcome of every file.
+   * @throws IllegalArgumentException If the number of threads or the capacity is not positive,
+   *                                  or the settle delay is negative.
+   * @throws java.util.InputMismatchException If a line of the template is not a command.
+   */
+  public WatchDaemon(List<String> template, Path inputDir, Path outputDir, int threads,
+                     int queueCapacity, long settleMillis, Appendable out) {
+    if (threads <= 0 || queueCapacity <= 0) {
+      throw new IllegalArgumentException("Number of threads and queue capacity must be positive.");
+    }
+    if (settleMillis < 0) {
+      throw new IllegalArgumentException("Settle delay cannot be negative.");
+    }
+    this.template = new ScriptTemplate(template);
+    this.inputDir = inputDir;
+    this.outputDir = outputDir;
+    this.threads = threads;
+    this.settleNanos = TimeUnit.MILLISECONDS.toNanos(settleMillis);
+    this.out = out;
+
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    this.settling = new ConcurrentHashMap<>();
+    this.handled = ConcurrentHashMap.newKeySet();
+    this.workers = new ArrayList<>();
+    this.stagingCount = new AtomicLong();
+
+    this.processed = new AtomicLong();
+    this.failed = new AtomicLong();
+    this.latencyNanos = new LongAdder();
+    this.maxLatencyNanos = new AtomicLong();
+  }
+
+  /**
+   * Reads the journal, starts watching the drop directory and starts the worker threads. Files
+   * already in the drop directory and missing from the journal are processed.
+   *
+   * @throws IOException If a directory or the journal cannot be read or created.
+   */
+  public synchronized void start() throws IOException {
+    if (running) {
+      throw new IllegalStateException("The daemon is already running.");
+    }
+    Files.createDirectories(outputDir);
+    deleteRecursively(outputDir.resolve(STAGING));
+
+    Path journalPath = outputDir.resolve(JOURNAL);
+    if (Files.exists(journalPath)) {
+      for (String line : Files.readAllLines(journalPath, StandardCharsets.UTF_8)) {
+        String[] fields = line.split("\t");
+        if (fields.length >= 2) {
+          handled.add(fields[1]);
+        }
+      }
+    }
+    journal = Files.newBufferedWriter(journalPath, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+    watchService = inputDir.getFileSystem().newWatchService();
+    inputDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY);
+    running = true;
+
+    for (int k = 0; k < threads; k++) {
+      Thread worker = new Thread(this::work, "watch-worker-" + k);
+      workers.add(worker);
+      worker.start();
+    }
+    watcher = new Thread(this::watch, "watch-" + inputDir.getFileName());
+    watcher.start();
+  }
+
+  /**
+   * Stops watching, lets the workers finish the files they are processing and closes the journal.
+   * Files still waiting in the queue are not in the journal and are processed on the next start.
+   *
+   * @throws IOException If the journal cannot be closed.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (!running) {
+      return;
+    }
+    running = false;
+    watchService.close();
+    watcher.interrupt();
+    try {
+      watcher.join();
+      queue.clear();
+      for (int k = 0; k < threads; k++) {
+        queue.put(END);
+      }
+      for (Thread worker : workers) {
+        worker.join();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    workers.clear();
+    synchronized (journal) {
+      journal.close();
+    }
+  }
+
+  /**
+   * Returns the number of settled files waiting for a worker.
+   *
+   * @return The depth of the queue.
+   */
+  public int getQueueDepth() {
+    return queue.size();
+  }
+
+  /**
+   * Returns the number of new files waiting for their size and modification time to settle.
+   *
+   * @return The number of settling files.
+   */
+  public int getSettlingCount() {
+    return settling.size();
+  }
+
+  /**
+   * Returns the number of files processed successfully since the start.
+   *
+   * @return The number of processed files.
+   */
+  public long getProcessedCount() {
+    return processed.get();
+  }
+
+  /**
+   * Returns the number of files whose script failed since the start.
+   *
+   * @return The number of failed files.
+   */
+  public long getFailedCount() {
+    return failed.get();
+  }
+
+  /**
+   * Returns the average time from a file settling to its outputs being in place, including the
+   * time it waited in the queue.
+   *
+   * @return The average latency in milliseconds, or 0 if no file was processed.
+   */
+  public double getAverageLatencyMillis() {
+    long count = processed.get() + failed.get();
+    return count == 0 ? 0 : latencyNanos.sum() / 1e6 / count;
+  }
+
+  /**
+   * Returns the longest time from a file settling to its outputs being in place.
+   *
+   * @return The maximum latency in milliseconds.
+   */
+  public double getMaxLatencyMillis() {
+    return maxLatencyNanos.get() / 1e6;
+  }
+
+  /**
+   * Watches the drop directory and queues every file once it settled.
+   */
+  private void watch() {
+    try {
+      this.scan();
+      long poll = Math.max(1, TimeUnit.NANOSECONDS.toMillis(settleNanos) / 2);
+      while (running) {
+        WatchKey key = watchService.poll(poll, TimeUnit.MILLISECONDS);
+        if (key != null) {
+          for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+              this.scan();
+            } else {
+              this.track(inputDir.resolve((Path) event.context()));
+            }
+          }
+          key.reset();
+        }
+        this.settle();
+      }
+    } catch (ClosedWatchServiceException | InterruptedException e) {
+      // The daemon is closing.
+    } catch (IOException e) {
+      this.report("Watch failed: " + inputDir + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Tracks every file of the drop directory, for the files created while the daemon was not
+   * watching or while the watch service overflowed.
+   */
+  private void scan() throws IOException {
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(inputDir)) {
+      for (Path file : stream) {
+        this.track(file);
+      }
+    }
+  }
+
+  /**
+   * Starts observing the size of a file that was not handled yet.
+   */
+  private void track(Path file) {
+    String name = file.getFileName().toString();
+    if (!name.startsWith(".") && !handled.contains(name) && Files.isRegularFile(file)) {
+      settling.putIfAbsent(file, new long[]{-1, -1, System.nanoTime()});
+    }
+  }
+
+  /**
+   * Queues the files whose size and modification time did not change for the settle delay.
+   * Blocks while the queue is full.
+   */
+  private void settle() throws InterruptedException {
+    long now = System.nanoTime();
+    Iterator<Map.Entry<Path, long[]>> entries = settling.entrySet().iterator();
+    while (entries.hasNext()) {
+      Map.Entry<Path, long[]> entry = entries.next();
+      Path file = entry.getKey();
+      long[] seen = entry.getValue();
+      long size;
+      long modified;
+      try {
+        size = Files.size(file);
+        modified = Files.getLastModifiedTime(file).toMillis();
+      } catch (IOException e) {
+        entries.remove();
+        continue;
+      }
+
+      if (size != seen[0] || modified != seen[1]) {
+        seen[0] = size;
+        seen[1] = modified;
+        seen[2] = now;
+      } else if (now - seen[2] >= settleNanos) {
+        entries.remove();
+        handled.add(file.getFileName().toString());
+        queue.put(new Task(file, System.nanoTime()));
+      }
+    }
+  }
+
+  /**
+   * Processes queued files until the end of the queue.
+   */
+  private void work() {
+    try {
+      while (true) {
+        Task task = queue.take();
+        if (task == END) {
+          return;
+        }
+        this.process(task);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Runs the script on a file in a staging directory, moves its outputs into place and records
+   * the outcome in the journal.
+   */
+  private void process(Task task) {
+    String name = task.file.getFileName().toString();
+    Path staging = outputDir.resolve(STAGING).resolve(name + "-" + stagingCount.incrementAndGet());
+    String failure;
+    try {
+      Files.createDirectories(staging);
+      failure = template.run(template.getLines(), task.file, staging,
+              new ExtendedImageProcessorImpl());
+      if (failure == null) {
+        this.publish(staging);
+      }
+    } catch (IOException e) {
+      failure = "moving outputs: " + e.getMessage();
+    }
+    try {
+      deleteRecursively(staging);
+    } catch (IOException e) {
+      // Leftovers are removed on the next start.
+    }
+
+    long latency = System.nanoTime() - task.settled;
+    latencyNanos.add(latency);
+    maxLatencyNanos.accumulateAndGet(latency, Math::max);
+    if (failure == null) {
+      processed.incrementAndGet();
+      this.record("done\t" + name);
+      this.report(String.format("Processed: %s in %.1f ms", name, latency / 1e6));
+    } else {
+      failed.incrementAndGet();
+      this.record("failed\t" + name + "\t" + failure.replace('\n', ' ').replace('\t', ' '));
+      this.report("Failed: " + name + ": " + failure);
+    }
+  }
+
+  /**
+   * Moves every output of a staging directory into the output directory.
+   */
+  private void publish(Path staging) throws IOException {
+    try (Stream<Path> outputs = Files.walk(staging)) {
+      for (Path output : (Iterable<Path>) outputs::iterator) {
+        if (Files.isRegularFile(output)) {
+          Path target = outputDir.resolve(staging.relativize(output));
+          Files.createDirectories(target.getParent());
+          Files.move(output, target, StandardCopyOption.ATOMIC_MOVE,
+                  StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+    }
+  }
+
+  /**
+   * Appends a line to the journal and flushes it.
+   */
+  private void record(String line) {
+    synchronized (journal) {
+      try {
+        journal.write(line);
+        journal.newLine();
+        journal.flush();
+      } catch (IOException e) {
+        this.report("Journal failed: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Writes a line to the output of the daemon.
+   */
+  private void report(String line) {
+    synchronized (out) {
+      try {
+        out.append(line).append("\n");
+      } catch (IOException e) {
+        // The outcome is still in the journal and the counters.
+      }
+    }
+  }
+
+  /**
+   * Deletes a file or directory with its contents, if it exists.
+   */
+  private static void deleteRecursively(Path path) throws IOException {
+    if (!Files.exists(path)) {
+      return;
+    }
+    try (Stream<Path> paths = Files.walk(path)) {
+      for (Path file : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+        try {
+          Files.delete(file);
+        } catch (NoSuchFileException e) {
+          // Already gone.
+        }
+      }
+    }
+  }
+
+  /**
+   * A settled file waiting for a worker.
+   */
+  private static final class Task {
+    private final Path file;
+    private final long settled;
+
+    private Task(Path file, long settled) {
+      this.file = file;
+      this.settled = settled;
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package ime.controller;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The WorkerProcesses class holds what the coordinators and the daemon share to talk to other
+ * processes on the loopback interface: the random tokens a peer must present, their comparison,
+ * and the launch of worker JVMs.
+ */
+final class WorkerProcesses {
+
+  private WorkerProcesses() {
+  }
+
+  /**
+   * Returns a new random token of 128 bits, as 32 hexadecimal digits.
+   *
+   * @return The token.
+   */
+  static String newToken() {
+    byte[] random = new byte[16];
+    new SecureRandom().nextBytes(random);
+    StringBuilder hex = new StringBuilder();
+    for (byte b : random) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * Tells whether a peer presented the expected token, in time independent of where they differ.
+   *
+   * @param expected  The expected token or greeting.
+   * @param presented What the peer sent, or null if it sent nothing.
+   * @return true if both are equal.
+   */
+  static boolean matches(String expected, String presented) {
+    return presented != null && MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8),
+            presented.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Launches a worker JVM with the class path of this one, which connects back to a port of the
+   * loopback interface and presents the token passed in {@link ShardCoordinator#TOKEN_VARIABLE}.
+   *
+   * @param jvmArgs The JVM options of the worker, for example a heap size.
+   * @param mode    The command-line option selecting the worker, for example "-worker".
+   * @param port    The port the worker connects to.
+   * @param token   The token the worker presents.
+   * @return The worker process.
+   * @throws IOException If the process cannot be started.
+   */
+  static Process launch(List<String> jvmArgs, String mode, int port, String token)
+          throws IOException {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.addAll(jvmArgs);
+    command.add("-Djava.awt.headless=true");
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(SimpleImageController.class.getName());
+    command.add(mode);
+    command.add(InetAddress.getLoopbackAddress().getHostAddress() + ":" + port);
+
+    ProcessBuilder builder = new ProcessBuilder(command);
+    builder.environment().put(ShardCoordinator.TOKEN_VARIABLE, token);
+    builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+    builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+    return builder.start();
+  }
+}
@@ -1,6 +1,7 @@
 package ime.controller.commands;
 
 import java.util.InputMismatchException;
+import java.util.List;
 
 import ime.controller.enums.Command;
 import ime.model.ExtendedImageProcessor;
@@ -51,4 +52,14 @@ public class Blur implements ImageProcessorCommand {
   public void process(ExtendedImageProcessor p) {
     p.blur(args);
   }
+
+  @Override
+  public List<String> getInputImages() {
+    return List.of(args[0]);
+  }
+
+  @Override
+  public List<String> getOutputImages() {
+    return List.of(args[1]);
+  }
 }
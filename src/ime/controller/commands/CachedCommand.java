@@ -0,0 +1,91 @@
+package ime.controller.commands;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import ime.model.ExtendedImageProcessor;
+
+/**
+ * The CachedCommand class applies a command through the result cache of the processor, so that
+ * applying it again with the same parameters to an image with the same content, for example when
+ * a script repeats a step or the split view of the GUI is shown again, reuses its earlier result.
+ * The result is keyed by the content of the source image, the name of the command and its
+ * arguments besides the names of the images.
+ */
+public class CachedCommand implements ImageProcessorCommand {
+
+  private final String operation;
+  private final List<String> params;
+  private final ImageProcessorCommand command;
+
+  /**
+   * Constructs a command applied through the result cache.
+   *
+   * @param operation The name of the command.
+   * @param args      The arguments of the command, including the names of its images.
+   * @param command   The command, reading one image and storing one image.
+   */
+  public CachedCommand(String operation, String[] args, ImageProcessorCommand command) {
+    this.operation = operation;
+    this.params = params(args, command.getInputImages().get(0),
+            command.getOutputImages().get(0));
+    this.command = command;
+  }
+
+  /**
+   * Creates a command from its arguments, applied through the result cache if it reads one image
+   * and stores one image.
+   *
+   * @param operation The name of the command.
+   * @param args      The arguments of the command.
+   * @param factory   The function creating the command from its arguments.
+   * @return The command.
+   */
+  public static ImageProcessorCommand apply(String operation, String[] args,
+                                            Function<String[], ImageProcessorCommand> factory) {
+    ImageProcessorCommand command = factory.apply(args);
+    if (command.getInputImages().size() != 1 || command.getOutputImages().size() != 1) {
+      return command;
+    }
+    return new CachedCommand(operation, args, command);
+  }
+
+  /**
+   * Returns the arguments of a command without the names of its images, which every command
+   * gives as the source name directly followed by the destination name.
+   */
+  private static List<String> params(String[] args, String imgName, String destImgName) {
+    List<String> params = new ArrayList<>(List.of(args));
+    for (int k = 0; k + 1 < args.length; k++) {
+      if (args[k].equals(imgName) && args[k + 1].equals(destImgName)) {
+        params.subList(k, k + 2).clear();
+        break;
+      }
+    }
+    return params;
+  }
+
+  /**
+   * Executes the command through the result cache of the processor.
+   *
+   * @param p The ImageProcessor used to process the command.
+   * @throws IOException If the command fails to read or write a file.
+   */
+  @Override
+  public void process(ExtendedImageProcessor p) throws IOException {
+    p.memoize(operation, params, command.getInputImages().get(0),
+            command.getOutputImages().get(0), command::process);
+  }
+
+  @Override
+  public List<String> getInputImages() {
+    return command.getInputImages();
+  }
+
+  @Override
+  public List<String> getOutputImages() {
+    return command.getOutputImages();
+  }
+}
@@ -1,6 +1,7 @@
 package ime.controller.commands;
 
 import java.util.InputMismatchException;
+import java.util.List;
 
 import ime.controller.enums.Command;
 import ime.model.ExtendedImageProcessor;
@@ -12,11 +13,23 @@ import ime.utils.MessageUtil;
  *
  * <p>This class implements the {@link ImageProcessorCommand} interface, providing a method to
  * process the compression operation on an image.</p>
+ *
+ * <p>The optional arguments {@code tile <size> [block|global]} switch to tiled compression,
+ * which transforms independent tiles of the given power-of-two size and thresholds either per
+ * tile ({@code block}) or per channel over the whole image ({@code global}, the default).</p>
+ *
+ * <p>The optional arguments {@code ycocg <chroma-percentage> [subsample]} compress in the YCoCg-R
+ * luma/chroma colour space instead, using the first percentage for the luma plane and the given
+ * one for the chroma planes, optionally at half chroma resolution.</p>
  */
 public class Compress implements ImageProcessorCommand {
   private final double percentage;
   private final String imgName;
   private final String destImgName;
+  private final int tileSize;
+  private final boolean perTileThreshold;
+  private final double chromaPercentage;
+  private final boolean subsampleChroma;
 
   /**
    * Constructs a {@code Compress} command with the specified compression percentage,
@@ -27,28 +40,116 @@ public class Compress implements ImageProcessorCommand {
    * @param destImgName The name of the destination image after compression.
    */
   public Compress(double percentage, String imgName, String destImgName) {
+    this(percentage, imgName, destImgName, 0, false);
+  }
+
+  /**
+   * Constructs a tiled {@code Compress} command.
+   *
+   * @param percentage       The compression percentage to apply.
+   * @param imgName          The name of the input image to be compressed.
+   * @param destImgName      The name of the destination image after compression.
+   * @param tileSize         The edge length of a tile, or 0 to compress the whole image at once.
+   * @param perTileThreshold true to pick the threshold per tile, false for one threshold per
+   *                         channel.
+   */
+  public Compress(double percentage, String imgName, String destImgName, int tileSize,
+                  boolean perTileThreshold) {
+    this(percentage, imgName, destImgName, tileSize, perTileThreshold, -1, false);
+  }
+
+  /**
+   * Constructs a luma/chroma {@code Compress} command.
+   *
+   * @param lumaPercentage   The compression percentage to apply to the luma plane.
+   * @param chromaPercentage The compression percentage to apply to the chroma planes.
+   * @param subsampleChroma  true to halve the chroma resolution before compressing.
+   * @param imgName          The name of the input image to be compressed.
+   * @param destImgName      The name of the destination image after compression.
+   */
+  public Compress(double lumaPercentage, double chromaPercentage, boolean subsampleChroma,
+                  String imgName, String destImgName) {
+    this(lumaPercentage, imgName, destImgName, 0, false, chromaPercentage, subsampleChroma);
+  }
+
+  private Compress(double percentage, String imgName, String destImgName, int tileSize,
+                   boolean perTileThreshold, double chromaPercentage, boolean subsampleChroma) {
     this.percentage = percentage;
     this.imgName = imgName;
     this.destImgName = destImgName;
+    this.tileSize = tileSize;
+    this.perTileThreshold = perTileThreshold;
+    this.chromaPercentage = chromaPercentage;
+    this.subsampleChroma = subsampleChroma;
   }
 
   /**
    * A method to create a {@code Compress} command from command line arguments.
    *
    * @param args The command line arguments, including compression percentage, input image name,
-   *             and destination image name.
+   *             destination image name and the optional tile or ycocg arguments.
    * @return A new {@code Compress} command based on the provided arguments.
    * @throws InputMismatchException If the number of arguments is incorrect.
    */
   public static ImageProcessorCommand apply(String[] args) {
-    if (args.length != Command.COMPRESS.requiredArgs()) {
+    int required = Command.COMPRESS.requiredArgs();
+    if (args.length != required && args.length != required + 2 && args.length != required + 3) {
       throw new InputMismatchException(
               MessageUtil.getInvalidNumberOfArgsMessage(Command.COMPRESS));
     }
 
-    double percentage = 0d;
+    double percentage = parsePercentage(args[0]);
+    String imgName = args[1];
+    String destImgName = args[2];
+
+    if (args.length == required) {
+      return new Compress(percentage, imgName, destImgName);
+    }
+
+    if (args[3].equals("ycocg")) {
+      double chromaPercentage = parsePercentage(args[4]);
+      boolean subsampleChroma = false;
+      if (args.length > required + 2) {
+        if (!args[5].equals("subsample")) {
+          throw new InputMismatchException("Invalid args for luma/chroma compression.");
+        }
+        subsampleChroma = true;
+      }
+      return new Compress(percentage, chromaPercentage, subsampleChroma, imgName, destImgName);
+    }
+
+    if (!args[3].equals("tile")) {
+      throw new InputMismatchException("Invalid args for tiled compression.");
+    }
+    int tileSize;
+    try {
+      tileSize = Integer.parseInt(args[4]);
+    } catch (NumberFormatException e) {
+      throw new InputMismatchException("Invalid argument for tile size");
+    }
+    boolean perTileThreshold = false;
+    if (args.length > required + 2) {
+      if (!args[5].equals("block") && !args[5].equals("global")) {
+        throw new InputMismatchException("Threshold mode must be block or global");
+      }
+      perTileThreshold = args[5].equals("block");
+    }
+
+    return new Compress(percentage, imgName, destImgName, tileSize, perTileThreshold);
+  }
+
+  /**
+   * Parses a compression percentage argument.
+   *
+   * @param arg The argument to parse.
+   * @return The percentage.
+   * @throws InputMismatchException   If the argument is not a number.
+   * @throws IllegalArgumentException If the percentage is not between 0 and 100.
+   */
+  private static double parsePercentage(String arg) {
+    double percentage;
     try {
-      percentage = Double.parseDouble(args[0]);
+      percentage = Double.parseDouble(arg);
     } catch (NumberFormatException e) {
       throw new InputMismatchException("Invalid argument for percentage");
     }
@@ -56,10 +157,7 @@ public class Compress implements ImageProcessorCommand {
     if (percentage < 0 || percentage > 100) {
       throw new IllegalArgumentException("Compression percentage must be between 0 and 100");
     }
-    String imgName = args[1];
-    String destImgName = args[2];
-
-    return new Compress(percentage, imgName, destImgName);
+    return percentage;
   }
 
   /**
@@ -69,7 +167,22 @@ public class Compress implements ImageProcessorCommand {
    */
   @Override
   public void process(ExtendedImageProcessor p) {
-    p.compress(percentage, imgName, destImgName);
+    if (chromaPercentage >= 0) {
+      p.compressLumaChroma(percentage, chromaPercentage, subsampleChroma, imgName, destImgName);
+    } else if (tileSize > 0) {
+      p.compress(percentage, imgName, destImgName, tileSize, perTileThreshold);
+    } else {
+      p.compress(percentage, imgName, destImgName);
+    }
   }
 
+  @Override
+  public List<String> getInputImages() {
+    return List.of(imgName);
+  }
+
+  @Override
+  public List<String> getOutputImages() {
+    return List.of(destImgName);
+  }
 }
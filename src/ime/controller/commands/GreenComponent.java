@@ -1,6 +1,7 @@
 package ime.controller.commands;
 
 import java.util.InputMismatchException;
+import java.util.List;
 
 import ime.controller.enums.Command;
 import ime.model.ExtendedImageProcessor;
@@ -55,4 +56,14 @@ public class GreenComponent implements ImageProcessorCommand {
   public void process(ExtendedImageProcessor p) {
     p.greenComponent(args);
   }
+
+  @Override
+  public List<String> getInputImages() {
+    return List.of(args[0]);
+  }
+
+  @Override
+  public List<String> getOutputImages() {
+    return List.of(args[1]);
+  }
 }
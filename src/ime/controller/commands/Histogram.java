@@ -1,6 +1,7 @@
 package ime.controller.commands;
 
 import java.util.InputMismatchException;
+import java.util.List;
 
 import ime.controller.enums.Command;
 import ime.model.ExtendedImageProcessor;
@@ -58,4 +59,14 @@ public class Histogram implements ImageProcessorCommand {
   public void process(ExtendedImageProcessor p) {
     p.histogram(imgName, destImgName);
   }
+
+  @Override
+  public List<String> getInputImages() {
+    return List.of(imgName);
+  }
+
+  @Override
+  public List<String> getOutputImages() {
+    return List.of(destImgName);
+  }
 }
@@ -1,6 +1,7 @@
 package ime.controller.commands;
 
 import java.io.IOException;
+import java.util.List;
 
 import ime.model.ExtendedImageProcessor;
 
@@ -18,4 +19,38 @@ public interface ImageProcessorCommand {
    * @param p The ImageProcessor on which the command should be applied.
    */
   void process(ExtendedImageProcessor p) throws IOException;
+
+  /**
+   * Returns the names of the images this command reads from the ImageProcessor.
+   *
+   * @return The names of the input images, empty if the command reads none.
+   */
+  List<String> getInputImages();
+
+  /**
+   * Returns the names of the images this command stores in the ImageProcessor.
+   *
+   * @return The names of the output images, empty if the command stores none.
+   */
+  List<String> getOutputImages();
+
+  /**
+   * Returns the files this command reads, so that a scheduler orders it after the commands
+   * writing them.
+   *
+   * @return The paths of the input files as given to the command, empty if it reads none.
+   */
+  default List<String> getInputFiles() {
+    return List.of();
+  }
+
+  /**
+   * Returns the files this command writes, so that a scheduler orders it after the commands
+   * reading or writing them.
+   *
+   * @return The paths of the output files as given to the command, empty if it writes none.
+   */
+  default List<String> getOutputFiles() {
+    return List.of();
+  }
 }
@@ -0,0 +1,73 @@
+package ime.controller.commands;
+
+import java.util.Arrays;
+import java.util.InputMismatchException;
+import java.util.List;
+
+import ime.controller.enums.Command;
+import ime.model.ExtendedImageProcessor;
+import ime.utils.MessageUtil;
+
+/**
+ * The Keep class represents a script directive that marks images as kept. When a script is run
+ * with dead image release, images named by a keep command are never released after their last
+ * use, so they remain available once the script finishes. The command itself does not touch the
+ * ImageProcessor.
+ */
+public class Keep implements ImageProcessorCommand {
+
+  private final List<String> imgNames;
+
+  /**
+   * Constructs a Keep command for the given image names.
+   *
+   * @param imgNames The names of the images to keep.
+   */
+  public Keep(String... imgNames) {
+    this.imgNames = List.of(imgNames);
+  }
+
+  /**
+   * Creates and returns a Keep command based on the input provided through an array of
+   * arguments.
+   *
+   * @param args The names of the images to keep, at least one.
+   * @return A Keep command for the given image names.
+   */
+  public static ImageProcessorCommand apply(String[] args) {
+    if (args.length < Command.KEEP.requiredArgs()) {
+      throw new InputMismatchException(
+              MessageUtil.getInvalidNumberOfArgsMessage(Command.KEEP));
+    }
+    return new Keep(Arrays.copyOf(args, args.length));
+  }
+
+  /**
+   * Returns the names of the images marked as kept.
+   *
+   * @return The names of the kept images.
+   */
+  public List<String> getImageNames() {
+    return imgNames;
+  }
+
+  /**
+   * Keeping an image is resolved before the script runs, so there is nothing left to process.
+   *
+   * @param p The ImageProcessor used to process the command.
+   */
+  @Override
+  public void process(ExtendedImageProcessor p) {
+    // Nothing to process.
+  }
+
+  @Override
+  public List<String> getInputImages() {
+    return List.of();
+  }
+
+  @Override
+  public List<String> getOutputImages() {
+    return List.of();
+  }
+}
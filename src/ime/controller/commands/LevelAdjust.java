@@ -2,6 +2,7 @@ package ime.controller.commands;
 
 import java.io.IOException;
 import java.util.InputMismatchException;
+import java.util.List;
 
 import ime.controller.enums.Command;
 import ime.model.ExtendedImageProcessor;
@@ -52,5 +53,14 @@ public class LevelAdjust implements ImageProcessorCommand {
   public void process(ExtendedImageProcessor p) throws IOException {
     p.levelsAdjust(args);
   }
-}
 
+  @Override
+  public List<String> getInputImages() {
+    return List.of(args[3]);
+  }
+
+  @Override
+  public List<String> getOutputImages() {
+    return List.of(args[4]);
+  }
+}
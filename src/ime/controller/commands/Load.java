@@ -2,11 +2,14 @@ package ime.controller.commands;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Paths;
 import java.util.InputMismatchException;
+import java.util.List;
 
 import ime.controller.enums.Command;
 import ime.controller.helpers.image.ImageHelperFactory;
 import ime.controller.helpers.image.ImageHelperFactoryImpl;
+import ime.controller.helpers.image.PPMRowReader;
 import ime.model.ExtendedImageProcessor;
 import ime.utils.MessageUtil;
 
@@ -49,18 +52,61 @@ public class Load implements ImageProcessorCommand {
 
   /**
    * Executes the Load command by reading an image from the specified file path using an
-   * ImageHelper, and then associating it with the provided image name.
+   * ImageHelper, and then associating it with the provided image name. A PPM file of an image
+   * the processor keeps outside of the heap is streamed into it row by row instead. The file is
+   * loaded through the decoded-image cache of the processor, if it has one.
    *
    * @param p The ImageProcessor used to process the command.
    */
   @Override
   public void process(ExtendedImageProcessor p) {
     try {
-      ImageHelperFactory factory = new ImageHelperFactoryImpl();
-      InputStream inputStream = factory.getImageHelper(imgPath).readImage(imgPath);
-      p.load(imgName, inputStream);
+      p.loadFile(imgName, imgPath, this::decode);
     } catch (IOException ex) {
       throw new RuntimeException("IO Exception " + ex.getMessage());
     }
   }
+
+  /**
+   * Reads and decodes the file into the processor.
+   */
+  private void decode(ExtendedImageProcessor p) throws IOException {
+    if (imgPath.toLowerCase().endsWith(".ppm") && this.loadOffHeap(p)) {
+      return;
+    }
+    ImageHelperFactory factory = new ImageHelperFactoryImpl();
+    InputStream inputStream = factory.getImageHelper(imgPath).readImage(imgPath);
+    p.load(imgName, inputStream);
+  }
+
+  /**
+   * Streams a PPM file into the processor if it keeps images of its size outside of the heap.
+   */
+  private boolean loadOffHeap(ExtendedImageProcessor p) throws IOException {
+    PPMRowReader reader;
+    try {
+      reader = new PPMRowReader(Paths.get(imgPath));
+    } catch (IOException | IllegalArgumentException e) {
+      // The image helper reports the problem of the file.
+      return false;
+    }
+    try (reader) {
+      return p.loadOffHeap(imgName, reader.getHeight(), reader.getWidth(), reader::readRow);
+    }
+  }
+
+  @Override
+  public List<String> getInputImages() {
+    return List.of();
+  }
+
+  @Override
+  public List<String> getOutputImages() {
+    return List.of(imgName);
+  }
+
+  @Override
+  public List<String> getInputFiles() {
+    return List.of(imgPath);
+  }
 }
@@ -1,6 +1,7 @@
 package ime.controller.commands;
 
 import java.util.InputMismatchException;
+import java.util.List;
 
 import ime.controller.enums.Command;
 import ime.model.ExtendedImageProcessor;
@@ -65,4 +66,14 @@ public class RGBCombine implements ImageProcessorCommand {
   public void process(ExtendedImageProcessor p) {
     p.rgbCombine(redImg, greenImg, blueImg, destImgName);
   }
+
+  @Override
+  public List<String> getInputImages() {
+    return List.of(redImg, greenImg, blueImg);
+  }
+
+  @Override
+  public List<String> getOutputImages() {
+    return List.of(destImgName);
+  }
 }
@@ -1,6 +1,7 @@
 package ime.controller.commands;
 
 import java.util.InputMismatchException;
+import java.util.List;
 
 import ime.controller.enums.Command;
 import ime.model.ExtendedImageProcessor;
@@ -64,4 +65,14 @@ public class RGBSplit implements ImageProcessorCommand {
   public void process(ExtendedImageProcessor p) {
     p.rgbSplit(imgName, destRedImg, destGreenImg, destBlueImg);
   }
+
+  @Override
+  public List<String> getInputImages() {
+    return List.of(imgName);
+  }
+
+  @Override
+  public List<String> getOutputImages() {
+    return List.of(destRedImg, destGreenImg, destBlueImg);
+  }
 }
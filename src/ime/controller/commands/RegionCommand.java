@@ -0,0 +1,107 @@
+package ime.controller.commands;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.InputMismatchException;
+import java.util.List;
+import java.util.function.Function;
+
+import ime.model.ExtendedImageProcessor;
+import ime.model.image.Region;
+
+/**
+ * The RegionCommand class restricts a command to a region of its image, given by the
+ * {@value #OPTION} option at the end of the command, for example
+ * {@code blur paris paris-blur --roi 10 20 100 50} blurs the 100x50 rectangle whose top left
+ * pixel is at column 10 and row 20. Only the pixels of the region, and of a halo around it as
+ * wide as the filter of the command, are computed, and the other pixels are those of the source
+ * image.
+ */
+public class RegionCommand implements ImageProcessorCommand {
+
+  /**
+   * The option giving the region of a command.
+   */
+  public static final String OPTION = "--roi";
+
+  private final ImageProcessorCommand command;
+  private final Region region;
+  private final int halo;
+
+  /**
+   * Constructs a command restricted to a region.
+   *
+   * @param command The command, reading one image and storing one image.
+   * @param region  The region.
+   * @param halo    The number of pixels around a pixel the command reads.
+   */
+  public RegionCommand(ImageProcessorCommand command, Region region, int halo) {
+    this.command = command;
+    this.region = region;
+    this.halo = halo;
+  }
+
+  /**
+   * Creates a command from its arguments, restricted to a region if they end with the
+   * {@value #OPTION} option followed by the column, row, width and height of the region.
+   *
+   * @param args    The arguments of the command.
+   * @param factory The function creating the command from its other arguments.
+   * @param halo    The number of pixels around a pixel the command reads.
+   * @return The command.
+   * @throws InputMismatchException If the region is malformed or the command does not read one
+   *                                image and store one image.
+   */
+  public static ImageProcessorCommand apply(String[] args,
+                                            Function<String[], ImageProcessorCommand> factory,
+                                            int halo) {
+    int at = Arrays.asList(args).indexOf(OPTION);
+    if (at < 0) {
+      return factory.apply(args);
+    }
+    if (at != args.length - 5) {
+      throw new InputMismatchException(OPTION + " must be the last option, followed by x y "
+              + "width height.");
+    }
+    Region region;
+    try {
+      region = new Region(Integer.parseInt(args[at + 1]), Integer.parseInt(args[at + 2]),
+              Integer.parseInt(args[at + 3]), Integer.parseInt(args[at + 4]));
+    } catch (NumberFormatException e) {
+      throw new InputMismatchException("Invalid region: " + String.join(" ",
+              Arrays.copyOfRange(args, at + 1, args.length)));
+    } catch (IllegalArgumentException e) {
+      throw new InputMismatchException(e.getMessage());
+    }
+
+    ImageProcessorCommand command = factory.apply(Arrays.copyOf(args, at));
+    if (command.getInputImages().size() != 1 || command.getOutputImages().size() != 1) {
+      throw new InputMismatchException(OPTION + " needs a command reading one image and "
+              + "storing one image.");
+    }
+    return new RegionCommand(command, region, halo);
+  }
+
+  /**
+   * Executes the command on the region of its source image and stores the source image with
+   * the result inside the region.
+   *
+   * @param p The ImageProcessor used to process the command.
+   * @throws IOException If the command fails to read or write a file.
+   */
+  @Override
+  public void process(ExtendedImageProcessor p) throws IOException {
+    p.applyToRegion(region, halo, command.getInputImages().get(0),
+            command.getOutputImages().get(0), command::process);
+  }
+
+  @Override
+  public List<String> getInputImages() {
+    return command.getInputImages();
+  }
+
+  @Override
+  public List<String> getOutputImages() {
+    return command.getOutputImages();
+  }
+}
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
 import java.util.InputMismatchException;
+import java.util.List;
 
 import ime.controller.ImageController;
 import ime.controller.ImageControllerInterface;
@@ -63,4 +64,40 @@ public class RunScript implements ImageProcessorCommand {
     ImageControllerInterface imageController = new ImageController(in, System.out);
     imageController.execute(p);
   }
+
+  /**
+   * Returns the path of the script file executed by this command.
+   *
+   * @return The path of the script file.
+   */
+  public String getFilepath() {
+    return filepath;
+  }
+
+  /**
+   * The images read by a script depend on its contents, which are only known once the file is
+   * read. A {@link ime.controller.ScriptPlan} expands the script in place instead.
+   *
+   * @return An empty list.
+   */
+  @Override
+  public List<String> getInputImages() {
+    return List.of();
+  }
+
+  /**
+   * The images stored by a script depend on its contents, which are only known once the file is
+   * read. A {@link ime.controller.ScriptPlan} expands the script in place instead.
+   *
+   * @return An empty list.
+   */
+  @Override
+  public List<String> getOutputImages() {
+    return List.of();
+  }
+
+  @Override
+  public List<String> getInputFiles() {
+    return List.of(filepath);
+  }
 }
@@ -2,11 +2,14 @@ package ime.controller.commands;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.Paths;
 import java.util.InputMismatchException;
+import java.util.List;
 
 import ime.controller.enums.Command;
 import ime.controller.helpers.image.ImageHelper;
 import ime.controller.helpers.image.ImageHelperFactoryImpl;
+import ime.controller.helpers.image.PPMRowWriter;
 import ime.model.ExtendedImageProcessor;
 import ime.utils.MessageUtil;
 
@@ -49,7 +52,8 @@ public class Save implements ImageProcessorCommand {
   /**
    * Executes the Save command by saving the image processed by the ImageProcessor to the
    * specified file path.
-   * It uses an ImageHelper to perform the actual image saving operation.
+   * It uses an ImageHelper to perform the actual image saving operation, except for an image
+   * kept outside of the heap saved as PPM, whose rows are streamed to the file.
    *
    * @param p The ImageProcessor used to process the command.
    * @throws RuntimeException if an IO Exception occurs during the image saving process.
@@ -57,6 +61,9 @@ public class Save implements ImageProcessorCommand {
   @Override
   public void process(ExtendedImageProcessor p) {
     try {
+      if (imgPath.toLowerCase().endsWith(".ppm") && p.saveOffHeap(imgName, this::writeRows)) {
+        return;
+      }
       // Get the image to be saved from the ImageProcessor
       OutputStream outputStream = p.save(imgName);
       // Initialize an ImageHelper (e.g., ImageHelperFactoryImpl) to save the image
@@ -66,4 +73,33 @@ public class Save implements ImageProcessorCommand {
       throw new RuntimeException("Issue occurred while saving the file.");
     }
   }
+
+  /**
+   * Writes the rows of an image to a plain PPM file.
+   */
+  private void writeRows(int height, int width, ExtendedImageProcessor.RowReader rows)
+          throws IOException {
+    try (PPMRowWriter writer = new PPMRowWriter(Paths.get(imgPath), width, height, false)) {
+      byte[] row = new byte[3 * width];
+      for (int i = 0; i < height; i++) {
+        rows.readRow(row);
+        writer.writeRow(row);
+      }
+    }
+  }
+
+  @Override
+  public List<String> getInputImages() {
+    return List.of(imgName);
+  }
+
+  @Override
+  public List<String> getOutputImages() {
+    return List.of();
+  }
+
+  @Override
+  public List<String> getOutputFiles() {
+    return List.of(imgPath);
+  }
 }
@@ -1,6 +1,7 @@
 package ime.controller.commands;
 
 import java.util.InputMismatchException;
+import java.util.List;
 
 import ime.controller.enums.Command;
 import ime.model.ExtendedImageProcessor;
@@ -59,4 +60,14 @@ public class VerticalFlip implements ImageProcessorCommand {
   public void process(ExtendedImageProcessor p) {
     p.verticalFlip(imgName, destImgName);
   }
+
+  @Override
+  public List<String> getInputImages() {
+    return List.of(imgName);
+  }
+
+  @Override
+  public List<String> getOutputImages() {
+    return List.of(destImgName);
+  }
 }
@@ -26,7 +26,8 @@ public enum Command {
   COLOR_CORRECT("color-correct", 2),
   LEVEL_ADJUST("levels-adjust", 5),
   HISTOGRAM("histogram", 2),
-  COMPRESS("compress", 3);
+  COMPRESS("compress", 3),
+  KEEP("keep", 1);
 
   private final String command;
 
@@ -44,14 +44,18 @@ public class GenericImageHelper implements ImageHelper {
       StringBuilder imageData = new StringBuilder();
       imageData.append(width).append(" ").append(height).append(System.lineSeparator());
 
+      // Greyscale images are read from their raster, since getRGB would convert their linear
+      // grey values to sRGB
+      boolean grey = image.getType() == BufferedImage.TYPE_BYTE_GRAY;
+
       // Iterate through each pixel of the image
       for (int i = 0; i < height; i++) {
         for (int j = 0; j < width; j++) {
-          Color rgb = new Color(image.getRGB(j, i));
+          Color rgb = grey ? null : new Color(image.getRGB(j, i));
 
-          int red = rgb.getRed();
-          int green = rgb.getGreen();
-          int blue = rgb.getBlue();
+          int red = grey ? image.getRaster().getSample(j, i, 0) : rgb.getRed();
+          int green = grey ? red : rgb.getGreen();
+          int blue = grey ? red : rgb.getBlue();
 
           // Update the maximum RGB value
           max = Math.max(max, Math.max(red, Math.max(green, blue)));
@@ -75,7 +79,8 @@ public class GenericImageHelper implements ImageHelper {
 
   /**
    * Saves an ImageModel as an image file in a generic format (e.g., JPG or PNG) at the
-   * specified file path.
+   * specified file path. A PNG image whose pixels are all grey is written as a single channel
+   * greyscale PNG.
    *
    * @param outputStream The outputStream to be saved as an image.
    * @param filepath     The path where the image will be saved.
@@ -91,22 +96,30 @@ public class GenericImageHelper implements ImageHelper {
     int height = sc.nextInt();
     int max = sc.nextInt();
 
-    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-
-    WritableRaster raster = image.getRaster();
-
-    int[] pixel = new int[3]; // RGB components
-    for (int x = 0; x < height; x++) {
-      for (int y = 0; y < width; y++) {
-        pixel[0] = sc.nextInt();   // red component
-        pixel[1] = sc.nextInt();   // green component
-        pixel[2] = sc.nextInt();   // blue component
-        // setPixels
-        raster.setPixel(y, x, pixel);
-      }
+    int[] samples = new int[3 * width * height];
+    boolean grey = true;
+    for (int k = 0; k < samples.length; k += 3) {
+      samples[k] = sc.nextInt();       // red component
+      samples[k + 1] = sc.nextInt();   // green component
+      samples[k + 2] = sc.nextInt();   // blue component
+      grey = grey && samples[k] == samples[k + 1] && samples[k] == samples[k + 2];
     }
     String[] parts = filepath.split("\\.");
     String fileType = parts[parts.length - 1];
+
+    BufferedImage image;
+    if (grey && fileType.equals("png")) {
+      image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+      int[] values = new int[width * height];
+      for (int k = 0; k < values.length; k++) {
+        values[k] = samples[3 * k];
+      }
+      image.getRaster().setSamples(0, 0, width, height, 0, values);
+    } else {
+      image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      WritableRaster raster = image.getRaster();
+      raster.setPixels(0, 0, width, height, samples);
+    }
     try {
       File output = new File(filepath);
       ImageIO.write(image, fileType, output);
@@ -16,6 +16,9 @@ public class ImageHelperFactoryImpl implements ImageHelperFactory {
       case "ppm":
         imageHelper = new PPMImageHelper();
         break;
+      case "pgm":
+        imageHelper = new PGMImageHelper();
+        break;
       case "jpg":
       case "png":
       case "jpe g":
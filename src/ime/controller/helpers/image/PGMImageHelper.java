@@ -0,0 +1,158 @@
+package ime.controller.helpers.image;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Scanner;
+
+/**
+ * The PGMImageHelper class provides utility methods for reading and saving PGM (Portable
+ * Graymap Format) image files, which hold one grey value per pixel. Both the plain P2 and the
+ * raw P5 variants are read, and images are saved as plain P2 files like the PPM files of
+ * {@link PPMImageHelper}.
+ */
+public class PGMImageHelper implements ImageHelper {
+
+  /**
+   * Reads a PGM image file, expanding every grey value to a pixel with three equal channels.
+   *
+   * @param filepath The path to the PGM image file to be read.
+   * @return A inputStream object representing the image.
+   * @throws IOException If the file cannot be read.
+   * @throws IllegalArgumentException If the file is not a PGM file.
+   */
+  @Override
+  public InputStream readImage(String filepath) throws IOException {
+    byte[] file;
+    try {
+      file = Files.readAllBytes(Paths.get(filepath));
+    } catch (IOException ioe) {
+      throw new IOException("Invalid file path");
+    }
+
+    int[] pos = {0};
+    String magic = nextToken(file, pos);
+    if (!magic.equals("P2") && !magic.equals("P5")) {
+      throw new IllegalArgumentException("Invalid PGM file: "
+              + "PGM file should begin with P2 or P5");
+    }
+    int width;
+    int height;
+    int maxValue;
+    try {
+      width = Integer.parseInt(nextToken(file, pos));
+      height = Integer.parseInt(nextToken(file, pos));
+      maxValue = Integer.parseInt(nextToken(file, pos));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid PGM file: malformed header");
+    }
+    if (width <= 0 || height <= 0 || maxValue <= 0 || maxValue > 65535) {
+      throw new IllegalArgumentException("Invalid PGM file: malformed header");
+    }
+
+    StringBuilder builder = new StringBuilder();
+    builder.append(width).append(System.lineSeparator());
+    builder.append(height).append(System.lineSeparator());
+    builder.append(Math.min(maxValue, 255)).append(System.lineSeparator());
+    // The raw variant has a single whitespace byte between the header and the values.
+    pos[0]++;
+    int bytesPerValue = maxValue < 256 ? 1 : 2;
+    for (long k = 0; k < (long) width * height; k++) {
+      int value;
+      if (magic.equals("P2")) {
+        value = Integer.parseInt(nextToken(file, pos));
+      } else {
+        if (pos[0] + bytesPerValue > file.length) {
+          throw new IllegalArgumentException("Invalid PGM file: missing pixel values");
+        }
+        value = file[pos[0]++] & 0xFF;
+        if (bytesPerValue == 2) {
+          value = value << 8 | file[pos[0]++] & 0xFF;
+        }
+      }
+      if (maxValue > 255) {
+        value = value * 255 / maxValue;
+      }
+      String grey = value + System.lineSeparator();
+      builder.append(grey).append(grey).append(grey);
+    }
+
+    return new ByteArrayInputStream(builder.toString().getBytes());
+  }
+
+  /**
+   * Returns the next whitespace separated token of a plain header or plain file, skipping the
+   * comments, which run from a '#' to the end of the line.
+   */
+  private static String nextToken(byte[] file, int[] pos) {
+    int k = pos[0];
+    while (k < file.length) {
+      if (file[k] == '#') {
+        while (k < file.length && file[k] != '\n' && file[k] != '\r') {
+          k++;
+        }
+      } else if (Character.isWhitespace(file[k])) {
+        k++;
+      } else {
+        break;
+      }
+    }
+    int start = k;
+    while (k < file.length && !Character.isWhitespace(file[k]) && file[k] != '#') {
+      k++;
+    }
+    if (start == k) {
+      throw new IllegalArgumentException("Invalid PGM file: unexpected end of file");
+    }
+    pos[0] = k;
+    return new String(file, start, k - start);
+  }
+
+  /**
+   * Saves a greyscale image as a plain PGM image file.
+   *
+   * @param outputStream The OutputStream to be saved.
+   * @param filepath     The path to the PGM image file where the image will be saved.
+   * @throws IOException If an I/O error occurs during the save operation.
+   * @throws IllegalArgumentException If a pixel of the image is not grey.
+   */
+  @Override
+  public void saveImage(OutputStream outputStream, String filepath) throws IOException {
+    String data = outputStream.toString();
+    Scanner sc = new Scanner(data);
+
+    StringBuilder sb = new StringBuilder();
+
+    int width = sc.nextInt();
+    int height = sc.nextInt();
+    int maxValue = sc.nextInt();
+
+    sb.append("P2").append(System.lineSeparator());
+    sb.append(width).append(" ").append(height).append(System.lineSeparator());
+    sb.append(maxValue).append(System.lineSeparator());
+
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        int r = sc.nextInt();
+        int g = sc.nextInt();
+        int b = sc.nextInt();
+        if (r != g || r != b) {
+          throw new IllegalArgumentException("Only greyscale images can be saved as PGM files.");
+        }
+        sb.append(r).append(System.lineSeparator());
+      }
+    }
+
+    try {
+      FileWriter myWriter = new FileWriter(filepath);
+      myWriter.write(sb.toString());
+      myWriter.close();
+    } catch (IOException e) {
+      throw new IOException("Invalid path! please provide the valid path");
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package ime.controller.helpers.image;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The PPMRowReader class decodes a PPM file one row at a time, in the plain (P3) or the raw (P6)
+ * flavour. Comments of the header and of the plain pixel data are skipped. Like
+ * {@link PPMImageHelper}, values are not rescaled by the maximum value of the file but clamped
+ * to 255.
+ */
+public class PPMRowReader implements RowSource {
+
+  private final InputStream in;
+  private final boolean binary;
+  private final int width;
+  private final int height;
+  private final int maxValue;
+
+  /**
+   * Opens a PPM file and reads its header.
+   *
+   * @param file The PPM file.
+   * @throws IOException              If the file cannot be read.
+   * @throws IllegalArgumentException If the file is not a P3 or P6 PPM file.
+   */
+  public PPMRowReader(Path file) throws IOException {
+    this.in = new BufferedInputStream(Files.newInputStream(file), 1 << 16);
+    try {
+      String magic = this.nextToken();
+      if (!magic.equals("P3") && !magic.equals("P6")) {
+        throw new IllegalArgumentException("Invalid PPM file: it should begin with P3 or P6");
+      }
+      this.binary = magic.equals("P6");
+      this.width = this.nextInt();
+      this.height = this.nextInt();
+      this.maxValue = this.nextInt();
+      if (width <= 0 || height <= 0 || maxValue <= 0 || maxValue > 65535) {
+        throw new IllegalArgumentException("Invalid file");
+      }
+    } catch (IOException | RuntimeException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Tells whether the file is a raw (P6) PPM file.
+   *
+   * @return true for P6, false for P3.
+   */
+  public boolean isBinary() {
+    return binary;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public void readRow(byte[] rgb) throws IOException {
+    for (int k = 0; k < 3 * width; k++) {
+      int value;
+      if (!binary) {
+        value = this.nextInt();
+      } else if (maxValue < 256) {
+        value = this.nextByte();
+      } else {
+        value = (this.nextByte() << 8) | this.nextByte();
+      }
+      rgb[k] = (byte) Math.min(255, value);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  /**
+   * Reads a byte of raw pixel data.
+   */
+  private int nextByte() throws IOException {
+    int b = in.read();
+    if (b < 0) {
+      throw new IOException("Unexpected end of PPM file.");
+    }
+    return b;
+  }
+
+  /**
+   * Reads a non-negative decimal number, skipping whitespace and comments before it.
+   */
+  private int nextInt() throws IOException {
+    String token = this.nextToken();
+    try {
+      int value = Integer.parseInt(token);
+      if (value < 0) {
+        throw new IllegalArgumentException("Invalid file.");
+      }
+      return value;
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid PPM value: " + token);
+    }
+  }
+
+  /**
+   * Reads a token, skipping whitespace and comments before it. The whitespace character ending
+   * the token is consumed, so that the raw pixel data of a P6 file starts right after the header.
+   */
+  private String nextToken() throws IOException {
+    int c = in.read();
+    while (c == '#' || Character.isWhitespace(c)) {
+      if (c == '#') {
+        while (c >= 0 && c != '\n' && c != '\r') {
+          c = in.read();
+        }
+      }
+      c = in.read();
+    }
+    if (c < 0) {
+      throw new IOException("Unexpected end of PPM file.");
+    }
+    StringBuilder token = new StringBuilder();
+    while (c >= 0 && !Character.isWhitespace(c) && c != '#') {
+      token.append((char) c);
+      c = in.read();
+    }
+    if (c == '#') {
+      while (c >= 0 && c != '\n' && c != '\r') {
+        c = in.read();
+      }
+    }
+    return token.toString();
+  }
+}
@@ -0,0 +1,54 @@
+package ime.controller.helpers.image;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The PPMRowWriter class encodes an image to a PPM file one row at a time, in the plain (P3)
+ * layout of {@link PPMImageHelper} or in the raw (P6) flavour.
+ */
+public class PPMRowWriter implements RowSink {
+
+  private final OutputStream out;
+  private final boolean binary;
+  private final byte[] lineSeparator;
+
+  /**
+   * Creates a PPM file and writes its header.
+   *
+   * @param file   The PPM file.
+   * @param width  The width of the image.
+   * @param height The height of the image.
+   * @param binary true to write a raw (P6) file, false for a plain (P3) file.
+   * @throws IOException If the file cannot be written.
+   */
+  public PPMRowWriter(Path file, int width, int height, boolean binary) throws IOException {
+    this.out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+    this.binary = binary;
+    this.lineSeparator = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    String separator = System.lineSeparator();
+    out.write(((binary ? "P6" : "P3") + separator + width + " " + height + separator + 255
+            + (binary ? "\n" : separator)).getBytes(StandardCharsets.US_ASCII));
+  }
+
+  @Override
+  public void writeRow(byte[] rgb) throws IOException {
+    if (binary) {
+      out.write(rgb);
+      return;
+    }
+    for (byte value : rgb) {
+      out.write(Integer.toString(value & 0xff).getBytes(StandardCharsets.US_ASCII));
+      out.write(lineSeparator);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+}
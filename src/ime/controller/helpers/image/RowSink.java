@@ -0,0 +1,19 @@
+package ime.controller.helpers.image;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The RowSink interface consumes the rows of an image from top to bottom, three bytes per pixel,
+ * for example to encode them to a file as they are produced.
+ */
+public interface RowSink extends Closeable {
+
+  /**
+   * Writes the next row of the image as red, green and blue bytes.
+   *
+   * @param rgb The row, of at least three bytes per pixel.
+   * @throws IOException If the row cannot be written.
+   */
+  void writeRow(byte[] rgb) throws IOException;
+}
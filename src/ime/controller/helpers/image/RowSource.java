@@ -0,0 +1,42 @@
+package ime.controller.helpers.image;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The RowSource interface produces the rows of an image from top to bottom, three bytes per
+ * pixel, so that an image can be processed without holding all its pixels.
+ */
+public interface RowSource extends Closeable {
+
+  /**
+   * Returns the height of the image.
+   *
+   * @return The number of rows.
+   */
+  int getHeight();
+
+  /**
+   * Returns the width of the image.
+   *
+   * @return The number of pixels of every row.
+   */
+  int getWidth();
+
+  /**
+   * Reads the next row of the image as red, green and blue bytes.
+   *
+   * @param rgb The destination, of at least three bytes per pixel of the row.
+   * @throws IOException If the row cannot be read.
+   */
+  void readRow(byte[] rgb) throws IOException;
+
+  /**
+   * Releases the resources of the source. Sources that hold none do nothing.
+   *
+   * @throws IOException If the resources cannot be released.
+   */
+  @Override
+  default void close() throws IOException {
+  }
+}
@@ -1,5 +1,10 @@
 package ime.model;
 
+import java.io.IOException;
+import java.util.List;
+
+import ime.model.image.Region;
+
 /**
  * The ExtendedImageProcessor interface represents the new functionality for manipulating
  * images. It defines methods for color correct, compress, histogram, and adjusting levels using
@@ -25,6 +30,35 @@ public interface ExtendedImageProcessor extends ImageProcessor {
    */
   void compress(double percentage, String imgName, String destImgName);
 
+  /**
+   * Applies tiled compression to the input image, transforming independent square tiles of the
+   * given size in parallel instead of the whole image.
+   *
+   * @param percentage       The compression percentage to be applied.
+   * @param imgName          The name of the input image.
+   * @param destImgName      The name of the destination image where the compressed result will
+   *                         be saved.
+   * @param tileSize         The edge length of a tile, must be a power of two.
+   * @param perTileThreshold true to pick the threshold per tile, false to pick one threshold per
+   *                         channel for the whole image.
+   */
+  void compress(double percentage, String imgName, String destImgName, int tileSize,
+                boolean perTileThreshold);
+
+  /**
+   * Applies compression in the YCoCg-R luma/chroma colour space, with separate compression
+   * percentages for the luma plane and the chroma planes.
+   *
+   * @param lumaPercentage   The compression percentage for the luma plane.
+   * @param chromaPercentage The compression percentage for the chroma planes.
+   * @param subsampleChroma  true to halve the chroma resolution before compressing.
+   * @param imgName          The name of the input image.
+   * @param destImgName      The name of the destination image where the compressed result will
+   *                         be saved.
+   */
+  void compressLumaChroma(double lumaPercentage, double chromaPercentage, boolean subsampleChroma,
+                          String imgName, String destImgName);
+
   /**
    * Generates a histogram for the input image and saves it to the destination image.
    *
@@ -41,5 +75,135 @@ public interface ExtendedImageProcessor extends ImageProcessor {
    */
   void levelsAdjust(String[] args);
 
+  /**
+   * Sets the number of pixels histograms are computed from for color correction and the
+   * histogram command. Images with more pixels are sampled on a regular grid instead of being
+   * scanned completely, trading a small bounded error for speed on very large images.
+   *
+   * @param targetSamples The number of pixels to sample, or 0 to always use exact histograms.
+   */
+  void setHistogramSampling(long targetSamples);
+
+  /**
+   * Applies an operation to a region of an image only, and saves the result, which has the
+   * pixels of the image outside of the region. The operation runs on a processor holding the
+   * region, extended by halo pixels on every side within the image, under the name of the image,
+   * and must save a result of the same size under the destination name. Only the pixels of the
+   * extended region are therefore computed.
+   *
+   * @param region      The region of the image.
+   * @param halo        The number of pixels around a pixel the operation reads, for example 1
+   *                    for a blur.
+   * @param imgName     The name of the input image.
+   * @param destImgName The name of the destination image.
+   * @param operation   The operation.
+   * @throws IOException              If the operation fails to read or write a file.
+   * @throws IllegalArgumentException If the region does not lie inside the image or the
+   *                                  operation changes the size of the image.
+   */
+  void applyToRegion(Region region, int halo, String imgName, String destImgName,
+                     RegionOperation operation) throws IOException;
+
+  /**
+   * Applies an operation reading one image and saving one image through the result cache of the
+   * processor. If the operation was applied with the same parameters to an image with the same
+   * content before, its cached result is saved under the destination name without running the
+   * operation again, otherwise the operation runs on this processor and its result is cached.
+   *
+   * @param operation   The name of the operation.
+   * @param params      The parameters of the operation, besides the names of the images.
+   * @param imgName     The name of the input image.
+   * @param destImgName The name of the destination image.
+   * @param command     The operation.
+   * @throws IOException If the operation fails to read or write a file.
+   */
+  void memoize(String operation, List<String> params, String imgName, String destImgName,
+               RegionOperation command) throws IOException;
+
+  /**
+   * Loads an image file through the decoded-image cache of the processor. If the file was decoded
+   * before and still has the same size and modification time, its cached image is saved under the
+   * name without reading the file again, otherwise the load runs on this processor and its image
+   * is cached. Without a cache the load simply runs.
+   *
+   * @param imgName The name of the image.
+   * @param imgPath The path of the image file.
+   * @param load    The load of the file, saving its image under the name.
+   * @throws IOException If the file cannot be read.
+   */
+  void loadFile(String imgName, String imgPath, RegionOperation load) throws IOException;
+
+  /**
+   * Loads an image row by row into a memory-mapped file if this processor keeps images of its size
+   * outside of the heap, so that neither the file nor the raster is held on the heap.
+   *
+   * @param imgName The name of the image.
+   * @param height  The height of the image.
+   * @param width   The width of the image.
+   * @param rows    The rows of the image, from top to bottom.
+   * @return true if the image was loaded, false if images of its size are kept on the heap, in
+   *         which case no row was read and the image must be loaded through
+   *         {@link #load(String, java.io.InputStream)}.
+   * @throws IOException If the mapped image cannot be allocated or a row cannot be read.
+   */
+  boolean loadOffHeap(String imgName, int height, int width, RowReader rows) throws IOException;
+
+  /**
+   * Saves an image kept outside of the heap row by row, so that the encoded image is never held
+   * on the heap.
+   *
+   * @param imgName The name of the image.
+   * @param target  The destination of the rows.
+   * @return true if the image was saved, false if it is kept on the heap, in which case nothing
+   *         was written and the image must be saved through {@link #save(String)}.
+   * @throws IOException If a row cannot be written.
+   */
+  boolean saveOffHeap(String imgName, RowTarget target) throws IOException;
+
+  /**
+   * The rows of an image, read from top to bottom.
+   */
+  interface RowReader {
+
+    /**
+     * Reads the next row of the image as red, green and blue bytes.
+     *
+     * @param rgb The destination, of three bytes per pixel of the row.
+     * @throws IOException If the row cannot be read.
+     */
+    void readRow(byte[] rgb) throws IOException;
+  }
+
+  /**
+   * A destination writing the rows of an image, for example to a file.
+   */
+  interface RowTarget {
+
+    /**
+     * Writes the rows of an image.
+     *
+     * @param height The height of the image.
+     * @param width  The width of the image.
+     * @param rows   The rows of the image, from top to bottom.
+     * @throws IOException If a row cannot be read or written.
+     */
+    void write(int height, int width, RowReader rows) throws IOException;
+  }
+
+  /**
+   * An operation applied to a region of an image by
+   * {@link #applyToRegion(Region, int, String, String, RegionOperation)}, or through the result
+   * cache by {@link #memoize(String, List, String, String, RegionOperation)}, or a load applied
+   * through the decoded-image cache by {@link #loadFile(String, String, RegionOperation)}.
+   */
+  interface RegionOperation {
 
+    /**
+     * Applies the operation.
+     *
+     * @param processor The processor holding the region of the image, or the image itself.
+     * @throws IOException If the operation fails to read or write a file.
+     */
+    void apply(ExtendedImageProcessor processor) throws IOException;
+  }
 }
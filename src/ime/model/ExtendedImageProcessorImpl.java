@@ -1,13 +1,23 @@
 package ime.model;
 
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.InputMismatchException;
+import java.util.List;
+import java.util.function.UnaryOperator;
 
 import ime.model.image.ImageModel;
 import ime.model.image.ImageModelV2;
+import ime.model.image.MappedImage;
+import ime.model.image.PixelModel;
 import ime.model.image.RGBImage;
 import ime.model.image.RGBImageV2;
 import ime.model.image.RGBPixel;
+import ime.model.image.Region;
+import ime.model.image.TiledImage;
+import ime.model.store.DecodedImageCache;
+import ime.model.store.ResultCache;
 import ime.utils.HistogramGenerator;
 import ime.utils.ImageProcessorUtil;
 
@@ -19,12 +29,28 @@ import ime.utils.ImageProcessorUtil;
 public class ExtendedImageProcessorImpl extends ImageProcessorImpl
         implements ExtendedImageProcessor {
 
+  private volatile long histogramSamples;
+  private volatile DecodedImageCache decodedImages;
+
   /**
    * Constructs an ExtendedImageProcessorImpl, inheriting from the base ImageProcessorImpl class.
    * This class extends the basic image processing functionality to provide additional features.
    */
   public ExtendedImageProcessorImpl() {
     super();
+    this.histogramSamples = 0;
+  }
+
+  /**
+   * Constructs an ExtendedImageProcessorImpl whose images are kept in memory up to the given heap
+   * budget, spilling least recently used images to disk beyond it.
+   *
+   * @param heapBudget The budget for images held in memory, in bytes.
+   * @throws IllegalArgumentException If the budget is not positive.
+   */
+  public ExtendedImageProcessorImpl(long heapBudget) {
+    super(heapBudget);
+    this.histogramSamples = 0;
   }
 
   @Override
@@ -33,8 +59,19 @@ public class ExtendedImageProcessorImpl extends ImageProcessorImpl
     String destImgName = args[1];
     ImageModel sourceImg = this.getImage(imgName);
 
+    if (args.length == 2) {
+      RGBImage exclusive = this.exclusiveImage(imgName, destImgName, sourceImg);
+      if (exclusive != null) {
+        int[][] luts = RGBImageV2.colorCorrectionLuts(
+                exclusive.getHistogram(histogramSamples).getFrequencies());
+        exclusive.applyChannelLookupInPlace(luts[0], luts[1], luts[2]);
+        this.putImage(destImgName, exclusive);
+        return;
+      }
+    }
+
     ImageModelV2 imageV2 = this.getImageModelV2(sourceImg);
-    ImageModel filteredImage = imageV2.colorCorrect();
+    ImageModel filteredImage = imageV2.colorCorrect(histogramSamples);
 
     if (args.length > 2) {
       String split = args[2];
@@ -52,13 +89,35 @@ public class ExtendedImageProcessorImpl extends ImageProcessorImpl
   public void compress(double percentage, String imgName, String destImgName) {
     ImageModel sourceImg = this.getImage(imgName);
     ImageModelV2 imageV2 = this.getImageModelV2(sourceImg);
+    if (imageV2 instanceof RGBImageV2) {
+      this.putImage(destImgName, ((RGBImageV2) imageV2).compress(percentage,
+              this.getRasterPool()));
+      return;
+    }
     this.putImage(destImgName, imageV2.compress(percentage));
   }
 
+  @Override
+  public void compress(double percentage, String imgName, String destImgName, int tileSize,
+                       boolean perTileThreshold) {
+    ImageModel sourceImg = this.getImage(imgName);
+    ImageModelV2 imageV2 = this.getImageModelV2(sourceImg);
+    this.putImage(destImgName, imageV2.compress(percentage, tileSize, perTileThreshold));
+  }
+
+  @Override
+  public void compressLumaChroma(double lumaPercentage, double chromaPercentage,
+                                 boolean subsampleChroma, String imgName, String destImgName) {
+    ImageModel sourceImg = this.getImage(imgName);
+    ImageModelV2 imageV2 = this.getImageModelV2(sourceImg);
+    this.putImage(destImgName, imageV2.compressLumaChroma(lumaPercentage, chromaPercentage,
+            subsampleChroma));
+  }
+
 
   @Override
   public void histogram(String imgName, String destImgName) {
-    HistogramGenerator histogramGenerator = new HistogramGenerator();
+    HistogramGenerator histogramGenerator = new HistogramGenerator(histogramSamples);
     ImageModel sourceImg = this.getImage(imgName);
     BufferedImage histogram = histogramGenerator.createHistogram(sourceImg);
 
@@ -86,8 +145,12 @@ public class ExtendedImageProcessorImpl extends ImageProcessorImpl
     }
 
     ImageModel currentImage = this.getImage(imgName);
-    ImageModelV2 imageV2 = this.getImageModelV2(currentImage);
-    ImageModel filteredImage = imageV2.levelsAdjust(black, mid, white);
+    int finalBlack = black;
+    int finalMid = mid;
+    int finalWhite = white;
+    UnaryOperator<ImageModel> adjust = image -> this.getImageModelV2(image)
+            .levelsAdjust(finalBlack, finalMid, finalWhite);
+    ImageModel filteredImage;
 
     if (args.length > 5) {
       String split = args[5];
@@ -95,12 +158,137 @@ public class ExtendedImageProcessorImpl extends ImageProcessorImpl
         throw new InputMismatchException("Invalid args for Split view for Levels adjust.");
       }
       float widthPercentage = ImageProcessorUtil.getWidthPercentage(args[6]);
-      filteredImage = this.split(currentImage, filteredImage, widthPercentage);
+      filteredImage = this.split(currentImage, widthPercentage, 0, adjust);
+    } else {
+      int[] lut = RGBImageV2.levelsAdjustLut(black, mid, white);
+      filteredImage = this.lookup(imgName, destImgName, lut, lut, lut);
     }
 
     this.putImage(destImgName, filteredImage);
   }
 
+  @Override
+  public void setHistogramSampling(long targetSamples) {
+    if (targetSamples < 0) {
+      throw new IllegalArgumentException("The number of samples must not be negative.");
+    }
+    this.histogramSamples = targetSamples;
+  }
+
+  @Override
+  public void applyToRegion(Region region, int halo, String imgName, String destImgName,
+                            RegionOperation operation) throws IOException {
+    if (halo < 0) {
+      throw new IllegalArgumentException("The halo of a region must not be negative.");
+    }
+    ImageModel currentImage = this.getImage(imgName);
+    region.checkInside(currentImage);
+    Region extended = region.expand(halo, currentImage);
+
+    ExtendedImageProcessorImpl scratch = new ExtendedImageProcessorImpl();
+    scratch.setHistogramSampling(histogramSamples);
+    scratch.putImage(imgName, this.crop(currentImage, extended));
+    operation.apply(scratch);
+    ImageModel result = scratch.getImage(destImgName);
+
+    this.putImage(destImgName, this.paste(currentImage, result, extended, region));
+  }
+
+  @Override
+  public boolean loadOffHeap(String imgName, int height, int width, RowReader rows)
+          throws IOException {
+    if (height <= 0 || width <= 0 || !this.mapsOnLoad(height, width)) {
+      return false;
+    }
+    this.putImage(imgName, loadMapped(height, width, rows));
+    return true;
+  }
+
+  @Override
+  public boolean saveOffHeap(String imgName, RowTarget target) throws IOException {
+    ImageModel image = this.getImage(imgName);
+    if (!(image instanceof MappedImage)) {
+      return false;
+    }
+    MappedImage mapped = (MappedImage) image;
+    int[] next = {0};
+    target.write(mapped.getHeight(), mapped.getWidth(), rgb -> mapped.readRow(next[0]++, rgb));
+    return true;
+  }
+
+  @Override
+  public void memoize(String operation, List<String> params, String imgName, String destImgName,
+                      RegionOperation command) throws IOException {
+    ResultCache cache = this.getResultCache();
+    ImageModel currentImage = this.getImage(imgName);
+    // An edit in place changes its source image, and mapped images are never cached.
+    if (!cache.isEnabled() || this.mayEditInPlace(imgName, destImgName)
+            || currentImage instanceof MappedImage) {
+      command.apply(this);
+      return;
+    }
+
+    // Sampled histograms change the results of the operations reading histograms.
+    String[] keyParams = params.toArray(new String[params.size() + 1]);
+    keyParams[params.size()] = "samples=" + histogramSamples;
+    ResultCache.Key key = ResultCache.key(currentImage, operation, keyParams);
+    ImageModel result = cache.get(key, currentImage);
+    if (result != null) {
+      this.putImage(destImgName, result);
+      this.share(destImgName);
+      return;
+    }
+
+    command.apply(this);
+    result = this.getImage(destImgName);
+    if (result != currentImage) {
+      // The cache keeps the source to confirm its hits, so neither image is edited in place.
+      this.share(imgName, currentImage);
+      this.share(destImgName);
+      cache.put(key, currentImage, result);
+    }
+  }
+
+  /**
+   * Loads image files through a decoded-image cache, which may be shared with other processors,
+   * for example by the scripts of a daemon.
+   *
+   * @param cache The cache, or null to decode every file on every load.
+   */
+  public void setDecodedImageCache(DecodedImageCache cache) {
+    this.decodedImages = cache;
+  }
+
+  @Override
+  public void loadFile(String imgName, String imgPath, RegionOperation load) throws IOException {
+    DecodedImageCache cache = this.decodedImages;
+    DecodedImageCache.Key key;
+    try {
+      key = cache == null ? null : DecodedImageCache.key(Paths.get(imgPath));
+    } catch (IOException | RuntimeException e) {
+      // The load reports the problem of the file.
+      key = null;
+    }
+    if (key == null) {
+      load.apply(this);
+      return;
+    }
+
+    ImageModel image = cache.get(key);
+    if (image != null) {
+      this.putImage(imgName, image);
+      this.share(imgName);
+      return;
+    }
+    load.apply(this);
+    ImageModel loaded = this.getImage(imgName);
+    if (!(loaded instanceof MappedImage)) {
+      // The cached image is shared with other loads, so it is never edited in place.
+      this.share(imgName);
+      cache.put(key, loaded);
+    }
+  }
+
   /**
    * This private method converts a BufferedImage to an ImageModel.
    *
@@ -110,7 +298,7 @@ public class ExtendedImageProcessorImpl extends ImageProcessorImpl
   private ImageModel convertBufferedImageToImageModel(BufferedImage image) {
     int width = image.getWidth();
     int height = image.getHeight();
-    RGBPixel[][] pixels = new RGBPixel[height][width];
+    PixelModel[][] pixels = this.getRasterPool().acquire(height, width);
 
     for (int i = 0; i < height; i++) {
       for (int j = 0; j < width; j++) {
@@ -127,12 +315,17 @@ public class ExtendedImageProcessorImpl extends ImageProcessorImpl
 
   /**
    * Converts an {@code ImageModel} to {@code ImageModelV2} (specifically, {@code RGBImageV2}).
+   * A {@code MappedImage} or a {@code TiledImage} is an {@code ImageModelV2} already and is
+   * returned as is, so that its raster stays outside of the heap or keeps sharing its tiles.
    *
    * @param image The original {@code ImageModel} to convert.
-   * @return A new {@code ImageModelV2} instance with the same dimensions and pixel data.
+   * @return An {@code ImageModelV2} instance with the same dimensions and pixel data.
    */
   public ImageModelV2 getImageModelV2(ImageModel image) {
-    return new RGBImageV2(image.getHeight(), image.getWidth(), image.getPixels());
+    if (image instanceof MappedImage || image instanceof TiledImage) {
+      return (ImageModelV2) image;
+    }
+    return new RGBImageV2(image);
   }
 
 }
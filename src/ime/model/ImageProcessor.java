@@ -150,4 +150,12 @@ public interface ImageProcessor {
    */
   void rgbCombine(String redImgName, String greenImageName, String blueImgName, String destImgName);
 
+  /**
+   * Releases an image that is no longer needed, so that its memory can be reclaimed. Releasing a
+   * name without an image has no effect.
+   *
+   * @param imgName The name of the image to release.
+   */
+  void release(String imgName);
+
 }
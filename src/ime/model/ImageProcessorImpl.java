@@ -4,16 +4,25 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.HashMap;
 import java.util.InputMismatchException;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
+import ime.model.image.GreyImage;
 import ime.model.image.ImageModel;
+import ime.model.image.MappedImage;
 import ime.model.image.PixelModel;
 import ime.model.image.RGBImage;
 import ime.model.image.RGBPixel;
+import ime.model.image.RasterPool;
+import ime.model.image.Region;
+import ime.model.image.TiledImage;
+import ime.model.store.ImageRegistry;
+import ime.model.store.ResultCache;
 import ime.utils.ImageProcessorUtil;
 
 /**
@@ -23,13 +32,131 @@ import ime.utils.ImageProcessorUtil;
  */
 public class ImageProcessorImpl implements ImageProcessor {
 
-  private final Map<String, ImageModel> images;
+  private static final int[] IDENTITY_LUT = new int[256];
+  private static final int[] ZERO_LUT = new int[256];
+
+  static {
+    for (int k = 0; k < IDENTITY_LUT.length; k++) {
+      IDENTITY_LUT[k] = k;
+    }
+  }
+
+  private final ImageRegistry images;
+  private final RasterPool rasterPool;
+  private final Map<String, RGBImage> owned;
+  private final Map<String, MappedImage> ownedMapped;
+  private final LongAdder inPlaceCount;
+  private final ResultCache resultCache;
+  private volatile long offHeapThreshold;
+  private volatile boolean inPlace;
 
   /**
-   * Constructs a new ImageProcessorImpl instance with an empty map to store images.
+   * Constructs a new ImageProcessorImpl instance with an empty registry to store images, which
+   * keeps every image in memory.
    */
   public ImageProcessorImpl() {
-    this.images = new HashMap<>();
+    this(new ImageRegistry());
+  }
+
+  /**
+   * Constructs a new ImageProcessorImpl instance whose images are kept in memory up to the given
+   * heap budget. Least recently used images beyond the budget are spilled to disk and reloaded
+   * transparently when they are used again.
+   *
+   * @param heapBudget The budget for images held in memory, in bytes.
+   * @throws IllegalArgumentException If the budget is not positive.
+   */
+  public ImageProcessorImpl(long heapBudget) {
+    this(new ImageRegistry(heapBudget));
+  }
+
+  /**
+   * Constructs a new ImageProcessorImpl instance storing its images in the given registry.
+   */
+  private ImageProcessorImpl(ImageRegistry images) {
+    this.images = images;
+    this.rasterPool = new RasterPool();
+    this.owned = new ConcurrentHashMap<>();
+    this.ownedMapped = new ConcurrentHashMap<>();
+    // An image the registry compresses or spills must not stay on the heap through this map.
+    this.images.setEvictionListener((name, image) -> this.owned.remove(name, image));
+    this.inPlaceCount = new LongAdder();
+    this.resultCache = new ResultCache();
+    this.resultCache.setEnabled(false);
+    this.offHeapThreshold = -1;
+  }
+
+  /**
+   * Loads images whose raster is larger than the given size as a {@link MappedImage}, outside of
+   * the heap. The commands applied to such images write their results outside of the heap too.
+   *
+   * @param rasterBytes The raster size in bytes, three per pixel, above which images are mapped,
+   *                    or a negative value to keep every image on the heap.
+   */
+  public void setOffHeapThreshold(long rasterBytes) {
+    this.offHeapThreshold = rasterBytes;
+  }
+
+  /**
+   * Enables the in-place execution of commands storing their result under the name of their
+   * source image. Point commands and flips then change the pixels of the source image instead
+   * of creating a new image, as long as this processor created the image, and the pixel grids
+   * of replaced or released images are recycled through the raster pool by filters,
+   * compression and the other commands creating images. Replaced or released images kept
+   * outside of the heap are unmapped right away, which gives the disk space of their files back.
+   * This must only be enabled when nothing keeps the images of the processor across commands,
+   * and when no two commands using the same image run concurrently.
+   *
+   * @param inPlace true to enable in-place execution, false to create a new image for every
+   *                command.
+   */
+  public void setInPlace(boolean inPlace) {
+    this.inPlace = inPlace;
+    if (!inPlace) {
+      this.owned.clear();
+      this.ownedMapped.clear();
+    }
+  }
+
+  /**
+   * Returns the pool recycling the pixel grids of the images this processor replaced, for
+   * example to read its hit and miss counters.
+   *
+   * @return The raster pool.
+   */
+  public RasterPool getRasterPool() {
+    return rasterPool;
+  }
+
+  /**
+   * Returns the cache of the results of the commands applied through
+   * {@link ExtendedImageProcessor#memoize}, for example to enable it, bound its size or read its
+   * hit rate. The cache is disabled until it is enabled, so that processors running every
+   * command once do not pay for it.
+   *
+   * @return The result cache.
+   */
+  public ResultCache getResultCache() {
+    return resultCache;
+  }
+
+  /**
+   * Returns how many commands changed their source image in place.
+   *
+   * @return The number of in-place commands.
+   */
+  public long getInPlaceCount() {
+    return inPlaceCount.sum();
+  }
+
+  /**
+   * Returns the registry holding the images of this processor, for example to read its resident
+   * and spilled byte metrics.
+   *
+   * @return The image registry.
+   */
+  public ImageRegistry getRegistry() {
+    return images;
   }
 
   @Override
@@ -43,7 +170,16 @@ public class ImageProcessorImpl implements ImageProcessor {
       throw new IllegalArgumentException("Invalid file");
     }
 
-    RGBPixel[][] pixels = new RGBPixel[height][width];
+    if (this.mapsOnLoad(height, width)) {
+      try {
+        this.putImage(imgName, loadMapped(height, width, row -> readRow(sc, row)));
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to allocate a mapped image.", e);
+      }
+      return;
+    }
+
+    PixelModel[][] pixels = rasterPool.acquire(height, width);
 
     for (int i = 0; i < height; i++) {
       for (int j = 0; j < width; j++) {
@@ -61,6 +197,47 @@ public class ImageProcessorImpl implements ImageProcessor {
     this.putImage(imgName, new RGBImage(height, width, pixels));
   }
 
+  /**
+   * Tells whether an image of the given size is loaded outside of the heap.
+   */
+  boolean mapsOnLoad(int height, int width) {
+    long threshold = offHeapThreshold;
+    return threshold >= 0 && 3L * height * width > threshold;
+  }
+
+  /**
+   * Reads the pixels of an image row by row into a mapped image.
+   *
+   * @param height The height of the image.
+   * @param width  The width of the image.
+   * @param rows   The rows of the image, from top to bottom.
+   * @return The mapped image.
+   * @throws IOException If the mapped image cannot be allocated or a row cannot be read.
+   */
+  static MappedImage loadMapped(int height, int width, ExtendedImageProcessor.RowReader rows)
+          throws IOException {
+    MappedImage image = MappedImage.allocate(height, width);
+    byte[] row = new byte[3 * width];
+    for (int i = 0; i < height; i++) {
+      rows.readRow(row);
+      image.writeRow(i, row);
+    }
+    return image;
+  }
+
+  /**
+   * Reads the next row of an image from a scanner positioned at its first pixel.
+   */
+  private static void readRow(Scanner sc, byte[] row) {
+    for (int k = 0; k < row.length; k++) {
+      int value = sc.nextInt();
+      if (value < 0) {
+        throw new IllegalArgumentException("Invalid file.");
+      }
+      row[k] = (byte) Math.min(255, value);
+    }
+  }
+
   @Override
   public OutputStream save(String imgName) throws IOException {
     ImageModel imageModel = this.getImage(imgName);
@@ -100,7 +277,7 @@ public class ImageProcessorImpl implements ImageProcessor {
     };
 
     ImageModel currentImage = this.getImage(imgName);
-    ImageModel filteredImage = currentImage.applyTransform(transformerFunc);
+    ImageModel filteredImage;
 
     if (args.length > 2) {
       String split = args[2];
@@ -108,7 +285,10 @@ public class ImageProcessorImpl implements ImageProcessor {
         throw new InputMismatchException("Invalid args for Split view for Sepia.");
       }
       float widthPercentage = ImageProcessorUtil.getWidthPercentage(args[3]);
-      filteredImage = this.split(currentImage, filteredImage, widthPercentage);
+      filteredImage = this.split(currentImage, widthPercentage, 0,
+              image -> image.applyTransform(transformerFunc));
+    } else {
+      filteredImage = this.transform(imgName, destImgName, currentImage, transformerFunc);
     }
 
     this.putImage(destImgName, filteredImage);
@@ -118,24 +298,24 @@ public class ImageProcessorImpl implements ImageProcessor {
   public void redComponent(String[] args) {
     String imgName = args[0];
     String destImgName = args[1];
-    Function<PixelModel, PixelModel> transformerFunc = p -> new RGBPixel(p.getR(), 0, 0);
-    this.putImage(destImgName, this.getImage(imgName).applyTransform(transformerFunc));
+    this.putImage(destImgName, this.component(imgName, GreyImage.Channel.RED,
+            IDENTITY_LUT, ZERO_LUT, ZERO_LUT));
   }
 
   @Override
   public void blueComponent(String[] args) {
     String imgName = args[0];
     String destImgName = args[1];
-    Function<PixelModel, PixelModel> blueTransform = p -> new RGBPixel(0, 0, p.getB());
-    this.putImage(destImgName, this.getImage(imgName).applyTransform(blueTransform));
+    this.putImage(destImgName, this.component(imgName, GreyImage.Channel.BLUE,
+            ZERO_LUT, ZERO_LUT, IDENTITY_LUT));
   }
 
   @Override
   public void greenComponent(String[] args) {
     String imgName = args[0];
     String destImgName = args[1];
-    Function<PixelModel, PixelModel> greenTransform = p -> new RGBPixel(0, p.getG(), 0);
-    this.putImage(destImgName, this.getImage(imgName).applyTransform(greenTransform));
+    this.putImage(destImgName, this.component(imgName, GreyImage.Channel.GREEN,
+            ZERO_LUT, IDENTITY_LUT, ZERO_LUT));
   }
 
   @Override
@@ -148,7 +328,7 @@ public class ImageProcessorImpl implements ImageProcessor {
     };
 
     ImageModel currentImage = this.getImage(imgName);
-    ImageModel filteredImage = currentImage.applyTransform(lumaTransform);
+    ImageModel filteredImage;
 
     if (args.length > 2) {
       String split = args[2];
@@ -156,7 +336,10 @@ public class ImageProcessorImpl implements ImageProcessor {
         throw new InputMismatchException("Invalid args for Split view for Luma.");
       }
       float widthPercentage = ImageProcessorUtil.getWidthPercentage(args[3]);
-      filteredImage = this.split(currentImage, filteredImage, widthPercentage);
+      filteredImage = this.split(currentImage, widthPercentage, 0,
+              image -> image.applyTransform(lumaTransform));
+    } else {
+      filteredImage = this.greyscale(imgName, destImgName, currentImage, lumaTransform);
     }
 
     this.putImage(destImgName, filteredImage);
@@ -172,7 +355,7 @@ public class ImageProcessorImpl implements ImageProcessor {
     };
 
     ImageModel currentImage = this.getImage(imgName);
-    ImageModel filteredImage = currentImage.applyTransform(valueTransform);
+    ImageModel filteredImage;
 
     if (args.length > 2) {
       String split = args[2];
@@ -180,7 +363,10 @@ public class ImageProcessorImpl implements ImageProcessor {
         throw new InputMismatchException("Invalid args for Split view for Value.");
       }
       float widthPercentage = ImageProcessorUtil.getWidthPercentage(args[3]);
-      filteredImage = this.split(currentImage, filteredImage, widthPercentage);
+      filteredImage = this.split(currentImage, widthPercentage, 0,
+              image -> image.applyTransform(valueTransform));
+    } else {
+      filteredImage = this.greyscale(imgName, destImgName, currentImage, valueTransform);
     }
 
     this.putImage(destImgName, filteredImage);
@@ -196,7 +382,7 @@ public class ImageProcessorImpl implements ImageProcessor {
     };
 
     ImageModel currentImage = this.getImage(imgName);
-    ImageModel filteredImage = currentImage.applyTransform(intensityTransform);
+    ImageModel filteredImage;
 
     if (args.length > 2) {
       String split = args[2];
@@ -204,7 +390,10 @@ public class ImageProcessorImpl implements ImageProcessor {
         throw new InputMismatchException("Invalid args for Split view for intensity.");
       }
       float widthPercentage = ImageProcessorUtil.getWidthPercentage(args[3]);
-      filteredImage = this.split(currentImage, filteredImage, widthPercentage);
+      filteredImage = this.split(currentImage, widthPercentage, 0,
+              image -> image.applyTransform(intensityTransform));
+    } else {
+      filteredImage = this.greyscale(imgName, destImgName, currentImage, intensityTransform);
     }
 
     this.putImage(destImgName, filteredImage);
@@ -212,14 +401,12 @@ public class ImageProcessorImpl implements ImageProcessor {
 
   @Override
   public void brighten(String imgName, String destImgName, int increment) {
-    Function<PixelModel, PixelModel> brightenTransform = p -> {
-      int r = p.getR() + increment;
-      int g = p.getG() + increment;
-      int b = p.getB() + increment;
-
-      return new RGBPixel(r, g, b);
-    };
-    this.putImage(destImgName, this.getImage(imgName).applyTransform(brightenTransform));
+    int[] brightenLut = new int[256];
+    for (int k = 0; k < brightenLut.length; k++) {
+      brightenLut[k] = k + increment;
+    }
+    this.putImage(destImgName, this.lookup(imgName, destImgName, brightenLut, brightenLut,
+            brightenLut));
   }
 
   @Override
@@ -233,7 +420,7 @@ public class ImageProcessorImpl implements ImageProcessor {
     }
 
     ImageModel currentImage = this.getImage(imgName);
-    ImageModel filteredImage = currentImage.filter(kernel);
+    ImageModel filteredImage;
 
     if (args.length > 2) {
       String split = args[2];
@@ -241,7 +428,10 @@ public class ImageProcessorImpl implements ImageProcessor {
         throw new InputMismatchException("Invalid args for Split view for Sharpen.");
       }
       float widthPercentage = ImageProcessorUtil.getWidthPercentage(args[3]);
-      filteredImage = this.split(currentImage, filteredImage, widthPercentage);
+      filteredImage = this.split(currentImage, widthPercentage, kernel.length / 2,
+              image -> image.filter(kernel));
+    } else {
+      filteredImage = this.filter(currentImage, kernel);
     }
 
     this.putImage(destImgName, filteredImage);
@@ -259,7 +449,7 @@ public class ImageProcessorImpl implements ImageProcessor {
     }
 
     ImageModel currentImage = this.getImage(imgName);
-    ImageModel filteredImage = currentImage.filter(kernel);
+    ImageModel filteredImage;
 
     if (args.length > 2) {
       String split = args[2];
@@ -267,7 +457,10 @@ public class ImageProcessorImpl implements ImageProcessor {
         throw new InputMismatchException("Invalid args for Split view for Blur.");
       }
       float widthPercentage = ImageProcessorUtil.getWidthPercentage(args[3]);
-      filteredImage = this.split(currentImage, filteredImage, widthPercentage);
+      filteredImage = this.split(currentImage, widthPercentage, kernel.length / 2,
+              image -> image.filter(kernel));
+    } else {
+      filteredImage = this.filter(currentImage, kernel);
     }
 
     this.putImage(destImgName, filteredImage);
@@ -275,20 +468,42 @@ public class ImageProcessorImpl implements ImageProcessor {
 
   @Override
   public void horizontalFlip(String imgName, String destImgName) {
-    this.putImage(destImgName, this.getImage(imgName).horizontalFlip());
+    ImageModel currentImage = this.getImage(imgName);
+    RGBImage exclusive = this.exclusiveImage(imgName, destImgName, currentImage);
+    if (exclusive != null) {
+      exclusive.horizontalFlipInPlace();
+      this.putImage(destImgName, exclusive);
+      return;
+    }
+    this.putImage(destImgName, currentImage.horizontalFlip());
   }
 
   @Override
   public void verticalFlip(String imgName, String destImgName) {
-    this.putImage(destImgName, this.getImage(imgName).verticalFlip());
+    ImageModel currentImage = this.getImage(imgName);
+    RGBImage exclusive = this.exclusiveImage(imgName, destImgName, currentImage);
+    if (exclusive != null) {
+      exclusive.verticalFlipInPlace();
+      this.putImage(destImgName, exclusive);
+      return;
+    }
+    this.putImage(destImgName, currentImage.verticalFlip());
   }
 
   @Override
   public void rgbSplit(String imgName, String destRedImgName, String destGreenImageName,
                        String destBlueImgName) {
-    this.redComponent(new String[]{imgName, destRedImgName});
-    this.greenComponent(new String[]{imgName, destGreenImageName});
-    this.blueComponent(new String[]{imgName, destBlueImgName});
+    ImageModel currentImage = this.getImage(imgName);
+    if (currentImage instanceof MappedImage) {
+      this.redComponent(new String[]{imgName, destRedImgName});
+      this.greenComponent(new String[]{imgName, destGreenImageName});
+      this.blueComponent(new String[]{imgName, destBlueImgName});
+      return;
+    }
+    GreyImage[] components = GreyImage.split(currentImage);
+    this.putImage(destRedImgName, components[0]);
+    this.putImage(destGreenImageName, components[1]);
+    this.putImage(destBlueImgName, components[2]);
   }
 
   @Override
@@ -300,33 +515,183 @@ public class ImageProcessorImpl implements ImageProcessor {
 
     if (red.getHeight() == green.getHeight() && blue.getHeight() == red.getHeight()
             && red.getWidth() == blue.getWidth() && red.getWidth() == green.getWidth()) {
-
-      RGBPixel[][] pixelResults = new RGBPixel[red.getHeight()][red.getWidth()];
-
-      for (int i = 0; i < red.getHeight(); i++) {
-        for (int j = 0; j < red.getWidth(); j++) {
-          pixelResults[i][j] = new RGBPixel(red.getPixelValues(i, j).getR(),
-                  green.getPixelValues(i, j).getG(),
-                  blue.getPixelValues(i, j).getB());
-        }
-      }
-
-      ImageModel combinedImage = new RGBImage(red.getHeight(), red.getWidth(), pixelResults);
-      this.putImage(destImgName, combinedImage);
+      PixelModel[][] pixelResults = rasterPool.acquire(red.getHeight(), red.getWidth());
+      this.putImage(destImgName, GreyImage.combine(red, green, blue, pixelResults));
     } else {
       throw new IllegalArgumentException("Images do not have the same dimension.");
     }
   }
 
+  @Override
+  public void release(String imgName) {
+    RGBImage previous = this.owned.remove(imgName);
+    MappedImage previousMapped = this.ownedMapped.remove(imgName);
+    if (this.images.remove(imgName)) {
+      if (previous != null) {
+        previous.recycle(rasterPool);
+      }
+      if (previousMapped != null) {
+        previousMapped.dispose();
+      }
+    }
+  }
+
   ImageModel getImage(String imgName) throws IllegalArgumentException {
-    if (this.images.get(imgName) == null) {
+    ImageModel image = this.images.get(imgName);
+    if (image == null) {
       throw new IllegalArgumentException("Image Not Found: " + imgName);
     }
-    return this.images.get(imgName);
+    return image;
   }
 
   void putImage(String imgName, ImageModel image) throws IllegalArgumentException {
+    RGBImage previous = this.owned.remove(imgName);
+    MappedImage previousMapped = this.ownedMapped.remove(imgName);
     this.images.put(imgName, image);
+    if (inPlace && image.getClass() == RGBImage.class && !this.ownedElsewhere(image)) {
+      this.owned.put(imgName, (RGBImage) image);
+    }
+    if (inPlace && image instanceof MappedImage && !this.ownedElsewhere(image)) {
+      this.ownedMapped.put(imgName, (MappedImage) image);
+    }
+    if (previous != null && previous != image) {
+      previous.recycle(rasterPool);
+    }
+    if (previousMapped != null && previousMapped != image) {
+      previousMapped.dispose();
+    }
+  }
+
+  /**
+   * Gives up the ownership of the image stored under a name, so that it is never changed in
+   * place, recycled or disposed, since it is shared with the result cache.
+   */
+  void share(String imgName) {
+    this.owned.remove(imgName);
+    this.ownedMapped.remove(imgName);
+  }
+
+  /**
+   * Gives up the ownership of an image stored under a name, if it is still stored there.
+   */
+  void share(String imgName, ImageModel image) {
+    this.owned.remove(imgName, image);
+    this.ownedMapped.remove(imgName, image);
+  }
+
+  /**
+   * Tells whether a command storing its result under the destination name may change its source
+   * image in place.
+   */
+  boolean mayEditInPlace(String imgName, String destImgName) {
+    return inPlace && imgName.equals(destImgName);
+  }
+
+  /**
+   * Tells whether an image is owned under another name, and gives up its ownership if so, since
+   * an image stored under two names cannot be changed in place or disposed.
+   */
+  private boolean ownedElsewhere(ImageModel image) {
+    for (Map.Entry<String, RGBImage> entry : this.owned.entrySet()) {
+      if (entry.getValue() == image) {
+        this.owned.remove(entry.getKey(), entry.getValue());
+        return true;
+      }
+    }
+    for (Map.Entry<String, MappedImage> entry : this.ownedMapped.entrySet()) {
+      if (entry.getValue() == image) {
+        this.ownedMapped.remove(entry.getKey(), entry.getValue());
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the image to change in place for a command, which is the source image if the command
+   * stores its result under the same name, in-place execution is enabled and this processor
+   * created the image and holds it under that name only.
+   *
+   * @param imgName      The name of the source image.
+   * @param destImgName  The name of the destination image.
+   * @param currentImage The source image.
+   * @return The image to change in place, or null if the command must create a new image.
+   */
+  RGBImage exclusiveImage(String imgName, String destImgName, ImageModel currentImage) {
+    if (!inPlace || !imgName.equals(destImgName) || this.owned.get(imgName) != currentImage) {
+      return null;
+    }
+    inPlaceCount.increment();
+    return (RGBImage) currentImage;
+  }
+
+  /**
+   * Applies a transformation to every pixel of an image, in place when possible.
+   */
+  private ImageModel transform(String imgName, String destImgName, ImageModel currentImage,
+                               Function<PixelModel, PixelModel> transformFunction) {
+    RGBImage exclusive = this.exclusiveImage(imgName, destImgName, currentImage);
+    if (exclusive != null) {
+      exclusive.applyTransformInPlace(transformFunction);
+      return exclusive;
+    }
+    return currentImage.applyTransform(transformFunction);
+  }
+
+  /**
+   * Extracts a channel of an image as a {@link GreyImage}. Mapped images keep the channel in a
+   * mapped image of their own, through the lookup tables, so that they stay off the heap.
+   */
+  private ImageModel component(String imgName, GreyImage.Channel channel, int[] redLut,
+                               int[] greenLut, int[] blueLut) {
+    ImageModel currentImage = this.getImage(imgName);
+    if (currentImage instanceof MappedImage) {
+      return currentImage.applyChannelLookup(redLut, greenLut, blueLut);
+    }
+    return GreyImage.channelOf(currentImage, channel);
+  }
+
+  /**
+   * Converts an image to greyscale with a transform giving three equal channels, as a
+   * {@link GreyImage} unless the image is mapped.
+   */
+  private ImageModel greyscale(String imgName, String destImgName, ImageModel currentImage,
+                               Function<PixelModel, PixelModel> transformFunction) {
+    if (currentImage instanceof MappedImage) {
+      return this.transform(imgName, destImgName, currentImage, transformFunction);
+    }
+    return GreyImage.greyOf(currentImage, p -> transformFunction.apply(p).getR());
+  }
+
+  /**
+   * Applies lookup tables to an image, in place when possible.
+   *
+   * @param imgName     The name of the source image.
+   * @param destImgName The name of the destination image.
+   * @param redLut      The lookup table of the red channel.
+   * @param greenLut    The lookup table of the green channel.
+   * @param blueLut     The lookup table of the blue channel.
+   * @return The result, which is the source image if it was changed in place.
+   */
+  ImageModel lookup(String imgName, String destImgName, int[] redLut, int[] greenLut,
+                    int[] blueLut) {
+    ImageModel currentImage = this.getImage(imgName);
+    RGBImage exclusive = this.exclusiveImage(imgName, destImgName, currentImage);
+    if (exclusive != null) {
+      exclusive.applyChannelLookupInPlace(redLut, greenLut, blueLut);
+      return exclusive;
+    }
+    return currentImage.applyChannelLookup(redLut, greenLut, blueLut);
+  }
+
+  /**
+   * Filters an image, writing the result into a recycled grid when possible.
+   */
+  private ImageModel filter(ImageModel currentImage, double[][] kernel) {
+    if (currentImage instanceof RGBImage) {
+      return ((RGBImage) currentImage).filter(kernel, rasterPool);
+    }
+    return currentImage.filter(kernel);
   }
 
   /**
@@ -353,27 +718,94 @@ public class ImageProcessorImpl implements ImageProcessor {
    * @param filtered        The filtered image used for blending up to a certain width percentage.
    * @param widthPercentage The percentage of the width up to which pixels are taken from the
    *                        filtered image.
-   * @return An ImageModel representing the result of splitting and combining the two images.
+   * @return An ImageModel representing the result of splitting and combining the two images,
+   *         sharing its unchanged tiles with the current image.
    */
   protected ImageModel split(ImageModel current, ImageModel filtered, float widthPercentage) {
     int percentageWidth = (int) (current.getWidth() * (widthPercentage / 100));
-    RGBPixel[][] splitImagePixels = new RGBPixel[current.getHeight()][current.getWidth()];
-
-    for (int i = 0; i < current.getHeight(); i++) {
-      for (int j = 0; j < current.getWidth(); j++) {
-        if (j <= percentageWidth) {
-          splitImagePixels[i][j] = new RGBPixel(filtered.getPixelValues(i, j).getR(),
-                  filtered.getPixelValues(i, j).getG(),
-                  filtered.getPixelValues(i, j).getB());
-        } else {
-          splitImagePixels[i][j] = new RGBPixel(current.getPixelValues(i, j).getR(),
-                  current.getPixelValues(i, j).getG(),
-                  current.getPixelValues(i, j).getB());
-        }
+    // The columns up to percentageWidth, included, come from the filtered image. The tiles on
+    // the right are shared with the current image instead of being copied.
+    return TiledImage.of(current).withRegion(filtered, 0, 0, current.getHeight(),
+            percentageWidth + 1);
+  }
+
+  /**
+   * Splits an image like {@link #split(ImageModel, ImageModel, float)}, computing an operation
+   * only on the columns taken from its result, so the cost of a split view is proportional to
+   * its width. The operation must give every pixel from the pixels at most halo pixels around
+   * it.
+   *
+   * @param current         The original image to be split.
+   * @param widthPercentage The percentage of the width up to which pixels are taken from the
+   *                        result of the operation.
+   * @param halo            The number of pixels around a pixel the operation reads.
+   * @param operation       The operation.
+   * @return An ImageModel representing the result of splitting and combining the two images.
+   */
+  protected ImageModel split(ImageModel current, float widthPercentage, int halo,
+                             UnaryOperator<ImageModel> operation) {
+    int percentageWidth = (int) (current.getWidth() * (widthPercentage / 100));
+    return this.applyToRegion(current, Region.leftOf(current, percentageWidth), halo, operation);
+  }
+
+  /**
+   * Applies an operation to a region of an image only. The operation runs on the region
+   * extended by halo pixels on every side within the image, so that filters reading the pixels
+   * around the region give the same pixels as on the whole image, and the pixels outside of the
+   * region are shared with the image.
+   *
+   * @param current   The image.
+   * @param region    The region to compute, which must lie inside the image.
+   * @param halo      The number of pixels around a pixel the operation reads.
+   * @param operation The operation, which must keep the size of the image.
+   * @return The image with the result of the operation inside the region.
+   * @throws IllegalArgumentException If the region goes beyond the image or the operation
+   *                                  changes the size of the image.
+   */
+  protected ImageModel applyToRegion(ImageModel current, Region region, int halo,
+                                     UnaryOperator<ImageModel> operation) {
+    region.checkInside(current);
+    Region extended = region.expand(halo, current);
+    return this.paste(current, operation.apply(this.crop(current, extended)), extended, region);
+  }
+
+  /**
+   * Returns the pixels of an image inside a region, sharing the pixel objects of the image.
+   *
+   * @param image  The image.
+   * @param region The region, which must lie inside the image.
+   * @return The image of the region.
+   */
+  protected ImageModel crop(ImageModel image, Region region) {
+    PixelModel[][] pixels = new PixelModel[region.getHeight()][region.getWidth()];
+    for (int i = 0; i < region.getHeight(); i++) {
+      for (int j = 0; j < region.getWidth(); j++) {
+        pixels[i][j] = image.getPixelValues(region.getY() + i, region.getX() + j);
       }
     }
+    return new RGBImage(region.getHeight(), region.getWidth(), pixels);
+  }
 
-    return new RGBImage(current.getHeight(), current.getWidth(), splitImagePixels);
+  /**
+   * Pastes the result of an operation on an extended region of an image back into the image,
+   * keeping the region without its halo.
+   *
+   * @param current  The image.
+   * @param result   The result of the operation on the extended region.
+   * @param extended The extended region the operation ran on.
+   * @param region   The region to paste.
+   * @return The image with the region replaced.
+   * @throws IllegalArgumentException If the result does not have the size of the extended
+   *                                  region.
+   */
+  protected ImageModel paste(ImageModel current, ImageModel result, Region extended,
+                             Region region) {
+    if (result.getHeight() != extended.getHeight() || result.getWidth() != extended.getWidth()) {
+      throw new IllegalArgumentException("An operation on a region must keep its size.");
+    }
+    return TiledImage.of(current).withRegion(result, region.getY() - extended.getY(),
+            region.getX() - extended.getX(), region.getY(), region.getX(), region.getHeight(),
+            region.getWidth());
   }
 
   /**
@@ -0,0 +1,570 @@
+package ime.model.image;
+
+import java.util.Arrays;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * The GreyImage class is an image with a single channel of one byte per pixel, for the results
+ * of the component and greyscale commands. The value of a pixel expands to an RGB pixel
+ * according to the channel of the image: the three components of a greyscale image are equal,
+ * and a red, green or blue component image has zeros in its other two channels. Consumers
+ * reading RGB pixels therefore see the same pixels as in an {@link RGBImage}, while the image
+ * takes a third of the memory of its raw RGB bytes.
+ *
+ * <p>The pixels returned by {@link #getPixelValues(int, int)} are shared instances, one per
+ * value and channel, so reading an image allocates nothing. Operations return a grey image
+ * whenever their result still fits in one channel, and an {@link RGBImage} otherwise.</p>
+ */
+public class GreyImage implements ImageModel {
+
+  /**
+   * How the value of a pixel expands to an RGB pixel.
+   */
+  public enum Channel {
+    /**
+     * The value is repeated in the three channels.
+     */
+    GREY,
+    /**
+     * The value is the red channel, the others are zero.
+     */
+    RED,
+    /**
+     * The value is the green channel, the others are zero.
+     */
+    GREEN,
+    /**
+     * The value is the blue channel, the others are zero.
+     */
+    BLUE;
+
+    /**
+     * Returns the value an RGB pixel has in this channel.
+     *
+     * @param pixel The pixel.
+     * @return The value.
+     */
+    public int valueOf(PixelModel pixel) {
+      switch (this) {
+        case RED:
+          return pixel.getR();
+        case GREEN:
+          return pixel.getG();
+        case BLUE:
+          return pixel.getB();
+        default:
+          return pixel.getR();
+      }
+    }
+
+    /**
+     * Tells whether an RGB pixel is the expansion of a value in this channel.
+     *
+     * @param r The red value.
+     * @param g The green value.
+     * @param b The blue value.
+     * @return true if the pixel fits in this channel.
+     */
+    public boolean fits(int r, int g, int b) {
+      switch (this) {
+        case RED:
+          return g == 0 && b == 0;
+        case GREEN:
+          return r == 0 && b == 0;
+        case BLUE:
+          return r == 0 && g == 0;
+        default:
+          return r == g && g == b;
+      }
+    }
+  }
+
+  private static final RGBPixel[][] PIXELS = new RGBPixel[Channel.values().length][256];
+
+  static {
+    for (int v = 0; v < 256; v++) {
+      PIXELS[Channel.GREY.ordinal()][v] = new RGBPixel(v, v, v);
+      PIXELS[Channel.RED.ordinal()][v] = new RGBPixel(v, 0, 0);
+      PIXELS[Channel.GREEN.ordinal()][v] = new RGBPixel(0, v, 0);
+      PIXELS[Channel.BLUE.ordinal()][v] = new RGBPixel(0, 0, v);
+    }
+  }
+
+  private final int height;
+  private final int width;
+  private final Channel channel;
+  private final byte[] values;
+  private volatile ImageHistogram histogram;
+  private volatile long fingerprint;
+
+  /**
+   * Constructs an image from its values, row by row. The image takes ownership of the array,
+   * which must not be changed afterwards.
+   *
+   * @param height  The height of the image.
+   * @param width   The width of the image.
+   * @param channel The channel of the values.
+   * @param values  The values of the pixels, row by row.
+   * @throws IllegalArgumentException If the size is not positive or does not match the values.
+   */
+  public GreyImage(int height, int width, Channel channel, byte[] values) {
+    if (height <= 0 || width <= 0) {
+      throw new IllegalArgumentException("Height and width of an image must be positive.");
+    }
+    if (values == null || values.length != height * width) {
+      throw new IllegalArgumentException("An image needs one value per pixel.");
+    }
+    this.height = height;
+    this.width = width;
+    this.channel = channel;
+    this.values = values;
+  }
+
+  /**
+   * Returns an image holding one channel of another image. If the histogram of the image is
+   * known, the histogram of the channel is taken from it instead of scanning the channel later.
+   *
+   * @param image   The image.
+   * @param channel The channel to keep, or {@link Channel#GREY} for the red channel of an image
+   *                whose three channels are equal.
+   * @return The image of the channel.
+   */
+  public static GreyImage channelOf(ImageModel image, Channel channel) {
+    int height = image.getHeight();
+    int width = image.getWidth();
+    byte[] values = new byte[height * width];
+    for (int i = 0, k = 0; i < height; i++) {
+      for (int j = 0; j < width; j++, k++) {
+        values[k] = (byte) channel.valueOf(image.getPixelValues(i, j));
+      }
+    }
+    GreyImage result = new GreyImage(height, width, channel, values);
+    if (image instanceof RGBImage && ((RGBImage) image).hasHistogram()) {
+      int[][] known = image.getHistogram().getFrequencies();
+      int source = channel == Channel.GREEN ? 1 : channel == Channel.BLUE ? 2 : 0;
+      result.histogram = histogramOf(channel, known[source], values.length);
+    }
+    return result;
+  }
+
+  /**
+   * Splits an image into its red, green and blue components in a single pass: every pixel of
+   * the image is read once and its three channels are written to three planes. Rows are split in
+   * parallel.
+   *
+   * @param image The image.
+   * @return The red, green and blue component images, in this order.
+   */
+  public static GreyImage[] split(ImageModel image) {
+    int height = image.getHeight();
+    int width = image.getWidth();
+    byte[] reds = new byte[height * width];
+    byte[] greens = new byte[height * width];
+    byte[] blues = new byte[height * width];
+    PixelModel[][] pixels = image instanceof RGBImage ? ((RGBImage) image).sharedPixels() : null;
+    IntStream.range(0, height).parallel().forEach(i -> {
+      PixelModel[] row = pixels == null ? null : pixels[i];
+      for (int j = 0, k = i * width; j < width; j++, k++) {
+        PixelModel pixel = row == null ? image.getPixelValues(i, j) : row[j];
+        reds[k] = (byte) pixel.getR();
+        greens[k] = (byte) pixel.getG();
+        blues[k] = (byte) pixel.getB();
+      }
+    });
+    return new GreyImage[]{new GreyImage(height, width, Channel.RED, reds),
+        new GreyImage(height, width, Channel.GREEN, greens),
+        new GreyImage(height, width, Channel.BLUE, blues)};
+  }
+
+  /**
+   * Combines the red channel of an image, the green channel of another and the blue channel of
+   * a third into an image, in a single pass over rows filled in parallel. The channels of grey
+   * images are read from their values, and those of other images once per pixel.
+   *
+   * @param red    The image giving the red channel.
+   * @param green  The image giving the green channel.
+   * @param blue   The image giving the blue channel.
+   * @param raster The grid receiving the pixels, of the size of the images.
+   * @return The combined image, holding the grid.
+   * @throws IllegalArgumentException If the images do not have the same size.
+   */
+  public static RGBImage combine(ImageModel red, ImageModel green, ImageModel blue,
+                                 PixelModel[][] raster) {
+    int height = red.getHeight();
+    int width = red.getWidth();
+    if (green.getHeight() != height || blue.getHeight() != height
+            || green.getWidth() != width || blue.getWidth() != width) {
+      throw new IllegalArgumentException("Images do not have the same dimension.");
+    }
+    IntStream.range(0, height).parallel().forEach(i -> {
+      int[] r = new int[width];
+      int[] g = new int[width];
+      int[] b = new int[width];
+      readChannel(red, Channel.RED, i, r);
+      readChannel(green, Channel.GREEN, i, g);
+      readChannel(blue, Channel.BLUE, i, b);
+      PixelModel[] row = raster[i];
+      for (int j = 0; j < width; j++) {
+        row[j] = new RGBPixel(r[j], g[j], b[j]);
+      }
+    });
+    return new RGBImage(height, width, raster);
+  }
+
+  /**
+   * Reads one channel of a row of an image.
+   */
+  private static void readChannel(ImageModel image, Channel channel, int i, int[] out) {
+    int width = out.length;
+    if (image instanceof GreyImage) {
+      GreyImage grey = (GreyImage) image;
+      if (grey.channel == Channel.GREY || grey.channel == channel) {
+        for (int j = 0, k = i * width; j < width; j++, k++) {
+          out[j] = grey.values[k] & 0xff;
+        }
+      } else {
+        Arrays.fill(out, 0);
+      }
+      return;
+    }
+    PixelModel[] row = image instanceof RGBImage ? ((RGBImage) image).sharedPixels()[i] : null;
+    for (int j = 0; j < width; j++) {
+      out[j] = channel.valueOf(row == null ? image.getPixelValues(i, j) : row[j]);
+    }
+  }
+
+  /**
+   * Returns the greyscale image of the values a function computes from the pixels of an image.
+   *
+   * @param image    The image.
+   * @param function The function, whose results are clamped to the 0 to 255 range.
+   * @return The greyscale image.
+   */
+  public static GreyImage greyOf(ImageModel image, PixelFunction function) {
+    int height = image.getHeight();
+    int width = image.getWidth();
+    byte[] values = new byte[height * width];
+    for (int i = 0, k = 0; i < height; i++) {
+      for (int j = 0; j < width; j++, k++) {
+        int value = function.apply(image.getPixelValues(i, j));
+        values[k] = (byte) Math.max(0, Math.min(255, value));
+      }
+    }
+    return new GreyImage(height, width, Channel.GREY, values);
+  }
+
+  /**
+   * Computes a value from a pixel.
+   */
+  public interface PixelFunction {
+
+    /**
+     * Computes the value.
+     *
+     * @param pixel The pixel.
+     * @return The value.
+     */
+    int apply(PixelModel pixel);
+  }
+
+  /**
+   * Get the channel of the values of the image.
+   *
+   * @return The channel.
+   */
+  public Channel getChannel() {
+    return channel;
+  }
+
+  /**
+   * Get the value of a pixel.
+   *
+   * @param i The row of the pixel.
+   * @param j The column of the pixel.
+   * @return The value, from 0 to 255.
+   */
+  public int getValue(int i, int j) {
+    this.checkBounds(i, j);
+    return values[i * width + j] & 0xff;
+  }
+
+  /**
+   * Copies the values of a row into an array.
+   *
+   * @param i   The row.
+   * @param row The array, at least as long as the width of the image.
+   */
+  public void readRow(int i, byte[] row) {
+    this.checkBounds(i, 0);
+    System.arraycopy(values, i * width, row, 0, width);
+  }
+
+  private void checkBounds(int i, int j) {
+    if (i < 0 || i >= height || j < 0 || j >= width) {
+      throw new IllegalArgumentException("Pixel indices are out of bound!");
+    }
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getMaxValue() {
+    return 255;
+  }
+
+  @Override
+  public PixelModel getPixelValues(int i, int j) {
+    return PIXELS[channel.ordinal()][this.getValue(i, j)];
+  }
+
+  @Override
+  public PixelModel[][] getPixels() {
+    RGBPixel[] expansion = PIXELS[channel.ordinal()];
+    PixelModel[][] pixels = new RGBPixel[height][width];
+    for (int i = 0, k = 0; i < height; i++) {
+      for (int j = 0; j < width; j++, k++) {
+        pixels[i][j] = expansion[values[k] & 0xff];
+      }
+    }
+    return pixels;
+  }
+
+  @Override
+  public ImageHistogram getHistogram() {
+    ImageHistogram result = this.histogram;
+    if (result == null) {
+      int[] counts = new int[256];
+      for (byte value : values) {
+        counts[value & 0xff]++;
+      }
+      result = histogramOf(channel, counts, values.length);
+      this.histogram = result;
+    }
+    return result;
+  }
+
+  /**
+   * Returns the histogram of an image of a channel, given the frequencies of its values.
+   */
+  private static ImageHistogram histogramOf(Channel channel, int[] counts, int pixels) {
+    int[] zeros = new int[256];
+    zeros[0] = pixels;
+    return new ImageHistogram(channel == Channel.GREY || channel == Channel.RED ? counts
+            : zeros, channel == Channel.GREY || channel == Channel.GREEN ? counts : zeros,
+            channel == Channel.GREY || channel == Channel.BLUE ? counts : zeros);
+  }
+
+  /**
+   * Tells whether the histogram of the image is known already, computed or derived from the
+   * histogram of the image it was created from, so that {@link #getHistogram()} does not scan it.
+   *
+   * @return true if the histogram is known.
+   */
+  public boolean hasHistogram() {
+    return this.histogram != null;
+  }
+
+  /**
+   * Returns the exact histogram of the image, which takes a single pass over one byte per pixel.
+   *
+   * @param targetSamples Ignored.
+   * @return The histogram of the image.
+   */
+  @Override
+  public ImageHistogram getHistogram(long targetSamples) {
+    return this.getHistogram();
+  }
+
+  @Override
+  public ImageModel horizontalFlip() {
+    byte[] result = new byte[values.length];
+    for (int i = 0; i < height; i++) {
+      int row = i * width;
+      for (int j = 0; j < width; j++) {
+        result[row + j] = values[row + width - 1 - j];
+      }
+    }
+    return this.derived(result);
+  }
+
+  @Override
+  public ImageModel verticalFlip() {
+    byte[] result = new byte[values.length];
+    for (int i = 0; i < height; i++) {
+      System.arraycopy(values, (height - 1 - i) * width, result, i * width, width);
+    }
+    return this.derived(result);
+  }
+
+  /**
+   * Returns an image with the channel of this image and other values, whose histogram is the
+   * histogram of this image, since the values are moved around.
+   */
+  private GreyImage derived(byte[] result) {
+    GreyImage image = new GreyImage(height, width, channel, result);
+    image.histogram = this.histogram;
+    return image;
+  }
+
+  /**
+   * Filters the image like {@link RGBImage#filter(double[][])}. The zero channels stay zero and
+   * the channels of a greyscale image stay equal, so only one channel is computed.
+   */
+  @Override
+  public ImageModel filter(double[][] kernel) {
+    int kernelLength = kernel.length / 2;
+    byte[] result = new byte[values.length];
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        double value = 0;
+        // Same order of summation as RGBImage, so the rounding is identical.
+        for (int k = i - kernelLength, x = 0; k <= i + kernelLength; k++, x++) {
+          for (int l = j - kernelLength, y = 0; l <= j + kernelLength; l++, y++) {
+            if ((k >= 0 && k < height) && (l >= 0 && l < width)) {
+              value += (values[k * width + l] & 0xff) * kernel[x][y];
+            }
+          }
+        }
+        result[i * width + j] = (byte) Math.max(0, Math.min(255, (int) Math.round(value)));
+      }
+    }
+    return new GreyImage(height, width, channel, result);
+  }
+
+  /**
+   * Transforms the pixels of the image. The function is applied once per distinct value, so it
+   * must give the same result for the same pixel.
+   */
+  @Override
+  public ImageModel applyTransform(Function<PixelModel, PixelModel> transformFunction) {
+    RGBPixel[] expansion = PIXELS[channel.ordinal()];
+    PixelModel[] results = new PixelModel[256];
+    boolean[] used = new boolean[256];
+    for (byte value : values) {
+      used[value & 0xff] = true;
+    }
+    for (int v = 0; v < 256; v++) {
+      if (used[v]) {
+        results[v] = transformFunction.apply(expansion[v]);
+      }
+    }
+    return this.remap(results, used);
+  }
+
+  @Override
+  public ImageModel applyChannelLookup(int[] redLut, int[] greenLut, int[] blueLut) {
+    int[][] luts = {redLut, greenLut, blueLut};
+    for (int[] lut : luts) {
+      if (lut == null || lut.length != 256) {
+        throw new IllegalArgumentException("A lookup table must have 256 entries.");
+      }
+    }
+    RGBPixel[] expansion = PIXELS[channel.ordinal()];
+    PixelModel[] results = new PixelModel[256];
+    boolean[] used = new boolean[256];
+    for (byte value : values) {
+      used[value & 0xff] = true;
+    }
+    for (int v = 0; v < 256; v++) {
+      if (used[v]) {
+        PixelModel pixel = expansion[v];
+        results[v] = new RGBPixel(redLut[pixel.getR()], greenLut[pixel.getG()],
+                blueLut[pixel.getB()]);
+      }
+    }
+    ImageModel image = this.remap(results, used);
+    ImageHistogram known = this.histogram;
+    if (known != null && image instanceof GreyImage) {
+      ((GreyImage) image).histogram = known.remap(RGBImageV2.clampLookup(redLut),
+              RGBImageV2.clampLookup(greenLut), RGBImageV2.clampLookup(blueLut));
+    }
+    return image;
+  }
+
+  /**
+   * Builds the image whose pixels are the results for the values of the pixels of this image,
+   * as a grey image if every result fits in a channel.
+   */
+  private ImageModel remap(PixelModel[] results, boolean[] used) {
+    for (Channel candidate : new Channel[]{channel, Channel.GREY, Channel.RED, Channel.GREEN,
+        Channel.BLUE}) {
+      if (fitsIn(candidate, results, used)) {
+        byte[] table = new byte[256];
+        for (int v = 0; v < 256; v++) {
+          if (used[v]) {
+            table[v] = (byte) candidate.valueOf(results[v]);
+          }
+        }
+        byte[] result = new byte[values.length];
+        for (int k = 0; k < values.length; k++) {
+          result[k] = table[values[k] & 0xff];
+        }
+        return new GreyImage(height, width, candidate, result);
+      }
+    }
+    PixelModel[][] pixels = new RGBPixel[height][width];
+    for (int i = 0, k = 0; i < height; i++) {
+      for (int j = 0; j < width; j++, k++) {
+        pixels[i][j] = results[values[k] & 0xff];
+      }
+    }
+    return new RGBImage(height, width, pixels);
+  }
+
+  private static boolean fitsIn(Channel candidate, PixelModel[] results, boolean[] used) {
+    for (int v = 0; v < 256; v++) {
+      if (used[v] && (!(results[v] instanceof RGBPixel)
+              || !candidate.fits(results[v].getR(), results[v].getG(), results[v].getB()))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public long getFingerprint() {
+    long result = this.fingerprint;
+    if (result == 0) {
+      result = ImageFingerprint.of(this);
+      this.fingerprint = result;
+    }
+    return result;
+  }
+
+  /**
+   * Tells whether an object is an image, of any type, with the same size and pixels as this
+   * image.
+   *
+   * @param o The object to compare.
+   * @return true if the object is an image with the same content.
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+    if (o instanceof GreyImage && ((GreyImage) o).channel == channel) {
+      GreyImage other = (GreyImage) o;
+      if (fingerprint != 0 && other.fingerprint != 0 && fingerprint != other.fingerprint) {
+        return false;
+      }
+      return height == other.height && width == other.width
+              && Arrays.equals(values, other.values);
+    }
+    return o instanceof ImageModel && ImageFingerprint.sameContent(this, (ImageModel) o);
+  }
+
+  @Override
+  public int hashCode() {
+    return ImageFingerprint.hashCode(this.getFingerprint());
+  }
+}
@@ -0,0 +1,162 @@
+package ime.model.image;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The ImageFingerprint class computes a 64-bit hash of the size and the pixels of an image, and
+ * compares the content of images of any type. Images with the same size and pixels have the same
+ * fingerprint whatever their type, so images cache their fingerprint for
+ * {@link Object#hashCode()}, for a quick rejection in {@link Object#equals(Object)}, and for
+ * caches keyed on the content of images.
+ *
+ * <p>The rows of an image are hashed in parallel chunks, each pixel packed as its red, green and
+ * blue bytes, and the hashes of the chunks are combined in order.</p>
+ */
+public final class ImageFingerprint {
+
+  private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+  private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long PRIME_3 = 0x165667B19E3779F9L;
+
+  /**
+   * The number of rows hashed by one task.
+   */
+  private static final int CHUNK_ROWS = 32;
+
+  private static final int[][] GREY_RGB = new int[GreyImage.Channel.values().length][256];
+
+  static {
+    for (int v = 0; v < 256; v++) {
+      GREY_RGB[GreyImage.Channel.GREY.ordinal()][v] = v << 16 | v << 8 | v;
+      GREY_RGB[GreyImage.Channel.RED.ordinal()][v] = v << 16;
+      GREY_RGB[GreyImage.Channel.GREEN.ordinal()][v] = v << 8;
+      GREY_RGB[GreyImage.Channel.BLUE.ordinal()][v] = v;
+    }
+  }
+
+  private ImageFingerprint() {
+  }
+
+  /**
+   * Computes the fingerprint of an image. Images cache it, so callers should use
+   * {@link ImageModel#getFingerprint()} instead.
+   *
+   * @param image The image.
+   * @return The fingerprint.
+   */
+  public static long of(ImageModel image) {
+    int height = image.getHeight();
+    int width = image.getWidth();
+    int chunks = (height + CHUNK_ROWS - 1) / CHUNK_ROWS;
+    long[] hashes = IntStream.range(0, chunks).parallel().mapToLong(chunk -> {
+      int[] row = new int[width];
+      long hash = PRIME_3 + chunk;
+      for (int i = chunk * CHUNK_ROWS; i < Math.min(height, (chunk + 1) * CHUNK_ROWS); i++) {
+        readRow(image, i, row);
+        for (int rgb : row) {
+          hash = Long.rotateLeft(hash ^ rgb * PRIME_1, 31) * PRIME_2;
+        }
+      }
+      return hash;
+    }).toArray();
+
+    long fingerprint = mix((long) height << 32 | width);
+    for (long hash : hashes) {
+      fingerprint = mix(fingerprint ^ hash) + PRIME_1;
+    }
+    // Zero marks a fingerprint that is not computed yet.
+    return fingerprint == 0 ? PRIME_3 : fingerprint;
+  }
+
+  /**
+   * Tells whether two images have the same size and the same pixels. The fingerprints of the
+   * images are compared first, so images with different content are told apart in constant
+   * time once their fingerprints are known.
+   *
+   * @param image The image.
+   * @param other The other image.
+   * @return true if the images have the same size and pixels.
+   */
+  public static boolean sameContent(ImageModel image, ImageModel other) {
+    if (image == other) {
+      return true;
+    }
+    int height = image.getHeight();
+    int width = image.getWidth();
+    if (height != other.getHeight() || width != other.getWidth()
+            || image.getMaxValue() != other.getMaxValue()
+            || image.getFingerprint() != other.getFingerprint()) {
+      return false;
+    }
+    int[] row = new int[width];
+    int[] otherRow = new int[width];
+    for (int i = 0; i < height; i++) {
+      readRow(image, i, row);
+      readRow(other, i, otherRow);
+      if (!Arrays.equals(row, otherRow)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the hash code of a fingerprint.
+   *
+   * @param fingerprint The fingerprint.
+   * @return The hash code.
+   */
+  static int hashCode(long fingerprint) {
+    return (int) (fingerprint ^ fingerprint >>> 32);
+  }
+
+  /**
+   * Reads a row of an image as packed red, green and blue bytes.
+   */
+  private static void readRow(ImageModel image, int i, int[] rgb) {
+    int width = rgb.length;
+    if (image instanceof RGBImage) {
+      PixelModel[] row = ((RGBImage) image).sharedPixels()[i];
+      for (int j = 0; j < width; j++) {
+        rgb[j] = pack(row[j]);
+      }
+    } else if (image instanceof GreyImage) {
+      GreyImage grey = (GreyImage) image;
+      int[] expansion = GREY_RGB[grey.getChannel().ordinal()];
+      byte[] values = new byte[width];
+      grey.readRow(i, values);
+      for (int j = 0; j < width; j++) {
+        rgb[j] = expansion[values[j] & 0xff];
+      }
+    } else if (image instanceof MappedImage) {
+      byte[] bytes = new byte[3 * width];
+      ((MappedImage) image).readRow(i, bytes);
+      for (int j = 0; j < width; j++) {
+        rgb[j] = (bytes[3 * j] & 0xff) << 16 | (bytes[3 * j + 1] & 0xff) << 8
+                | bytes[3 * j + 2] & 0xff;
+      }
+    } else {
+      for (int j = 0; j < width; j++) {
+        rgb[j] = pack(image.getPixelValues(i, j));
+      }
+    }
+  }
+
+  private static int pack(PixelModel pixel) {
+    return pixel.getR() << 16 | pixel.getG() << 8 | pixel.getB();
+  }
+
+  /**
+   * Mixes the bits of a value, as the finalizer of MurmurHash3.
+   */
+  private static long mix(long value) {
+    long h = value;
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
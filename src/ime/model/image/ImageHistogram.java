@@ -0,0 +1,209 @@
+package ime.model.image;
+
+import java.util.stream.IntStream;
+
+/**
+ * The ImageHistogram class holds the frequencies of each intensity level (0 to 255) for the red,
+ * green and blue channels of an image. Instances are immutable, so an image can compute its
+ * histogram once and share it with every consumer (color correction, the histogram command and
+ * the GUI histogram panel).
+ *
+ * <p>A histogram is either exact, or approximate when it was computed from a strided sample of
+ * the pixels. The counts of an approximate histogram are scaled up to the number of pixels of
+ * the image, and {@link #getErrorBound()} reports how far its normalized counts may be off.</p>
+ */
+public final class ImageHistogram {
+
+  private static final int LEVELS = 256;
+
+  /**
+   * The probability with which the error bound of an approximate histogram may be exceeded.
+   */
+  private static final double CONFIDENCE_FAILURE = 0.05;
+
+  private final int[][] frequencies;
+  private final long sampleCount;
+  private final boolean exact;
+
+  /**
+   * Constructs an exact histogram from per-channel frequencies.
+   *
+   * @param reds   The frequencies of the red channel.
+   * @param greens The frequencies of the green channel.
+   * @param blues  The frequencies of the blue channel.
+   * @throws IllegalArgumentException If any channel does not have 256 levels.
+   */
+  public ImageHistogram(int[] reds, int[] greens, int[] blues) {
+    this(new int[][]{reds.clone(), greens.clone(), blues.clone()}, -1, true);
+  }
+
+  private ImageHistogram(int[][] frequencies, long sampleCount, boolean exact) {
+    for (int[] channel : frequencies) {
+      if (channel.length != LEVELS) {
+        throw new IllegalArgumentException("A histogram must have 256 levels per channel.");
+      }
+    }
+    this.frequencies = frequencies;
+    this.exact = exact;
+    if (sampleCount < 0) {
+      long total = 0;
+      for (int count : frequencies[0]) {
+        total += count;
+      }
+      sampleCount = total;
+    }
+    this.sampleCount = sampleCount;
+  }
+
+  /**
+   * Computes the histogram of an image. Rows are scanned in parallel into per-thread bins which
+   * are merged at the end.
+   *
+   * @param image The image to scan.
+   * @return The histogram of the image.
+   */
+  public static ImageHistogram of(ImageModel image) {
+    int[][] bins = scan(image, 1);
+    return new ImageHistogram(bins, -1, true);
+  }
+
+  /**
+   * Computes an approximate histogram of an image from a regular grid of about
+   * {@code targetSamples} pixels. The counts are scaled to the number of pixels of the image. If
+   * the image does not have more pixels than the target, the exact histogram is computed.
+   *
+   * @param image         The image to sample.
+   * @param targetSamples The minimum number of pixels to sample.
+   * @return The approximate histogram of the image.
+   * @throws IllegalArgumentException If the target is not positive.
+   */
+  public static ImageHistogram sample(ImageModel image, long targetSamples) {
+    if (targetSamples <= 0) {
+      throw new IllegalArgumentException("The number of samples must be positive.");
+    }
+    long pixels = (long) image.getHeight() * image.getWidth();
+    int stride = (int) Math.max(1, Math.floor(Math.sqrt((double) pixels / targetSamples)));
+    if (stride == 1) {
+      return of(image);
+    }
+
+    int[][] bins = scan(image, stride);
+    long sampled = 0;
+    for (int count : bins[0]) {
+      sampled += count;
+    }
+
+    double scale = (double) pixels / sampled;
+    for (int[] channel : bins) {
+      for (int k = 0; k < LEVELS; k++) {
+        channel[k] = (int) Math.round(channel[k] * scale);
+      }
+    }
+    return new ImageHistogram(bins, sampled, false);
+  }
+
+  /**
+   * Counts the levels of every {@code stride}-th pixel of every {@code stride}-th row.
+   *
+   * @param image  The image to scan.
+   * @param stride The distance between sampled rows and columns.
+   * @return The per-channel counts.
+   */
+  private static int[][] scan(ImageModel image, int stride) {
+    int rows = (image.getHeight() + stride - 1) / stride;
+    return IntStream.range(0, rows).parallel()
+            .collect(() -> new int[3][LEVELS],
+                (acc, row) -> {
+                  int i = row * stride;
+                  for (int j = 0; j < image.getWidth(); j += stride) {
+                    PixelModel pixel = image.getPixelValues(i, j);
+                    acc[0][pixel.getR()]++;
+                    acc[1][pixel.getG()]++;
+                    acc[2][pixel.getB()]++;
+                  }
+                },
+                (a, b) -> {
+                  for (int c = 0; c < a.length; c++) {
+                    for (int k = 0; k < LEVELS; k++) {
+                      a[c][k] += b[c][k];
+                    }
+                  }
+                });
+  }
+
+  /**
+   * Derives the histogram of an image produced by a per-channel lookup table, without scanning
+   * the produced image. Every bin of a channel is moved to the level its lookup table maps it to,
+   * so the cost is independent of the image size. An approximate histogram stays approximate.
+   *
+   * @param redLut   The lookup table of the red channel, 256 values between 0 and 255.
+   * @param greenLut The lookup table of the green channel, 256 values between 0 and 255.
+   * @param blueLut  The lookup table of the blue channel, 256 values between 0 and 255.
+   * @return The histogram of the transformed image.
+   */
+  public ImageHistogram remap(int[] redLut, int[] greenLut, int[] blueLut) {
+    int[][] luts = {redLut, greenLut, blueLut};
+    int[][] result = new int[3][LEVELS];
+    for (int c = 0; c < luts.length; c++) {
+      for (int k = 0; k < LEVELS; k++) {
+        result[c][luts[c][k]] += frequencies[c][k];
+      }
+    }
+    return new ImageHistogram(result, sampleCount, exact);
+  }
+
+  /**
+   * Returns a copy of the frequencies of every channel.
+   *
+   * @return An array of the red, green and blue frequencies, in that order.
+   */
+  public int[][] getFrequencies() {
+    return new int[][]{frequencies[0].clone(), frequencies[1].clone(), frequencies[2].clone()};
+  }
+
+  /**
+   * Returns the frequency of a single intensity level of a channel.
+   *
+   * @param channel The channel, 0 for red, 1 for green and 2 for blue.
+   * @param level   The intensity level between 0 and 255.
+   * @return The number of pixels with that level in the channel.
+   */
+  public int getFrequency(int channel, int level) {
+    return frequencies[channel][level];
+  }
+
+  /**
+   * Tells whether every pixel of the image was counted.
+   *
+   * @return true if the histogram is exact, false if it was sampled.
+   */
+  public boolean isExact() {
+    return exact;
+  }
+
+  /**
+   * Returns the number of pixels that were actually counted.
+   *
+   * @return The number of counted pixels.
+   */
+  public long getSampleCount() {
+    return sampleCount;
+  }
+
+  /**
+   * Returns the bound on the error of the normalized counts (count divided by the number of
+   * pixels) of this histogram. By the Dvoretzky-Kiefer-Wolfowitz inequality, the cumulative
+   * distribution of a channel estimated from n samples is within
+   * {@code sqrt(ln(2 / 0.05) / (2n))} of the true one with 95% probability, which bounds the
+   * error of every normalized bin by twice that value. The bound assumes the sampled grid is
+   * representative of the image, which holds unless the content is periodic with the stride.
+   *
+   * @return The error bound, 0 for an exact histogram.
+   */
+  public double getErrorBound() {
+    if (exact) {
+      return 0;
+    }
+    return 2 * Math.sqrt(Math.log(2 / CONFIDENCE_FAILURE) / (2.0 * sampleCount));
+  }
+}
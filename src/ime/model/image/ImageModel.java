@@ -45,8 +45,43 @@ public interface ImageModel {
    */
   PixelModel getPixelValues(int i, int j);
 
+  /**
+   * Get a copy of the pixel grid of the image. Changing the returned array does not change the
+   * image.
+   *
+   * @return The pixels of the image, row by row.
+   */
   PixelModel[][] getPixels();
 
+  /**
+   * Get the histogram of the red, green and blue channels of the image. The histogram is
+   * computed on first use and cached, so repeated calls do not rescan the image.
+   *
+   * @return The histogram of the image.
+   */
+  ImageHistogram getHistogram();
+
+  /**
+   * Get a histogram of the image computed from at least {@code targetSamples} pixels. If the
+   * exact histogram is already known, or the image is not larger than the target, the exact
+   * histogram is returned. Otherwise an approximate histogram from a strided sample is computed
+   * and cached.
+   *
+   * @param targetSamples The number of pixels to sample, or 0 for the exact histogram.
+   * @return The exact or approximate histogram of the image.
+   */
+  ImageHistogram getHistogram(long targetSamples);
+
+  /**
+   * Get the 64-bit fingerprint of the size and the pixels of the image, computed on first use and
+   * cached. Images with the same size and pixels have the same fingerprint whatever their type,
+   * so the fingerprint identifies the content of an image in constant time.
+   *
+   * @return The fingerprint of the image.
+   * @see ImageFingerprint
+   */
+  long getFingerprint();
+
 
   /**
    * Create a new image by horizontally flipping the current image.
@@ -79,4 +114,17 @@ public interface ImageModel {
    * @return A new greyscale image based on the provided transformation.
    */
   ImageModel applyTransform(Function<PixelModel, PixelModel> transformFunction);
+
+  /**
+   * Create a new image by mapping every channel value through a per-channel lookup table. Values
+   * of the tables are clamped to the 0 to 255 range. If the histogram of this image is already
+   * known, the histogram of the new image is derived from it without scanning the new image.
+   *
+   * @param redLut   The lookup table of the red channel, indexed by the current red value.
+   * @param greenLut The lookup table of the green channel, indexed by the current green value.
+   * @param blueLut  The lookup table of the blue channel, indexed by the current blue value.
+   * @return A new image with the mapped channel values.
+   * @throws IllegalArgumentException If a lookup table does not have 256 entries.
+   */
+  ImageModel applyChannelLookup(int[] redLut, int[] greenLut, int[] blueLut);
 }
@@ -24,6 +24,32 @@ public interface ImageModelV2 extends ImageModel {
    */
   ImageModel compress(double percentage);
 
+  /**
+   * Compresses the image by the specified percentage, transforming independent square tiles
+   * instead of the whole image. Memory use is bounded by the tile size and the number of tiles
+   * processed in parallel, at the cost of possible blocking artefacts along tile edges.
+   *
+   * @param percentage       The percentage by which to compress the image.
+   * @param tileSize         The edge length of a tile, must be a power of two.
+   * @param perTileThreshold true to pick the threshold per tile, false to pick one threshold per
+   *                         channel for the whole image.
+   * @return A new instance of {@code ImageModel} representing the compressed image.
+   * @throws IllegalArgumentException If the tile size is not a power of two greater than 1.
+   */
+  ImageModel compress(double percentage, int tileSize, boolean perTileThreshold);
+
+  /**
+   * Compresses the image in the YCoCg-R luma/chroma colour space, using separate percentages for
+   * the luma plane and the two chroma planes.
+   *
+   * @param lumaPercentage   The percentage by which to compress the luma plane.
+   * @param chromaPercentage The percentage by which to compress the chroma planes.
+   * @param subsampleChroma  true to average the chroma planes over 2x2 blocks before compressing.
+   * @return A new instance of {@code ImageModel} representing the compressed image.
+   */
+  ImageModel compressLumaChroma(double lumaPercentage, double chromaPercentage,
+                                boolean subsampleChroma);
+
   /**
    * Performs color correction on the image.
    *
@@ -31,6 +57,15 @@ public interface ImageModelV2 extends ImageModel {
    */
   ImageModel colorCorrect();
 
+  /**
+   * Performs color correction on the image, finding the histogram peaks from a sample of at
+   * least {@code targetSamples} pixels instead of the whole image.
+   *
+   * @param targetSamples The number of pixels to sample, or 0 to use the exact histogram.
+   * @return A new instance of {@code ImageModel} representing the color-corrected image.
+   */
+  ImageModel colorCorrect(long targetSamples);
+
   /**
    * Adjusts the levels of the image based on the provided parameters.
    *
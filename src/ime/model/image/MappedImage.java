@@ -0,0 +1,524 @@
+package ime.model.image;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * The MappedImage class is an image whose raster lives outside of the heap, in a memory-mapped
+ * temporary file holding three bytes per pixel, row by row. Only the rows being processed are
+ * paged in, so images larger than the heap can be processed while the operating system page
+ * cache holds the raster.
+ *
+ * <p>Every operation streams the rows of the image through small row buffers and writes its
+ * result to a new mapped image, with the same rounding and clamping as {@link RGBImage}, so both
+ * representations give identical pixels. Compression works on the whole image at once and copies
+ * the raster to the heap first.</p>
+ *
+ * <p>An image is filled with {@link #writeRow(int, byte[])} right after it is allocated, and is
+ * treated as immutable once it is shared.</p>
+ *
+ * <p>The temporary file is deleted right away, but its disk space is only given back once the
+ * raster is unmapped. {@link #dispose()} unmaps it as soon as its owner no longer needs the
+ * image. Otherwise that happens when the garbage collector finds the small buffers of the
+ * mappings unreachable, which a heap full of other objects may put off for a long time.</p>
+ */
+public class MappedImage implements ImageModelV2 {
+
+  /**
+   * The largest size of a single mapping, a whole number of rows under 1 GB.
+   */
+  private static final long SEGMENT_BYTES = 1L << 30;
+
+  /**
+   * The instance of {@code sun.misc.Unsafe} unmapping buffers, or null if it is not available.
+   */
+  private static final Object UNSAFE;
+
+  /**
+   * The {@code invokeCleaner} method of {@code sun.misc.Unsafe}, or null if it is not available.
+   */
+  private static final Method INVOKE_CLEANER;
+
+  static {
+    Object unsafe = null;
+    Method invokeCleaner = null;
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field field = unsafeClass.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      unsafe = field.get(null);
+      invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Without the jdk.unsupported module, mappings are released by the garbage collector.
+      unsafe = null;
+      invokeCleaner = null;
+    }
+    UNSAFE = unsafe;
+    INVOKE_CLEANER = invokeCleaner;
+  }
+
+  private final int height;
+  private final int width;
+  private final int rowBytes;
+  private final int rowsPerSegment;
+  private final List<MappedByteBuffer> segments;
+  private volatile ImageHistogram histogram;
+  private volatile ImageHistogram sampledHistogram;
+  private volatile long fingerprint;
+  private volatile boolean disposed;
+
+  private MappedImage(int height, int width, int rowsPerSegment,
+                      List<MappedByteBuffer> segments) {
+    this.height = height;
+    this.width = width;
+    this.rowBytes = 3 * width;
+    this.rowsPerSegment = rowsPerSegment;
+    this.segments = segments;
+  }
+
+  /**
+   * Allocates a black image in a new temporary file. The file is deleted right away where the
+   * operating system keeps mapped files alive, and when the JVM exits otherwise.
+   *
+   * @param height The height of the image.
+   * @param width  The width of the image.
+   * @return The new image.
+   * @throws IllegalArgumentException If the height or the width is not positive.
+   * @throws IOException              If the file cannot be created or mapped.
+   */
+  public static MappedImage allocate(int height, int width) throws IOException {
+    if (height <= 0 || width <= 0) {
+      throw new IllegalArgumentException("Height and width of an image must be positive.");
+    }
+    long rowBytes = 3L * width;
+    int rowsPerSegment = (int) Math.max(1, Math.min(height, SEGMENT_BYTES / rowBytes));
+    Path file = Files.createTempFile("ime-raster", ".rgb");
+    List<MappedByteBuffer> segments = new ArrayList<>();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      for (int top = 0; top < height; top += rowsPerSegment) {
+        long rows = Math.min(rowsPerSegment, height - top);
+        segments.add(channel.map(FileChannel.MapMode.READ_WRITE, top * rowBytes,
+                rows * rowBytes));
+      }
+    }
+    try {
+      Files.delete(file);
+    } catch (IOException e) {
+      file.toFile().deleteOnExit();
+    }
+    return new MappedImage(height, width, rowsPerSegment, segments);
+  }
+
+  /**
+   * Copies an image to a new mapped image.
+   *
+   * @param image The image to copy.
+   * @return The mapped copy.
+   * @throws IOException If the file cannot be created or mapped.
+   */
+  public static MappedImage copyOf(ImageModel image) throws IOException {
+    MappedImage copy = allocate(image.getHeight(), image.getWidth());
+    byte[] row = new byte[copy.rowBytes];
+    for (int i = 0; i < image.getHeight(); i++) {
+      for (int j = 0; j < image.getWidth(); j++) {
+        PixelModel pixel = image.getPixelValues(i, j);
+        row[3 * j] = (byte) pixel.getR();
+        row[3 * j + 1] = (byte) pixel.getG();
+        row[3 * j + 2] = (byte) pixel.getB();
+      }
+      copy.writeRow(i, row);
+    }
+    return copy;
+  }
+
+  /**
+   * Allocates an image for the result of an operation.
+   */
+  private MappedImage allocateLike(int height, int width) {
+    try {
+      return allocate(height, width);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to allocate a mapped image.", e);
+    }
+  }
+
+  /**
+   * Unmaps the raster of this image right away, which gives the disk space of its temporary file
+   * back. Only the owner of the image may dispose it, once nothing reads it anymore: the image
+   * cannot be used afterwards. Disposing an image twice does nothing.
+   */
+  public void dispose() {
+    if (disposed) {
+      return;
+    }
+    disposed = true;
+    if (INVOKE_CLEANER == null) {
+      return;
+    }
+    for (MappedByteBuffer segment : segments) {
+      try {
+        INVOKE_CLEANER.invoke(UNSAFE, segment);
+      } catch (ReflectiveOperationException e) {
+        // The garbage collector unmaps the segment instead.
+        return;
+      }
+    }
+  }
+
+  /**
+   * Tells whether the raster of this image was unmapped.
+   *
+   * @return true if the image was disposed.
+   */
+  public boolean isDisposed() {
+    return disposed;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getMaxValue() {
+    return 255;
+  }
+
+  /**
+   * Returns a view of the segment holding a row, positioned at the start of the row.
+   */
+  private ByteBuffer rowBuffer(int i) {
+    if (i < 0 || i >= height) {
+      throw new IllegalArgumentException("Pixel indices are out of bound!");
+    }
+    if (disposed) {
+      throw new IllegalStateException("The image was disposed.");
+    }
+    ByteBuffer segment = segments.get(i / rowsPerSegment).duplicate();
+    segment.position((i % rowsPerSegment) * rowBytes);
+    return segment;
+  }
+
+  /**
+   * Reads a row of the image as red, green and blue bytes.
+   *
+   * @param i   The row to read.
+   * @param rgb The destination, of at least three bytes per pixel of the row.
+   */
+  public void readRow(int i, byte[] rgb) {
+    this.rowBuffer(i).get(rgb, 0, rowBytes);
+  }
+
+  /**
+   * Writes a row of the image as red, green and blue bytes. Rows are only written while the image
+   * is being filled.
+   *
+   * @param i   The row to write.
+   * @param rgb The source, of at least three bytes per pixel of the row.
+   */
+  public void writeRow(int i, byte[] rgb) {
+    this.rowBuffer(i).put(rgb, 0, rowBytes);
+    this.fingerprint = 0;
+  }
+
+  /**
+   * Reads a rectangle of the image as red, green and blue bytes, row by row.
+   *
+   * @param top    The first row of the rectangle.
+   * @param left   The first column of the rectangle.
+   * @param height The height of the rectangle.
+   * @param width  The width of the rectangle.
+   * @param rgb    The destination, of at least three bytes per pixel of the rectangle.
+   * @throws IllegalArgumentException If the rectangle is not inside the image.
+   */
+  public void readTile(int top, int left, int height, int width, byte[] rgb) {
+    if (left < 0 || width < 0 || left + width > this.width || top + height > this.height) {
+      throw new IllegalArgumentException("Pixel indices are out of bound!");
+    }
+    for (int i = 0; i < height; i++) {
+      ByteBuffer row = this.rowBuffer(top + i);
+      row.position(row.position() + 3 * left);
+      row.get(rgb, 3 * i * width, 3 * width);
+    }
+  }
+
+  @Override
+  public PixelModel getPixelValues(int i, int j) {
+    if (j < 0 || j >= width) {
+      throw new IllegalArgumentException("Pixel indices are out of bound!");
+    }
+    ByteBuffer row = this.rowBuffer(i);
+    int at = row.position() + 3 * j;
+    return new RGBPixel(row.get(at) & 0xff, row.get(at + 1) & 0xff, row.get(at + 2) & 0xff);
+  }
+
+  /**
+   * Get a copy of the pixel grid of the image on the heap. This needs as much heap as an
+   * {@link RGBImage} of the same size.
+   *
+   * @return The pixels of the image, row by row.
+   */
+  @Override
+  public PixelModel[][] getPixels() {
+    PixelModel[][] pixels = new PixelModel[height][width];
+    byte[] row = new byte[rowBytes];
+    for (int i = 0; i < height; i++) {
+      this.readRow(i, row);
+      for (int j = 0; j < width; j++) {
+        pixels[i][j] = new RGBPixel(row[3 * j] & 0xff, row[3 * j + 1] & 0xff,
+                row[3 * j + 2] & 0xff);
+      }
+    }
+    return pixels;
+  }
+
+  @Override
+  public ImageHistogram getHistogram() {
+    ImageHistogram known = histogram;
+    if (known == null) {
+      int[][] bins = new int[3][256];
+      byte[] row = new byte[rowBytes];
+      for (int i = 0; i < height; i++) {
+        this.readRow(i, row);
+        for (int k = 0; k < rowBytes; k += 3) {
+          bins[0][row[k] & 0xff]++;
+          bins[1][row[k + 1] & 0xff]++;
+          bins[2][row[k + 2] & 0xff]++;
+        }
+      }
+      known = new ImageHistogram(bins[0], bins[1], bins[2]);
+      histogram = known;
+    }
+    return known;
+  }
+
+  @Override
+  public ImageHistogram getHistogram(long targetSamples) {
+    ImageHistogram known = histogram;
+    if (known != null || targetSamples <= 0 || (long) height * width <= targetSamples) {
+      return this.getHistogram();
+    }
+    ImageHistogram sampled = sampledHistogram;
+    if (sampled == null) {
+      sampled = ImageHistogram.sample(this, targetSamples);
+      sampledHistogram = sampled;
+    }
+    return sampled;
+  }
+
+  @Override
+  public ImageModel horizontalFlip() {
+    MappedImage result = this.allocateLike(height, width);
+    byte[] row = new byte[rowBytes];
+    byte[] flipped = new byte[rowBytes];
+    for (int i = 0; i < height; i++) {
+      this.readRow(i, row);
+      for (int j = 0; j < width; j++) {
+        System.arraycopy(row, 3 * j, flipped, 3 * (width - 1 - j), 3);
+      }
+      result.writeRow(i, flipped);
+    }
+    return result;
+  }
+
+  @Override
+  public ImageModel verticalFlip() {
+    MappedImage result = this.allocateLike(height, width);
+    byte[] row = new byte[rowBytes];
+    for (int i = 0; i < height; i++) {
+      this.readRow(i, row);
+      result.writeRow(height - 1 - i, row);
+    }
+    return result;
+  }
+
+  /**
+   * Applies a filter like {@link RGBImage#filter(double[][])}, keeping only as many input rows
+   * on the heap as the kernel is tall.
+   *
+   * @param kernel The filter kernel to apply to the image.
+   * @return A new image after applying the filter.
+   */
+  @Override
+  public ImageModel filter(double[][] kernel) {
+    MappedImage result = this.allocateLike(height, width);
+    int kernelLength = kernel.length / 2;
+    byte[][] window = new byte[kernel.length][rowBytes];
+    int[] windowRows = new int[kernel.length];
+    Arrays.fill(windowRows, -1);
+    byte[] out = new byte[rowBytes];
+
+    for (int i = 0; i < height; i++) {
+      for (int k = Math.max(0, i - kernelLength); k <= Math.min(height - 1, i + kernelLength);
+           k++) {
+        int slot = k % kernel.length;
+        if (windowRows[slot] != k) {
+          this.readRow(k, window[slot]);
+          windowRows[slot] = k;
+        }
+      }
+
+      for (int j = 0; j < width; j++) {
+        double redValue = 0;
+        double greenValue = 0;
+        double blueValue = 0;
+
+        // Same order of summation as RGBImage, so the rounding is identical.
+        for (int k = i - kernelLength, x = 0; k <= i + kernelLength; k++, x++) {
+          for (int l = j - kernelLength, y = 0; l <= j + kernelLength; l++, y++) {
+            if ((k >= 0 && k < height) && (l >= 0 && l < width)) {
+              byte[] row = window[k % kernel.length];
+              redValue += (row[3 * l] & 0xff) * kernel[x][y];
+              greenValue += (row[3 * l + 1] & 0xff) * kernel[x][y];
+              blueValue += (row[3 * l + 2] & 0xff) * kernel[x][y];
+            }
+          }
+        }
+
+        out[3 * j] = (byte) clamp((int) Math.round(redValue));
+        out[3 * j + 1] = (byte) clamp((int) Math.round(greenValue));
+        out[3 * j + 2] = (byte) clamp((int) Math.round(blueValue));
+      }
+      result.writeRow(i, out);
+    }
+    return result;
+  }
+
+  @Override
+  public ImageModel applyTransform(Function<PixelModel, PixelModel> transformFunction) {
+    MappedImage result = this.allocateLike(height, width);
+    byte[] row = new byte[rowBytes];
+    for (int i = 0; i < height; i++) {
+      this.readRow(i, row);
+      for (int j = 0; j < width; j++) {
+        PixelModel pixel = transformFunction.apply(new RGBPixel(row[3 * j] & 0xff,
+                row[3 * j + 1] & 0xff, row[3 * j + 2] & 0xff));
+        row[3 * j] = (byte) clamp(pixel.getR());
+        row[3 * j + 1] = (byte) clamp(pixel.getG());
+        row[3 * j + 2] = (byte) clamp(pixel.getB());
+      }
+      result.writeRow(i, row);
+    }
+    return result;
+  }
+
+  @Override
+  public ImageModel applyChannelLookup(int[] redLut, int[] greenLut, int[] blueLut) {
+    int[] reds = RGBImageV2.clampLookup(redLut);
+    int[] greens = RGBImageV2.clampLookup(greenLut);
+    int[] blues = RGBImageV2.clampLookup(blueLut);
+    MappedImage result = this.allocateLike(height, width);
+    byte[] row = new byte[rowBytes];
+    for (int i = 0; i < height; i++) {
+      this.readRow(i, row);
+      for (int k = 0; k < rowBytes; k += 3) {
+        row[k] = (byte) reds[row[k] & 0xff];
+        row[k + 1] = (byte) greens[row[k + 1] & 0xff];
+        row[k + 2] = (byte) blues[row[k + 2] & 0xff];
+      }
+      result.writeRow(i, row);
+    }
+
+    ImageHistogram known = this.histogram;
+    if (known != null) {
+      result.histogram = known.remap(reds, greens, blues);
+    }
+    ImageHistogram sampled = this.sampledHistogram;
+    if (sampled != null) {
+      result.sampledHistogram = sampled.remap(reds, greens, blues);
+    }
+    return result;
+  }
+
+  @Override
+  public ImageModel compress(double percentage) {
+    return new RGBImageV2(this).compress(percentage);
+  }
+
+  @Override
+  public ImageModel compress(double percentage, int tileSize, boolean perTileThreshold) {
+    return new RGBImageV2(this).compress(percentage, tileSize, perTileThreshold);
+  }
+
+  @Override
+  public ImageModel compressLumaChroma(double lumaPercentage, double chromaPercentage,
+                                       boolean subsampleChroma) {
+    return new RGBImageV2(this).compressLumaChroma(lumaPercentage, chromaPercentage,
+            subsampleChroma);
+  }
+
+  @Override
+  public ImageModel colorCorrect() {
+    return this.colorCorrect(0);
+  }
+
+  @Override
+  public ImageModel colorCorrect(long targetSamples) {
+    int[][] luts = RGBImageV2.colorCorrectionLuts(
+            this.getHistogram(targetSamples).getFrequencies());
+    return this.applyChannelLookup(luts[0], luts[1], luts[2]);
+  }
+
+  @Override
+  public ImageModel levelsAdjust(int black, int mid, int white) {
+    int[] lut = RGBImageV2.levelsAdjustLut(black, mid, white);
+    return this.applyChannelLookup(lut, lut, lut);
+  }
+
+  /**
+   * Clamps a channel value to the 0 to 255 range, like {@link RGBPixel}.
+   */
+  private static int clamp(int value) {
+    return Math.max(0, Math.min(255, value));
+  }
+
+  @Override
+  public long getFingerprint() {
+    long result = this.fingerprint;
+    if (result == 0) {
+      result = ImageFingerprint.of(this);
+      this.fingerprint = result;
+    }
+    return result;
+  }
+
+  /**
+   * Tells whether an object is an image, of any type, with the same size and pixels as this
+   * image.
+   *
+   * @param o The object to compare.
+   * @return true if the object is an image with the same content.
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+    if (!(o instanceof ImageModel)) {
+      return false;
+    }
+    return ImageFingerprint.sameContent(this, (ImageModel) o);
+  }
+
+  @Override
+  public int hashCode() {
+    return ImageFingerprint.hashCode(this.getFingerprint());
+  }
+}
@@ -4,6 +4,7 @@ package ime.model.image;
  * Represents a model for RGB pixel values.
  * This interface provides methods to retrieve individual RGB color components of a pixel.
  * Implementing classes should define how these RGB values are stored and retrieved.
+ * Pixels are immutable, so images may share them and be read from several threads.
  */
 public interface PixelModel {
 
@@ -27,30 +28,4 @@ public interface PixelModel {
    * @return An integer value between 0 and 255 representing the blue component of the pixel.
    */
   int getB();
-
-  /**
-   * Sets the red component of the RGB color.
-   *
-   * @param value The new value for the red component (0 to 255).
-   *              Values outside this range may be clamped or produce unexpected results.
-   */
-  void setRed(int value);
-
-  /**
-   * Sets the green component of the RGB color.
-   *
-   * @param value The new value for the green component (0 to 255).
-   *              Values outside this range may be clamped or produce unexpected results.
-   */
-  void setGreen(int value);
-
-  /**
-   * Sets the blue component of the RGB color.
-   *
-   * @param value The new value for the blue component (0 to 255).
-   *              Values outside this range may be clamped or produce unexpected results.
-   */
-  void setBlue(int value);
-
-
 }
@@ -1,12 +1,14 @@
 package ime.model.image;
 
-import java.util.Objects;
 import java.util.function.Function;
 
 /**
  * The RGBImage class implements the ImageModel interface and represents an RGB image. It provides
  * methods for image-related operations such as flipping, brightening, filtering, color
  * transformation, and grayscale conversion.
+ *
+ * <p>Images are immutable, except through the in-place methods and {@link #recycle(RasterPool)},
+ * which are reserved for the exclusive owner of an image, when nothing else reads it.</p>
  */
 public class RGBImage implements ImageModel {
 
@@ -14,9 +16,14 @@ public class RGBImage implements ImageModel {
   private final int height;
   private final int width;
   private final int maxValue;
+  private volatile ImageHistogram histogram;
+  private volatile ImageHistogram sampledHistogram;
+  private volatile long fingerprint;
 
   /**
-   * Constructs an RGBImage with the specified height, width, and pixel array.
+   * Constructs an RGBImage with the specified height, width, and pixel array. The image takes
+   * ownership of the array, which must not be changed afterwards, except through the in-place
+   * methods of the image.
    *
    * @param height The height of the image.
    * @param width  The width of the image.
@@ -65,9 +72,76 @@ public class RGBImage implements ImageModel {
 
   @Override
   public PixelModel[][] getPixels() {
+    PixelModel[][] copy = new PixelModel[height][];
+    for (int i = 0; i < height; i++) {
+      copy[i] = this.pixels[i].clone();
+    }
+    return copy;
+  }
+
+  /**
+   * Get the pixel grid of the image without copying it, for images of this package that share
+   * the pixels of another image. The array must not be changed.
+   *
+   * @return The pixels of the image, row by row.
+   */
+  PixelModel[][] sharedPixels() {
     return this.pixels;
   }
 
+  /**
+   * Get the histogram of the image, computing it on first use. Images are treated as immutable
+   * once constructed, so the cached histogram stays valid for the lifetime of the image.
+   *
+   * @return The histogram of the image.
+   */
+  @Override
+  public ImageHistogram getHistogram() {
+    ImageHistogram result = this.histogram;
+    if (result == null) {
+      result = ImageHistogram.of(this);
+      this.histogram = result;
+    }
+    return result;
+  }
+
+  @Override
+  public ImageHistogram getHistogram(long targetSamples) {
+    ImageHistogram exact = this.histogram;
+    if (exact != null || targetSamples <= 0 || (long) height * width <= targetSamples) {
+      return this.getHistogram();
+    }
+
+    ImageHistogram sampled = this.sampledHistogram;
+    if (sampled == null || sampled.getSampleCount() < targetSamples) {
+      sampled = ImageHistogram.sample(this, targetSamples);
+      this.sampledHistogram = sampled;
+    }
+    return sampled;
+  }
+
+  /**
+   * Tells whether the exact histogram of the image is known already, computed or derived from the
+   * histogram of the image it was created from, so that {@link #getHistogram()} does not scan it.
+   *
+   * @return true if the histogram is known.
+   */
+  public boolean hasHistogram() {
+    return this.histogram != null;
+  }
+
+  /**
+   * Carries the histograms and the fingerprint already computed for another image over to this
+   * image, for example because this image shares its pixels with the other one.
+   *
+   * @param other The image with the same pixels as this image.
+   */
+  void copyCachedHistograms(RGBImage other) {
+    this.histogram = other.histogram;
+    this.sampledHistogram = other.sampledHistogram;
+    this.fingerprint = other.fingerprint;
+  }
+
   @Override
   public ImageModel horizontalFlip() {
     PixelModel[][] result = new RGBPixel[height][width];
@@ -91,7 +165,25 @@ public class RGBImage implements ImageModel {
 
   @Override
   public ImageModel filter(double[][] kernel) {
-    RGBPixel[][] result = new RGBPixel[height][width];
+    return this.filterInto(kernel, new RGBPixel[height][width]);
+  }
+
+  /**
+   * Applies a filter like {@link #filter(double[][])}, writing the result into a grid taken from
+   * a pool.
+   *
+   * @param kernel The kernel of the filter.
+   * @param pool   The pool providing the grid of the result.
+   * @return The filtered image.
+   */
+  public ImageModel filter(double[][] kernel, RasterPool pool) {
+    return this.filterInto(kernel, pool.acquire(height, width));
+  }
+
+  /**
+   * Applies a filter, writing the result into the given grid.
+   */
+  private ImageModel filterInto(double[][] kernel, PixelModel[][] result) {
     int kernelSize = kernel.length;
     int kernelLength = kernelSize / 2;
 
@@ -136,45 +228,143 @@ public class RGBImage implements ImageModel {
     return new RGBImage(result.length, result[0].length, result);
   }
 
-
   @Override
-  public boolean equals(Object o) {
-    if (o == this) {
-      return true;
+  public ImageModel applyChannelLookup(int[] redLut, int[] greenLut, int[] blueLut) {
+    int[] reds = RGBImageV2.clampLookup(redLut);
+    int[] greens = RGBImageV2.clampLookup(greenLut);
+    int[] blues = RGBImageV2.clampLookup(blueLut);
+    PixelModel[][] result = new RGBPixel[height][width];
+
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        PixelModel pixel = this.pixels[i][j];
+        result[i][j] = new RGBPixel(reds[pixel.getR()], greens[pixel.getG()],
+                blues[pixel.getB()]);
+      }
     }
 
-    if (!(o instanceof RGBImage)) {
-      return false;
+    RGBImage image = new RGBImage(height, width, result);
+    ImageHistogram known = this.histogram;
+    if (known != null) {
+      image.histogram = known.remap(reds, greens, blues);
+    }
+    ImageHistogram sampled = this.sampledHistogram;
+    if (sampled != null) {
+      image.sampledHistogram = sampled.remap(reds, greens, blues);
     }
+    return image;
+  }
 
-    ImageModel other = (RGBImage) o;
+  /**
+   * Flips the image horizontally by moving its pixels within its grid. Like every in-place
+   * method, it may only be called by the exclusive owner of the image, when nothing else reads
+   * it.
+   */
+  public void horizontalFlipInPlace() {
+    for (PixelModel[] row : this.pixels) {
+      for (int j = 0, k = width - 1; j < k; j++, k--) {
+        PixelModel pixel = row[j];
+        row[j] = row[k];
+        row[k] = pixel;
+      }
+    }
+    this.fingerprint = 0;
+  }
 
-    boolean isEqual =
-            this.height == other.getHeight() && this.maxValue == other.getMaxValue()
-                    && this.width == other.getWidth();
+  /**
+   * Flips the image vertically by swapping the rows of its grid.
+   */
+  public void verticalFlipInPlace() {
+    for (int i = 0, k = height - 1; i < k; i++, k--) {
+      PixelModel[] row = this.pixels[i];
+      this.pixels[i] = this.pixels[k];
+      this.pixels[k] = row;
+    }
+    this.fingerprint = 0;
+  }
 
+  /**
+   * Applies a transformation to every pixel like {@link #applyTransform(Function)}, replacing
+   * the pixels of the grid of the image.
+   *
+   * @param transformFunction The transformation.
+   */
+  public void applyTransformInPlace(Function<PixelModel, PixelModel> transformFunction) {
+    for (PixelModel[] row : this.pixels) {
+      for (int j = 0; j < width; j++) {
+        row[j] = transformFunction.apply(row[j]);
+      }
+    }
+    this.histogram = null;
+    this.sampledHistogram = null;
+    this.fingerprint = 0;
+  }
 
-    if (isEqual) {
-      for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width; j++) {
-          isEqual = isEqual && this.getPixelValues(i, j).equals(other.getPixelValues(i, j));
-        }
+  /**
+   * Applies lookup tables like {@link #applyChannelLookup(int[], int[], int[])}, replacing the
+   * pixels of the grid of the image. Histograms already computed are remapped.
+   *
+   * @param redLut   The lookup table of the red channel.
+   * @param greenLut The lookup table of the green channel.
+   * @param blueLut  The lookup table of the blue channel.
+   */
+  public void applyChannelLookupInPlace(int[] redLut, int[] greenLut, int[] blueLut) {
+    int[] reds = RGBImageV2.clampLookup(redLut);
+    int[] greens = RGBImageV2.clampLookup(greenLut);
+    int[] blues = RGBImageV2.clampLookup(blueLut);
+    for (PixelModel[] row : this.pixels) {
+      for (int j = 0; j < width; j++) {
+        PixelModel pixel = row[j];
+        row[j] = new RGBPixel(reds[pixel.getR()], greens[pixel.getG()], blues[pixel.getB()]);
       }
     }
+    ImageHistogram known = this.histogram;
+    this.histogram = known == null ? null : known.remap(reds, greens, blues);
+    ImageHistogram sampled = this.sampledHistogram;
+    this.sampledHistogram = sampled == null ? null : sampled.remap(reds, greens, blues);
+    this.fingerprint = 0;
+  }
 
-    return isEqual;
+  /**
+   * Gives the grid of the image back to a pool. The image must not be used afterwards.
+   *
+   * @param pool The pool.
+   */
+  public void recycle(RasterPool pool) {
+    pool.release(this.pixels);
   }
 
   @Override
-  public int hashCode() {
-    StringBuilder sb = new StringBuilder();
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        sb.append(this.pixels[i][j].getR()).append(this.pixels[i][j].getG())
-                .append(this.pixels[i][j].getB());
-      }
+  public long getFingerprint() {
+    long result = this.fingerprint;
+    if (result == 0) {
+      result = ImageFingerprint.of(this);
+      this.fingerprint = result;
+    }
+    return result;
+  }
+
+  /**
+   * Tells whether an object is an image, of any type, with the same size and pixels as this
+   * image. Images with different fingerprints are told apart without comparing their pixels.
+   *
+   * @param o The object to compare.
+   * @return true if the object is an image with the same content.
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
     }
-    return Objects.hash(this.height, this.width, sb.toString(), this.maxValue);
+    if (!(o instanceof ImageModel)) {
+      return false;
+    }
+    return ImageFingerprint.sameContent(this, (ImageModel) o);
+  }
+
+  @Override
+  public int hashCode() {
+    return ImageFingerprint.hashCode(this.getFingerprint());
   }
 
 }
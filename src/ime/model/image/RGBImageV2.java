@@ -5,9 +5,6 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.function.Function;
-
-import static ime.utils.HistogramGenerator.getFrequencies;
 
 /**
  * Represents an extended version (V2) of an RGB image with additional image processing
@@ -32,8 +29,41 @@ public class RGBImageV2 extends RGBImage implements ImageModelV2 {
     super(height, width, pixels);
   }
 
+  /**
+   * Constructs an RGBImageV2 sharing the pixels of the given image. A histogram that was already
+   * computed for the image is carried over instead of being computed again.
+   *
+   * @param image The image whose pixels are shared.
+   */
+  public RGBImageV2(ImageModel image) {
+    super(image.getHeight(), image.getWidth(), image instanceof RGBImage
+            ? ((RGBImage) image).sharedPixels() : image.getPixels());
+    if (image instanceof RGBImage) {
+      this.copyCachedHistograms((RGBImage) image);
+    }
+  }
+
   @Override
   public ImageModel compress(double percentage) {
+    return this.compressInto(percentage, new RGBPixel[this.getHeight()][this.getWidth()]);
+  }
+
+  /**
+   * Compresses the image like {@link #compress(double)}, writing the result into a grid taken
+   * from a pool.
+   *
+   * @param percentage The percentage by which to compress the image.
+   * @param pool       The pool providing the grid of the result.
+   * @return The compressed image.
+   */
+  public ImageModel compress(double percentage, RasterPool pool) {
+    return this.compressInto(percentage, pool.acquire(this.getHeight(), this.getWidth()));
+  }
+
+  /**
+   * Compresses the image, writing the result into the given grid.
+   */
+  private ImageModel compressInto(double percentage, PixelModel[][] compressedPixels) {
     int width = this.getWidth();
     int height = this.getHeight();
 
@@ -55,7 +85,6 @@ public class RGBImageV2 extends RGBImage implements ImageModelV2 {
     double[][] processedGreens = compressedChannels[1];
     double[][] processedBlues = compressedChannels[2];
 
-    PixelModel[][] compressedPixels = new RGBPixel[height][width];
     for (int i = 0; i < height; i++) {
       for (int j = 0; j < width; j++) {
         compressedPixels[i][j] = new RGBPixel((int) processedReds[i][j],
@@ -66,40 +95,97 @@ public class RGBImageV2 extends RGBImage implements ImageModelV2 {
     return new RGBImage(height, width, compressedPixels);
   }
 
+  @Override
+  public ImageModel compress(double percentage, int tileSize, boolean perTileThreshold) {
+    TiledWaveletCompressor compressor = new TiledWaveletCompressor(this, tileSize,
+            perTileThreshold);
+    return new RGBImage(this.getHeight(), this.getWidth(), compressor.compress(percentage));
+  }
+
+  @Override
+  public ImageModel compressLumaChroma(double lumaPercentage, double chromaPercentage,
+                                       boolean subsampleChroma) {
+    LumaChromaCompressor compressor = new LumaChromaCompressor(this, subsampleChroma);
+    return new RGBImage(this.getHeight(), this.getWidth(),
+            compressor.compress(lumaPercentage, chromaPercentage));
+  }
+
   @Override
   public ImageModel colorCorrect() {
-    int[][] frequencies = getFrequencies(this);
-    int[] reds = frequencies[0];
-    int[] greens = frequencies[1];
-    int[] blues = frequencies[2];
+    return this.colorCorrect(0);
+  }
 
-    int redPeak = findPeak(reds);
-    int greenPeak = findPeak(greens);
-    int bluePeak = findPeak(blues);
+  @Override
+  public ImageModel colorCorrect(long targetSamples) {
+    int[][] luts = colorCorrectionLuts(this.getHistogram(targetSamples).getFrequencies());
+    return this.applyChannelLookup(luts[0], luts[1], luts[2]);
+  }
 
-    int avgPeak = (redPeak + greenPeak + bluePeak) / 3;
-    Function<PixelModel, PixelModel> colorCorrect = p -> {
-      int updatedR = p.getR() + avgPeak - redPeak;
-      int updatedG = p.getG() + avgPeak - greenPeak;
-      int updatedB = p.getB() + avgPeak - bluePeak;
+  /**
+   * Computes the lookup tables of color correction from the histogram of an image. Every channel
+   * is shifted so that its peak lands on the average of the peaks of the three channels. Keeping
+   * this step separate lets a histogram merged from parts of an image drive the correction.
+   *
+   * @param frequencies The red, green and blue frequencies of the image.
+   * @return The red, green and blue lookup tables.
+   */
+  public static int[][] colorCorrectionLuts(int[][] frequencies) {
+    int redPeak = findPeak(frequencies[0]);
+    int greenPeak = findPeak(frequencies[1]);
+    int bluePeak = findPeak(frequencies[2]);
 
-      return new RGBPixel(updatedR, updatedG, updatedB);
-    };
+    int avgPeak = (redPeak + greenPeak + bluePeak) / 3;
+    int[] redLut = new int[256];
+    int[] greenLut = new int[256];
+    int[] blueLut = new int[256];
+    for (int k = 0; k < 256; k++) {
+      redLut[k] = k + avgPeak - redPeak;
+      greenLut[k] = k + avgPeak - greenPeak;
+      blueLut[k] = k + avgPeak - bluePeak;
+    }
 
-    return this.applyTransform(colorCorrect);
+    return new int[][]{redLut, greenLut, blueLut};
   }
 
   @Override
   public ImageModel levelsAdjust(int black, int mid, int white) {
-    Function<PixelModel, PixelModel> levelAdjust = p -> {
-      int updatedR = this.fittingProcess(black, mid, white, p.getR());
-      int updatedG = this.fittingProcess(black, mid, white, p.getG());
-      int updatedB = this.fittingProcess(black, mid, white, p.getB());
+    int[] levelAdjust = levelsAdjustLut(black, mid, white);
+    return this.applyChannelLookup(levelAdjust, levelAdjust, levelAdjust);
+  }
 
-      return new RGBPixel(updatedR, updatedG, updatedB);
-    };
+  /**
+   * Computes the lookup table of a levels adjustment, shared by the three channels.
+   *
+   * @param black The black level.
+   * @param mid   The mid level.
+   * @param white The white level.
+   * @return The lookup table.
+   */
+  public static int[] levelsAdjustLut(int black, int mid, int white) {
+    int[] levelAdjust = new int[256];
+    for (int k = 0; k < 256; k++) {
+      levelAdjust[k] = fittingProcess(black, mid, white, k);
+    }
+    return levelAdjust;
+  }
 
-    return this.applyTransform(levelAdjust);
+  /**
+   * Validates a lookup table and clamps its values to the 0 to 255 range, as every image applying
+   * a channel lookup does before using it.
+   *
+   * @param lut The lookup table.
+   * @return A clamped copy of the lookup table.
+   * @throws IllegalArgumentException If the lookup table does not have 256 entries.
+   */
+  static int[] clampLookup(int[] lut) {
+    if (lut == null || lut.length != 256) {
+      throw new IllegalArgumentException("A lookup table must have 256 entries.");
+    }
+    int[] result = new int[256];
+    for (int k = 0; k < result.length; k++) {
+      result[k] = Math.max(0, Math.min(255, lut[k]));
+    }
+    return result;
   }
 
   /**
@@ -112,7 +198,7 @@ public class RGBImageV2 extends RGBImage implements ImageModelV2 {
    * @param signal The input signal value for which the fitting process is performed.
    * @return The fitted value calculated using the quadratic equation.
    */
-  private int fittingProcess(int black, int mid, int white, int signal) {
+  private static int fittingProcess(int black, int mid, int white, int signal) {
     double calculateA = Math.pow(black, 2) * (mid - white) - black * (Math.pow(mid, 2)
             - Math.pow(white, 2)) + white * Math.pow(mid, 2) - mid * Math.pow(white, 2);
 
@@ -140,7 +226,7 @@ public class RGBImageV2 extends RGBImage implements ImageModelV2 {
    * @param histogram The histogram array representing the distribution of pixel values.
    * @return The position (value) of the peak within the specified range.
    */
-  private int findPeak(int[] histogram) {
+  private static int findPeak(int[] histogram) {
     int peakValue = 0;
     int peakPosition = 0;
     for (int i = 10; i <= 245; i++) {
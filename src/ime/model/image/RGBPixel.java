@@ -7,23 +7,24 @@ import java.util.Objects;
  * This class implements the PixelModel interface, providing storage and retrieval mechanisms
  * for each RGB color component of a pixel.
  * RGB values are expected to be non-negative integers.
+ * Pixels are immutable.
  */
 public class RGBPixel implements PixelModel {
 
   /**
    * The red component of the pixel.
    */
-  private int r;
+  private final int r;
 
   /**
    * The green component of the pixel.
    */
-  private int g;
+  private final int g;
 
   /**
    * The blue component of the pixel.
    */
-  private int b;
+  private final int b;
 
 
   /**
@@ -55,21 +56,6 @@ public class RGBPixel implements PixelModel {
     return b;
   }
 
-  @Override
-  public void setRed(int value) {
-    this.r = this.clamp(value);
-  }
-
-  @Override
-  public void setGreen(int value) {
-    this.g = this.clamp(value);
-  }
-
-  @Override
-  public void setBlue(int value) {
-    this.b = this.clamp(value);
-  }
-
   private int clamp(int value) {
     if (value < 0) {
       return 0;
@@ -0,0 +1,156 @@
+package ime.model.image;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The RasterPool class recycles the pixel grids of images that are no longer used, so that an
+ * operation writing a new image of the same size fills a released grid instead of allocating
+ * one. Grids are kept in buckets by height and width, a few per bucket, and their pixels are
+ * cleared on release so that the pool does not keep the pixels of dead images alive.
+ *
+ * <p>A grid must only be released by the owner of the image holding it, once nothing reads the
+ * image anymore. The pool is safe for concurrent use.</p>
+ */
+public class RasterPool {
+
+  /**
+   * The number of grids kept per size by default.
+   */
+  public static final int DEFAULT_PER_SIZE = 2;
+
+  private final int perSize;
+  private final Map<Long, ArrayDeque<PixelModel[][]>> buckets;
+  private final LongAdder hits;
+  private final LongAdder misses;
+  private final LongAdder releases;
+
+  /**
+   * Constructs a pool keeping {@value #DEFAULT_PER_SIZE} grids per size.
+   */
+  public RasterPool() {
+    this(DEFAULT_PER_SIZE);
+  }
+
+  /**
+   * Constructs a pool.
+   *
+   * @param perSize The number of grids kept per size, further released grids are dropped.
+   * @throws IllegalArgumentException If the number is negative.
+   */
+  public RasterPool(int perSize) {
+    if (perSize < 0) {
+      throw new IllegalArgumentException("The number of grids per size must not be negative.");
+    }
+    this.perSize = perSize;
+    this.buckets = new ConcurrentHashMap<>();
+    this.hits = new LongAdder();
+    this.misses = new LongAdder();
+    this.releases = new LongAdder();
+  }
+
+  /**
+   * Returns the key of the bucket of a size.
+   */
+  private static long key(int height, int width) {
+    return ((long) height << 32) | (width & 0xffffffffL);
+  }
+
+  /**
+   * Returns a grid of the given size, recycled if the pool holds one and allocated otherwise.
+   * The pixels of the grid are null.
+   *
+   * @param height The number of rows.
+   * @param width  The number of columns.
+   * @return The grid.
+   */
+  public PixelModel[][] acquire(int height, int width) {
+    ArrayDeque<PixelModel[][]> bucket = buckets.get(key(height, width));
+    if (bucket != null) {
+      PixelModel[][] raster;
+      synchronized (bucket) {
+        raster = bucket.pollFirst();
+      }
+      if (raster != null) {
+        hits.increment();
+        return raster;
+      }
+    }
+    misses.increment();
+    return new RGBPixel[height][width];
+  }
+
+  /**
+   * Gives a grid back to the pool. The grid must not be used by its previous owner afterwards.
+   *
+   * @param raster The grid, whose rows must all have the same length.
+   */
+  public void release(PixelModel[][] raster) {
+    if (raster == null || raster.length == 0 || perSize == 0) {
+      return;
+    }
+    ArrayDeque<PixelModel[][]> bucket = buckets.computeIfAbsent(
+            key(raster.length, raster[0].length), k -> new ArrayDeque<>());
+    for (PixelModel[] row : raster) {
+      Arrays.fill(row, null);
+    }
+    synchronized (bucket) {
+      if (bucket.size() < perSize) {
+        bucket.addFirst(raster);
+        releases.increment();
+      }
+    }
+  }
+
+  /**
+   * Returns how many grids were recycled.
+   *
+   * @return The number of hits.
+   */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * Returns how many grids had to be allocated because the pool held none of their size.
+   *
+   * @return The number of misses.
+   */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * Returns how many grids were kept by the pool when released.
+   *
+   * @return The number of releases.
+   */
+  public long getReleases() {
+    return releases.sum();
+  }
+
+  /**
+   * Returns how many grids the pool holds.
+   *
+   * @return The number of grids.
+   */
+  public int getPooledCount() {
+    int count = 0;
+    for (ArrayDeque<PixelModel[][]> bucket : buckets.values()) {
+      synchronized (bucket) {
+        count += bucket.size();
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Drops every grid held by the pool.
+   */
+  public void clear() {
+    buckets.clear();
+  }
+}
@@ -0,0 +1,141 @@
+package ime.model.image;
+
+/**
+ * The Region class is a rectangle of pixels of an image, given by the column and the row of its
+ * top left pixel, its width and its height.
+ */
+public final class Region {
+
+  private final int x;
+  private final int y;
+  private final int width;
+  private final int height;
+
+  /**
+   * Constructs a region.
+   *
+   * @param x      The column of the top left pixel.
+   * @param y      The row of the top left pixel.
+   * @param width  The width of the region.
+   * @param height The height of the region.
+   * @throws IllegalArgumentException If the position is negative or the size is not positive.
+   */
+  public Region(int x, int y, int width, int height) {
+    if (x < 0 || y < 0) {
+      throw new IllegalArgumentException("The position of a region must not be negative.");
+    }
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("The width and height of a region must be positive.");
+    }
+    this.x = x;
+    this.y = y;
+    this.width = width;
+    this.height = height;
+  }
+
+  /**
+   * Returns the region made of the columns of an image up to a column, included.
+   *
+   * @param image      The image.
+   * @param lastColumn The last column of the region.
+   * @return The region, clipped to the image.
+   */
+  public static Region leftOf(ImageModel image, int lastColumn) {
+    return new Region(0, 0, Math.min(image.getWidth(), lastColumn + 1), image.getHeight());
+  }
+
+  /**
+   * Get the column of the top left pixel.
+   *
+   * @return The column.
+   */
+  public int getX() {
+    return x;
+  }
+
+  /**
+   * Get the row of the top left pixel.
+   *
+   * @return The row.
+   */
+  public int getY() {
+    return y;
+  }
+
+  /**
+   * Get the width of the region.
+   *
+   * @return The width.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Get the height of the region.
+   *
+   * @return The height.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Checks that this region lies inside an image.
+   *
+   * @param image The image.
+   * @throws IllegalArgumentException If the region goes beyond the image.
+   */
+  public void checkInside(ImageModel image) {
+    if ((long) x + width > image.getWidth() || (long) y + height > image.getHeight()) {
+      throw new IllegalArgumentException("The region " + this + " does not lie inside the "
+              + image.getWidth() + "x" + image.getHeight() + " image.");
+    }
+  }
+
+  /**
+   * Returns this region extended by a number of pixels on every side, within an image.
+   *
+   * @param halo  The number of pixels.
+   * @param image The image.
+   * @return The extended region.
+   */
+  public Region expand(int halo, ImageModel image) {
+    int left = Math.max(0, x - halo);
+    int top = Math.max(0, y - halo);
+    int right = (int) Math.min(image.getWidth(), (long) x + width + halo);
+    int bottom = (int) Math.min(image.getHeight(), (long) y + height + halo);
+    return new Region(left, top, right - left, bottom - top);
+  }
+
+  /**
+   * Returns the number of pixels of the region.
+   *
+   * @return The area.
+   */
+  public long getArea() {
+    return (long) width * height;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Region)) {
+      return false;
+    }
+    Region other = (Region) o;
+    return x == other.x && y == other.y && width == other.width && height == other.height;
+  }
+
+  @Override
+  public int hashCode() {
+    return ((x * 31 + y) * 31 + width) * 31 + height;
+  }
+
+  @Override
+  public String toString() {
+    return width + "x" + height + "+" + x + "+" + y;
+  }
+}
@@ -0,0 +1,462 @@
+package ime.model.image;
+
+import java.util.function.Function;
+
+/**
+ * The TiledImage class is an image made of square tiles of {@value #TILE_SIZE} pixels, shared by
+ * reference between images. Images are immutable, so deriving an image that only changes a
+ * region, like the split view of an operation, creates new tiles for that region only and shares
+ * every other tile with the images it comes from. Copying an image only copies the references to
+ * its tiles.
+ *
+ * <p>Operations changing every pixel create new tiles for the whole image, with the same
+ * rounding and clamping as {@link RGBImage}, so both representations give identical pixels.
+ * Compression copies the pixels to an {@link RGBImageV2} first.</p>
+ */
+public class TiledImage implements ImageModelV2 {
+
+  /**
+   * The width and height of the tiles, except at the right and bottom borders of an image.
+   */
+  public static final int TILE_SIZE = 64;
+
+  private final int height;
+  private final int width;
+  private final PixelModel[][][][] tiles;
+  private volatile ImageHistogram histogram;
+  private volatile ImageHistogram sampledHistogram;
+  private volatile long fingerprint;
+
+  /**
+   * Constructs an image from a grid of tiles, taking ownership of the grid.
+   */
+  private TiledImage(int height, int width, PixelModel[][][][] tiles) {
+    this.height = height;
+    this.width = width;
+    this.tiles = tiles;
+  }
+
+  /**
+   * Returns an image with the pixels of another image. The tiles reference the pixel objects of
+   * the other image instead of copying them, and a tiled image is returned as is.
+   *
+   * @param image The image.
+   * @return The tiled image.
+   */
+  public static TiledImage of(ImageModel image) {
+    if (image instanceof TiledImage) {
+      return (TiledImage) image;
+    }
+    PixelModel[][][][] tiles = newGrid(image.getHeight(), image.getWidth());
+    for (int r = 0; r < tiles.length; r++) {
+      for (int c = 0; c < tiles[r].length; c++) {
+        tiles[r][c] = copyTile(image, r, c);
+      }
+    }
+    return new TiledImage(image.getHeight(), image.getWidth(), tiles);
+  }
+
+  /**
+   * Creates an empty grid of tiles for an image of the given size.
+   */
+  private static PixelModel[][][][] newGrid(int height, int width) {
+    if (height <= 0 || width <= 0) {
+      throw new IllegalArgumentException("Height and width of an image must be positive.");
+    }
+    return new PixelModel[(height + TILE_SIZE - 1) / TILE_SIZE]
+            [(width + TILE_SIZE - 1) / TILE_SIZE][][];
+  }
+
+  /**
+   * Copies the references to the pixels of a tile of an image.
+   */
+  private static PixelModel[][] copyTile(ImageModel image, int r, int c) {
+    int top = r * TILE_SIZE;
+    int left = c * TILE_SIZE;
+    PixelModel[][] tile = new PixelModel[Math.min(TILE_SIZE, image.getHeight() - top)]
+            [Math.min(TILE_SIZE, image.getWidth() - left)];
+    for (int i = 0; i < tile.length; i++) {
+      for (int j = 0; j < tile[i].length; j++) {
+        tile[i][j] = image.getPixelValues(top + i, left + j);
+      }
+    }
+    return tile;
+  }
+
+  /**
+   * Returns a copy of this image, which shares all its tiles with this image.
+   *
+   * @return The copy.
+   */
+  public TiledImage copy() {
+    PixelModel[][][][] grid = new PixelModel[tiles.length][][][];
+    for (int r = 0; r < tiles.length; r++) {
+      grid[r] = tiles[r].clone();
+    }
+    TiledImage copy = new TiledImage(height, width, grid);
+    copy.histogram = this.histogram;
+    copy.sampledHistogram = this.sampledHistogram;
+    copy.fingerprint = this.fingerprint;
+    return copy;
+  }
+
+  /**
+   * Returns an image with the pixels of another image of the same size inside a rectangle and
+   * the pixels of this image outside of it. Tiles outside of the rectangle are shared with this
+   * image, tiles inside are shared with the other image if it is tiled too, and only the tiles
+   * crossing the border of the rectangle are copied. The rectangle is clipped to the image.
+   *
+   * @param source The image providing the pixels inside the rectangle.
+   * @param top    The first row of the rectangle.
+   * @param left   The first column of the rectangle.
+   * @param height The height of the rectangle.
+   * @param width  The width of the rectangle.
+   * @return The combined image.
+   * @throws IllegalArgumentException If the other image does not have the size of this image.
+   */
+  public TiledImage withRegion(ImageModel source, int top, int left, int height, int width) {
+    if (source.getHeight() != this.height || source.getWidth() != this.width) {
+      throw new IllegalArgumentException("Both images must have the same size.");
+    }
+    return this.withRegion(source, top, left, top, left, height, width);
+  }
+
+  /**
+   * Returns an image with the pixels of a rectangle of another image pasted at a position, and
+   * the pixels of this image elsewhere. Tiles are shared like for
+   * {@link #withRegion(ImageModel, int, int, int, int)} when the other image is a tiled image of
+   * the same size pasted at the same position. The rectangle is clipped to this image.
+   *
+   * @param source     The image providing the pixels of the rectangle.
+   * @param sourceTop  The first row of the rectangle in the other image.
+   * @param sourceLeft The first column of the rectangle in the other image.
+   * @param top        The row where the rectangle goes in this image.
+   * @param left       The column where the rectangle goes in this image.
+   * @param height     The height of the rectangle.
+   * @param width      The width of the rectangle.
+   * @return The combined image.
+   * @throws IllegalArgumentException If the rectangle goes beyond the other image.
+   */
+  public TiledImage withRegion(ImageModel source, int sourceTop, int sourceLeft, int top,
+                               int left, int height, int width) {
+    int bottom = Math.min(this.height, top + height);
+    int right = Math.min(this.width, left + width);
+    if (top < 0 || left < 0) {
+      sourceTop -= Math.min(0, top);
+      sourceLeft -= Math.min(0, left);
+      top = Math.max(0, top);
+      left = Math.max(0, left);
+    }
+    if (sourceTop < 0 || sourceLeft < 0 || sourceTop + bottom - top > source.getHeight()
+            || sourceLeft + right - left > source.getWidth()) {
+      throw new IllegalArgumentException("The rectangle must lie inside the source image.");
+    }
+    TiledImage result = this.copy();
+    result.histogram = null;
+    result.sampledHistogram = null;
+    result.fingerprint = 0;
+    if (top >= bottom || left >= right) {
+      return result;
+    }
+
+    int rowOffset = sourceTop - top;
+    int columnOffset = sourceLeft - left;
+    TiledImage tiledSource = source instanceof TiledImage && rowOffset == 0 && columnOffset == 0
+            && source.getHeight() == this.height && source.getWidth() == this.width
+            ? (TiledImage) source : null;
+    for (int r = top / TILE_SIZE; r <= (bottom - 1) / TILE_SIZE; r++) {
+      for (int c = left / TILE_SIZE; c <= (right - 1) / TILE_SIZE; c++) {
+        int tileTop = r * TILE_SIZE;
+        int tileLeft = c * TILE_SIZE;
+        PixelModel[][] tile = tiles[r][c];
+        boolean covered = top <= tileTop && left <= tileLeft
+                && tileTop + tile.length <= bottom && tileLeft + tile[0].length <= right;
+        if (covered && tiledSource != null) {
+          result.tiles[r][c] = tiledSource.tiles[r][c];
+          continue;
+        }
+        // Copy on write: the tile is shared, so the changed pixels go to a new tile.
+        PixelModel[][] changed = new PixelModel[tile.length][];
+        for (int i = 0; i < tile.length; i++) {
+          changed[i] = tile[i].clone();
+          int row = tileTop + i;
+          if (row < top || row >= bottom) {
+            continue;
+          }
+          for (int j = Math.max(0, left - tileLeft);
+               j < Math.min(tile[i].length, right - tileLeft); j++) {
+            changed[i][j] = source.getPixelValues(row + rowOffset, tileLeft + j + columnOffset);
+          }
+        }
+        result.tiles[r][c] = changed;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Counts the tiles this image shares by reference with another image.
+   *
+   * @param other The other image.
+   * @return The number of shared tiles.
+   */
+  public int getSharedTileCount(TiledImage other) {
+    int shared = 0;
+    for (int r = 0; r < Math.min(tiles.length, other.tiles.length); r++) {
+      for (int c = 0; c < Math.min(tiles[r].length, other.tiles[r].length); c++) {
+        if (tiles[r][c] == other.tiles[r][c]) {
+          shared++;
+        }
+      }
+    }
+    return shared;
+  }
+
+  /**
+   * Returns the number of tiles of this image.
+   *
+   * @return The number of tiles.
+   */
+  public int getTileCount() {
+    return tiles.length * tiles[0].length;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getMaxValue() {
+    return 255;
+  }
+
+  @Override
+  public PixelModel getPixelValues(int i, int j) {
+    if (i < 0 || i >= height || j < 0 || j >= width) {
+      throw new IllegalArgumentException("Pixel indices are out of bound!");
+    }
+    return tiles[i / TILE_SIZE][j / TILE_SIZE][i % TILE_SIZE][j % TILE_SIZE];
+  }
+
+  @Override
+  public PixelModel[][] getPixels() {
+    PixelModel[][] pixels = new PixelModel[height][width];
+    for (int r = 0; r < tiles.length; r++) {
+      for (int c = 0; c < tiles[r].length; c++) {
+        PixelModel[][] tile = tiles[r][c];
+        for (int i = 0; i < tile.length; i++) {
+          System.arraycopy(tile[i], 0, pixels[r * TILE_SIZE + i], c * TILE_SIZE, tile[i].length);
+        }
+      }
+    }
+    return pixels;
+  }
+
+  @Override
+  public ImageHistogram getHistogram() {
+    ImageHistogram result = this.histogram;
+    if (result == null) {
+      result = ImageHistogram.of(this);
+      this.histogram = result;
+    }
+    return result;
+  }
+
+  @Override
+  public ImageHistogram getHistogram(long targetSamples) {
+    ImageHistogram exact = this.histogram;
+    if (exact != null || targetSamples <= 0 || (long) height * width <= targetSamples) {
+      return this.getHistogram();
+    }
+    ImageHistogram sampled = this.sampledHistogram;
+    if (sampled == null || sampled.getSampleCount() < targetSamples) {
+      sampled = ImageHistogram.sample(this, targetSamples);
+      this.sampledHistogram = sampled;
+    }
+    return sampled;
+  }
+
+  /**
+   * Builds an image of the size of this image, one pixel at a time.
+   */
+  private TiledImage map(PixelSource source) {
+    PixelModel[][][][] grid = newGrid(height, width);
+    for (int r = 0; r < grid.length; r++) {
+      for (int c = 0; c < grid[r].length; c++) {
+        PixelModel[][] tile = new PixelModel[tiles[r][c].length][tiles[r][c][0].length];
+        for (int i = 0; i < tile.length; i++) {
+          for (int j = 0; j < tile[i].length; j++) {
+            tile[i][j] = source.pixel(r * TILE_SIZE + i, c * TILE_SIZE + j);
+          }
+        }
+        grid[r][c] = tile;
+      }
+    }
+    return new TiledImage(height, width, grid);
+  }
+
+  @Override
+  public ImageModel horizontalFlip() {
+    return this.map((i, j) -> this.getPixelValues(i, width - 1 - j));
+  }
+
+  @Override
+  public ImageModel verticalFlip() {
+    return this.map((i, j) -> this.getPixelValues(height - 1 - i, j));
+  }
+
+  @Override
+  public ImageModel filter(double[][] kernel) {
+    int kernelLength = kernel.length / 2;
+    return this.map((i, j) -> {
+      double redValue = 0;
+      double greenValue = 0;
+      double blueValue = 0;
+      // Same order of summation as RGBImage, so the rounding is identical.
+      for (int k = i - kernelLength, x = 0; k <= i + kernelLength; k++, x++) {
+        for (int l = j - kernelLength, y = 0; l <= j + kernelLength; l++, y++) {
+          if ((k >= 0 && k < height) && (l >= 0 && l < width)) {
+            PixelModel rgb = this.getPixelValues(k, l);
+            redValue += rgb.getR() * kernel[x][y];
+            greenValue += rgb.getG() * kernel[x][y];
+            blueValue += rgb.getB() * kernel[x][y];
+          }
+        }
+      }
+      return new RGBPixel((int) Math.round(redValue), (int) Math.round(greenValue),
+              (int) Math.round(blueValue));
+    });
+  }
+
+  @Override
+  public ImageModel applyTransform(Function<PixelModel, PixelModel> transformFunction) {
+    return this.map((i, j) -> transformFunction.apply(this.getPixelValues(i, j)));
+  }
+
+  @Override
+  public ImageModel applyChannelLookup(int[] redLut, int[] greenLut, int[] blueLut) {
+    int[] reds = RGBImageV2.clampLookup(redLut);
+    int[] greens = RGBImageV2.clampLookup(greenLut);
+    int[] blues = RGBImageV2.clampLookup(blueLut);
+    TiledImage result = this.map((i, j) -> {
+      PixelModel pixel = this.getPixelValues(i, j);
+      return new RGBPixel(reds[pixel.getR()], greens[pixel.getG()], blues[pixel.getB()]);
+    });
+    ImageHistogram known = this.histogram;
+    if (known != null) {
+      result.histogram = known.remap(reds, greens, blues);
+    }
+    ImageHistogram sampled = this.sampledHistogram;
+    if (sampled != null) {
+      result.sampledHistogram = sampled.remap(reds, greens, blues);
+    }
+    return result;
+  }
+
+  @Override
+  public ImageModel compress(double percentage) {
+    return new RGBImageV2(this).compress(percentage);
+  }
+
+  @Override
+  public ImageModel compress(double percentage, int tileSize, boolean perTileThreshold) {
+    return new RGBImageV2(this).compress(percentage, tileSize, perTileThreshold);
+  }
+
+  @Override
+  public ImageModel compressLumaChroma(double lumaPercentage, double chromaPercentage,
+                                       boolean subsampleChroma) {
+    return new RGBImageV2(this).compressLumaChroma(lumaPercentage, chromaPercentage,
+            subsampleChroma);
+  }
+
+  @Override
+  public ImageModel colorCorrect() {
+    return this.colorCorrect(0);
+  }
+
+  @Override
+  public ImageModel colorCorrect(long targetSamples) {
+    int[][] luts = RGBImageV2.colorCorrectionLuts(
+            this.getHistogram(targetSamples).getFrequencies());
+    return this.applyChannelLookup(luts[0], luts[1], luts[2]);
+  }
+
+  @Override
+  public ImageModel levelsAdjust(int black, int mid, int white) {
+    int[] lut = RGBImageV2.levelsAdjustLut(black, mid, white);
+    return this.applyChannelLookup(lut, lut, lut);
+  }
+
+  @Override
+  public long getFingerprint() {
+    long result = this.fingerprint;
+    if (result == 0) {
+      result = ImageFingerprint.of(this);
+      this.fingerprint = result;
+    }
+    return result;
+  }
+
+  /**
+   * Tells whether an object is an image, of any type, with the same size and pixels as this
+   * image. Tiles shared with another tiled image are not compared.
+   *
+   * @param o The object to compare.
+   * @return true if the object is an image with the same content.
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+    if (!(o instanceof TiledImage)) {
+      return o instanceof ImageModel && ImageFingerprint.sameContent(this, (ImageModel) o);
+    }
+    TiledImage other = (TiledImage) o;
+    if (height != other.height || width != other.width) {
+      return false;
+    }
+    // Known fingerprints tell different images apart without comparing tiles.
+    if (this.fingerprint != 0 && other.fingerprint != 0 && this.fingerprint != other.fingerprint) {
+      return false;
+    }
+    for (int r = 0; r < tiles.length; r++) {
+      for (int c = 0; c < tiles[r].length; c++) {
+        PixelModel[][] tile = tiles[r][c];
+        PixelModel[][] otherTile = other.tiles[r][c];
+        if (tile == otherTile) {
+          continue;
+        }
+        for (int i = 0; i < tile.length; i++) {
+          for (int j = 0; j < tile[i].length; j++) {
+            PixelModel a = tile[i][j];
+            PixelModel b = otherTile[i][j];
+            if (a.getR() != b.getR() || a.getG() != b.getG() || a.getB() != b.getB()) {
+              return false;
+            }
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    return ImageFingerprint.hashCode(this.getFingerprint());
+  }
+
+  /**
+   * Computes the pixel of an image at a position.
+   */
+  private interface PixelSource {
+    PixelModel pixel(int i, int j);
+  }
+}
@@ -0,0 +1,385 @@
+package ime.model.image;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Tiled variant of the Haar wavelet compression performed by {@link RGBImageV2#compress(double)}.
+ *
+ * <p>Instead of padding the whole image to a power-of-two square and transforming it at once,
+ * the image is cut into independent {@code tileSize x tileSize} blocks which are transformed,
+ * thresholded and inverted one at a time. Tiles are processed in parallel and every worker only
+ * holds the planes of the tile it is working on, so the working memory is proportional to
+ * {@code tileSize * tileSize * threads} rather than to the padded image size. Partial tiles at
+ * the right and bottom edges are padded by replicating the last row and column.</p>
+ *
+ * <p>The threshold can either be computed per block, using the same unique-value rule as the
+ * whole-image mode, or globally per channel. The global threshold is selected in a first pass
+ * from a log-scale histogram of coefficient magnitudes, which keeps memory bounded at the cost of
+ * transforming every tile twice and ranking all non-zero coefficients instead of unique ones.</p>
+ *
+ * <p>Because no coefficient spans two tiles, heavy compression shows discontinuities along the
+ * tile grid (blocking artefacts) which the whole-image mode does not have. They can be measured
+ * with {@link ime.utils.ImageMetrics#blockiness(ImageModel, int)} and
+ * {@link ime.utils.ImageMetrics#psnr(ImageModel, ImageModel)}.</p>
+ */
+class TiledWaveletCompressor {
+
+  private static final double SQRT_2 = Math.sqrt(2);
+  private static final int BINS_PER_OCTAVE = 64;
+  private static final int MIN_EXPONENT = -40;
+  private static final int MAX_EXPONENT = 40;
+  private static final int BINS = (MAX_EXPONENT - MIN_EXPONENT + 1) * BINS_PER_OCTAVE;
+
+  private final ImageModel source;
+  private final int tileSize;
+  private final boolean perTileThreshold;
+  private final int tilesAcross;
+  private final int tilesDown;
+
+  /**
+   * Constructs a compressor for the given image.
+   *
+   * @param source           The image to be compressed.
+   * @param tileSize         The edge length of a tile, must be a power of two greater than 1.
+   * @param perTileThreshold true to threshold every tile on its own, false to use one threshold
+   *                         per channel for the whole image.
+   * @throws IllegalArgumentException If the tile size is not a power of two greater than 1.
+   */
+  TiledWaveletCompressor(ImageModel source, int tileSize, boolean perTileThreshold) {
+    if (tileSize < 2 || Integer.bitCount(tileSize) != 1) {
+      throw new IllegalArgumentException("Tile size must be a power of two greater than 1.");
+    }
+    this.source = source;
+    this.tileSize = tileSize;
+    this.perTileThreshold = perTileThreshold;
+    this.tilesAcross = (source.getWidth() + tileSize - 1) / tileSize;
+    this.tilesDown = (source.getHeight() + tileSize - 1) / tileSize;
+  }
+
+  /**
+   * Compresses the source image.
+   *
+   * @param percentage The compression percentage (between 0 and 100).
+   * @return The pixels of the compressed image.
+   */
+  PixelModel[][] compress(double percentage) {
+    double ratio = percentage / 100;
+    double[] thresholds = perTileThreshold ? null : this.globalThresholds(ratio);
+    PixelModel[][] result = new RGBPixel[source.getHeight()][source.getWidth()];
+
+    IntStream.range(0, tilesAcross * tilesDown).parallel()
+            .forEach(tile -> this.compressTile(tile, ratio, thresholds, result));
+
+    return result;
+  }
+
+  /**
+   * Transforms, thresholds and inverts a single tile and writes it to the result.
+   *
+   * @param tile       The index of the tile in row-major order.
+   * @param ratio      The fraction of coefficients to reset.
+   * @param thresholds The global per-channel thresholds, or null for per-tile thresholds.
+   * @param result     The pixels of the compressed image.
+   */
+  private void compressTile(int tile, double ratio, double[] thresholds, PixelModel[][] result) {
+    int top = (tile / tilesAcross) * tileSize;
+    int left = (tile % tilesAcross) * tileSize;
+    double[][] planes = this.loadTile(top, left);
+    double[] scratch = new double[tileSize];
+
+    for (int c = 0; c < planes.length; c++) {
+      if (thresholds == null) {
+        compressPlane(planes[c], tileSize, ratio, scratch);
+      } else {
+        forwardTransform(planes[c], tileSize, scratch);
+        resetBelow(planes[c], thresholds[c]);
+        inverseTransform(planes[c], tileSize, scratch);
+      }
+    }
+
+    int bottom = Math.min(top + tileSize, source.getHeight());
+    int right = Math.min(left + tileSize, source.getWidth());
+    for (int i = top; i < bottom; i++) {
+      for (int j = left; j < right; j++) {
+        int k = (i - top) * tileSize + (j - left);
+        result[i][j] = new RGBPixel((int) planes[0][k], (int) planes[1][k], (int) planes[2][k]);
+      }
+    }
+  }
+
+  /**
+   * Copies the red, green and blue values of a tile into flat planes, replicating the last
+   * row and column of the image for the part of the tile that lies outside of it.
+   *
+   * @param top  The first row of the tile.
+   * @param left The first column of the tile.
+   * @return The red, green and blue planes of the tile.
+   */
+  private double[][] loadTile(int top, int left) {
+    double[][] planes = new double[3][tileSize * tileSize];
+    int maxRow = source.getHeight() - 1;
+    int maxCol = source.getWidth() - 1;
+
+    for (int i = 0; i < tileSize; i++) {
+      for (int j = 0; j < tileSize; j++) {
+        PixelModel pixel = source.getPixelValues(Math.min(top + i, maxRow),
+                Math.min(left + j, maxCol));
+        int k = i * tileSize + j;
+        planes[0][k] = pixel.getR();
+        planes[1][k] = pixel.getG();
+        planes[2][k] = pixel.getB();
+      }
+    }
+    return planes;
+  }
+
+  /**
+   * Computes one threshold per channel over all tiles from a histogram of the transformed
+   * coefficient magnitudes.
+   *
+   * @param ratio The fraction of coefficients to reset.
+   * @return The red, green and blue thresholds.
+   */
+  private double[] globalThresholds(double ratio) {
+    long[][] histogram = IntStream.range(0, tilesAcross * tilesDown).parallel()
+            .collect(() -> new long[3][BINS],
+                (bins, tile) -> this.accumulateMagnitudes(tile, bins),
+                (a, b) -> {
+                  for (int c = 0; c < a.length; c++) {
+                    for (int k = 0; k < BINS; k++) {
+                      a[c][k] += b[c][k];
+                    }
+                  }
+                });
+
+    double[] thresholds = new double[3];
+    for (int c = 0; c < thresholds.length; c++) {
+      thresholds[c] = histogramThreshold(histogram[c], ratio);
+    }
+    return thresholds;
+  }
+
+  /**
+   * Transforms a tile and adds the magnitudes of its non-zero coefficients to the histogram.
+   *
+   * @param tile The index of the tile in row-major order.
+   * @param bins The per-channel magnitude histogram.
+   */
+  private void accumulateMagnitudes(int tile, long[][] bins) {
+    double[][] planes = this.loadTile((tile / tilesAcross) * tileSize,
+            (tile % tilesAcross) * tileSize);
+    double[] scratch = new double[tileSize];
+
+    for (int c = 0; c < planes.length; c++) {
+      forwardTransform(planes[c], tileSize, scratch);
+      for (double value : planes[c]) {
+        if (value != 0.0) {
+          bins[c][bin(Math.abs(value))]++;
+        }
+      }
+    }
+  }
+
+  /**
+   * Selects the threshold below which the requested fraction of the counted magnitudes lies.
+   *
+   * @param bins  The magnitude histogram of one channel.
+   * @param ratio The fraction of coefficients to reset.
+   * @return The lower edge of the bin holding the cut-off rank.
+   */
+  private static double histogramThreshold(long[] bins, double ratio) {
+    long total = 0;
+    for (long count : bins) {
+      total += count;
+    }
+
+    long numToReset = (long) (total * ratio);
+    if (numToReset < 1) {
+      return 0.0;
+    }
+
+    long seen = 0;
+    for (int k = 0; k < bins.length; k++) {
+      seen += bins[k];
+      if (seen >= numToReset) {
+        return lowerEdge(k);
+      }
+    }
+    return lowerEdge(bins.length - 1);
+  }
+
+  /**
+   * Compresses a square plane on its own: transforms it, resets the requested fraction of its
+   * unique coefficient magnitudes and inverts the transform, all in place.
+   *
+   * @param plane   The square plane in row-major order.
+   * @param size    The edge length of the plane, a power of two.
+   * @param ratio   The fraction of unique values to reset.
+   * @param scratch A buffer of at least {@code size} values.
+   */
+  static void compressPlane(double[] plane, int size, double ratio, double[] scratch) {
+    forwardTransform(plane, size, scratch);
+    resetBelow(plane, tileThreshold(plane, ratio));
+    inverseTransform(plane, size, scratch);
+  }
+
+  /**
+   * Resets every coefficient whose magnitude is below the threshold.
+   *
+   * @param plane     The transformed plane.
+   * @param threshold The threshold.
+   */
+  private static void resetBelow(double[] plane, double threshold) {
+    for (int k = 0; k < plane.length; k++) {
+      if (Math.abs(plane[k]) < threshold) {
+        plane[k] = 0.0;
+      }
+    }
+  }
+
+  /**
+   * Finds the threshold of a single tile, keeping the unique-value rule of the whole-image mode.
+   *
+   * @param plane The transformed plane of the tile.
+   * @param ratio The fraction of unique values to reset.
+   * @return The threshold for the tile.
+   */
+  private static double tileThreshold(double[] plane, double ratio) {
+    double[] magnitudes = new double[plane.length];
+    int count = 0;
+    for (double value : plane) {
+      if (value != 0.0) {
+        magnitudes[count++] = Math.abs(value);
+      }
+    }
+    Arrays.sort(magnitudes, 0, count);
+
+    int unique = 0;
+    for (int k = 0; k < count; k++) {
+      if (unique == 0 || magnitudes[k] != magnitudes[unique - 1]) {
+        magnitudes[unique++] = magnitudes[k];
+      }
+    }
+
+    int numToReset = (int) (unique * ratio);
+    if (numToReset < 1) {
+      return 0.0;
+    }
+    return magnitudes[numToReset - 1];
+  }
+
+  /**
+   * Maps a positive magnitude to its log-scale histogram bin.
+   *
+   * @param magnitude The magnitude of a coefficient.
+   * @return The bin index.
+   */
+  private static int bin(double magnitude) {
+    int exponent = Math.getExponent(magnitude);
+    if (exponent < MIN_EXPONENT) {
+      return 0;
+    }
+    if (exponent > MAX_EXPONENT) {
+      return BINS - 1;
+    }
+    double fraction = magnitude / Math.scalb(1.0, exponent) - 1.0;
+    int sub = Math.min(BINS_PER_OCTAVE - 1, (int) (fraction * BINS_PER_OCTAVE));
+    return (exponent - MIN_EXPONENT) * BINS_PER_OCTAVE + sub;
+  }
+
+  /**
+   * Returns the smallest magnitude that falls into the given bin.
+   *
+   * @param bin The bin index.
+   * @return The lower edge of the bin.
+   */
+  private static double lowerEdge(int bin) {
+    int exponent = bin / BINS_PER_OCTAVE + MIN_EXPONENT;
+    int sub = bin % BINS_PER_OCTAVE;
+    return Math.scalb(1.0 + (double) sub / BINS_PER_OCTAVE, exponent);
+  }
+
+  /**
+   * Applies the 2D Haar wavelet transform in place, in the same level order as the
+   * whole-image transform.
+   *
+   * @param plane   The square plane in row-major order.
+   * @param size    The edge length of the plane.
+   * @param scratch A buffer of at least {@code size} values.
+   */
+  static void forwardTransform(double[] plane, int size, double[] scratch) {
+    for (int c = size; c > 1; c = c / 2) {
+      for (int i = 0; i < size; i++) {
+        forward1D(plane, i * size, 1, c, scratch);
+      }
+      for (int j = 0; j < size; j++) {
+        forward1D(plane, j, size, c, scratch);
+      }
+    }
+  }
+
+  /**
+   * Inverts {@link #forwardTransform(double[], int, double[])} in place.
+   *
+   * @param plane   The transformed square plane in row-major order.
+   * @param size    The edge length of the plane.
+   * @param scratch A buffer of at least {@code size} values.
+   */
+  static void inverseTransform(double[] plane, int size, double[] scratch) {
+    for (int c = 2; c <= size; c = c * 2) {
+      for (int j = 0; j < size; j++) {
+        inverse1D(plane, j, size, c, scratch);
+      }
+      for (int i = 0; i < size; i++) {
+        inverse1D(plane, i * size, 1, c, scratch);
+      }
+    }
+  }
+
+  /**
+   * Applies one level of the Haar transform to a strided sequence.
+   *
+   * @param data    The backing array.
+   * @param offset  The index of the first element.
+   * @param stride  The distance between consecutive elements.
+   * @param length  The number of elements to transform.
+   * @param scratch A buffer of at least {@code length} values.
+   */
+  private static void forward1D(double[] data, int offset, int stride, int length,
+                                double[] scratch) {
+    int half = length / 2;
+    for (int k = 0; k < half; k++) {
+      double a = data[offset + 2 * k * stride];
+      double b = data[offset + (2 * k + 1) * stride];
+      scratch[k] = (a + b) / SQRT_2;
+      scratch[half + k] = (a - b) / SQRT_2;
+    }
+    for (int k = 0; k < length; k++) {
+      data[offset + k * stride] = scratch[k];
+    }
+  }
+
+  /**
+   * Inverts one level of the Haar transform on a strided sequence.
+   *
+   * @param data    The backing array.
+   * @param offset  The index of the first element.
+   * @param stride  The distance between consecutive elements.
+   * @param length  The number of elements to invert.
+   * @param scratch A buffer of at least {@code length} values.
+   */
+  private static void inverse1D(double[] data, int offset, int stride, int length,
+                                double[] scratch) {
+    int half = length / 2;
+    for (int k = 0; k < half; k++) {
+      double a = data[offset + k * stride];
+      double b = data[offset + (half + k) * stride];
+      scratch[2 * k] = (a + b) / SQRT_2;
+      scratch[2 * k + 1] = (a - b) / SQRT_2;
+    }
+    for (int k = 0; k < length; k++) {
+      data[offset + k * stride] = scratch[k];
+    }
+  }
+}
@@ -0,0 +1,209 @@
+package ime.model.store;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import ime.model.image.ImageModel;
+import ime.model.image.MappedImage;
+
+/**
+ * The DecodedImageCache class remembers the images decoded from files, so that loading a file
+ * that did not change since it was decoded returns its image without reading and parsing the file
+ * again. Images are keyed by the absolute path of the file, its size and its modification time,
+ * read before the file is decoded, so a file written again gets a new key. The least recently
+ * used images are evicted once their estimated heap size exceeds the capacity of the cache.
+ *
+ * <p>The images are shared by every processor using the cache, for example by every script of a
+ * {@code ScriptDaemon}, so they must never be changed. Mapped images are not cached, since their
+ * raster is as large as the images the heap cannot hold. The cache is safe for concurrent
+ * use.</p>
+ */
+public class DecodedImageCache {
+
+  /**
+   * The capacity of a cache by default, an eighth of the maximum heap.
+   */
+  public static final long DEFAULT_CAPACITY = Runtime.getRuntime().maxMemory() / 8;
+
+  private final Map<Key, Entry> entries;
+  private final LongAdder hits;
+  private final LongAdder misses;
+  private final long capacity;
+  private long bytes;
+
+  /**
+   * Constructs a cache of the default capacity.
+   */
+  public DecodedImageCache() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Constructs a cache.
+   *
+   * @param capacity The estimated heap size of the images the cache keeps, in bytes.
+   * @throws IllegalArgumentException If the capacity is negative.
+   */
+  public DecodedImageCache(long capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("The capacity of a cache must not be negative.");
+    }
+    this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    this.hits = new LongAdder();
+    this.misses = new LongAdder();
+    this.capacity = capacity;
+  }
+
+  /**
+   * Returns the key of the image decoded from a file as it is now.
+   *
+   * @param file The file.
+   * @return The key.
+   * @throws IOException If the attributes of the file cannot be read.
+   */
+  public static Key key(Path file) throws IOException {
+    Path absolute = file.toAbsolutePath().normalize();
+    BasicFileAttributes attributes = Files.readAttributes(absolute, BasicFileAttributes.class);
+    return new Key(absolute.toString(), attributes.size(),
+            attributes.lastModifiedTime().toMillis());
+  }
+
+  /**
+   * Returns the cached image for a key.
+   *
+   * @param key The key of the image.
+   * @return The image, or null if it is not cached.
+   */
+  public ImageModel get(Key key) {
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(key);
+    }
+    if (entry == null) {
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    return entry.image;
+  }
+
+  /**
+   * Caches a decoded image, evicting the least recently used images if needed. Nothing is cached
+   * if the image is mapped or larger than the capacity.
+   *
+   * @param key   The key of the image.
+   * @param image The image, which must not be changed afterwards.
+   */
+  public void put(Key key, ImageModel image) {
+    if (image instanceof MappedImage) {
+      return;
+    }
+    long size = ImageSizes.estimateHeapBytes(image);
+    synchronized (this) {
+      if (size > capacity) {
+        return;
+      }
+      Entry previous = entries.put(key, new Entry(image, size));
+      bytes += size - (previous == null ? 0 : previous.bytes);
+      Iterator<Entry> eldest = entries.values().iterator();
+      while (bytes > capacity && eldest.hasNext()) {
+        bytes -= eldest.next().bytes;
+        eldest.remove();
+      }
+    }
+  }
+
+  /**
+   * Returns how many lookups found their image.
+   *
+   * @return The number of hits.
+   */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * Returns how many lookups did not find their image.
+   *
+   * @return The number of misses.
+   */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * Returns the number of cached images.
+   *
+   * @return The number of images.
+   */
+  public synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+  /**
+   * Returns the estimated heap size of the cached images.
+   *
+   * @return The size in bytes.
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * The key of a decoded image: the absolute path, the size and the modification time of its
+   * file.
+   */
+  public static final class Key {
+    private final String path;
+    private final long size;
+    private final long modified;
+
+    private Key(String path, long size, long modified) {
+      this.path = path;
+      this.size = size;
+      this.modified = modified;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return size == other.size && modified == other.modified && path.equals(other.path);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(path, size, modified);
+    }
+
+    @Override
+    public String toString() {
+      return path + " (" + size + " bytes, modified " + modified + ")";
+    }
+  }
+
+  /**
+   * A cached image and its estimated heap size.
+   */
+  private static final class Entry {
+    private final ImageModel image;
+    private final long bytes;
+
+    private Entry(ImageModel image, long bytes) {
+      this.image = image;
+      this.bytes = bytes;
+    }
+  }
+}
@@ -0,0 +1,586 @@
+package ime.model.store;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+import ime.model.image.ImageModel;
+import ime.model.image.MappedImage;
+
+/**
+ * The ImageRegistry class holds the named images of an image processor under a configurable heap
+ * budget.
+ *
+ * <p>Images that have not been accessed for a configurable interval are re-encoded in memory
+ * with the lossless {@link QoiCodec} and decoded again on their next access. This compressed tier
+ * is checked on every access to the registry and is disabled by default. Like spilling, it never
+ * applies to the most recently used image.</p>
+ *
+ * <p>When the estimated heap size of the resident images exceeds the budget, the least recently
+ * used images are written to a local binary spill file and dropped from the heap. A spilled image
+ * is read back transparently the next time it is requested. The most recently stored or requested
+ * image always stays resident, even if it is larger than the budget on its own. A
+ * {@link MappedImage} keeps its raster outside of the heap, so it is neither compressed nor
+ * spilled.</p>
+ *
+ * <p>The registry is safe for concurrent use. Names are mapped to immutable slots in a
+ * {@link ConcurrentHashMap}: storing an image atomically replaces the slot of its name, and
+ * reading a resident image takes no lock. Moving images between the tiers replaces slots with a
+ * compare-and-set, and is done by whichever thread finds the maintenance lock free, so no reader
+ * waits for it. Under concurrent use the budget may therefore be exceeded briefly.</p>
+ */
+public class ImageRegistry {
+
+  private final long heapBudget;
+  private final Map<String, Slot> slots;
+  private final ReentrantLock maintenance;
+  private final AtomicLong clock;
+  private final AtomicLong residentBytes;
+  private final AtomicLong spilledBytes;
+  private final AtomicLong compressedRawBytes;
+  private final AtomicLong compressedBytes;
+  private final LongAdder spillCount;
+  private final LongAdder reloadCount;
+  private final LongAdder compressCount;
+  private final LongAdder decodeCount;
+  private final LongAdder decodeNanos;
+  private volatile long idleNanos;
+  private volatile SpillFile spillFile;
+  private volatile BiConsumer<String, ImageModel> evictionListener;
+
+  /**
+   * Constructs a registry without a heap budget, which never spills images.
+   */
+  public ImageRegistry() {
+    this(Long.MAX_VALUE);
+  }
+
+  /**
+   * Constructs a registry that spills least recently used images once the resident images exceed
+   * the given heap budget.
+   *
+   * @param heapBudget The budget for resident images in bytes.
+   * @throws IllegalArgumentException If the budget is not positive.
+   */
+  public ImageRegistry(long heapBudget) {
+    if (heapBudget <= 0) {
+      throw new IllegalArgumentException("Heap budget must be positive.");
+    }
+    this.heapBudget = heapBudget;
+    this.slots = new ConcurrentHashMap<>();
+    this.maintenance = new ReentrantLock();
+    this.clock = new AtomicLong();
+    this.residentBytes = new AtomicLong();
+    this.spilledBytes = new AtomicLong();
+    this.compressedRawBytes = new AtomicLong();
+    this.compressedBytes = new AtomicLong();
+    this.spillCount = new LongAdder();
+    this.reloadCount = new LongAdder();
+    this.compressCount = new LongAdder();
+    this.decodeCount = new LongAdder();
+    this.decodeNanos = new LongAdder();
+    this.idleNanos = -1;
+    this.evictionListener = (name, image) -> { };
+  }
+
+  /**
+   * Sets the listener told about every image dropped from the heap by compression or spilling,
+   * so that whoever keeps references to the images of the registry can drop them too. Otherwise
+   * the image would stay on the heap while the registry counts it as compressed or spilled.
+   *
+   * @param listener The listener, called with the name of the image and the dropped image.
+   */
+  public void setEvictionListener(BiConsumer<String, ImageModel> listener) {
+    this.evictionListener = listener;
+  }
+
+  /**
+   * Sets after how long without access a resident image is compressed in memory.
+   *
+   * @param idleMillis The idle interval in milliseconds, or a negative value to disable the
+   *                   compressed tier and decode every compressed image.
+   */
+  public void setCompressAfter(long idleMillis) {
+    this.idleNanos = idleMillis < 0 ? -1 : idleMillis * 1_000_000;
+    maintenance.lock();
+    try {
+      if (idleNanos < 0) {
+        for (Map.Entry<String, Slot> entry : slots.entrySet()) {
+          Slot slot = entry.getValue();
+          if (slot.encoded != null) {
+            this.replace(entry.getKey(), slot,
+                    Slot.resident(QoiCodec.decode(slot.encoded), slot.rawBytes, slot));
+          }
+        }
+      }
+      this.compressIdle(System.nanoTime());
+      this.enforceBudget();
+    } finally {
+      maintenance.unlock();
+    }
+  }
+
+  /**
+   * Returns the image stored under the given name, decoding it or reading it back from the spill
+   * file if it is not resident.
+   *
+   * @param name The name of the image.
+   * @return The image, or null if no image is stored under the name.
+   */
+  public ImageModel get(String name) {
+    while (true) {
+      Slot slot = slots.get(name);
+      if (slot == null) {
+        return null;
+      }
+      this.touch(slot);
+
+      if (slot.image != null) {
+        this.maintain();
+        return slot.image;
+      }
+
+      ImageModel image;
+      if (slot.encoded != null) {
+        long start = System.nanoTime();
+        image = QoiCodec.decode(slot.encoded);
+        long elapsed = System.nanoTime() - start;
+        if (this.replace(name, slot, Slot.resident(image, slot.rawBytes, slot))) {
+          decodeNanos.add(elapsed);
+          decodeCount.increment();
+          this.maintain();
+          return image;
+        }
+      } else {
+        try {
+          image = spillFile.read(slot.record);
+        } catch (IOException e) {
+          throw new IllegalStateException("Unable to reload spilled image: " + name, e);
+        }
+        if (image != null && this.replace(name, slot,
+                Slot.resident(image, slot.rawBytes, slot))) {
+          reloadCount.increment();
+          this.maintain();
+          return image;
+        }
+      }
+      // The slot was replaced concurrently, so look the name up again.
+    }
+  }
+
+  /**
+   * Stores an image under the given name, atomically replacing any image stored under the same
+   * name.
+   *
+   * @param name  The name of the image.
+   * @param image The image to store.
+   */
+  public void put(String name, ImageModel image) {
+    Slot slot = Slot.resident(image, ImageSizes.estimateHeapBytes(image), null);
+    this.touch(slot);
+    Slot old = slots.put(name, slot);
+    this.account(slot, 1);
+    if (old != null) {
+      this.account(old, -1);
+      this.dispose(old);
+    }
+    this.maintain();
+  }
+
+  /**
+   * Removes the image stored under the given name, if any.
+   *
+   * @param name The name of the image.
+   * @return true if an image was removed.
+   */
+  public boolean remove(String name) {
+    Slot old = slots.remove(name);
+    if (old == null) {
+      return false;
+    }
+    this.account(old, -1);
+    this.dispose(old);
+    return true;
+  }
+
+  /**
+   * Tells whether an image is stored under the given name, resident or spilled.
+   *
+   * @param name The name of the image.
+   * @return true if an image is stored under the name.
+   */
+  public boolean contains(String name) {
+    return slots.containsKey(name);
+  }
+
+  /**
+   * Estimates the heap size an image of the given size takes once loaded, for example to refuse
+   * an image before decoding it.
+   *
+   * @param height The height of the image.
+   * @param width  The width of the image.
+   * @return The estimated size in bytes.
+   */
+  public static long estimateLoadedBytes(long height, long width) {
+    return ImageSizes.estimateHeapBytes(height, width);
+  }
+
+  /**
+   * Returns the estimated heap size of the resident images, compressed or not.
+   *
+   * @return The resident size in bytes.
+   */
+  public long getResidentBytes() {
+    return residentBytes.get();
+  }
+
+  /**
+   * Returns the size of the spilled images in the spill file.
+   *
+   * @return The spilled size in bytes.
+   */
+  public long getSpilledBytes() {
+    return spilledBytes.get();
+  }
+
+  /**
+   * Returns the number of resident images, compressed or not.
+   *
+   * @return The number of resident images.
+   */
+  public int getResidentCount() {
+    int count = 0;
+    for (Slot slot : slots.values()) {
+      if (slot.record == null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the number of spilled images.
+   *
+   * @return The number of spilled images.
+   */
+  public int getSpilledCount() {
+    int count = 0;
+    for (Slot slot : slots.values()) {
+      if (slot.record != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns how many times an image was written to the spill file.
+   *
+   * @return The number of spills.
+   */
+  public long getSpillCount() {
+    return spillCount.sum();
+  }
+
+  /**
+   * Returns how many times a spilled image was read back.
+   *
+   * @return The number of reloads.
+   */
+  public long getReloadCount() {
+    return reloadCount.sum();
+  }
+
+  /**
+   * Returns the number of resident images held compressed.
+   *
+   * @return The number of compressed images.
+   */
+  public int getCompressedCount() {
+    int count = 0;
+    for (Slot slot : slots.values()) {
+      if (slot.encoded != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the size of the compressed images in memory.
+   *
+   * @return The compressed size in bytes.
+   */
+  public long getCompressedBytes() {
+    return compressedBytes.get();
+  }
+
+  /**
+   * Returns the compression ratio of the compressed tier: the estimated heap size the compressed
+   * images would take decoded, divided by their compressed size.
+   *
+   * @return The compression ratio, or 1 if no image is compressed.
+   */
+  public double getCompressionRatio() {
+    long compressed = compressedBytes.get();
+    if (compressed == 0) {
+      return 1;
+    }
+    return (double) compressedRawBytes.get() / compressed;
+  }
+
+  /**
+   * Returns how many times an image was compressed in memory.
+   *
+   * @return The number of compressions.
+   */
+  public long getCompressCount() {
+    return compressCount.sum();
+  }
+
+  /**
+   * Returns how many times a compressed image was decoded.
+   *
+   * @return The number of decodes.
+   */
+  public long getDecodeCount() {
+    return decodeCount.sum();
+  }
+
+  /**
+   * Returns the average time taken to decode a compressed image.
+   *
+   * @return The average decode latency in nanoseconds, or 0 if nothing was decoded.
+   */
+  public long getAverageDecodeNanos() {
+    long count = decodeCount.sum();
+    return count == 0 ? 0 : decodeNanos.sum() / count;
+  }
+
+  /**
+   * Returns the heap budget of the registry.
+   *
+   * @return The heap budget in bytes.
+   */
+  public long getHeapBudget() {
+    return heapBudget;
+  }
+
+  /**
+   * Marks a slot as the most recently used one.
+   *
+   * @param slot The slot that is used.
+   */
+  private void touch(Slot slot) {
+    slot.lastUse = clock.incrementAndGet();
+    slot.lastAccess = System.nanoTime();
+  }
+
+  /**
+   * Replaces the slot of a name if it is still the expected one, and updates the metrics.
+   *
+   * @param name     The name of the image.
+   * @param expected The slot the name is expected to have.
+   * @param update   The new slot of the name.
+   * @return true if the slot was replaced.
+   */
+  private boolean replace(String name, Slot expected, Slot update) {
+    if (!slots.replace(name, expected, update)) {
+      this.dispose(update);
+      return false;
+    }
+    this.account(update, 1);
+    this.account(expected, -1);
+    this.dispose(expected);
+    return true;
+  }
+
+  /**
+   * Adds or removes the size of a slot to the metrics of its tier.
+   *
+   * @param slot The slot.
+   * @param sign 1 when the slot is installed, -1 when it is removed.
+   */
+  private void account(Slot slot, int sign) {
+    if (slot.record != null) {
+      spilledBytes.addAndGet(sign * slot.record.getLength());
+      return;
+    }
+    residentBytes.addAndGet(sign * slot.bytes);
+    if (slot.encoded != null) {
+      compressedBytes.addAndGet(sign * slot.bytes);
+      compressedRawBytes.addAndGet(sign * slot.rawBytes);
+    }
+  }
+
+  /**
+   * Frees the space a slot that is no longer installed holds in the spill file.
+   *
+   * @param slot The slot.
+   */
+  private void dispose(Slot slot) {
+    if (slot.record != null) {
+      spillFile.release(slot.record);
+    }
+  }
+
+  /**
+   * Compresses idle images and spills images over the budget, unless another thread is already
+   * doing so.
+   */
+  private void maintain() {
+    if (idleNanos < 0 && residentBytes.get() <= heapBudget) {
+      return;
+    }
+    if (!maintenance.tryLock()) {
+      return;
+    }
+    try {
+      this.compressIdle(System.nanoTime());
+      this.enforceBudget();
+    } finally {
+      maintenance.unlock();
+    }
+  }
+
+  /**
+   * Returns the most recently used slot.
+   *
+   * @return The most recently used slot, or null if the registry is empty.
+   */
+  private Slot mostRecentlyUsed() {
+    Slot latest = null;
+    for (Slot slot : slots.values()) {
+      if (latest == null || slot.lastUse > latest.lastUse) {
+        latest = slot;
+      }
+    }
+    return latest;
+  }
+
+  /**
+   * Compresses the resident images that have not been accessed for the idle interval. The most
+   * recently used image is never compressed.
+   *
+   * @param now The current time of {@link System#nanoTime()}.
+   */
+  private void compressIdle(long now) {
+    long idle = idleNanos;
+    if (idle < 0) {
+      return;
+    }
+    Slot latest = this.mostRecentlyUsed();
+    for (Map.Entry<String, Slot> entry : slots.entrySet()) {
+      Slot slot = entry.getValue();
+      // Mapped images are outside of the heap already.
+      if (slot.image != null && !(slot.image instanceof MappedImage) && slot != latest
+              && now - slot.lastAccess >= idle) {
+        byte[] encoded = QoiCodec.encode(slot.image);
+        if (this.replace(entry.getKey(), slot, Slot.compressed(encoded, slot.rawBytes, slot))) {
+          compressCount.increment();
+          evictionListener.accept(entry.getKey(), slot.image);
+        }
+      }
+    }
+  }
+
+  /**
+   * Spills least recently used images until the resident images fit the budget or only the most
+   * recently used image is left.
+   */
+  private void enforceBudget() {
+    while (residentBytes.get() > heapBudget) {
+      Slot latest = this.mostRecentlyUsed();
+      String victim = null;
+      Slot victimSlot = null;
+      for (Map.Entry<String, Slot> entry : slots.entrySet()) {
+        Slot slot = entry.getValue();
+        if (slot.record == null && !(slot.image instanceof MappedImage) && slot != latest
+                && (victimSlot == null || slot.lastUse < victimSlot.lastUse)) {
+          victim = entry.getKey();
+          victimSlot = slot;
+        }
+      }
+      if (victimSlot == null) {
+        return;
+      }
+
+      ImageModel image = victimSlot.image != null
+              ? victimSlot.image : QoiCodec.decode(victimSlot.encoded);
+      SpillFile.Record record;
+      try {
+        record = this.spillFile().write(image);
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to spill image: " + victim, e);
+      }
+      if (this.replace(victim, victimSlot, Slot.spilled(record, victimSlot.rawBytes, victimSlot))) {
+        spillCount.increment();
+        if (victimSlot.image != null) {
+          evictionListener.accept(victim, victimSlot.image);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the spill file, creating it on first use.
+   *
+   * @return The spill file.
+   * @throws IOException If the file cannot be created.
+   */
+  private SpillFile spillFile() throws IOException {
+    if (spillFile == null) {
+      synchronized (this) {
+        if (spillFile == null) {
+          spillFile = new SpillFile();
+        }
+      }
+    }
+    return spillFile;
+  }
+
+  /**
+   * The state of a name in one of the three tiers: a decoded image, a compressed image, or a
+   * record in the spill file. The state never changes; moving an image to another tier replaces
+   * its slot. Only the access times are updated in place.
+   */
+  private static final class Slot {
+    private final ImageModel image;
+    private final byte[] encoded;
+    private final SpillFile.Record record;
+    private final long bytes;
+    private final long rawBytes;
+    private volatile long lastUse;
+    private volatile long lastAccess;
+
+    private Slot(ImageModel image, byte[] encoded, SpillFile.Record record, long bytes,
+                 long rawBytes, Slot previous) {
+      this.image = image;
+      this.encoded = encoded;
+      this.record = record;
+      this.bytes = bytes;
+      this.rawBytes = rawBytes;
+      if (previous != null) {
+        this.lastUse = previous.lastUse;
+        this.lastAccess = previous.lastAccess;
+      }
+    }
+
+    private static Slot resident(ImageModel image, long rawBytes, Slot previous) {
+      return new Slot(image, null, null, rawBytes, rawBytes, previous);
+    }
+
+    private static Slot compressed(byte[] encoded, long rawBytes, Slot previous) {
+      return new Slot(null, encoded, null, ImageSizes.estimateHeapBytes(encoded), rawBytes,
+              previous);
+    }
+
+    private static Slot spilled(SpillFile.Record record, long rawBytes, Slot previous) {
+      return new Slot(null, null, record, 0, rawBytes, previous);
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package ime.model.store;
+
+import ime.model.image.GreyImage;
+import ime.model.image.ImageModel;
+import ime.model.image.MappedImage;
+
+/**
+ * The ImageSizes class estimates how much heap an image occupies, so that an
+ * {@link ImageRegistry} can keep its resident images under a budget.
+ */
+final class ImageSizes {
+
+  /**
+   * The estimated size of one pixel object: a 12 byte header and three int fields, padded to 8.
+   */
+  private static final long PIXEL_BYTES = 24;
+
+  /**
+   * The estimated size of one array reference.
+   */
+  private static final long REFERENCE_BYTES = 8;
+
+  /**
+   * The estimated size of an array header.
+   */
+  private static final long ARRAY_BYTES = 16;
+
+  private ImageSizes() {
+  }
+
+  /**
+   * The estimated heap size of a mapped image, whose raster is outside of the heap.
+   */
+  private static final long MAPPED_BYTES = 256;
+
+  /**
+   * The estimated size of a grey image besides its values: the object and the array header.
+   */
+  private static final long GREY_BYTES = 64;
+
+  /**
+   * Estimates the heap size of an image stored as rows of pixel objects, or as one byte per
+   * pixel for a {@link GreyImage}. Pixels shared with other images are counted as well, so the
+   * estimate errs on the large side.
+   *
+   * @param image The image to measure.
+   * @return The estimated size in bytes.
+   */
+  static long estimateHeapBytes(ImageModel image) {
+    if (image instanceof MappedImage) {
+      return MAPPED_BYTES;
+    }
+    if (image instanceof GreyImage) {
+      return GREY_BYTES + (long) image.getHeight() * image.getWidth();
+    }
+    return estimateHeapBytes(image.getHeight(), image.getWidth());
+  }
+
+  /**
+   * Estimates the heap size of an image of the given size stored as rows of pixel objects.
+   *
+   * @param height The height of the image.
+   * @param width  The width of the image.
+   * @return The estimated size in bytes.
+   */
+  static long estimateHeapBytes(long height, long width) {
+    return ARRAY_BYTES + height * (REFERENCE_BYTES + ARRAY_BYTES)
+            + height * width * (REFERENCE_BYTES + PIXEL_BYTES);
+  }
+
+  /**
+   * Estimates the heap size of an encoded image.
+   *
+   * @param encoded The encoded image.
+   * @return The estimated size in bytes.
+   */
+  static long estimateHeapBytes(byte[] encoded) {
+    return ARRAY_BYTES + encoded.length;
+  }
+}
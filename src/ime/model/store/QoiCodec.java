@@ -0,0 +1,219 @@
+package ime.model.store;
+
+import java.util.Arrays;
+
+import ime.model.image.GreyImage;
+import ime.model.image.ImageModel;
+import ime.model.image.PixelModel;
+import ime.model.image.RGBImage;
+import ime.model.image.RGBPixel;
+
+/**
+ * The QoiCodec class is a fast lossless codec for images held in the compressed tier of an
+ * {@link ImageRegistry}. It follows the chunk layout of the QOI format for RGB images: runs of
+ * the previous pixel, references into a 64 entry table of recently seen pixels, small deltas to
+ * the previous pixel and, as a fallback, the literal red, green and blue bytes. Flat areas such as
+ * the zeroed channels of a component image collapse into runs of one byte per 62 pixels.
+ *
+ * <p>The encoding starts with the height and the width of the image as two big-endian ints and a
+ * byte giving the kind of the image: 0 for an RGB image, and one more than the ordinal of its
+ * channel for a {@link GreyImage}, whose value is encoded in the three channels so that it
+ * decodes back to a grey image. It has no file header or end marker, since it never leaves the
+ * process.</p>
+ */
+final class QoiCodec {
+
+  private static final int OP_INDEX = 0x00;
+  private static final int OP_DIFF = 0x40;
+  private static final int OP_LUMA = 0x80;
+  private static final int OP_RUN = 0xC0;
+  private static final int OP_RGB = 0xFE;
+  private static final int MASK = 0xC0;
+  private static final int MAX_RUN = 62;
+  private static final int HEADER_BYTES = 2 * Integer.BYTES + 1;
+
+  private QoiCodec() {
+  }
+
+  /**
+   * Encodes an image.
+   *
+   * @param image The image to encode.
+   * @return The encoded image.
+   */
+  static byte[] encode(ImageModel image) {
+    int height = image.getHeight();
+    int width = image.getWidth();
+    byte[] out = new byte[HEADER_BYTES + Math.max(64, height * width / 4)];
+    putInt(out, 0, height);
+    putInt(out, 4, width);
+    GreyImage grey = image instanceof GreyImage ? (GreyImage) image : null;
+    out[8] = (byte) (grey == null ? 0 : grey.getChannel().ordinal() + 1);
+    int pos = HEADER_BYTES;
+
+    int[] index = new int[64];
+    int previous = 0;
+    int run = 0;
+    long pixels = (long) height * width;
+    long count = 0;
+
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        int r;
+        int g;
+        int b;
+        if (grey != null) {
+          r = grey.getValue(i, j);
+          g = r;
+          b = r;
+        } else {
+          PixelModel pixel = image.getPixelValues(i, j);
+          r = pixel.getR();
+          g = pixel.getG();
+          b = pixel.getB();
+        }
+        int rgb = (r << 16) | (g << 8) | b;
+        count++;
+
+        if (out.length - pos < 5) {
+          out = Arrays.copyOf(out, out.length * 2);
+        }
+
+        if (rgb == previous) {
+          run++;
+          if (run == MAX_RUN || count == pixels) {
+            out[pos++] = (byte) (OP_RUN | (run - 1));
+            run = 0;
+          }
+          continue;
+        }
+        if (run > 0) {
+          out[pos++] = (byte) (OP_RUN | (run - 1));
+          run = 0;
+        }
+
+        int hash = hash(r, g, b);
+        if (index[hash] == rgb) {
+          out[pos++] = (byte) (OP_INDEX | hash);
+        } else {
+          index[hash] = rgb;
+          int dr = (byte) (r - (previous >> 16 & 0xFF));
+          int dg = (byte) (g - (previous >> 8 & 0xFF));
+          int db = (byte) (b - (previous & 0xFF));
+          int drDg = dr - dg;
+          int dbDg = db - dg;
+
+          if (dr >= -2 && dr <= 1 && dg >= -2 && dg <= 1 && db >= -2 && db <= 1) {
+            out[pos++] = (byte) (OP_DIFF | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2));
+          } else if (dg >= -32 && dg <= 31 && drDg >= -8 && drDg <= 7
+                  && dbDg >= -8 && dbDg <= 7) {
+            out[pos++] = (byte) (OP_LUMA | (dg + 32));
+            out[pos++] = (byte) ((drDg + 8) << 4 | (dbDg + 8));
+          } else {
+            out[pos++] = (byte) OP_RGB;
+            out[pos++] = (byte) r;
+            out[pos++] = (byte) g;
+            out[pos++] = (byte) b;
+          }
+        }
+        previous = rgb;
+      }
+    }
+    return Arrays.copyOf(out, pos);
+  }
+
+  /**
+   * Decodes an image produced by {@link #encode(ImageModel)}.
+   *
+   * @param data The encoded image.
+   * @return The decoded image.
+   */
+  static ImageModel decode(byte[] data) {
+    int height = getInt(data, 0);
+    int width = getInt(data, 4);
+    int kind = data[8];
+    PixelModel[][] pixels = kind == 0 ? new RGBPixel[height][width] : null;
+    byte[] values = kind == 0 ? null : new byte[height * width];
+    int pos = HEADER_BYTES;
+
+    int[] index = new int[64];
+    int r = 0;
+    int g = 0;
+    int b = 0;
+    int run = 0;
+    PixelModel pixel = new RGBPixel(0, 0, 0);
+
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        if (run > 0) {
+          run--;
+          store(pixels, values, i, j, width, pixel);
+          continue;
+        }
+
+        int op = data[pos++] & 0xFF;
+        if (op == OP_RGB) {
+          r = data[pos++] & 0xFF;
+          g = data[pos++] & 0xFF;
+          b = data[pos++] & 0xFF;
+        } else if ((op & MASK) == OP_INDEX) {
+          int rgb = index[op];
+          r = rgb >> 16 & 0xFF;
+          g = rgb >> 8 & 0xFF;
+          b = rgb & 0xFF;
+        } else if ((op & MASK) == OP_DIFF) {
+          r = (r + (op >> 4 & 0x03) - 2) & 0xFF;
+          g = (g + (op >> 2 & 0x03) - 2) & 0xFF;
+          b = (b + (op & 0x03) - 2) & 0xFF;
+        } else if ((op & MASK) == OP_LUMA) {
+          int second = data[pos++] & 0xFF;
+          int dg = (op & 0x3F) - 32;
+          r = (r + dg + (second >> 4 & 0x0F) - 8) & 0xFF;
+          g = (g + dg) & 0xFF;
+          b = (b + dg + (second & 0x0F) - 8) & 0xFF;
+        } else {
+          run = op & 0x3F;
+          store(pixels, values, i, j, width, pixel);
+          continue;
+        }
+
+        index[hash(r, g, b)] = (r << 16) | (g << 8) | b;
+        pixel = new RGBPixel(r, g, b);
+        store(pixels, values, i, j, width, pixel);
+      }
+    }
+    if (values != null) {
+      return new GreyImage(height, width, GreyImage.Channel.values()[kind - 1], values);
+    }
+    return new RGBImage(height, width, pixels);
+  }
+
+  /**
+   * Stores a decoded pixel in the grid of an RGB image, or its value in the values of a grey
+   * image.
+   */
+  private static void store(PixelModel[][] pixels, byte[] values, int i, int j, int width,
+                            PixelModel pixel) {
+    if (values != null) {
+      values[i * width + j] = (byte) pixel.getR();
+    } else {
+      pixels[i][j] = pixel;
+    }
+  }
+
+  private static int hash(int r, int g, int b) {
+    return (r * 3 + g * 5 + b * 7 + 255 * 11) % 64;
+  }
+
+  private static void putInt(byte[] out, int pos, int value) {
+    out[pos] = (byte) (value >>> 24);
+    out[pos + 1] = (byte) (value >>> 16);
+    out[pos + 2] = (byte) (value >>> 8);
+    out[pos + 3] = (byte) value;
+  }
+
+  private static int getInt(byte[] data, int pos) {
+    return (data[pos] & 0xFF) << 24 | (data[pos + 1] & 0xFF) << 16
+            | (data[pos + 2] & 0xFF) << 8 | (data[pos + 3] & 0xFF);
+  }
+}
@@ -0,0 +1,327 @@
+package ime.model.store;
+
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import ime.model.image.ImageFingerprint;
+import ime.model.image.ImageModel;
+import ime.model.image.MappedImage;
+
+/**
+ * The ResultCache class remembers the results of operations on images, so that applying an
+ * operation with the same parameters to an image with the same content again returns the result
+ * at once. Results are keyed by the size and the fingerprint of the source image, the name of
+ * the operation and its canonical parameters, and the least recently used results are evicted
+ * once their estimated heap size exceeds the capacity of the cache.
+ *
+ * <p>The cache keeps the source image of every result, and a lookup only hits if the image it
+ * is given has the same pixels as that source, so two images whose fingerprints collide never
+ * share a result. The sources count towards the capacity along with the results. Both are shared
+ * by everyone using the cache, so they must never be changed. Mapped images are not cached, since
+ * their raster is as large as the images the heap cannot hold. The cache is safe for concurrent
+ * use.</p>
+ */
+public class ResultCache {
+
+  /**
+   * The capacity of a cache by default, an eighth of the maximum heap.
+   */
+  public static final long DEFAULT_CAPACITY = Runtime.getRuntime().maxMemory() / 8;
+
+  private final Map<Key, Entry> entries;
+  private final LongAdder hits;
+  private final LongAdder misses;
+  private final LongAdder evictions;
+  private long capacity;
+  private long bytes;
+  private volatile boolean enabled;
+
+  /**
+   * Constructs an enabled cache of the default capacity.
+   */
+  public ResultCache() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Constructs an enabled cache.
+   *
+   * @param capacity The estimated heap size of the results and sources the cache keeps, in
+   *                 bytes.
+   * @throws IllegalArgumentException If the capacity is negative.
+   */
+  public ResultCache(long capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("The capacity of a cache must not be negative.");
+    }
+    this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    this.hits = new LongAdder();
+    this.misses = new LongAdder();
+    this.evictions = new LongAdder();
+    this.capacity = capacity;
+    this.enabled = true;
+  }
+
+  /**
+   * Returns the key of the result of an operation on an image. Parameters that are numbers are
+   * written in a canonical form, so that "50" and "50.0" give the same key.
+   *
+   * @param source    The image the operation is applied to.
+   * @param operation The name of the operation.
+   * @param params    The parameters of the operation, besides the names of images.
+   * @return The key.
+   */
+  public static Key key(ImageModel source, String operation, String... params) {
+    StringBuilder canonical = new StringBuilder();
+    for (String param : params) {
+      if (canonical.length() > 0) {
+        canonical.append(' ');
+      }
+      canonical.append(canonical(param));
+    }
+    return new Key(source.getHeight(), source.getWidth(), source.getFingerprint(), operation,
+            canonical.toString());
+  }
+
+  private static String canonical(String param) {
+    try {
+      return new BigDecimal(param).stripTrailingZeros().toPlainString();
+    } catch (NumberFormatException e) {
+      return param;
+    }
+  }
+
+  /**
+   * Returns the cached result for a key, if it was computed from an image with the same pixels as
+   * the given source.
+   *
+   * @param key    The key of the result.
+   * @param source The image the operation is applied to.
+   * @return The result, or null if it is not cached or the cache is disabled.
+   */
+  public ImageModel get(Key key, ImageModel source) {
+    if (!enabled) {
+      return null;
+    }
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(key);
+    }
+    if (entry == null || !ImageFingerprint.sameContent(source, entry.source)) {
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    return entry.result;
+  }
+
+  /**
+   * Caches the result of an operation, evicting the least recently used results if needed.
+   * Nothing is cached if the cache is disabled, if an image is mapped or if the source and the
+   * result are larger than the capacity.
+   *
+   * @param key    The key of the result.
+   * @param source The image the operation was applied to, which must not be changed afterwards.
+   * @param result The result, which must not be changed afterwards.
+   */
+  public void put(Key key, ImageModel source, ImageModel result) {
+    if (!enabled || source instanceof MappedImage || result instanceof MappedImage) {
+      return;
+    }
+    long size = ImageSizes.estimateHeapBytes(source) + ImageSizes.estimateHeapBytes(result);
+    synchronized (this) {
+      if (size > capacity) {
+        return;
+      }
+      Entry previous = entries.put(key, new Entry(source, result, size));
+      bytes += size - (previous == null ? 0 : previous.bytes);
+      this.evict();
+    }
+  }
+
+  /**
+   * Evicts least recently used results until the cached results fit the capacity.
+   */
+  private void evict() {
+    Iterator<Entry> eldest = entries.values().iterator();
+    while (bytes > capacity && eldest.hasNext()) {
+      bytes -= eldest.next().bytes;
+      eldest.remove();
+      evictions.increment();
+    }
+  }
+
+  /**
+   * Enables or disables the cache. A disabled cache drops its results, and neither caches nor
+   * returns results until it is enabled again, for example to measure operations without it.
+   *
+   * @param enabled true to enable the cache.
+   */
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+    if (!enabled) {
+      this.clear();
+    }
+  }
+
+  /**
+   * Tells whether the cache is enabled.
+   *
+   * @return true if the cache is enabled.
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Changes the capacity of the cache, evicting results if it shrinks.
+   *
+   * @param capacity The estimated heap size of the results and sources the cache keeps, in
+   *                 bytes.
+   * @throws IllegalArgumentException If the capacity is negative.
+   */
+  public synchronized void setCapacity(long capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("The capacity of a cache must not be negative.");
+    }
+    this.capacity = capacity;
+    this.evict();
+  }
+
+  /**
+   * Returns the capacity of the cache.
+   *
+   * @return The capacity in bytes.
+   */
+  public synchronized long getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Drops every cached result. The counters are kept.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    bytes = 0;
+  }
+
+  /**
+   * Returns how many lookups found their result.
+   *
+   * @return The number of hits.
+   */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * Returns how many lookups did not find their result.
+   *
+   * @return The number of misses.
+   */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * Returns the share of the lookups that found their result.
+   *
+   * @return The hit rate, from 0 to 1, or 0 if nothing was looked up.
+   */
+  public double getHitRate() {
+    long hitCount = hits.sum();
+    long total = hitCount + misses.sum();
+    return total == 0 ? 0 : (double) hitCount / total;
+  }
+
+  /**
+   * Returns how many results were evicted to fit the capacity.
+   *
+   * @return The number of evictions.
+   */
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * Returns the number of cached results.
+   *
+   * @return The number of results.
+   */
+  public synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+  /**
+   * Returns the estimated heap size of the cached results and their sources.
+   *
+   * @return The size in bytes.
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * The key of a result: the size and the fingerprint of the source image, the operation and its
+   * canonical parameters.
+   */
+  public static final class Key {
+    private final int height;
+    private final int width;
+    private final long fingerprint;
+    private final String operation;
+    private final String params;
+
+    private Key(int height, int width, long fingerprint, String operation, String params) {
+      this.height = height;
+      this.width = width;
+      this.fingerprint = fingerprint;
+      this.operation = operation;
+      this.params = params;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return height == other.height && width == other.width
+              && fingerprint == other.fingerprint && operation.equals(other.operation)
+              && params.equals(other.params);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(height, width, fingerprint, operation, params);
+    }
+
+    @Override
+    public String toString() {
+      return operation + (params.isEmpty() ? "" : " " + params) + " @" + width + "x" + height
+              + ":" + Long.toHexString(fingerprint);
+    }
+  }
+
+  /**
+   * A cached result, its source image and their estimated heap size.
+   */
+  private static final class Entry {
+    private final ImageModel source;
+    private final ImageModel result;
+    private final long bytes;
+
+    private Entry(ImageModel source, ImageModel result, long bytes) {
+      this.source = source;
+      this.result = result;
+      this.bytes = bytes;
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package ime.model.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.Set;
+
+import ime.model.image.GreyImage;
+import ime.model.image.ImageModel;
+import ime.model.image.PixelModel;
+import ime.model.image.RGBImage;
+import ime.model.image.RGBPixel;
+
+/**
+ * The SpillFile class is the local binary file to which an {@link ImageRegistry} writes the
+ * images that do not fit its heap budget.
+ *
+ * <p>Images are appended as the height and the width followed by the red, green and blue byte of
+ * every pixel, row by row. A {@link GreyImage} is appended as its negated height, its width, the
+ * ordinal of its channel and the single byte of every pixel, so that it is read back as a grey
+ * image. The space of released records is not reused, but the file is truncated
+ * as soon as no image is left in it. The file is deleted when the JVM exits.</p>
+ *
+ * <p>All methods are synchronized. Reading a record that was released concurrently returns
+ * null instead of the bytes of whatever image took its place.</p>
+ */
+class SpillFile {
+
+  private static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+  private final File file;
+  private final RandomAccessFile data;
+  private final Set<Record> liveRecords;
+
+  /**
+   * Creates an empty spill file in the temporary directory.
+   *
+   * @throws IOException If the file cannot be created.
+   */
+  SpillFile() throws IOException {
+    this.file = File.createTempFile("ime-spill", ".bin");
+    this.file.deleteOnExit();
+    this.data = new RandomAccessFile(file, "rw");
+    this.liveRecords = new HashSet<>();
+  }
+
+  /**
+   * Appends an image to the file.
+   *
+   * @param image The image to write.
+   * @return The record locating the image in the file.
+   * @throws IOException If the image cannot be written.
+   */
+  synchronized Record write(ImageModel image) throws IOException {
+    int height = image.getHeight();
+    int width = image.getWidth();
+    long offset = data.length();
+
+    data.seek(offset);
+    if (image instanceof GreyImage) {
+      GreyImage grey = (GreyImage) image;
+      data.writeInt(-height);
+      data.writeInt(width);
+      data.writeByte(grey.getChannel().ordinal());
+      byte[] row = new byte[width];
+      for (int i = 0; i < height; i++) {
+        grey.readRow(i, row);
+        data.write(row);
+      }
+      return this.record(offset, HEADER_BYTES + 1 + (long) height * width);
+    }
+    data.writeInt(height);
+    data.writeInt(width);
+    byte[] row = new byte[3 * width];
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        PixelModel pixel = image.getPixelValues(i, j);
+        row[3 * j] = (byte) pixel.getR();
+        row[3 * j + 1] = (byte) pixel.getG();
+        row[3 * j + 2] = (byte) pixel.getB();
+      }
+      data.write(row);
+    }
+
+    return this.record(offset, HEADER_BYTES + 3L * height * width);
+  }
+
+  /**
+   * Registers the record of an image that was written.
+   */
+  private Record record(long offset, long length) {
+    Record record = new Record(offset, length);
+    liveRecords.add(record);
+    return record;
+  }
+
+  /**
+   * Reads an image back. The record stays valid until it is released.
+   *
+   * @param record The record of the image.
+   * @return The image, or null if the record was released.
+   * @throws IOException If the image cannot be read.
+   */
+  synchronized ImageModel read(Record record) throws IOException {
+    if (!liveRecords.contains(record)) {
+      return null;
+    }
+    data.seek(record.offset);
+    int height = data.readInt();
+    int width = data.readInt();
+    if (height < 0) {
+      GreyImage.Channel channel = GreyImage.Channel.values()[data.readByte()];
+      byte[] values = new byte[-height * width];
+      data.readFully(values);
+      return new GreyImage(-height, width, channel, values);
+    }
+    byte[] row = new byte[3 * width];
+    PixelModel[][] pixels = new RGBPixel[height][width];
+    for (int i = 0; i < height; i++) {
+      data.readFully(row);
+      for (int j = 0; j < width; j++) {
+        pixels[i][j] = new RGBPixel(row[3 * j] & 0xFF, row[3 * j + 1] & 0xFF,
+                row[3 * j + 2] & 0xFF);
+      }
+    }
+    return new RGBImage(height, width, pixels);
+  }
+
+  /**
+   * Releases the record of an image that is no longer needed.
+   *
+   * @param record The record to release.
+   */
+  synchronized void release(Record record) {
+    if (liveRecords.remove(record) && liveRecords.isEmpty()) {
+      try {
+        data.setLength(0);
+      } catch (IOException e) {
+        // The space is reclaimed on the next successful truncation.
+      }
+    }
+  }
+
+  /**
+   * The location of an image in the spill file.
+   */
+  static final class Record {
+    private final long offset;
+    private final long length;
+
+    private Record(long offset, long length) {
+      this.offset = offset;
+      this.length = length;
+    }
+
+    /**
+     * Returns the number of bytes the image occupies in the file.
+     *
+     * @return The length of the record in bytes.
+     */
+    long getLength() {
+      return length;
+    }
+  }
+}
@@ -4,8 +4,8 @@ import java.awt.Graphics2D;
 import java.awt.Color;
 import java.awt.image.BufferedImage;
 
+import ime.model.image.ImageHistogram;
 import ime.model.image.ImageModel;
-import ime.model.image.PixelModel;
 
 /**
  * The HistogramGenerator class is responsible for creating and visualizing histograms for
@@ -14,12 +14,25 @@ import ime.model.image.PixelModel;
 public class HistogramGenerator {
 
   private final BufferedImage histogramImage;
+  private final long targetSamples;
 
   /**
    * Constructs a HistogramGenerator and initializes the histogram image with a white background.
-   * The grid lines are also drawn on the histogram.
+   * The grid lines are also drawn on the histogram. The histogram is drawn from exact counts.
    */
   public HistogramGenerator() {
+    this(0);
+  }
+
+  /**
+   * Constructs a HistogramGenerator that draws the histogram of images larger than
+   * {@code targetSamples} pixels from a strided sample of about that many pixels. At the 256
+   * pixel height of the chart the sampling error is not visible for large samples.
+   *
+   * @param targetSamples The number of pixels to sample, or 0 to always count every pixel.
+   */
+  public HistogramGenerator(long targetSamples) {
+    this.targetSamples = targetSamples;
     this.histogramImage = new BufferedImage(255, 255, BufferedImage.TYPE_INT_ARGB);
     Graphics2D g2d = histogramImage.createGraphics();
     g2d.setColor(Color.WHITE);
@@ -41,7 +54,18 @@ public class HistogramGenerator {
    * @return The histogram image.
    */
   public BufferedImage createHistogram(ImageModel rgbImage) {
-    int[][] frequencies = getFrequencies(rgbImage);
+    return this.createHistogram(rgbImage.getHistogram(targetSamples));
+  }
+
+  /**
+   * Creates a histogram image from frequencies that were already computed, for example merged
+   * from the histograms of the tiles of an image.
+   *
+   * @param histogram The histogram to draw.
+   * @return The histogram image.
+   */
+  public BufferedImage createHistogram(ImageHistogram histogram) {
+    int[][] frequencies = histogram.getFrequencies();
     int[] reds = frequencies[0];
     int[] greens = frequencies[1];
     int[] blues = frequencies[2];
@@ -99,26 +123,13 @@ public class HistogramGenerator {
 
   /**
    * Computes the frequencies of each intensity level for the red, green, and blue color channels
-   * in the given RGB image model.
+   * in the given RGB image model. The histogram cached on the image is reused, so the image is
+   * scanned at most once.
    *
    * @param rgbImage The RGB image model.
    * @return An array of int arrays representing the frequencies for each color channel.
    */
   public static int[][] getFrequencies(ImageModel rgbImage) {
-    int[] reds = new int[256];
-    int[] greens = new int[256];
-    int[] blues = new int[256];
-
-    // Compute the frequency of each intensity level for each color
-    for (int i = 0; i < rgbImage.getHeight(); i++) {
-      for (int j = 0; j < rgbImage.getWidth(); j++) {
-        PixelModel pixel = rgbImage.getPixelValues(i, j);
-        reds[pixel.getR()]++;
-        greens[pixel.getG()]++;
-        blues[pixel.getB()]++;
-      }
-    }
-
-    return new int[][]{reds, greens, blues};
+    return rgbImage.getHistogram().getFrequencies();
   }
 }
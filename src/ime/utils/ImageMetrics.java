@@ -0,0 +1,109 @@
+package ime.utils;
+
+import ime.model.image.ImageModel;
+import ime.model.image.PixelModel;
+
+/**
+ * The ImageMetrics class provides quality measures to compare processed images, for example a
+ * tiled compression against the whole-image compression of the same source.
+ */
+public class ImageMetrics {
+
+  /**
+   * Computes the mean squared error over the red, green and blue channels of two images.
+   *
+   * @param expected The reference image.
+   * @param actual   The image to compare against the reference.
+   * @return The mean squared error per channel value.
+   * @throws IllegalArgumentException If the images do not have the same dimension.
+   */
+  public static double meanSquaredError(ImageModel expected, ImageModel actual) {
+    if (expected.getHeight() != actual.getHeight() || expected.getWidth() != actual.getWidth()) {
+      throw new IllegalArgumentException("Images do not have the same dimension.");
+    }
+
+    double sum = 0;
+    for (int i = 0; i < expected.getHeight(); i++) {
+      for (int j = 0; j < expected.getWidth(); j++) {
+        PixelModel a = expected.getPixelValues(i, j);
+        PixelModel b = actual.getPixelValues(i, j);
+        sum += square(a.getR() - b.getR()) + square(a.getG() - b.getG())
+                + square(a.getB() - b.getB());
+      }
+    }
+    return sum / (3.0 * expected.getHeight() * expected.getWidth());
+  }
+
+  /**
+   * Computes the peak signal-to-noise ratio of an image against a reference image.
+   *
+   * @param expected The reference image.
+   * @param actual   The image to compare against the reference.
+   * @return The PSNR in decibels, or positive infinity if the images are identical.
+   * @throws IllegalArgumentException If the images do not have the same dimension.
+   */
+  public static double psnr(ImageModel expected, ImageModel actual) {
+    double mse = meanSquaredError(expected, actual);
+    if (mse == 0) {
+      return Double.POSITIVE_INFINITY;
+    }
+    return 10 * Math.log10(255.0 * 255.0 / mse);
+  }
+
+  /**
+   * Measures blocking artefacts of a tiled operation. It is the mean absolute difference between
+   * neighbouring pixels that lie on the two sides of a tile edge, divided by the mean absolute
+   * difference between all other neighbouring pixels. Values close to 1 mean the tile grid is
+   * not visible, larger values mean stronger blocking.
+   *
+   * @param image    The image to measure.
+   * @param tileSize The edge length of the tiles.
+   * @return The blockiness ratio, or 1 if the image has no tile edge or no interior neighbours.
+   */
+  public static double blockiness(ImageModel image, int tileSize) {
+    double edgeSum = 0;
+    long edgeCount = 0;
+    double innerSum = 0;
+    long innerCount = 0;
+
+    for (int i = 0; i < image.getHeight(); i++) {
+      for (int j = 0; j < image.getWidth(); j++) {
+        PixelModel pixel = image.getPixelValues(i, j);
+        if (j + 1 < image.getWidth()) {
+          int diff = difference(pixel, image.getPixelValues(i, j + 1));
+          if ((j + 1) % tileSize == 0) {
+            edgeSum += diff;
+            edgeCount++;
+          } else {
+            innerSum += diff;
+            innerCount++;
+          }
+        }
+        if (i + 1 < image.getHeight()) {
+          int diff = difference(pixel, image.getPixelValues(i + 1, j));
+          if ((i + 1) % tileSize == 0) {
+            edgeSum += diff;
+            edgeCount++;
+          } else {
+            innerSum += diff;
+            innerCount++;
+          }
+        }
+      }
+    }
+
+    if (edgeCount == 0 || innerCount == 0 || innerSum == 0) {
+      return 1;
+    }
+    return (edgeSum / edgeCount) / (innerSum / innerCount);
+  }
+
+  private static int difference(PixelModel a, PixelModel b) {
+    return Math.abs(a.getR() - b.getR()) + Math.abs(a.getG() - b.getG())
+            + Math.abs(a.getB() - b.getB());
+  }
+
+  private static double square(int value) {
+    return (double) value * value;
+  }
+}
@@ -111,8 +111,8 @@ public class ImageManipulatorView extends JFrame implements IView {
     super(caption);
     this.model = model;
 
-    filter = new FileNameExtensionFilter("JPG, PNG, & PPM Images",
-            "jpg", "png", "ppm");
+    filter = new FileNameExtensionFilter("JPG, PNG, PPM & PGM Images",
+            "jpg", "png", "ppm", "pgm");
 
     // View components
     JMenuBar menuBar = new JMenuBar();
@@ -0,0 +1,56 @@
+package ime.controller;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.InputMismatchException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class to test the BatchRunner.
+ */
+public class BatchRunnerTest {
+
+  @Test
+  public void testBatchRunReportsFailuresWithoutAborting() throws IOException {
+    Path input = Files.createTempDirectory("batch-in");
+    Path output = input.resolveSibling(input.getFileName() + "-out");
+    Path source = Paths.get("test_images/paris-test.ppm");
+    for (int k = 0; k < 5; k++) {
+      Files.copy(source, input.resolve("paris-" + k + ".ppm"));
+    }
+    Files.writeString(input.resolve("broken.ppm"), "P3\n2 2\n255\n1 2");
+
+    BatchRunner runner = new BatchRunner(List.of(
+            "load {input} img",
+            "brighten 10 img img-bright",
+            "horizontal-flip img-bright img-flip",
+            "save {outdir}/{name}-flip.ppm img-flip",
+            "save {output} img-bright"), 2);
+    StringWriter out = new StringWriter();
+    BatchRunner.BatchReport report = runner.run(input, output, out);
+
+    assertEquals(5, report.getSucceeded());
+    assertEquals(1, report.getFailed());
+    assertTrue(out.toString().startsWith("Failed: " + input.resolve("broken.ppm")));
+    assertTrue(out.toString().contains("Batch done: 5 succeeded, 1 failed"));
+    for (int k = 0; k < 5; k++) {
+      assertTrue(Files.exists(output.resolve("paris-" + k + ".ppm")));
+      assertTrue(Files.exists(output.resolve("paris-" + k + "-flip.ppm")));
+    }
+    assertTrue(report.getLatencyPercentile(50) <= report.getLatencyPercentile(99));
+    assertTrue(report.getThroughput() > 0);
+  }
+
+  @Test(expected = InputMismatchException.class)
+  public void testInvalidTemplate() {
+    new BatchRunner(List.of("load {input} img", "blurr img img-blur"), 2);
+  }
+}
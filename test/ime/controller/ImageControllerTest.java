@@ -4,18 +4,21 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 
 import ime.controller.helpers.image.ImageHelperFactory;
 import ime.controller.helpers.image.ImageHelperFactoryImpl;
 import ime.model.ExtendedImageProcessor;
+import ime.model.image.Region;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
@@ -415,6 +418,34 @@ public class ImageControllerTest {
     assertEquals("Command:" + testArguments, logger.toString());
   }
 
+  @Test
+  public void testTiledCompressCommand() throws IOException {
+    String testCommand = "compress";
+    String testArguments = " 60.0 test test-60-compress tile 256 block\n";
+
+    in = new StringReader(testCommand + testArguments);
+    out = new StringWriter();
+
+    controller = new ImageController(in, out);
+    controller.execute(mockModel);
+
+    assertEquals("Command:" + testArguments, logger.toString());
+  }
+
+  @Test
+  public void testLumaChromaCompressCommand() throws IOException {
+    String testCommand = "compress";
+    String testArguments = " 40.0 test test-ycocg ycocg 90.0 subsample\n";
+
+    in = new StringReader(testCommand + testArguments);
+    out = new StringWriter();
+
+    controller = new ImageController(in, out);
+    controller.execute(mockModel);
+
+    assertEquals("Command:" + testArguments, logger.toString());
+  }
+
   @Test
   public void testCompressCommandInvalid() throws IOException {
     String testCommand = "compress";
@@ -489,9 +520,100 @@ public class ImageControllerTest {
     assertEquals(expectedOutput, logger.toString());
   }
 
+  @Test
+  public void testReleaseDeadImagesAfterLastUse() throws IOException {
+    String inputCommand =
+            "horizontal-flip paris paris-h\n"
+                    + "red-component paris-h paris-red\n"
+                    + "brighten 10 paris-red paris-bright\n"
+                    + "keep paris-bright\n"
+                    + "q\n"
+                    + "vertical-flip paris-bright paris-v\n";
+
+    in = new StringReader(inputCommand);
+    out = new StringWriter();
+    controller = new ImageController(in, out, true);
+    controller.execute(mockModel);
+
+    assertEquals("Command: paris paris-h\n"
+            + "Release: paris\n"
+            + "Command: paris-h paris-red\n"
+            + "Release: paris-h\n"
+            + "Command: 10 paris-red paris-bright\n"
+            + "Release: paris-red\n", logger.toString());
+  }
+
+  @Test
+  public void testReleaseDeadImagesAcrossIncludedScripts() throws IOException {
+    File include = File.createTempFile("include", ".txt");
+    include.deleteOnExit();
+    Files.writeString(include.toPath(), "red-component paris paris-red\n"
+            + "blur current-image current-image\n");
+
+    String inputCommand =
+            "horizontal-flip paris paris-h\n"
+                    + "run " + include.getPath() + "\n"
+                    + "vertical-flip paris-h paris-v\n";
+
+    in = new StringReader(inputCommand);
+    out = new StringWriter();
+    controller = new ImageController(in, out, true);
+    controller.execute(mockModel);
+
+    assertEquals("Command: paris paris-h\n"
+            + "Command: paris paris-red\n"
+            + "Release: paris\n"
+            + "Release: paris-red\n"
+            + "Command: current-image current-image\n"
+            + "Command: paris-h paris-v\n"
+            + "Release: paris-h\n"
+            + "Release: paris-v\n", logger.toString());
+    assertEquals("Command performed: run " + include.getPath(),
+            out.toString().split("\n")[3]);
+  }
+
+  @Test
+  public void testNoReleaseWhenIncludedScriptIsMissing() throws IOException {
+    in = new StringReader("horizontal-flip paris paris-h\nrun missing-script.txt\n");
+    out = new StringWriter();
+    controller = new ImageController(in, out, true);
+    controller.execute(mockModel);
+
+    assertEquals("Command: paris paris-h\n", logger.toString());
+  }
+
   /**
    * Represents a MockModel of the ImageProcessor to test the controller..
    */
+  @Test
+  public void testRegionOfInterest() throws IOException {
+    in = new StringReader("blur test test-blur --roi 10 20 30 40\n"
+            + "brighten 10 test test-bright --roi 0 0 5 5\n");
+    out = new StringWriter();
+
+    controller = new ImageController(in, out);
+    controller.execute(mockModel);
+
+    assertEquals("Region: 30x40+10+20 halo 1\nCommand: test test-blur\n"
+            + "Region: 5x5+0+0 halo 0\nCommand: 10 test test-bright\n", logger.toString());
+  }
+
+  @Test
+  public void testInvalidRegionOfInterest() throws IOException {
+    in = new StringReader("blur test test-blur --roi 10 20 30\n"
+            + "sharpen test test-sharp --roi 10 20 0 5\n"
+            + "histogram test test-histogram --roi 0 0 5 5\n");
+    out = new StringWriter();
+
+    controller = new ImageController(in, out);
+    controller.execute(mockModel);
+
+    String[] lines = out.toString().split("\n");
+    assertEquals("--roi must be the last option, followed by x y width height.", lines[0]);
+    assertEquals("The width and height of a region must be positive.", lines[1]);
+    assertEquals("", logger.toString());
+  }
+
   private static class MockModel implements ExtendedImageProcessor {
 
     private final StringBuilder sb;
@@ -605,6 +727,22 @@ public class ImageControllerTest {
               .append(destImgName).append("\n");
     }
 
+    @Override
+    public void compress(double percentage, String imgName, String destImgName, int tileSize,
+                         boolean perTileThreshold) {
+      sb.append("Command: ").append(percentage).append(" ").append(imgName).append(" ")
+              .append(destImgName).append(" tile ").append(tileSize).append(" ")
+              .append(perTileThreshold ? "block" : "global").append("\n");
+    }
+
+    @Override
+    public void compressLumaChroma(double lumaPercentage, double chromaPercentage,
+                                   boolean subsampleChroma, String imgName, String destImgName) {
+      sb.append("Command: ").append(lumaPercentage).append(" ").append(imgName).append(" ")
+              .append(destImgName).append(" ycocg ").append(chromaPercentage)
+              .append(subsampleChroma ? " subsample" : "").append("\n");
+    }
+
     @Override
     public void histogram(String imgName, String destImgName) {
       sb.append("Command: ").append(imgName).append(" ").append(destImgName).append("\n");
@@ -614,6 +752,45 @@ public class ImageControllerTest {
     public void levelsAdjust(String[] args) {
       sb.append("Command: ").append(String.join(" ",args)).append("\n");
     }
+
+    @Override
+    public void setHistogramSampling(long targetSamples) {
+      // Sampling does not change the commands issued to the model.
+    }
+
+    @Override
+    public void applyToRegion(Region region, int halo, String imgName, String destImgName,
+                              RegionOperation operation) throws IOException {
+      sb.append("Region: ").append(region).append(" halo ").append(halo).append("\n");
+      operation.apply(this);
+    }
+
+    @Override
+    public boolean loadOffHeap(String imgName, int height, int width, RowReader rows) {
+      return false;
+    }
+
+    @Override
+    public boolean saveOffHeap(String imgName, RowTarget target) {
+      return false;
+    }
+
+    @Override
+    public void memoize(String operation, List<String> params, String imgName,
+                        String destImgName, RegionOperation command) throws IOException {
+      command.apply(this);
+    }
+
+    @Override
+    public void loadFile(String imgName, String imgPath, RegionOperation load)
+            throws IOException {
+      load.apply(this);
+    }
+
+    @Override
+    public void release(String imgName) {
+      sb.append("Release: ").append(imgName).append("\n");
+    }
   }
 
 }
@@ -0,0 +1,149 @@
+package ime.controller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class to test the ImageServer and the ImageLoadTester.
+ */
+public class ImageServerTest {
+
+  private static final Path IMAGE = Paths.get("test_images/paris-test.ppm");
+
+  private ImageServer server;
+  private HttpClient http;
+  private URI base;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new ImageServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+            4 * 1024 * 1024, 32 * 1024 * 1024, 60000);
+    server.start();
+    http = HttpClient.newHttpClient();
+    base = URI.create("http://localhost:" + server.getPort());
+  }
+
+  @After
+  public void tearDown() {
+    server.stop();
+  }
+
+  private HttpResponse<String> send(String method, String path, HttpRequest.BodyPublisher body)
+          throws IOException, InterruptedException {
+    return http.send(HttpRequest.newBuilder(base.resolve(path)).method(method, body).build(),
+            HttpResponse.BodyHandlers.ofString());
+  }
+
+  @Test
+  public void testSessionUploadCommandDownload() throws IOException, InterruptedException {
+    HttpResponse<String> created = send("POST", "/sessions",
+            HttpRequest.BodyPublishers.noBody());
+    assertEquals(201, created.statusCode());
+    String session = "/sessions/" + created.body().trim();
+    assertEquals(1, server.getSessionCount());
+
+    assertEquals(200, send("POST", session + "/images/img?format=ppm",
+            HttpRequest.BodyPublishers.ofFile(IMAGE)).statusCode());
+    HttpResponse<String> performed = send("POST", session + "/commands/brighten",
+            HttpRequest.BodyPublishers.ofString("10 img img-bright"));
+    assertEquals(200, performed.statusCode());
+    assertEquals("Command performed: brighten 10 img img-bright\n", performed.body());
+
+    HttpResponse<byte[]> downloaded = http.send(HttpRequest.newBuilder(
+            base.resolve(session + "/images/img-bright?format=ppm")).build(),
+            HttpResponse.BodyHandlers.ofByteArray());
+    assertEquals(200, downloaded.statusCode());
+    assertTrue(new String(downloaded.body()).startsWith("P3"));
+    HttpResponse<byte[]> png = http.send(HttpRequest.newBuilder(
+            base.resolve(session + "/images/img-bright")).build(),
+            HttpResponse.BodyHandlers.ofByteArray());
+    assertEquals("image/png", png.headers().firstValue("Content-Type").orElse(""));
+
+    assertEquals(404, send("GET", session + "/images/missing",
+            HttpRequest.BodyPublishers.noBody()).statusCode());
+    assertEquals(400, send("POST", session + "/commands/brighten",
+            HttpRequest.BodyPublishers.ofString("10 missing img-bright")).statusCode());
+    assertEquals(403, send("POST", session + "/commands/load",
+            HttpRequest.BodyPublishers.ofString("/etc/passwd img")).statusCode());
+    assertEquals(404, send("POST", "/sessions/unknown/commands/blur",
+            HttpRequest.BodyPublishers.ofString("img img-blur")).statusCode());
+
+    assertEquals(200, send("DELETE", session, HttpRequest.BodyPublishers.noBody())
+            .statusCode());
+    assertEquals(0, server.getSessionCount());
+  }
+
+  @Test
+  public void testRequestSizeAndSessionQuota() throws IOException, InterruptedException {
+    String session = "/sessions/" + send("POST", "/sessions",
+            HttpRequest.BodyPublishers.noBody()).body().trim();
+
+    byte[] large = new byte[8 * 1024 * 1024];
+    assertEquals(413, send("POST", session + "/images/img?format=ppm",
+            HttpRequest.BodyPublishers.ofByteArray(large)).statusCode());
+
+    assertEquals(200, send("POST", session + "/images/img?format=ppm",
+            HttpRequest.BodyPublishers.ofFile(IMAGE)).statusCode());
+    int status = 200;
+    int copies = 0;
+    while (status == 200 && copies < 1000) {
+      status = send("POST", session + "/commands/horizontal-flip",
+              HttpRequest.BodyPublishers.ofString("img img-" + copies++)).statusCode();
+    }
+    assertEquals(507, status);
+    String usage = send("GET", session, HttpRequest.BodyPublishers.noBody()).body();
+    assertTrue(usage, usage.startsWith("Images: " + copies + ","));
+  }
+
+  @Test
+  public void testUploadRefusedBeforeDecodingWhenItWouldExceedTheQuota()
+          throws IOException, InterruptedException {
+    String session = "/sessions/" + send("POST", "/sessions",
+            HttpRequest.BodyPublishers.noBody()).body().trim();
+    // A blank image compresses to a few kilobytes but takes far more than the quota decoded.
+    Path png = Files.createTempFile("ime-server-test", ".png");
+    try {
+      ImageIO.write(new BufferedImage(2000, 2000, BufferedImage.TYPE_INT_RGB), "png",
+              png.toFile());
+      assertTrue(Files.size(png) < 4 * 1024 * 1024);
+
+      HttpResponse<String> response = send("POST", session + "/images/big?format=png",
+              HttpRequest.BodyPublishers.ofFile(png));
+      assertEquals(response.body(), 507, response.statusCode());
+      assertTrue(response.body(), response.body().contains("2000x2000"));
+    } finally {
+      Files.delete(png);
+    }
+    String usage = send("GET", session, HttpRequest.BodyPublishers.noBody()).body();
+    assertTrue(usage, usage.startsWith("Images: 0,"));
+  }
+
+  @Test
+  public void testLoadTester() throws IOException {
+    ImageLoadTester.LoadReport report = new ImageLoadTester(base, IMAGE, 2, 500).run();
+
+    assertEquals(0, report.getErrors());
+    assertTrue(report.getRequests() > 4);
+    assertTrue(report.getRequestsPerSecond() > 0);
+    assertTrue(report.getLatencyPercentile(50) <= report.getLatencyPercentile(99));
+    assertTrue(report.toString().startsWith("Load test done"));
+  }
+}
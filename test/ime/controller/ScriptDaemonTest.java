@@ -0,0 +1,124 @@
+package ime.controller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class to test the ScriptDaemon and the ScriptClient.
+ */
+public class ScriptDaemonTest {
+
+  private Path workingDir;
+  private Path portFile;
+  private ScriptDaemon daemon;
+
+  @Before
+  public void setUp() throws IOException {
+    workingDir = Files.createTempDirectory("daemon-client");
+    portFile = workingDir.resolve("daemon.port");
+    daemon = new ScriptDaemon(portFile, 2);
+    daemon.start();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    daemon.close();
+  }
+
+  @Test
+  public void testScriptPathsAreResolvedAgainstClientDirectory() throws IOException {
+    Files.copy(Paths.get("test_images/paris-test.ppm"), workingDir.resolve("paris.ppm"));
+    Files.writeString(workingDir.resolve("script.txt"), "load paris.ppm img\n"
+            + "brighten 10 img img-bright\n"
+            + "run flip.txt\n");
+    Files.writeString(workingDir.resolve("flip.txt"), "vertical-flip img-bright img-flip\n"
+            + "save out.ppm img-flip\n");
+
+    for (int run = 0; run < 2; run++) {
+      StringWriter out = new StringWriter();
+      ScriptClient.run(portFile, workingDir, "script.txt", out);
+      assertEquals("Command performed: load paris.ppm img\n"
+              + "Command performed: brighten 10 img img-bright\n"
+              + "Command performed: vertical-flip img-bright img-flip\n"
+              + "Command performed: save out.ppm img-flip\n"
+              + "Command performed: run flip.txt\n"
+              + "Command performed: run script.txt\n", out.toString());
+    }
+    assertTrue(Files.exists(workingDir.resolve("out.ppm")));
+    assertFalse(Files.exists(Paths.get("out.ppm")));
+  }
+
+  @Test
+  public void testScriptsShareDecodedImages() throws IOException {
+    Path image = workingDir.resolve("paris.ppm");
+    Files.copy(Paths.get("test_images/paris-test.ppm"), image);
+    Files.writeString(workingDir.resolve("script.txt"), "load paris.ppm img\n"
+            + "brighten 10 img img\n"
+            + "save out.ppm img\n");
+
+    StringWriter out = new StringWriter();
+    ScriptClient.run(portFile, workingDir, "script.txt", out);
+    String first = Files.readString(workingDir.resolve("out.ppm"));
+    ScriptClient.run(portFile, workingDir, "script.txt", out);
+    assertEquals(1, daemon.getDecodedImageCache().getHits());
+    assertEquals(first, Files.readString(workingDir.resolve("out.ppm")));
+
+    Files.writeString(image, Files.readString(image) + "\n");
+    ScriptClient.run(portFile, workingDir, "script.txt", out);
+    assertEquals(1, daemon.getDecodedImageCache().getHits());
+    assertEquals(2, daemon.getDecodedImageCache().getMisses());
+  }
+
+  @Test
+  public void testFailedRequestIsReportedToClient() throws IOException {
+    String[] port = Files.readString(portFile).trim().split(" ");
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+            Integer.parseInt(port[0]))) {
+      Writer request = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+      request.write(ScriptDaemon.PROTOCOL + "\n" + port[1] + "\nbad\0dir\nscript.txt\n");
+      request.flush();
+      String response = new String(socket.getInputStream().readAllBytes(),
+              StandardCharsets.UTF_8);
+      assertTrue(response, response.startsWith("Script request failed: "));
+    }
+  }
+
+  @Test
+  public void testScriptsDoNotShareImages() throws IOException {
+    Files.writeString(workingDir.resolve("first.txt"),
+            "load " + Paths.get("test_images/paris-test.ppm").toAbsolutePath() + " img\n");
+    Files.writeString(workingDir.resolve("second.txt"), "brighten 10 img img-bright\n");
+
+    StringWriter out = new StringWriter();
+    ScriptClient.run(portFile, workingDir, "first.txt", out);
+    ScriptClient.run(portFile, workingDir, "second.txt", out);
+    assertTrue(out.toString(), out.toString().contains("Image Not Found: img"));
+  }
+
+  @Test
+  public void testRequestWithWrongTokenIsRefused() throws IOException {
+    String port = Files.readString(portFile).split(" ")[0];
+    Path forged = workingDir.resolve("forged.port");
+    Files.writeString(forged, port + " 0123\n");
+
+    StringWriter out = new StringWriter();
+    ScriptClient.run(forged, workingDir, "script.txt", out);
+    assertEquals("Request refused.\n", out.toString());
+  }
+}
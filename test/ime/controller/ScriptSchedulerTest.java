@@ -0,0 +1,168 @@
+package ime.controller;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Set;
+
+import ime.model.ExtendedImageProcessorImpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class to test the ScriptScheduler.
+ */
+public class ScriptSchedulerTest {
+
+  @Test
+  public void testDependencies() {
+    ScriptPlan plan = new ScriptPlan(List.of(
+            "load test_images/paris-test.ppm paris",
+            "brighten 10 paris paris-bright",
+            "blur paris paris-blur",
+            "sepia paris-bright paris-sepia",
+            "brighten 5 paris paris",
+            "save out.ppm paris"));
+    ScriptScheduler scheduler = new ScriptScheduler(plan, 4, false);
+
+    assertEquals(Set.of(), scheduler.getDependencies(0));
+    assertEquals(Set.of(0), scheduler.getDependencies(1));
+    assertEquals(Set.of(0), scheduler.getDependencies(2));
+    assertEquals(Set.of(1), scheduler.getDependencies(3));
+    assertEquals(Set.of(0, 1, 2), scheduler.getDependencies(4));
+    assertEquals(Set.of(4), scheduler.getDependencies(5));
+  }
+
+  @Test
+  public void testFileDependencies() {
+    ScriptPlan plan = new ScriptPlan(List.of(
+            "load test_images/paris-test.ppm paris",
+            "save out/b.ppm paris",
+            "load out/../out/b.ppm copy",
+            "load test_images/paris-test.ppm other",
+            "save out/b.ppm other",
+            "run missing-script.txt",
+            "blur other other-blur"));
+    ScriptScheduler scheduler = new ScriptScheduler(plan, 4, false);
+
+    assertEquals(Set.of(0), scheduler.getDependencies(1));
+    assertEquals(Set.of(1), scheduler.getDependencies(2));
+    assertEquals(Set.of(), scheduler.getDependencies(3));
+    assertEquals(Set.of(1, 2, 3), scheduler.getDependencies(4));
+    assertEquals(Set.of(0, 1, 2, 3, 4), scheduler.getDependencies(5));
+    assertEquals(Set.of(3, 5), scheduler.getDependencies(6));
+  }
+
+  @Test
+  public void testParallelScriptLoadsFileItSaved() throws IOException {
+    Path dir = Files.createTempDirectory("scheduler");
+    String a = dir.resolve("a.ppm").toString();
+    String b = dir.resolve("b.ppm").toString();
+    String c = dir.resolve("c.ppm").toString();
+    String script = "load test_images/paris-test.ppm a\n"
+            + "save " + a + " a\n"
+            + "load " + a + " a2\n"
+            + "brighten 10 a2 b\n"
+            + "save " + b + " b\n"
+            + "load " + b + " c\n"
+            + "save " + c + " c\n";
+    StringWriter out = new StringWriter();
+    new ImageController(new StringReader(script), out, false, 8)
+            .execute(new ExtendedImageProcessorImpl());
+
+    assertEquals(7, out.toString().split("Command performed").length - 1);
+    assertTrue(Files.exists(Paths.get(c)));
+  }
+
+  @Test
+  public void testParallelScriptKeepsOrderAndSkipsDependents() throws IOException {
+    String script = "load test_images/paris-test.ppm paris\n"
+            + "horizontal-flip paris paris-h\n"
+            + "brighten 10 missing paris-m\n"
+            + "vertical-flip paris-m paris-mv\n"
+            + "red-component paris paris-red\n"
+            + "blur paris-red paris-red-blur\n";
+    StringWriter out = new StringWriter();
+    ImageController controller = new ImageController(new StringReader(script), out, false, 4);
+    controller.execute(new ExtendedImageProcessorImpl());
+
+    assertEquals("Command performed: load test_images/paris-test.ppm paris\n"
+            + "Command performed: horizontal-flip paris paris-h\n"
+            + "Image Not Found: missing\n"
+            + "Command skipped: vertical-flip paris-m paris-mv\n"
+            + "Command performed: red-component paris paris-red\n"
+            + "Command performed: blur paris-red paris-red-blur\n", out.toString());
+  }
+
+  @Test
+  public void testParallelScriptMatchesSequentialOutput() throws IOException {
+    StringBuilder script = new StringBuilder("load test_images/paris-test.ppm paris\n");
+    for (String command : new String[]{"sepia", "blur", "sharpen", "luma-component",
+        "value-component", "intensity-component", "red-component", "color-correct"}) {
+      script.append(command).append(" paris paris-").append(command).append("\n");
+      script.append("horizontal-flip paris-").append(command).append(" paris-")
+              .append(command).append("\n");
+    }
+    script.append("rgb-combine paris-rgb paris-sepia paris-blur paris-sharpen\n");
+
+    StringWriter sequential = new StringWriter();
+    new ImageController(new StringReader(script.toString()), sequential, true)
+            .execute(new ExtendedImageProcessorImpl());
+    StringWriter parallel = new StringWriter();
+    new ImageController(new StringReader(script.toString()), parallel, true, 4)
+            .execute(new ExtendedImageProcessorImpl());
+
+    assertEquals(sequential.toString(), parallel.toString());
+  }
+
+  @Test
+  public void testErrorInStepFailsItWithoutHangingTheScript() throws IOException {
+    String script = "load test_images/paris-test.ppm paris\n"
+            + "blur paris paris-blur\n"
+            + "horizontal-flip paris-blur paris-blur-h\n"
+            + "sepia paris paris-sepia\n";
+    ExtendedImageProcessorImpl processor = new ExtendedImageProcessorImpl() {
+      @Override
+      public void blur(String[] args) {
+        throw new OutOfMemoryError("Java heap space");
+      }
+    };
+    StringWriter out = new StringWriter();
+    new ImageController(new StringReader(script), out, false, 4).execute(processor);
+
+    assertEquals("Command performed: load test_images/paris-test.ppm paris\n"
+            + "java.lang.OutOfMemoryError: Java heap space\n"
+            + "Command skipped: horizontal-flip paris-blur paris-blur-h\n"
+            + "Command performed: sepia paris paris-sepia\n", out.toString());
+  }
+
+  @Test
+  public void testRepeatedStepsReuseCachedResults() throws IOException {
+    String script = "load test_images/paris-test.ppm paris\n"
+            + "compress 50 paris paris-a\n"
+            + "compress 50.0 paris paris-b\n"
+            + "blur paris paris-c --roi 0 0 2 2\n"
+            + "blur paris paris-d --roi 0 0 2 2\n"
+            + "blur paris paris-e\n";
+    ExtendedImageProcessorImpl processor = new ExtendedImageProcessorImpl();
+    processor.getResultCache().setEnabled(true);
+    StringWriter out = new StringWriter();
+    new ImageController(new StringReader(script), out).execute(processor);
+
+    assertEquals(6, out.toString().split("Command performed").length - 1);
+    assertEquals(2, processor.getResultCache().getHits());
+    assertEquals(3, processor.getResultCache().getMisses());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidThreads() {
+    new ImageController(new StringReader(""), new StringWriter(), false, 0);
+  }
+}
@@ -0,0 +1,86 @@
+package ime.controller;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class to test the ShardCoordinator.
+ */
+public class ShardCoordinatorTest {
+
+  private static final List<String> TEMPLATE = List.of(
+          "load {input} img",
+          "horizontal-flip img img-flip",
+          "save {output} img-flip");
+
+  private static Path inputDir(int files) throws IOException {
+    Path input = Files.createTempDirectory("shard-in");
+    for (int k = 0; k < files; k++) {
+      Files.copy(Paths.get("test_images/paris-test.ppm"), input.resolve("paris-" + k + ".ppm"));
+    }
+    return input;
+  }
+
+  @Test
+  public void testShardedBatchMergesResults() throws IOException {
+    Path input = inputDir(4);
+    Files.writeString(input.resolve("broken.ppm"), "P3\n2 2\n255\n1 2");
+    Path output = input.resolveSibling(input.getFileName() + "-out");
+
+    StringWriter out = new StringWriter();
+    ShardCoordinator coordinator = new ShardCoordinator(TEMPLATE, 2, List.of());
+    BatchRunner.BatchReport report = coordinator.run(input, output, out);
+
+    assertEquals(4, report.getSucceeded());
+    assertEquals(1, report.getFailed());
+    assertEquals(0, coordinator.getWorkerDeaths());
+    for (int k = 0; k < 4; k++) {
+      assertTrue(Files.exists(output.resolve("paris-" + k + ".ppm")));
+    }
+    assertTrue(out.toString(), out.toString().contains("Failed: "
+            + input.resolve("broken.ppm").toAbsolutePath() + ": load"));
+    assertTrue(out.toString().contains("Workers: 2 launched, 0 died, 0 files reassigned"));
+  }
+
+  @Test
+  public void testFilesOfDeadWorkerAreReassigned() throws Exception {
+    Path input = inputDir(8);
+    Path output = input.resolveSibling(input.getFileName() + "-out");
+    ShardCoordinator coordinator = new ShardCoordinator(TEMPLATE, 2, List.of());
+
+    AtomicReference<BatchRunner.BatchReport> report = new AtomicReference<>();
+    Thread batch = new Thread(() -> {
+      try {
+        report.set(coordinator.run(input, output, new StringWriter()));
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    batch.start();
+    long deadline = System.currentTimeMillis() + 60000;
+    while (coordinator.getCompletedCount() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    coordinator.getWorkerProcesses().get(0).destroyForcibly().waitFor();
+    batch.join(120000);
+
+    assertEquals(8, report.get().getSucceeded());
+    assertEquals(0, report.get().getFailed());
+    assertEquals(1, coordinator.getWorkerDeaths());
+    assertEquals(1, coordinator.getReassignedCount());
+    assertEquals(3, coordinator.getWorkerProcesses().size());
+    for (int k = 0; k < 8; k++) {
+      assertTrue(Files.exists(output.resolve("paris-" + k + ".ppm")));
+    }
+  }
+}
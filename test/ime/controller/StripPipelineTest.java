@@ -0,0 +1,111 @@
+package ime.controller;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import ime.controller.commands.Load;
+import ime.controller.helpers.image.PPMRowReader;
+import ime.controller.helpers.image.PPMRowWriter;
+import ime.model.ExtendedImageProcessorImpl;
+import ime.model.image.ImageModel;
+import ime.model.image.PixelModel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class to test the StripPipeline.
+ */
+public class StripPipelineTest {
+
+  private static final String SOURCE = "test_images/paris-test.ppm";
+
+  /**
+   * Applies a pipeline to the whole image with the usual commands.
+   */
+  private static ImageModel runLocally(List<String> pipeline) throws IOException {
+    ExtendedImageProcessorImpl processor = new ExtendedImageProcessorImpl();
+    Load.apply(new String[]{SOURCE, "img"}).process(processor);
+    for (String line : pipeline) {
+      Pipeline.apply(line.split(" "), "img", processor);
+    }
+    return processor.getRegistry().get("img");
+  }
+
+  private static byte[] row(ImageModel image, int i) {
+    byte[] row = new byte[3 * image.getWidth()];
+    for (int j = 0; j < image.getWidth(); j++) {
+      PixelModel pixel = image.getPixelValues(i, j);
+      row[3 * j] = (byte) pixel.getR();
+      row[3 * j + 1] = (byte) pixel.getG();
+      row[3 * j + 2] = (byte) pixel.getB();
+    }
+    return row;
+  }
+
+  private static void assertSameRows(ImageModel expected, Path actual) throws IOException {
+    try (PPMRowReader reader = new PPMRowReader(actual)) {
+      assertEquals(expected.getHeight(), reader.getHeight());
+      assertEquals(expected.getWidth(), reader.getWidth());
+      byte[] row = new byte[3 * reader.getWidth()];
+      for (int i = 0; i < reader.getHeight(); i++) {
+        reader.readRow(row);
+        assertArrayEquals(row(expected, i), row);
+      }
+    }
+  }
+
+  @Test
+  public void testRowLocalPipelineStreamsInStrips() throws IOException {
+    List<String> pipeline = List.of("sharpen", "blur", "brighten 10", "horizontal-flip",
+            "sepia");
+    Path output = Files.createTempFile("strip", ".ppm");
+    StripPipeline strips = new StripPipeline(pipeline);
+    StringWriter out = new StringWriter();
+
+    strips.run(Path.of(SOURCE), output, out);
+
+    assertTrue(strips.getMaterializations().isEmpty());
+    assertTrue(strips.getPeakBufferedRows() < 324);
+    assertTrue(Files.readString(output).startsWith("P3"));
+    assertSameRows(runLocally(pipeline), output);
+    assertFalse(out.toString().contains("Materialized"));
+  }
+
+  @Test
+  public void testWholeImageCommandsAreMaterialized() throws IOException {
+    // Convert the test image to a raw PPM file.
+    Path input = Files.createTempFile("strip", ".ppm");
+    try (PPMRowReader reader = new PPMRowReader(Path.of(SOURCE));
+         PPMRowWriter writer = new PPMRowWriter(input, reader.getWidth(), reader.getHeight(),
+                 true)) {
+      byte[] row = new byte[3 * reader.getWidth()];
+      for (int i = 0; i < reader.getHeight(); i++) {
+        reader.readRow(row);
+        writer.writeRow(row);
+      }
+    }
+    List<String> pipeline = List.of("blur", "vertical-flip", "color-correct", "sharpen");
+    Path output = Files.createTempFile("strip", ".ppm");
+    StripPipeline strips = new StripPipeline(pipeline);
+    StringWriter out = new StringWriter();
+
+    strips.run(input, output, out);
+
+    assertEquals(List.of("Materialized the whole image for vertical-flip (step 2).",
+            "Materialized the whole image for color-correct (step 3)."),
+            strips.getMaterializations());
+    assertTrue(out.toString().contains("Materialized the whole image for vertical-flip"));
+    try (PPMRowReader reader = new PPMRowReader(output)) {
+      assertTrue(reader.isBinary());
+    }
+    assertSameRows(runLocally(pipeline), output);
+  }
+}
@@ -0,0 +1,86 @@
+package ime.controller;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.InputMismatchException;
+import java.util.List;
+
+import ime.controller.commands.Load;
+import ime.model.ExtendedImageProcessorImpl;
+import ime.model.image.ImageModel;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * A Junit test class to test the TileCoordinator.
+ */
+public class TileCoordinatorTest {
+
+  /**
+   * Applies a pipeline in a single process with the usual commands.
+   */
+  private static ImageModel runLocally(List<String> pipeline) throws IOException {
+    ExtendedImageProcessorImpl processor = new ExtendedImageProcessorImpl();
+    Load.apply(new String[]{"test_images/paris-test.ppm", "img"}).process(processor);
+    for (String line : pipeline) {
+      String[] step = line.split(" ");
+      String[] args = new String[step.length + 1];
+      System.arraycopy(step, 1, args, 0, step.length - 1);
+      args[step.length - 1] = "img";
+      args[step.length] = "img";
+      ImageController.getImageProcessorCommand().get(step[0]).apply(args).process(processor);
+    }
+    return processor.getRegistry().get("img");
+  }
+
+  private static ImageModel source() throws IOException {
+    ExtendedImageProcessorImpl processor = new ExtendedImageProcessorImpl();
+    Load.apply(new String[]{"test_images/paris-test.ppm", "img"}).process(processor);
+    return processor.getRegistry().get("img");
+  }
+
+  private static void assertSamePixels(ImageModel expected, ImageModel actual) {
+    assertEquals(expected.getHeight(), actual.getHeight());
+    assertEquals(expected.getWidth(), actual.getWidth());
+    for (int i = 0; i < expected.getHeight(); i++) {
+      for (int j = 0; j < expected.getWidth(); j++) {
+        String at = "pixel " + i + "," + j;
+        assertEquals(at, expected.getPixelValues(i, j).getR(), actual.getPixelValues(i, j).getR());
+        assertEquals(at, expected.getPixelValues(i, j).getG(), actual.getPixelValues(i, j).getG());
+        assertEquals(at, expected.getPixelValues(i, j).getB(), actual.getPixelValues(i, j).getB());
+      }
+    }
+  }
+
+  @Test
+  public void testTiledPipelineMatchesSingleProcess() throws IOException {
+    List<String> pipeline = List.of("sharpen", "blur", "brighten 10", "horizontal-flip",
+            "color-correct", "levels-adjust 20 100 255", "vertical-flip", "sharpen");
+    TileCoordinator coordinator = new TileCoordinator(pipeline, 3, 37, List.of());
+
+    ImageModel tiled = coordinator.run(source());
+
+    assertEquals(5, coordinator.getHalo());
+    assertEquals(12 * 9, coordinator.getTileCount());
+    assertSamePixels(runLocally(pipeline), tiled);
+  }
+
+  @Test
+  public void testTiledHistogramMatchesSingleProcess() throws IOException {
+    List<String> pipeline = List.of("blur", "sepia", "histogram");
+    TileCoordinator coordinator = new TileCoordinator(pipeline, 2, 100, List.of());
+
+    assertSamePixels(runLocally(pipeline), coordinator.run(source()));
+  }
+
+  @Test(expected = InputMismatchException.class)
+  public void testCommandsAcrossTheWholeImageAreRejected() {
+    new TileCoordinator(List.of("blur", "compress 50"), 2, 100, List.of());
+  }
+
+  @Test(expected = InputMismatchException.class)
+  public void testHistogramMustBeLast() {
+    new TileCoordinator(List.of("histogram", "blur"), 2, 100, List.of());
+  }
+}
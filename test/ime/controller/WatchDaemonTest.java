@@ -0,0 +1,84 @@
+package ime.controller;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class to test the WatchDaemon.
+ */
+public class WatchDaemonTest {
+
+  private static final List<String> TEMPLATE = List.of(
+          "load {input} img",
+          "vertical-flip img img-flip",
+          "save {output} img-flip");
+
+  @Test
+  public void testDaemonProcessesNewFilesAndResumes() throws IOException, InterruptedException {
+    Path input = Files.createTempDirectory("watch-in");
+    Path output = input.resolveSibling(input.getFileName() + "-out");
+    Path source = Paths.get("test_images/paris-test.ppm");
+    Files.copy(source, input.resolve("early.ppm"));
+
+    StringWriter out = new StringWriter();
+    WatchDaemon daemon = new WatchDaemon(TEMPLATE, input, output, 2, 4, 50, out);
+    daemon.start();
+    for (int k = 0; k < 3; k++) {
+      Files.copy(source, input.resolve("paris-" + k + ".ppm"));
+    }
+    Files.writeString(input.resolve("broken.ppm"), "P3\n2 2\n255\n1 2");
+    waitFor(() -> daemon.getProcessedCount() + daemon.getFailedCount() == 5);
+    daemon.close();
+
+    assertEquals(4, daemon.getProcessedCount());
+    assertEquals(1, daemon.getFailedCount());
+    assertEquals(0, daemon.getQueueDepth());
+    assertTrue(daemon.getMaxLatencyMillis() >= daemon.getAverageLatencyMillis());
+    assertTrue(Files.exists(output.resolve("early.ppm")));
+    for (int k = 0; k < 3; k++) {
+      assertTrue(Files.exists(output.resolve("paris-" + k + ".ppm")));
+    }
+    assertFalse(Files.exists(output.resolve("broken.ppm")));
+    assertEquals(5, Files.readAllLines(output.resolve(WatchDaemon.JOURNAL)).size());
+    assertTrue(out.toString().contains("Failed: broken.ppm: load"));
+
+    // A restarted daemon only processes the file dropped while it was down.
+    Files.copy(source, input.resolve("late.ppm"));
+    WatchDaemon restarted = new WatchDaemon(TEMPLATE, input, output, 2, 4, 50, out);
+    restarted.start();
+    waitFor(() -> restarted.getProcessedCount() == 1);
+    Thread.sleep(200);
+    restarted.close();
+
+    assertEquals(1, restarted.getProcessedCount());
+    assertEquals(0, restarted.getFailedCount());
+    assertTrue(Files.exists(output.resolve("late.ppm")));
+    assertEquals(6, Files.readAllLines(output.resolve(WatchDaemon.JOURNAL)).size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidQueueCapacity() {
+    new WatchDaemon(TEMPLATE, Paths.get("."), Paths.get("."), 2, 0, 50, new StringWriter());
+  }
+
+  /**
+   * Waits up to 20 seconds for a condition to hold.
+   */
+  private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 20000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+  }
+}
@@ -3,14 +3,45 @@ package ime.model;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.InputMismatchException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 
+import javax.imageio.ImageIO;
+
+import ime.controller.commands.Load;
+import ime.controller.commands.Save;
 import ime.controller.helpers.image.ImageHelperFactory;
 import ime.controller.helpers.image.ImageHelperFactoryImpl;
+import ime.model.image.GreyImage;
+import ime.model.image.ImageFingerprint;
+import ime.model.image.ImageHistogram;
+import ime.model.image.ImageModel;
+import ime.model.image.MappedImage;
+import ime.model.image.PixelModel;
+import ime.model.image.RGBImage;
+import ime.model.image.Region;
+import ime.model.image.TiledImage;
+import ime.model.store.ImageRegistry;
+import ime.model.store.ResultCache;
+import ime.utils.ImageMetrics;
+import ime.utils.ImageProcessorUtil;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -163,4 +194,790 @@ public class ExtendedImageProcessorImplTest {
     assertNotNull(processor.getImage("paris-histo"));
   }
 
+  @Test
+  public void testTiledCompressWithSingleTileMatchesWholeImage() {
+    StringBuilder sb = new StringBuilder("8 8 255\n");
+    for (int k = 0; k < 64; k++) {
+      sb.append((k * 37) % 256).append(" ").append((k * 11) % 256).append(" ")
+              .append((k * 5 + 40) % 256).append("\n");
+    }
+    processor.load("square", new ByteArrayInputStream(sb.toString().getBytes()));
+
+    processor.compress(60, "square", "square-whole");
+    processor.compress(60, "square", "square-tiled", 8, true);
+
+    assertEquals(processor.getImage("square-whole"), processor.getImage("square-tiled"));
+  }
+
+  @Test
+  public void testTiledCompressIsMeasurableAgainstWholeImage() {
+    processor.compress(80, "paris", "paris-whole");
+    processor.compress(80, "paris", "paris-global", 64, false);
+    processor.compress(80, "paris", "paris-block", 64, true);
+
+    ImageModel source = processor.getImage("paris");
+    ImageModel whole = processor.getImage("paris-whole");
+    ImageModel global = processor.getImage("paris-global");
+    ImageModel block = processor.getImage("paris-block");
+    assertEquals(source.getHeight(), global.getHeight());
+    assertEquals(source.getWidth(), global.getWidth());
+
+    // With the threshold of the whole image, tiles keep more detail than the whole-image mode.
+    double wholePsnr = ImageMetrics.psnr(source, whole);
+    assertTrue(wholePsnr > 20);
+    assertTrue(ImageMetrics.psnr(source, global) > wholePsnr);
+    assertTrue(ImageMetrics.psnr(source, block) > wholePsnr);
+
+    // Dropping coarse coefficients of the whole-image transform leaves steps on the 64-pixel grid,
+    // which tiles of 64 pixels do not have, while thresholds chosen per tile differ across tile
+    // edges and make the grid visible again.
+    double sourceBlockiness = ImageMetrics.blockiness(source, 64);
+    double wholeBlockiness = ImageMetrics.blockiness(whole, 64);
+    double globalBlockiness = ImageMetrics.blockiness(global, 64);
+    double blockBlockiness = ImageMetrics.blockiness(block, 64);
+    assertTrue(wholeBlockiness > sourceBlockiness * 1.1);
+    assertTrue(globalBlockiness < wholeBlockiness);
+    assertTrue(blockBlockiness > globalBlockiness * 1.1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTiledCompressInvalidTileSize() {
+    processor.compress(50, "paris", "paris-tiled", 100, true);
+  }
+
+  @Test
+  public void testLumaChromaCompressWithoutLossIsExact() {
+    processor.compressLumaChroma(0, 0, false, "paris", "paris-ycocg");
+
+    assertEquals(processor.getImage("paris"), processor.getImage("paris-ycocg"));
+  }
+
+  @Test
+  public void testLumaChromaCompressWithSubsampledChroma() {
+    processor.compressLumaChroma(50, 90, true, "paris", "paris-ycocg");
+    ImageModel source = processor.getImage("paris");
+    ImageModel compressed = processor.getImage("paris-ycocg");
+
+    assertEquals(source.getHeight(), compressed.getHeight());
+    assertEquals(source.getWidth(), compressed.getWidth());
+    assertTrue(ImageMetrics.psnr(source, compressed) > 25);
+  }
+
+  @Test
+  public void testHistogramIsComputedOnceAndCached() {
+    ImageModel image = processor.getImage("paris");
+    ImageHistogram histogram = image.getHistogram();
+
+    assertSame(histogram, image.getHistogram());
+    assertSame(histogram, processor.getImageModelV2(image).getHistogram());
+
+    int[][] expected = new int[3][256];
+    for (int i = 0; i < image.getHeight(); i++) {
+      for (int j = 0; j < image.getWidth(); j++) {
+        PixelModel pixel = image.getPixelValues(i, j);
+        expected[0][pixel.getR()]++;
+        expected[1][pixel.getG()]++;
+        expected[2][pixel.getB()]++;
+      }
+    }
+    int[][] actual = histogram.getFrequencies();
+    for (int c = 0; c < 3; c++) {
+      for (int k = 0; k < 256; k++) {
+        assertEquals(expected[c][k], actual[c][k]);
+      }
+    }
+  }
+
+  @Test
+  public void testLookupOperationsDeriveHistogramWithoutRescan() {
+    processor.getImage("paris").getHistogram();
+
+    String[] levelsArgs = {"20", "100", "255", "paris", "paris-adjust"};
+    processor.levelsAdjust(levelsArgs);
+    processor.brighten("paris", "paris-bright", 40);
+    processor.redComponent(new String[]{"paris", "paris-red"});
+    processor.colorCorrect(new String[]{"paris", "paris-cc"});
+
+    for (String name : new String[]{"paris-adjust", "paris-bright", "paris-red", "paris-cc"}) {
+      ImageModel image = processor.getImage(name);
+      assertTrue(name, image instanceof GreyImage ? ((GreyImage) image).hasHistogram()
+              : ((RGBImage) image).hasHistogram());
+      int[][] derived = image.getHistogram().getFrequencies();
+      int[][] scanned = ImageHistogram.of(image).getFrequencies();
+      for (int c = 0; c < 3; c++) {
+        for (int k = 0; k < 256; k++) {
+          assertEquals(scanned[c][k], derived[c][k]);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSampledHistogramStaysWithinErrorBound() {
+    ImageModel image = processor.getImage("paris");
+    long pixels = (long) image.getHeight() * image.getWidth();
+    ImageHistogram sampled = ImageHistogram.sample(image, 10000);
+    int[][] exact = ImageHistogram.of(image).getFrequencies();
+
+    assertFalse(sampled.isExact());
+    assertTrue(sampled.getSampleCount() >= 10000);
+    for (int c = 0; c < 3; c++) {
+      for (int k = 0; k < 256; k++) {
+        double error = Math.abs(sampled.getFrequency(c, k) - exact[c][k]) / (double) pixels;
+        assertTrue(error <= sampled.getErrorBound());
+      }
+    }
+  }
+
+  @Test
+  public void testSampledHistogramForColorCorrectAndHistogram() {
+    processor.setHistogramSampling(20000);
+    processor.colorCorrect(new String[]{"paris", "paris-cc"});
+    processor.histogram("paris", "paris-histo");
+
+    assertFalse(processor.getImage("paris").getHistogram(20000).isExact());
+    assertNotNull(processor.getImage("paris-cc"));
+    assertEquals(255, processor.getImage("paris-histo").getWidth());
+  }
+
+  @Test
+  public void testConcurrentUseOfSharedProcessor() throws Exception {
+    ImageModel source = processor.getImage("paris");
+    processor.brighten("paris", "paris-bright", 40);
+    processor.horizontalFlip("paris", "paris-h");
+    processor.redComponent(new String[]{"paris", "paris-red"});
+    List<ImageModel> candidates = List.of(processor.getImage("paris-bright"),
+            processor.getImage("paris-h"), processor.getImage("paris-red"));
+
+    ExtendedImageProcessorImpl shared = new ExtendedImageProcessorImpl(
+            processor.getRegistry().getResidentBytes());
+    shared.getRegistry().setCompressAfter(0);
+    shared.putImage("paris", source);
+    shared.putImage("shared", source);
+
+    int threads = 8;
+    int rounds = 20;
+    CountDownLatch start = new CountDownLatch(1);
+    ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      int id = t;
+      Thread worker = new Thread(() -> {
+        try {
+          start.await();
+          for (int k = 0; k < rounds; k++) {
+            switch ((id + k) % 4) {
+              case 0:
+                shared.brighten("paris", "shared", 40);
+                break;
+              case 1:
+                shared.horizontalFlip("paris", "shared");
+                break;
+              case 2:
+                shared.redComponent(new String[]{"paris", "shared"});
+                break;
+              default:
+                ImageModel seen = shared.getImage("shared");
+                if (!seen.equals(source) && !candidates.contains(seen)) {
+                  throw new AssertionError("Torn image under the shared name.");
+                }
+            }
+            shared.brighten("paris", "own-" + id, 40);
+            if (!candidates.get(0).equals(shared.getImage("own-" + id))) {
+              throw new AssertionError("Image of thread " + id + " was corrupted.");
+            }
+          }
+        } catch (Throwable e) {
+          errors.add(e);
+        }
+      });
+      workers.add(worker);
+      worker.start();
+    }
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+
+    assertTrue(errors.toString(), errors.isEmpty());
+    assertEquals(source, shared.getImage("paris"));
+    assertEquals(threads + 2, shared.getRegistry().getResidentCount()
+            + shared.getRegistry().getSpilledCount());
+    assertTrue(shared.getRegistry().getSpillCount() > 0);
+  }
+
+  @Test
+  public void testOffHeapImagesMatchHeapImages() throws IOException {
+    ExtendedImageProcessorImpl mapped = new ExtendedImageProcessorImpl();
+    mapped.setOffHeapThreshold(0);
+    mapped.load("paris", factory.getImageHelper(filepath).readImage(filepath));
+    assertTrue(mapped.getImage("paris") instanceof MappedImage);
+
+    for (ExtendedImageProcessorImpl p : List.of(processor, mapped)) {
+      p.sharpen(new String[]{"paris", "sharp"});
+      p.blur(new String[]{"sharp", "blur"});
+      p.sepia(new String[]{"blur", "sepia"});
+      p.lumaGreyscale(new String[]{"paris", "luma"});
+      p.brighten("paris", "bright", -30);
+      p.horizontalFlip("bright", "flip");
+      p.verticalFlip("flip", "flip");
+      p.colorCorrect(new String[]{"flip", "cc"});
+      p.levelsAdjust(new String[]{"20", "100", "255", "cc", "levels"});
+      p.histogram("levels", "histogram");
+    }
+
+    for (String name : List.of("sharp", "blur", "sepia", "luma", "bright", "flip", "cc",
+            "levels", "histogram")) {
+      ImageModel expected = processor.getImage(name);
+      ImageModel actual = mapped.getImage(name);
+      if (!name.equals("histogram")) {
+        assertTrue(name, actual instanceof MappedImage);
+      }
+      assertEquals(name, expected.getHeight(), actual.getHeight());
+      assertEquals(name, expected.getWidth(), actual.getWidth());
+      for (int i = 0; i < expected.getHeight(); i++) {
+        for (int j = 0; j < expected.getWidth(); j++) {
+          assertEquals(name, expected.getPixelValues(i, j), actual.getPixelValues(i, j));
+        }
+      }
+    }
+    assertEquals(processor.getImage("levels").getHistogram().getFrequencies()[1][40],
+            mapped.getImage("levels").getHistogram().getFrequencies()[1][40]);
+  }
+
+  @Test
+  public void testOffHeapPpmFilesAreStreamed() throws IOException {
+    ExtendedImageProcessorImpl mapped = new ExtendedImageProcessorImpl();
+    mapped.setOffHeapThreshold(0);
+    Load.apply(new String[]{filepath, "paris"}).process(mapped);
+    assertTrue(mapped.getImage("paris") instanceof MappedImage);
+    assertEquals(processor.getImage("paris"), mapped.getImage("paris"));
+
+    File streamed = File.createTempFile("ime-streamed", ".ppm");
+    File whole = File.createTempFile("ime-whole", ".ppm");
+    try {
+      Save.apply(new String[]{streamed.getPath(), "paris"}).process(mapped);
+      Save.apply(new String[]{whole.getPath(), "paris"}).process(processor);
+      assertEquals(new String(Files.readAllBytes(whole.toPath())),
+              new String(Files.readAllBytes(streamed.toPath())));
+    } finally {
+      streamed.delete();
+      whole.delete();
+    }
+  }
+
+  @Test
+  public void testReplacedOffHeapImagesAreUnmapped() throws IOException {
+    ExtendedImageProcessorImpl mapped = new ExtendedImageProcessorImpl();
+    mapped.setOffHeapThreshold(0);
+    mapped.setInPlace(true);
+    mapped.load("paris", factory.getImageHelper(filepath).readImage(filepath));
+    MappedImage loaded = (MappedImage) mapped.getImage("paris");
+
+    mapped.brighten("paris", "bright", 10);
+    assertFalse(loaded.isDisposed());
+    MappedImage bright = (MappedImage) mapped.getImage("bright");
+    mapped.brighten("bright", "bright", 10);
+    assertTrue(bright.isDisposed());
+    MappedImage brighter = (MappedImage) mapped.getImage("bright");
+    mapped.release("bright");
+    assertTrue(brighter.isDisposed());
+
+    mapped.setInPlace(false);
+    mapped.brighten("paris", "paris", 10);
+    assertFalse(loaded.isDisposed());
+    assertEquals(processor.getImage("paris").getPixelValues(3, 4), loaded.getPixelValues(3, 4));
+  }
+
+  @Test
+  public void testMappedImageTileAccessor() throws IOException {
+    MappedImage image = MappedImage.copyOf(processor.getImage("paris"));
+    byte[] tile = new byte[3 * 4 * 5];
+    image.readTile(10, 20, 4, 5, tile);
+
+    PixelModel pixel = processor.getImage("paris").getPixelValues(13, 24);
+    int at = 3 * (3 * 5 + 4);
+    assertEquals(pixel.getR(), tile[at] & 0xff);
+    assertEquals(pixel.getG(), tile[at + 1] & 0xff);
+    assertEquals(pixel.getB(), tile[at + 2] & 0xff);
+    assertEquals(processor.getImage("paris").getPixelValues(5, 7), image.getPixelValues(5, 7));
+  }
+
+  @Test
+  public void testSplitSharesUnchangedTiles() {
+    processor.sepia(new String[]{"paris", "sepia"});
+    processor.sepia(new String[]{"paris", "split", "split", "50"});
+    ImageModel original = processor.getImage("paris");
+    ImageModel sepia = processor.getImage("sepia");
+    ImageModel split = processor.getImage("split");
+    assertTrue(split instanceof TiledImage);
+    for (int i = 0; i < split.getHeight(); i++) {
+      for (int j = 0; j < split.getWidth(); j++) {
+        ImageModel expected = j <= 216 ? sepia : original;
+        assertEquals(expected.getPixelValues(i, j), split.getPixelValues(i, j));
+      }
+    }
+
+    // Splitting a tiled image shares the tiles right of the split line with it.
+    processor.blur(new String[]{"split", "blur-split", "split", "25"});
+    TiledImage tiled = (TiledImage) split;
+    TiledImage blurred = (TiledImage) processor.getImage("blur-split");
+    assertEquals(42, tiled.getTileCount());
+    assertEquals(30, blurred.getSharedTileCount(tiled));
+    assertEquals(original.getPixelValues(100, 300), blurred.getPixelValues(100, 300));
+
+    TiledImage copy = tiled.copy();
+    assertEquals(42, copy.getSharedTileCount(tiled));
+    assertEquals(tiled, copy);
+    assertEquals(tiled.hashCode(), copy.hashCode());
+    assertFalse(tiled.equals(blurred));
+  }
+
+  @Test
+  public void testRegionOfInterestMatchesWholeImage() throws IOException {
+    processor.sharpen(new String[]{"paris", "sharp"});
+    processor.levelsAdjust(new String[]{"20", "100", "255", "paris", "levels"});
+    Region region = new Region(100, 50, 130, 70);
+    processor.applyToRegion(region, 2, "paris", "sharp-roi",
+        p -> p.sharpen(new String[]{"paris", "sharp-roi"}));
+    processor.applyToRegion(new Region(0, 0, 432, 10), 0, "paris", "levels-roi",
+        p -> p.levelsAdjust(new String[]{"20", "100", "255", "paris", "levels-roi"}));
+
+    ImageModel original = processor.getImage("paris");
+    ImageModel sharp = processor.getImage("sharp");
+    ImageModel sharpRegion = processor.getImage("sharp-roi");
+    for (int i = 0; i < original.getHeight(); i++) {
+      for (int j = 0; j < original.getWidth(); j++) {
+        boolean inside = j >= 100 && j < 230 && i >= 50 && i < 120;
+        assertEquals((inside ? sharp : original).getPixelValues(i, j),
+                sharpRegion.getPixelValues(i, j));
+        assertEquals((i < 10 ? processor.getImage("levels") : original).getPixelValues(i, j),
+                processor.getImage("levels-roi").getPixelValues(i, j));
+      }
+    }
+  }
+
+  @Test
+  public void testSplitOnlyComputesTheSplitColumns() {
+    processor.blur(new String[]{"paris", "blur"});
+    processor.blur(new String[]{"paris", "blur-split", "split", "30"});
+    ImageModel blur = processor.getImage("blur");
+    ImageModel split = processor.getImage("blur-split");
+    int lastColumn = (int) (432 * 0.3f);
+    for (int i = 0; i < split.getHeight(); i++) {
+      for (int j = 0; j < split.getWidth(); j++) {
+        ImageModel expected = j <= lastColumn ? blur : processor.getImage("paris");
+        assertEquals(expected.getPixelValues(i, j), split.getPixelValues(i, j));
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRegionOutsideOfTheImage() throws IOException {
+    processor.applyToRegion(new Region(400, 0, 40, 10), 1, "paris", "out",
+        p -> p.blur(new String[]{"paris", "out"}));
+  }
+
+  /**
+   * Applies the same commands to an image, storing every result under the name of the image.
+   */
+  private static void editInPlace(ExtendedImageProcessorImpl p, String name) {
+    p.brighten(name, name, 20);
+    p.horizontalFlip(name, name);
+    p.sepia(new String[]{name, name});
+    p.blur(new String[]{name, name});
+    p.blur(new String[]{name, name});
+    p.verticalFlip(name, name);
+    p.colorCorrect(new String[]{name, name});
+    p.levelsAdjust(new String[]{"20", "100", "255", name, name});
+    p.compress(50, name, name);
+    p.redComponent(new String[]{name, name});
+  }
+
+  @Test
+  public void testInPlaceExecutionMatchesNewImages() throws IOException {
+    ExtendedImageProcessorImpl inPlace = new ExtendedImageProcessorImpl();
+    inPlace.setInPlace(true);
+    inPlace.load("paris", factory.getImageHelper(filepath).readImage(filepath));
+
+    editInPlace(processor, "paris");
+    editInPlace(inPlace, "paris");
+
+    assertEquals(processor.getImage("paris"), inPlace.getImage("paris"));
+    assertEquals(6, inPlace.getInPlaceCount());
+    assertEquals(0, processor.getInPlaceCount());
+    // The second blur and the compression reuse the grids of the images they replaced.
+    assertEquals(2, inPlace.getRasterPool().getHits());
+    assertEquals(0, processor.getRasterPool().getHits());
+    assertTrue(inPlace.getRasterPool().getMisses() > 0);
+  }
+
+  @Test
+  public void testInPlaceExecutionKeepsOtherImages() {
+    processor.setInPlace(true);
+    processor.brighten("paris", "bright", 10);
+    ImageModel bright = processor.getImage("bright");
+    PixelModel before = bright.getPixelValues(0, 0);
+    processor.brighten("paris", "paris", 10);
+    processor.horizontalFlip("paris", "paris");
+
+    assertSame(bright, processor.getImage("bright"));
+    assertEquals(before, bright.getPixelValues(0, 0));
+    assertEquals(bright.getPixelValues(0, 431), processor.getImage("paris")
+            .getPixelValues(0, 0));
+
+    // An image stored by someone else is never changed in place.
+    ImageModel external = processor.getImage("bright");
+    processor.getRegistry().put("external", external);
+    processor.verticalFlip("external", "external");
+    assertEquals(before, external.getPixelValues(0, 0));
+    assertEquals(1, processor.getInPlaceCount());
+  }
+
+  @Test
+  public void testInPlaceExecutionLetsTheHeapBudgetFreeImages() throws IOException,
+          InterruptedException {
+    long imageBytes = processor.getRegistry().getResidentBytes();
+    ExtendedImageProcessorImpl budgeted = new ExtendedImageProcessorImpl(imageBytes * 3 / 2);
+    budgeted.setInPlace(true);
+    budgeted.load("paris", factory.getImageHelper(filepath).readImage(filepath));
+    WeakReference<ImageModel> loaded = new WeakReference<>(budgeted.getImage("paris"));
+
+    // Storing a second image spills the least recently used one.
+    budgeted.brighten("paris", "bright", 10);
+    assertEquals(1, budgeted.getRegistry().getSpilledCount());
+    for (int k = 0; k < 50 && loaded.get() != null; k++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertNull(loaded.get());
+
+    // The reloaded image is not owned, so the first edit creates an image the second one edits.
+    for (ExtendedImageProcessorImpl p : List.of(processor, budgeted)) {
+      p.brighten("paris", "paris", 10);
+      p.horizontalFlip("paris", "paris");
+    }
+    assertEquals(processor.getImage("paris"), budgeted.getImage("paris"));
+    assertEquals(1, budgeted.getInPlaceCount());
+  }
+
+  /**
+   * Asserts that two images have the same size and the same pixels, whatever their type.
+   */
+  private static void assertSamePixels(ImageModel expected, ImageModel actual) {
+    assertEquals(expected.getHeight(), actual.getHeight());
+    assertEquals(expected.getWidth(), actual.getWidth());
+    for (int i = 0; i < expected.getHeight(); i++) {
+      for (int j = 0; j < expected.getWidth(); j++) {
+        assertEquals(expected.getPixelValues(i, j), actual.getPixelValues(i, j));
+      }
+    }
+  }
+
+  @Test
+  public void testComponentsAreSingleChannelImages() {
+    ImageModel paris = processor.getImage("paris");
+    processor.rgbSplit("paris", "red", "green", "blue");
+    processor.lumaGreyscale(new String[]{"paris", "luma"});
+    processor.valueGreyscale(new String[]{"paris", "value"});
+    processor.intensityGreyscale(new String[]{"paris", "intensity"});
+
+    String[] names = {"red", "green", "blue", "luma", "value", "intensity"};
+    GreyImage.Channel[] channels = {GreyImage.Channel.RED, GreyImage.Channel.GREEN,
+        GreyImage.Channel.BLUE, GreyImage.Channel.GREY, GreyImage.Channel.GREY,
+        GreyImage.Channel.GREY};
+    for (int k = 0; k < names.length; k++) {
+      ImageModel image = processor.getImage(names[k]);
+      assertTrue(image instanceof GreyImage);
+      assertEquals(channels[k], ((GreyImage) image).getChannel());
+    }
+
+    PixelModel pixel = paris.getPixelValues(3, 5);
+    assertEquals(pixel.getR(), processor.getImage("red").getPixelValues(3, 5).getR());
+    assertEquals(0, processor.getImage("red").getPixelValues(3, 5).getG());
+    assertEquals(pixel.getB(), processor.getImage("blue").getPixelValues(3, 5).getB());
+    assertEquals(Math.max(pixel.getR(), Math.max(pixel.getG(), pixel.getB())),
+            processor.getImage("value").getPixelValues(3, 5).getG());
+
+    // Combining reads the right channel of each component.
+    processor.rgbCombine("red", "green", "blue", "combined");
+    assertEquals(paris, processor.getImage("combined"));
+  }
+
+  @Test
+  public void testGreyImageOperationsMatchRgbImages() throws IOException {
+    processor.lumaGreyscale(new String[]{"paris", "luma"});
+    processor.greenComponent(new String[]{"paris", "green"});
+    for (String name : new String[]{"luma", "green"}) {
+      ImageModel grey = processor.getImage(name);
+      ImageModel rgb = new RGBImage(grey.getHeight(), grey.getWidth(), grey.getPixels());
+      processor.load(name + "-rgb", new ByteArrayInputStream(
+              processor.save(name).toString().getBytes()));
+
+      assertSamePixels(rgb.horizontalFlip(), grey.horizontalFlip());
+      assertSamePixels(rgb.verticalFlip(), grey.verticalFlip());
+      assertSamePixels(rgb.filter(ImageProcessorUtil.BLUR_KERNEL),
+              grey.filter(ImageProcessorUtil.BLUR_KERNEL));
+      assertSamePixels(rgb.filter(ImageProcessorUtil.SHARPEN_KERNEL),
+              grey.filter(ImageProcessorUtil.SHARPEN_KERNEL));
+      assertTrue(grey.filter(ImageProcessorUtil.BLUR_KERNEL) instanceof GreyImage);
+
+      processor.brighten(name, name + "-bright", 30);
+      processor.brighten(name + "-rgb", name + "-rgb-bright", 30);
+      assertSamePixels(processor.getImage(name + "-rgb-bright"),
+              processor.getImage(name + "-bright"));
+      processor.sepia(new String[]{name, name + "-sepia"});
+      processor.sepia(new String[]{name + "-rgb", name + "-rgb-sepia"});
+      assertSamePixels(processor.getImage(name + "-rgb-sepia"),
+              processor.getImage(name + "-sepia"));
+      processor.levelsAdjust(new String[]{"20", "100", "255", name, name + "-levels"});
+      processor.levelsAdjust(new String[]{"20", "100", "255", name + "-rgb",
+          name + "-rgb-levels"});
+      assertSamePixels(processor.getImage(name + "-rgb-levels"),
+              processor.getImage(name + "-levels"));
+
+      int[][] expected = ImageHistogram.of(rgb).getFrequencies();
+      int[][] actual = grey.getHistogram().getFrequencies();
+      for (int c = 0; c < 3; c++) {
+        for (int k = 0; k < 256; k++) {
+          assertEquals(expected[c][k], actual[c][k]);
+        }
+      }
+    }
+    // Brightening the luma keeps one channel, the sepia tone of the green does not.
+    assertTrue(processor.getImage("luma-bright") instanceof GreyImage);
+    assertTrue(processor.getImage("green-sepia") instanceof RGBImage);
+  }
+
+  @Test
+  public void testGreyImagesSaveAsGreyscaleFiles() throws IOException {
+    processor.lumaGreyscale(new String[]{"paris", "luma"});
+    File png = File.createTempFile("ime-grey", ".png");
+    File pgm = File.createTempFile("ime-grey", ".pgm");
+    png.deleteOnExit();
+    pgm.deleteOnExit();
+    try {
+      factory.getImageHelper(png.getPath()).saveImage(processor.save("luma"), png.getPath());
+      factory.getImageHelper(pgm.getPath()).saveImage(processor.save("luma"), pgm.getPath());
+
+      assertEquals(BufferedImage.TYPE_BYTE_GRAY, ImageIO.read(png).getType());
+      processor.load("luma-png", factory.getImageHelper(png.getPath())
+              .readImage(png.getPath()));
+      processor.load("luma-pgm", factory.getImageHelper(pgm.getPath())
+              .readImage(pgm.getPath()));
+      assertSamePixels(processor.getImage("luma"), processor.getImage("luma-png"));
+      assertSamePixels(processor.getImage("luma"), processor.getImage("luma-pgm"));
+
+      // Colored images keep being saved as RGB.
+      factory.getImageHelper(png.getPath()).saveImage(processor.save("paris"), png.getPath());
+      assertEquals(BufferedImage.TYPE_3BYTE_BGR, ImageIO.read(png).getType());
+    } finally {
+      png.delete();
+      pgm.delete();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testColoredImageCannotBeSavedAsPgm() throws IOException {
+    processor.redComponent(new String[]{"paris", "red"});
+    File pgm = File.createTempFile("ime-red", ".pgm");
+    pgm.deleteOnExit();
+    try {
+      factory.getImageHelper(pgm.getPath()).saveImage(processor.save("red"), pgm.getPath());
+    } finally {
+      pgm.delete();
+    }
+  }
+
+  @Test
+  public void testGreyImagesStayGreyWhenSpilledOrCompressed() {
+    processor.lumaGreyscale(new String[]{"paris", "luma"});
+    processor.blueComponent(new String[]{"paris", "blue"});
+    ImageModel luma = processor.getImage("luma");
+    ImageModel blue = processor.getImage("blue");
+
+    ImageRegistry spilling = new ImageRegistry(1);
+    spilling.put("luma", luma);
+    spilling.put("blue", blue);
+    assertEquals(1, spilling.getSpilledCount());
+    assertEquals(9 + (long) luma.getHeight() * luma.getWidth(), spilling.getSpilledBytes());
+    assertEquals(luma, spilling.get("luma"));
+    assertEquals(blue, spilling.get("blue"));
+
+    ImageRegistry compressing = new ImageRegistry();
+    compressing.put("luma", luma);
+    compressing.put("blue", blue);
+    compressing.put("paris", processor.getImage("paris"));
+    compressing.setCompressAfter(0);
+    assertEquals(2, compressing.getCompressedCount());
+    assertEquals(luma, compressing.get("luma"));
+    assertEquals(blue, compressing.get("blue"));
+  }
+
+  @Test
+  public void testSinglePassSplitAndCombineMatchComponents() {
+    processor.rgbSplit("paris", "red", "green", "blue");
+    processor.redComponent(new String[]{"paris", "paris-red"});
+    processor.greenComponent(new String[]{"paris", "paris-green"});
+    processor.blueComponent(new String[]{"paris", "paris-blue"});
+    assertEquals(processor.getImage("paris-red"), processor.getImage("red"));
+    assertEquals(processor.getImage("paris-green"), processor.getImage("green"));
+    assertEquals(processor.getImage("paris-blue"), processor.getImage("blue"));
+
+    // Sources of any type give their own channel.
+    processor.lumaGreyscale(new String[]{"paris", "luma"});
+    processor.rgbCombine("paris", "luma", "red", "mixed");
+    ImageModel paris = processor.getImage("paris");
+    ImageModel luma = processor.getImage("luma");
+    ImageModel mixed = processor.getImage("mixed");
+    for (int i = 0; i < paris.getHeight(); i++) {
+      for (int j = 0; j < paris.getWidth(); j++) {
+        PixelModel pixel = mixed.getPixelValues(i, j);
+        assertEquals(paris.getPixelValues(i, j).getR(), pixel.getR());
+        assertEquals(luma.getPixelValues(i, j).getG(), pixel.getG());
+        assertEquals(0, pixel.getB());
+      }
+    }
+  }
+
+  @Test
+  public void testFingerprintsIdentifyContentAcrossTypes() throws IOException {
+    ImageModel paris = processor.getImage("paris");
+    ImageModel tiled = TiledImage.of(paris);
+    ImageModel mapped = MappedImage.copyOf(paris);
+    ImageModel rgb = new RGBImage(paris.getHeight(), paris.getWidth(), paris.getPixels());
+    assertEquals(paris.getFingerprint(), ImageFingerprint.of(paris));
+    for (ImageModel copy : List.of(tiled, mapped, rgb)) {
+      assertEquals(paris.getFingerprint(), copy.getFingerprint());
+      assertEquals(paris.hashCode(), copy.hashCode());
+      assertEquals(paris, copy);
+      assertEquals(copy, paris);
+    }
+
+    processor.lumaGreyscale(new String[]{"paris", "luma"});
+    ImageModel luma = processor.getImage("luma");
+    ImageModel lumaRgb = new RGBImage(luma.getHeight(), luma.getWidth(), luma.getPixels());
+    assertEquals(luma.getFingerprint(), lumaRgb.getFingerprint());
+    assertEquals(lumaRgb, luma);
+
+    processor.brighten("paris", "bright", 1);
+    ImageModel bright = processor.getImage("bright");
+    assertTrue(bright.getFingerprint() != paris.getFingerprint());
+    assertFalse(paris.equals(bright));
+    assertFalse(mapped.equals(bright));
+    assertFalse(luma.equals(paris));
+  }
+
+  @Test
+  public void testInPlaceEditsRefreshTheFingerprint() {
+    processor.setInPlace(true);
+    processor.brighten("paris", "edited", 0);
+    ImageModel edited = processor.getImage("edited");
+    long before = edited.getFingerprint();
+
+    processor.horizontalFlip("edited", "edited");
+    assertSame(edited, processor.getImage("edited"));
+    assertTrue(before != edited.getFingerprint());
+    assertEquals(ImageFingerprint.of(edited), edited.getFingerprint());
+
+    processor.horizontalFlip("paris", "paris-flip");
+    assertEquals(processor.getImage("paris-flip"), edited);
+  }
+
+  @Test
+  public void testResultCacheReusesResultsForEqualContent() throws IOException {
+    ResultCache cache = processor.getResultCache();
+    assertFalse(cache.isEnabled());
+    cache.setEnabled(true);
+    processor.load("copy", factory.getImageHelper(filepath).readImage(filepath));
+    int[] runs = {0};
+
+    processor.memoize("brighten", List.of("50"), "paris", "bright", p -> {
+      runs[0]++;
+      p.brighten("paris", "bright", 50);
+    });
+    processor.memoize("brighten", List.of("50.0"), "copy", "copy-bright", p -> {
+      runs[0]++;
+      p.brighten("copy", "copy-bright", 50);
+    });
+
+    assertEquals(1, runs[0]);
+    assertSame(processor.getImage("bright"), processor.getImage("copy-bright"));
+    processor.brighten("paris", "expected", 50);
+    assertEquals(processor.getImage("expected"), processor.getImage("copy-bright"));
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+    assertEquals(0.5, cache.getHitRate(), 1e-9);
+
+    processor.memoize("brighten", List.of("60"), "paris", "brighter", p -> {
+      runs[0]++;
+      p.brighten("paris", "brighter", 60);
+    });
+    assertEquals(2, runs[0]);
+    assertEquals(2, cache.getEntryCount());
+  }
+
+  @Test
+  public void testResultCacheCanBeDisabledAndEvictsLeastRecentlyUsed() throws IOException {
+    ResultCache cache = processor.getResultCache();
+    int[] runs = {0};
+    for (int k = 0; k < 2; k++) {
+      processor.memoize("blur", List.of(), "paris", "blurred", p -> {
+        runs[0]++;
+        p.blur(new String[]{"paris", "blurred"});
+      });
+    }
+    assertEquals(2, runs[0]);
+    assertEquals(0, cache.getHits() + cache.getMisses());
+
+    cache.setEnabled(true);
+    processor.memoize("blur", List.of(), "paris", "blurred", p -> p.blur(
+            new String[]{"paris", "blurred"}));
+    cache.setCapacity(cache.getBytes());
+    processor.memoize("sharpen", List.of(), "paris", "sharp", p -> p.sharpen(
+            new String[]{"paris", "sharp"}));
+    assertEquals(1, cache.getEntryCount());
+    assertEquals(1, cache.getEvictions());
+
+    cache.setEnabled(false);
+    assertEquals(0, cache.getEntryCount());
+    assertEquals(0, cache.getBytes());
+  }
+
+  @Test
+  public void testResultCacheConfirmsHitsAgainstTheSource() {
+    ResultCache cache = new ResultCache();
+    ImageModel source = processor.getImage("paris");
+    processor.horizontalFlip("paris", "flipped");
+    ImageModel flipped = processor.getImage("flipped");
+    ResultCache.Key key = ResultCache.key(source, "horizontal-flip");
+    cache.put(key, source, flipped);
+
+    // A key whose fingerprint collided would point another image at the same entry.
+    assertSame(flipped, cache.get(key, source));
+    assertNull(cache.get(key, flipped));
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+    assertTrue(cache.getBytes() > 0);
+    assertFalse(key.equals(ResultCache.key(flipped, "horizontal-flip")));
+  }
+
+  @Test
+  public void testCachedResultsAreNeverEditedInPlace() throws IOException {
+    processor.setInPlace(true);
+    processor.getResultCache().setEnabled(true);
+    processor.memoize("brighten", List.of("20"), "paris", "bright",
+            p -> p.brighten("paris", "bright", 20));
+    ImageModel cached = processor.getImage("bright");
+    long fingerprint = cached.getFingerprint();
+
+    processor.brighten("bright", "bright", 30);
+    assertEquals(0, processor.getInPlaceCount());
+    assertEquals(fingerprint, cached.getFingerprint());
+    assertEquals(ImageFingerprint.of(cached), fingerprint);
+
+    processor.memoize("brighten", List.of("20"), "paris", "again",
+            p -> fail("The cached result should be reused."));
+    assertSame(cached, processor.getImage("again"));
+  }
 }
@@ -15,6 +15,7 @@ import ime.controller.helpers.image.ImageHelperFactoryImpl;
 import ime.model.image.ImageModel;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -370,4 +371,71 @@ public class ImageProcessorImplTest {
     }
   }
 
+  @Test
+  public void testBudgetedRegistrySpillsAndReloads() throws IOException {
+    long imageBytes = processor.getRegistry().getResidentBytes();
+    ImageProcessorImpl budgeted = new ImageProcessorImpl(imageBytes * 3 / 2);
+    budgeted.load("paris", factory.getImageHelper(filePath).readImage(filePath));
+    budgeted.horizontalFlip("paris", "paris-h");
+    budgeted.verticalFlip("paris-h", "paris-hv");
+
+    assertTrue(budgeted.getRegistry().getResidentBytes() <= imageBytes * 3 / 2);
+    assertEquals(2, budgeted.getRegistry().getSpilledCount());
+    assertEquals(2 * (8 + 3L * image.getHeight() * image.getWidth()),
+            budgeted.getRegistry().getSpilledBytes());
+
+    assertEquals(image, budgeted.getImage("paris"));
+    assertEquals(1, budgeted.getRegistry().getReloadCount());
+    processor.horizontalFlip("paris", "paris-h");
+    assertEquals(processor.getImage("paris-h"), budgeted.getImage("paris-h"));
+    assertEquals(3, budgeted.getRegistry().getResidentCount()
+            + budgeted.getRegistry().getSpilledCount());
+  }
+
+  @Test
+  public void testUnboundedRegistryNeverSpills() {
+    processor.horizontalFlip("paris", "paris-h");
+    processor.verticalFlip("paris", "paris-v");
+    assertEquals(3, processor.getRegistry().getResidentCount());
+    assertEquals(0, processor.getRegistry().getSpilledBytes());
+    assertEquals(0, processor.getRegistry().getSpillCount());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidHeapBudget() {
+    new ImageProcessorImpl(0);
+  }
+
+  @Test
+  public void testIdleImagesAreCompressedLosslessly() {
+    processor.redComponent(new String[]{"paris", "paris-red"});
+    processor.blur(new String[]{"paris", "paris-blur"});
+    ImageModel red = processor.getImage("paris-red");
+    ImageModel blur = processor.getImage("paris-blur");
+    long rawBytes = processor.getRegistry().getResidentBytes();
+
+    processor.getRegistry().setCompressAfter(0);
+    assertEquals(2, processor.getRegistry().getCompressedCount());
+    assertTrue(processor.getRegistry().getResidentBytes() < rawBytes * 2 / 3);
+    assertTrue(processor.getRegistry().getCompressionRatio() > 2);
+
+    assertEquals(red, processor.getImage("paris-red"));
+    assertEquals(blur, processor.getImage("paris-blur"));
+    assertEquals(image, processor.getImage("paris"));
+    assertTrue(processor.getRegistry().getDecodeCount() >= 2);
+    assertTrue(processor.getRegistry().getAverageDecodeNanos() > 0);
+
+    processor.getRegistry().setCompressAfter(-1);
+    assertEquals(0, processor.getRegistry().getCompressedCount());
+    assertEquals(rawBytes, processor.getRegistry().getResidentBytes());
+  }
+
+  @Test
+  public void testRecentlyUsedImagesStayDecoded() {
+    processor.getRegistry().setCompressAfter(60_000);
+    processor.horizontalFlip("paris", "paris-h");
+    assertEquals(0, processor.getRegistry().getCompressedCount());
+    assertEquals(1, processor.getRegistry().getCompressionRatio(), 0);
+  }
+
 }
@@ -7,6 +7,9 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.List;
+
+import ime.model.image.Region;
 
 import static org.junit.Assert.assertEquals;
 
@@ -155,6 +158,22 @@ public class ViewModelImplTest {
               .append(destImgName).append("\n");
     }
 
+    @Override
+    public void compress(double percentage, String imgName, String destImgName, int tileSize,
+                         boolean perTileThreshold) {
+      sb.append("Command: ").append(percentage).append(" ").append(imgName).append(" ")
+              .append(destImgName).append(" tile ").append(tileSize).append(" ")
+              .append(perTileThreshold ? "block" : "global").append("\n");
+    }
+
+    @Override
+    public void compressLumaChroma(double lumaPercentage, double chromaPercentage,
+                                   boolean subsampleChroma, String imgName, String destImgName) {
+      sb.append("Command: ").append(lumaPercentage).append(" ").append(imgName).append(" ")
+              .append(destImgName).append(" ycocg ").append(chromaPercentage)
+              .append(subsampleChroma ? " subsample" : "").append("\n");
+    }
+
     @Override
     public void histogram(String imgName, String destImgName) {
       sb.append("Command: ").append(imgName).append(" ").append(destImgName).append("\n");
@@ -164,5 +183,43 @@ public class ViewModelImplTest {
     public void levelsAdjust(String[] args) {
       sb.append("Command: ").append(String.join(" ",args)).append("\n");
     }
+
+    @Override
+    public void setHistogramSampling(long targetSamples) {
+      // Sampling does not change the commands issued to the model.
+    }
+
+    @Override
+    public void applyToRegion(Region region, int halo, String imgName, String destImgName,
+                              RegionOperation operation) throws IOException {
+      operation.apply(this);
+    }
+
+    @Override
+    public boolean loadOffHeap(String imgName, int height, int width, RowReader rows) {
+      return false;
+    }
+
+    @Override
+    public boolean saveOffHeap(String imgName, RowTarget target) {
+      return false;
+    }
+
+    @Override
+    public void memoize(String operation, List<String> params, String imgName,
+                        String destImgName, RegionOperation command) throws IOException {
+      command.apply(this);
+    }
+
+    @Override
+    public void loadFile(String imgName, String imgPath, RegionOperation load)
+            throws IOException {
+      load.apply(this);
+    }
+
+    @Override
+    public void release(String imgName) {
+      // Releasing does not change the commands issued to the model.
+    }
   }
 }